@@ -1,6 +1,7 @@
 package com.timeyang.athena;
 
 import com.timeyang.athena.message.MessageServer;
+import com.timeyang.athena.message.TaskLogTopic;
 import com.timeyang.athena.task.TaskManager;
 import com.timeyang.athena.task.TaskManagerImpl;
 import com.timeyang.athena.util.Asserts;
@@ -48,8 +49,10 @@ public class Athena {
         if (!conf.disabled("webServer"))
             this.webServer = new AthenaWebServer(athenaConf);
         if (!conf.disabled("messageServer"))
-            this.messageServer = new MessageServer(
-                    this.conf.getMessageHost(), athenaConf.getMessagePort(), false);
+            this.messageServer = new MessageServer(this.conf.getMessageHost(), athenaConf.getMessagePort(),
+                    false, athenaConf.getMessageSubscriberBufferSize());
+        if (this.taskManager != null && this.messageServer != null)
+            this.messageServer.registerTopic(TaskLogTopic.PREFIX, new TaskLogTopic(this.taskManager));
     }
 
     public AthenaConf athenaConf() {
@@ -73,6 +73,13 @@ public class AthenaConf implements Serializable {
         return Integer.valueOf(this.settings.get("message.port"));
     }
 
+    /**
+     * messages buffered for each topic subscriber, oldest messages are dropped when subscriber can't keep up
+     */
+    public Integer getMessageSubscriberBufferSize() {
+        return Integer.valueOf(this.settings.getOrDefault("message.subscriber.bufferSize", "1000"));
+    }
+
     public String getJdbcUrl() {
         return this.settings.get("db.jdbc.url");
     }
@@ -120,6 +127,242 @@ public class AthenaConf implements Serializable {
         return Long.valueOf(this.settings.get("task.retryWait"));
     }
 
+    /**
+     * interval in seconds of the waiting_task recovery sweep. Newly submitted tasks are dispatched
+     * immediately, the sweep only picks up tasks which missed the in-memory dispatch queue
+     */
+    public long getTaskScheduleSweepInterval() {
+        return Long.valueOf(this.settings.getOrDefault("task.schedule.sweepInterval", "30"));
+    }
+
+    /**
+     * weights of task queues as {@code queue:weight,...}, waiting tasks of queues are scheduled in proportion to
+     * weights, queues not listed have weight 1
+     */
+    public String getTaskQueueWeights() {
+        return this.settings.getOrDefault("task.queue.weights", "default:1");
+    }
+
+    /**
+     * threads of launch pipeline placement stage, which chooses task host and saves it
+     */
+    public int getTaskLaunchPlacementThreads() {
+        return Integer.valueOf(this.settings.getOrDefault("task.launch.placementThreads", "4"));
+    }
+
+    /**
+     * threads of launch pipeline init stage, which creates tasks and calls their init
+     */
+    public int getTaskLaunchInitThreads() {
+        return Integer.valueOf(this.settings.getOrDefault("task.launch.initThreads", "8"));
+    }
+
+    /**
+     * task processes spawned concurrently by launch pipeline
+     */
+    public int getTaskLaunchSpawnThreads() {
+        return Integer.valueOf(this.settings.getOrDefault("task.launch.spawnThreads", "16"));
+    }
+
+    /**
+     * task processes spawned per second on a host, not limited if not positive
+     */
+    public double getTaskLaunchHostRate() {
+        return Double.valueOf(this.settings.getOrDefault("task.launch.hostRate", "10"));
+    }
+
+    /**
+     * tasks in launch pipeline at most, scheduling blocks when pipeline is full
+     */
+    public int getTaskLaunchQueueSize() {
+        return Integer.valueOf(this.settings.getOrDefault("task.launch.queueSize", "1000"));
+    }
+
+    public boolean isExecutorPoolEnabled() {
+        return Boolean.valueOf(this.settings.getOrDefault("task.executor.pool.enable", "false"));
+    }
+
+    /**
+     * number of idle executor JVMs kept per host and classpath
+     */
+    public int getExecutorPoolSize() {
+        return Integer.valueOf(this.settings.getOrDefault("task.executor.pool.size", "2"));
+    }
+
+    /**
+     * a pooled executor JVM exits after running this many tasks, so that leaked static state and memory are bounded
+     */
+    public int getExecutorPoolMaxTasksPerJvm() {
+        return Integer.valueOf(this.settings.getOrDefault("task.executor.pool.maxTasksPerJvm", "100"));
+    }
+
+    /**
+     * seconds a pooled executor JVM stays idle before it exits
+     */
+    public long getExecutorPoolIdleTimeout() {
+        return Long.valueOf(this.settings.getOrDefault("task.executor.pool.idleTimeout", "600"));
+    }
+
+    /**
+     * whether JAVA_IN_PROCESS tasks are accepted. They run in athena JVM, so only trusted tasks should be enabled
+     */
+    public boolean isInProcessTaskEnabled() {
+        return Boolean.valueOf(this.settings.getOrDefault("task.inProcess.enable", "false"));
+    }
+
+    /**
+     * comma separated classes of JAVA_IN_PROCESS tasks which are accepted, any class if empty
+     */
+    public String getInProcessTaskClasses() {
+        return this.settings.getOrDefault("task.inProcess.classes", "");
+    }
+
+    /**
+     * threads executing JAVA_IN_PROCESS tasks
+     */
+    public int getInProcessTaskThreads() {
+        return Integer.valueOf(this.settings.getOrDefault("task.inProcess.threads", "4"));
+    }
+
+    /**
+     * JAVA_IN_PROCESS tasks queued when all threads are busy, tasks beyond are left in waiting_task
+     */
+    public int getInProcessTaskQueueSize() {
+        return Integer.valueOf(this.settings.getOrDefault("task.inProcess.queueSize", "100"));
+    }
+
+    /**
+     * milliseconds to wait for log lines of a running task
+     */
+    public long getTaskLogQueryTimeout() {
+        return Long.valueOf(this.settings.getOrDefault("task.log.queryTimeout", "10000"));
+    }
+
+    /**
+     * whether TaskExecutor on remote host ships task log to TaskManager while task is running
+     */
+    public boolean isTaskLogShipEnabled() {
+        return Boolean.valueOf(this.settings.getOrDefault("task.log.ship.enable", "true"));
+    }
+
+    /**
+     * milliseconds to wait for grep of a running task log
+     */
+    public long getTaskLogGrepTimeout() {
+        return Long.valueOf(this.settings.getOrDefault("task.log.grepTimeout", "60000"));
+    }
+
+    /**
+     * whether collected task log is compressed to a block archive
+     */
+    public boolean isTaskLogArchiveEnabled() {
+        return Boolean.valueOf(this.settings.getOrDefault("task.log.archive.enable", "true"));
+    }
+
+    /**
+     * raw bytes of a compressed block in task log archive
+     */
+    public int getTaskLogArchiveBlockSize() {
+        return Integer.valueOf(this.settings.getOrDefault("task.log.archive.blockSize", "262144"));
+    }
+
+    /**
+     * whether collected task log is added to log search index
+     */
+    public boolean isTaskLogSearchEnabled() {
+        return Boolean.valueOf(this.settings.getOrDefault("task.log.search.enable", "true"));
+    }
+
+    /**
+     * milliseconds to wait for more task state transitions before committing them in one batch
+     */
+    public long getTaskTransitionBatchDelay() {
+        return Long.valueOf(this.settings.getOrDefault("task.transition.batchDelay", "5"));
+    }
+
+    /**
+     * max task state transitions committed in one batch
+     */
+    public int getTaskTransitionBatchSize() {
+        return Integer.valueOf(this.settings.getOrDefault("task.transition.batchSize", "500"));
+    }
+
+    /**
+     * whether finished tasks older than retention days are moved from finished_task to task archive
+     */
+    public boolean isTaskRetentionEnabled() {
+        return Boolean.valueOf(this.settings.getOrDefault("task.retention.enable", "true"));
+    }
+
+    /**
+     * days a finished task stays in finished_task, and its log stays in log search index
+     */
+    public int getTaskRetentionDays() {
+        return Integer.valueOf(this.settings.getOrDefault("task.retention.days", "30"));
+    }
+
+    /**
+     * interval in seconds of moving expired finished tasks to task archive
+     */
+    public long getTaskRetentionInterval() {
+        return Long.valueOf(this.settings.getOrDefault("task.retention.interval", "3600"));
+    }
+
+    public String getTaskArchiveDir() {
+        return this.settings.getOrDefault("task.archive.dir", "./.local/.archive");
+    }
+
+    /**
+     * task execution hosts, comma separated {@code host[:cpus[:memoryMb]]}. Capacity not given is capacity of
+     * local machine, so remote hosts should declare their capacity
+     */
+    public String getTaskHosts() {
+        return this.settings.getOrDefault("task.hosts", "localhost");
+    }
+
+    /**
+     * SPREAD places a task on host with most free resources, BINPACK on host with least free resources that fits
+     */
+    public String getTaskPlacementStrategy() {
+        return this.settings.getOrDefault("task.placement.strategy", "SPREAD");
+    }
+
+    /**
+     * cpus of a task which doesn't declare {@code __cpus__} in params
+     */
+    public double getTaskDefaultCpus() {
+        return Double.valueOf(this.settings.getOrDefault("task.resource.cpus", "1"));
+    }
+
+    /**
+     * memory in MB of a task which doesn't declare {@code __memory__} in params
+     */
+    public long getTaskDefaultMemory() {
+        return Long.valueOf(this.settings.getOrDefault("task.resource.memory", "512"));
+    }
+
+    /**
+     * milliseconds to wait for a node agent to execute a command
+     */
+    public long getNodeAgentCommandTimeout() {
+        return Long.valueOf(this.settings.getOrDefault("task.agent.commandTimeout", "60000"));
+    }
+
+    /**
+     * secret node agents send in {@link com.timeyang.athena.task.message.TaskMessage.AgentReady}. If empty, host
+     * reported by a node agent must resolve to its connection address instead
+     */
+    public String getNodeAgentSecret() {
+        return this.settings.getOrDefault("task.agent.secret", "");
+    }
+
+    /**
+     * threads launching commands asynchronously, which is the number of task launch commands running at the same time
+     */
+    public int getCmdLaunchThreads() {
+        return Integer.valueOf(this.settings.getOrDefault("cmd.launch.threads", "64"));
+    }
+
     static AthenaConf getDefaultConf() {
         Map<String, String> allConf = new HashMap<>();
 
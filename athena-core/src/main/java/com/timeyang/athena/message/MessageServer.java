@@ -25,6 +25,8 @@ import org.slf4j.LoggerFactory;
 import javax.net.ssl.SSLEngine;
 import javax.net.ssl.SSLException;
 import java.security.cert.CertificateException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Message push service based on WebSocket
@@ -45,10 +47,18 @@ public class MessageServer {
     private final ServerBootstrap bootstrap;
     private SslContext sslCtx;
     private Channel channel;
+    // topic prefix -> provider
+    private final Map<String, TopicProvider> topicProviders = new ConcurrentHashMap<>();
+    private final int subscriberBufferSize;
 
     public MessageServer(String host, int port, boolean enableSsl) {
+        this(host, port, enableSsl, 1000);
+    }
+
+    public MessageServer(String host, int port, boolean enableSsl, int subscriberBufferSize) {
         this.host = host;
         this.port = port;
+        this.subscriberBufferSize = subscriberBufferSize;
 
         if (SystemUtils.IS_LINUX) {
             bossGroup = new EpollEventLoopGroup(1);
@@ -93,7 +103,7 @@ public class MessageServer {
                         pipeline.addLast(new HttpServerCodec());
                         pipeline.addLast(new HttpObjectAggregator(64 * 1024));
                         pipeline.addLast(new WebSocketServerProtocolHandler("/message"));
-                        pipeline.addLast(new TextWebSocketFrameHandler(channelGroup));
+                        pipeline.addLast(new TextWebSocketFrameHandler(channelGroup, MessageServer.this));
                     }
                 });
     }
@@ -114,6 +124,26 @@ public class MessageServer {
         bossGroup.shutdownGracefully();
     }
 
+    /**
+     * Clients subscribe topics starting with prefix by sending {@code subscribe <prefix><name>}
+     */
+    public void registerTopic(String prefix, TopicProvider provider) {
+        topicProviders.put(prefix, provider);
+    }
+
+    TopicProvider getTopicProvider(String topic) {
+        for (Map.Entry<String, TopicProvider> entry : topicProviders.entrySet()) {
+            if (topic.startsWith(entry.getKey())) {
+                return entry.getValue();
+            }
+        }
+        return null;
+    }
+
+    int getSubscriberBufferSize() {
+        return subscriberBufferSize;
+    }
+
     public void push(String message) {
         if (!channelGroup.isEmpty()) {
             workerGroup.execute(
@@ -0,0 +1,100 @@
+package com.timeyang.athena.message;
+
+import io.netty.channel.Channel;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import org.json.JSONObject;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.function.Consumer;
+
+/**
+ * Bounded buffer of messages between a topic and a WebSocket client.
+ * <p>{@link #offer} never blocks. Messages are written on the channel's event loop only while the channel is
+ * writable, when buffer is full the oldest message is dropped, and the client is told how many messages were
+ * dropped, so a slow client can't hold back the topic or exhaust athena memory.</p>
+ * <p>When topic ends, {@link #end} offers the last message, and {@code onEnd} is called on the channel's event loop
+ * once it's written, so that the client can release the sink.</p>
+ *
+ * @author https://github.com/chaokunyang
+ */
+public class MessageSink {
+    private final String topic;
+    private final Channel channel;
+    private final int capacity;
+    private final Consumer<MessageSink> onEnd;
+    private final Deque<String> buffer = new ArrayDeque<>();
+    private long dropped;
+    private boolean draining;
+    private boolean ended;
+
+    MessageSink(String topic, Channel channel, int capacity, Consumer<MessageSink> onEnd) {
+        this.topic = topic;
+        this.channel = channel;
+        this.capacity = capacity;
+        this.onEnd = onEnd;
+    }
+
+    public String getTopic() {
+        return topic;
+    }
+
+    public void offer(String message) {
+        synchronized (this) {
+            if (buffer.size() >= capacity) {
+                buffer.pollFirst();
+                dropped++;
+            }
+            buffer.offerLast(message);
+            if (draining) {
+                return;
+            }
+            draining = true;
+        }
+        channel.eventLoop().execute(this::drain);
+    }
+
+    /**
+     * offer the last message of topic
+     */
+    public void end(String message) {
+        synchronized (this) {
+            ended = true;
+        }
+        offer(message);
+    }
+
+    /**
+     * write buffered messages until buffer is empty or channel isn't writable, called on channel's event loop
+     */
+    void drain() {
+        boolean written = false;
+        boolean drained = false;
+        while (channel.isActive() && channel.isWritable()) {
+            String message;
+            synchronized (this) {
+                if (dropped > 0) {
+                    message = new JSONObject().put("topic", topic).put("dropped", dropped).toString();
+                    dropped = 0;
+                } else {
+                    message = buffer.pollFirst();
+                }
+                if (message == null) {
+                    draining = false;
+                    drained = ended;
+                    break;
+                }
+            }
+            channel.write(new TextWebSocketFrame(message));
+            written = true;
+        }
+        if (written) {
+            channel.flush();
+        }
+        if (drained) {
+            onEnd.accept(this);
+        }
+        // when channel isn't writable, draining stays true and drain is resumed by channelWritabilityChanged
+    }
+
+}
@@ -0,0 +1,75 @@
+package com.timeyang.athena.message;
+
+import com.timeyang.athena.task.TaskManager;
+import com.timeyang.athena.task.exec.LogSubscriber;
+import org.json.JSONObject;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Topic {@code task-log/<taskId>}: log of a running task, as it is written.
+ * <p>Messages are {@code {"topic": topic, "offset": offset, "data": lines}}, and {@code {"topic": topic, "end": true}}
+ * when task finished.</p>
+ *
+ * @author https://github.com/chaokunyang
+ */
+public class TaskLogTopic implements TopicProvider {
+    public static final String PREFIX = "task-log/";
+
+    private final TaskManager taskManager;
+    private final Map<MessageSink, LogSubscriber> subscribers = new ConcurrentHashMap<>();
+
+    public TaskLogTopic(TaskManager taskManager) {
+        this.taskManager = taskManager;
+    }
+
+    @Override
+    public boolean subscribe(String topic, MessageSink sink) {
+        long taskId;
+        try {
+            taskId = Long.parseLong(topic.substring(PREFIX.length()));
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        LogSubscriber subscriber = new SinkLogSubscriber(sink);
+        subscribers.put(sink, subscriber);
+        if (taskManager.subscribeLog(taskId, subscriber)) {
+            return true;
+        }
+        subscribers.remove(sink);
+        return false;
+    }
+
+    @Override
+    public void unsubscribe(String topic, MessageSink sink) {
+        LogSubscriber subscriber = subscribers.remove(sink);
+        if (subscriber != null) {
+            taskManager.unsubscribeLog(Long.parseLong(topic.substring(PREFIX.length())), subscriber);
+        }
+    }
+
+    private class SinkLogSubscriber implements LogSubscriber {
+        private final MessageSink sink;
+
+        SinkLogSubscriber(MessageSink sink) {
+            this.sink = sink;
+        }
+
+        @Override
+        public void onLog(long taskId, long offset, String data) {
+            sink.offer(new JSONObject()
+                    .put("topic", sink.getTopic())
+                    .put("offset", offset)
+                    .put("data", data)
+                    .toString());
+        }
+
+        @Override
+        public void onEnd(long taskId) {
+            subscribers.remove(sink);
+            sink.end(new JSONObject().put("topic", sink.getTopic()).put("end", true).toString());
+        }
+    }
+
+}
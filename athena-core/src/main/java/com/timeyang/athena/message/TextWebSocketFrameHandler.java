@@ -5,16 +5,31 @@ import io.netty.channel.SimpleChannelInboundHandler;
 import io.netty.channel.group.ChannelGroup;
 import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
 import io.netty.handler.codec.http.websocketx.WebSocketServerProtocolHandler;
+import org.json.JSONObject;
+
+import java.util.HashMap;
+import java.util.Map;
 
 /**
+ * Handle a WebSocket client.
+ * <p>Text frames {@code subscribe <topic>} and {@code unsubscribe <topic>} manage topic subscriptions of the client,
+ * subscriptions are released when the topic ends or the client disconnects.</p>
+ *
  * @author https://github.com/chaokunyang
  */
 public class TextWebSocketFrameHandler
         extends SimpleChannelInboundHandler<TextWebSocketFrame> {
+    private static final String SUBSCRIBE = "subscribe ";
+    private static final String UNSUBSCRIBE = "unsubscribe ";
+
     private final ChannelGroup group;
+    private final MessageServer messageServer;
+    // accessed on channel's event loop only
+    private final Map<String, MessageSink> sinks = new HashMap<>();
 
-    public TextWebSocketFrameHandler(ChannelGroup group) {
+    public TextWebSocketFrameHandler(ChannelGroup group, MessageServer messageServer) {
         this.group = group;
+        this.messageServer = messageServer;
     }
 
     @SuppressWarnings("deprecation")
@@ -32,8 +47,50 @@ public class TextWebSocketFrameHandler
     @Override
     public void channelRead0(ChannelHandlerContext ctx,
                              TextWebSocketFrame msg) throws Exception {
-        // group.writeAndFlush(msg.retain()); // for test
-        ctx.writeAndFlush(msg.retain()); // for test
+        String text = msg.text().trim();
+        if (text.startsWith(SUBSCRIBE)) {
+            subscribe(ctx, text.substring(SUBSCRIBE.length()).trim());
+        } else if (text.startsWith(UNSUBSCRIBE)) {
+            String topic = text.substring(UNSUBSCRIBE.length()).trim();
+            MessageSink sink = sinks.remove(topic);
+            if (sink != null) {
+                messageServer.getTopicProvider(topic).unsubscribe(topic, sink);
+            }
+        } else {
+            // group.writeAndFlush(msg.retain()); // for test
+            ctx.writeAndFlush(msg.retain()); // for test
+        }
+    }
+
+    private void subscribe(ChannelHandlerContext ctx, String topic) {
+        if (sinks.containsKey(topic)) {
+            return;
+        }
+        TopicProvider provider = messageServer.getTopicProvider(topic);
+        // ended sink is removed on event loop after its last message is written, so the topic can be subscribed again
+        MessageSink sink = new MessageSink(topic, ctx.channel(), messageServer.getSubscriberBufferSize(),
+                ended -> sinks.remove(topic, ended));
+        if (provider != null && provider.subscribe(topic, sink)) {
+            sinks.put(topic, sink);
+        } else {
+            String error = new JSONObject().put("topic", topic).put("error", "can't subscribe").toString();
+            ctx.writeAndFlush(new TextWebSocketFrame(error));
+        }
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        if (ctx.channel().isWritable()) {
+            sinks.values().forEach(MessageSink::drain);
+        }
+        super.channelWritabilityChanged(ctx);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        sinks.forEach((topic, sink) -> messageServer.getTopicProvider(topic).unsubscribe(topic, sink));
+        sinks.clear();
+        super.channelInactive(ctx);
     }
 
     @Override
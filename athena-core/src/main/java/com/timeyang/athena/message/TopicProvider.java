@@ -0,0 +1,18 @@
+package com.timeyang.athena.message;
+
+/**
+ * Source of messages for topics with a prefix, such as {@code task-log/}
+ *
+ * @author https://github.com/chaokunyang
+ */
+public interface TopicProvider {
+
+    /**
+     * start sending messages of topic to sink
+     * @return false if topic doesn't exist or can't be subscribed now
+     */
+    boolean subscribe(String topic, MessageSink sink);
+
+    void unsubscribe(String topic, MessageSink sink);
+
+}
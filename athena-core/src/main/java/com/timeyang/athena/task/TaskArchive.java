@@ -0,0 +1,298 @@
+package com.timeyang.athena.task;
+
+import com.timeyang.athena.AthenaException;
+import com.timeyang.athena.task.TaskInfo.FinishedTask;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Archive of finished tasks moved out of finished_task.
+ * <p>
+ *     A segment is a gzip JSON-lines file {@code <name>.jsonl.gz} of tasks ordered by task id, with an id index
+ *     {@code <name>.ids}. Every {@link #MEMBER_ROWS} rows are a separate gzip member, so a task is read by inflating
+ *     one member. The index is: magic, count, min task id, max task id, then (task id, member offset) of every task.
+ *     Index is written after data, a segment without index is incomplete and deleted on startup.
+ * </p>
+ *
+ * @author https://github.com/chaokunyang
+ */
+class TaskArchive {
+    private static final Logger LOGGER = LoggerFactory.getLogger(TaskArchive.class);
+    static final String DATA_SUFFIX = ".jsonl.gz";
+    static final String INDEX_SUFFIX = ".ids";
+    private static final int MAGIC = 0x54415231; // TAR1
+    private static final int HEADER_BYTES = 4 + 4 + 8 + 8;
+    private static final int ENTRY_BYTES = 8 + 8;
+    static final int MEMBER_ROWS = 128;
+
+    private final Path dir;
+    private final List<Segment> segments = new CopyOnWriteArrayList<>();
+
+    private static final class Segment {
+        private final Path data;
+        private final Path index;
+        private final int count;
+        private final long minTaskId;
+        private final long maxTaskId;
+
+        private Segment(Path data, Path index, int count, long minTaskId, long maxTaskId) {
+            this.data = data;
+            this.index = index;
+            this.count = count;
+            this.minTaskId = minTaskId;
+            this.maxTaskId = maxTaskId;
+        }
+    }
+
+    TaskArchive(String dir) {
+        this.dir = Paths.get(dir);
+        try {
+            Files.createDirectories(this.dir);
+            try (Stream<Path> files = Files.list(this.dir)) {
+                for (Path path : (Iterable<Path>) files.sorted()::iterator) {
+                    String name = path.getFileName().toString();
+                    if (name.endsWith(DATA_SUFFIX)) {
+                        Path index = indexPath(path);
+                        if (Files.exists(index)) {
+                            segments.add(readSegment(path, index));
+                        } else {
+                            LOGGER.warn("Delete incomplete task archive segment {}", path);
+                            Files.delete(path);
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            throw new AthenaException(String.format("Can't open task archive [%s]", dir), e);
+        }
+        LOGGER.info("Task archive {} has {} segments", dir, segments.size());
+    }
+
+    private static Path indexPath(Path data) {
+        String name = data.getFileName().toString();
+        return data.resolveSibling(name.substring(0, name.length() - DATA_SUFFIX.length()) + INDEX_SUFFIX);
+    }
+
+    private static Segment readSegment(Path data, Path index) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(index)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a task archive index: " + index);
+            }
+            return new Segment(data, index, in.readInt(), in.readLong(), in.readLong());
+        }
+    }
+
+    /**
+     * Write tasks to a new segment, data and index are synced to disk when this returns
+     */
+    void archive(List<FinishedTask> tasks) {
+        if (tasks.isEmpty()) {
+            return;
+        }
+        List<FinishedTask> sorted = new ArrayList<>(tasks);
+        sorted.sort(Comparator.comparing(TaskInfo::getTaskId));
+        String name = String.format("finished-%d-%d", System.currentTimeMillis(), sorted.get(0).getTaskId());
+        Path data = dir.resolve(name + DATA_SUFFIX);
+        Path index = dir.resolve(name + INDEX_SUFFIX);
+        long[] offsets = new long[sorted.size()];
+        try {
+            try (FileOutputStream out = new FileOutputStream(data.toFile())) {
+                OutputStream unclosable = new FilterOutputStream(out) {
+                    @Override
+                    public void write(byte[] b, int off, int len) throws IOException {
+                        out.write(b, off, len);
+                    }
+
+                    @Override
+                    public void close() {
+                    }
+                };
+                for (int start = 0; start < sorted.size(); start += MEMBER_ROWS) {
+                    long offset = out.getChannel().position();
+                    try (Writer writer = new OutputStreamWriter(new GZIPOutputStream(unclosable), StandardCharsets.UTF_8)) {
+                        for (int i = start; i < Math.min(start + MEMBER_ROWS, sorted.size()); i++) {
+                            offsets[i] = offset;
+                            writer.write(toJson(sorted.get(i)).toString());
+                            writer.write('\n');
+                        }
+                    }
+                }
+                out.getFD().sync();
+            }
+
+            Path tmpIndex = dir.resolve(name + INDEX_SUFFIX + ".tmp");
+            try (FileOutputStream fileOut = new FileOutputStream(tmpIndex.toFile());
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut))) {
+                out.writeInt(MAGIC);
+                out.writeInt(sorted.size());
+                out.writeLong(sorted.get(0).getTaskId());
+                out.writeLong(sorted.get(sorted.size() - 1).getTaskId());
+                for (int i = 0; i < sorted.size(); i++) {
+                    out.writeLong(sorted.get(i).getTaskId());
+                    out.writeLong(offsets[i]);
+                }
+                out.flush();
+                fileOut.getFD().sync();
+            }
+            Files.move(tmpIndex, index, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            e.printStackTrace();
+            throw new AthenaException(String.format("Can't write task archive segment [%s]", data), e);
+        }
+        segments.add(new Segment(data, index, sorted.size(), sorted.get(0).getTaskId(),
+                sorted.get(sorted.size() - 1).getTaskId()));
+    }
+
+    /**
+     * @return archived task, null if task isn't archived
+     */
+    FinishedTask getTask(long taskId) {
+        // newer segments first, a task archived again after a crash is in both segments
+        for (int i = segments.size() - 1; i >= 0; i--) {
+            Segment segment = segments.get(i);
+            if (taskId < segment.minTaskId || taskId > segment.maxTaskId) {
+                continue;
+            }
+            try {
+                long offset = findOffset(segment, taskId);
+                if (offset >= 0) {
+                    FinishedTask task = readTask(segment, offset, taskId);
+                    if (task != null) {
+                        return task;
+                    }
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                throw new AthenaException(String.format("Can't read task archive segment [%s]", segment.data), e);
+            }
+        }
+        return null;
+    }
+
+    private static long findOffset(Segment segment, long taskId) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(segment.index.toFile(), "r")) {
+            int low = 0;
+            int high = segment.count - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                file.seek(HEADER_BYTES + (long) mid * ENTRY_BYTES);
+                long id = file.readLong();
+                if (id < taskId) {
+                    low = mid + 1;
+                } else if (id > taskId) {
+                    high = mid - 1;
+                } else {
+                    return file.readLong();
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static FinishedTask readTask(Segment segment, long offset, long taskId) throws IOException {
+        try (FileInputStream in = new FileInputStream(segment.data.toFile())) {
+            in.getChannel().position(offset);
+            BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    new GZIPInputStream(in), StandardCharsets.UTF_8));
+            String line;
+            // rows are ordered by task id
+            while ((line = reader.readLine()) != null) {
+                FinishedTask task = fromJson(new JSONObject(line));
+                if (task.getTaskId() == taskId) {
+                    return task;
+                } else if (task.getTaskId() > taskId) {
+                    return null;
+                }
+            }
+        }
+        return null;
+    }
+
+    static JSONObject toJson(FinishedTask task) {
+        JSONObject json = new JSONObject();
+        json.put("taskId", task.getTaskId());
+        json.put("taskName", task.getTaskName());
+        json.put("taskType", task.getTaskType());
+        json.put("host", task.getHost());
+        json.put("hostFixed", task.isHostFixed());
+        json.put("className", task.getClassName());
+        json.put("libs", task.getLibs());
+        json.put("params", task.getParams());
+        json.put("maxTries", task.getMaxTries());
+        json.put("retryWait", task.getRetryWait());
+        json.put("submitTime", toText(task.getSubmitTime()));
+        json.put("startTime", toText(task.getStartTime()));
+        json.put("endTime", toText(task.getEndTime()));
+        json.put("duration", task.getDuration() != null ? task.getDuration().getSeconds() : null);
+        json.put("state", task.getState());
+        json.put("tryNumber", task.getTryNumber());
+        return json;
+    }
+
+    static FinishedTask fromJson(JSONObject json) {
+        FinishedTask task = new FinishedTask();
+        task.setTaskId(json.getLong("taskId"));
+        task.setTaskName(json.optString("taskName", null));
+        if (json.has("taskType")) {
+            task.setTaskType(TaskType.valueOf(json.getString("taskType")));
+        }
+        task.setHost(json.optString("host", null));
+        task.setHostFixed(json.optBoolean("hostFixed"));
+        task.setClassName(json.optString("className", null));
+        task.setLibs(json.optString("libs", null));
+        task.setParams(json.optString("params", null));
+        if (json.has("maxTries")) {
+            task.setMaxTries(json.getInt("maxTries"));
+        }
+        if (json.has("retryWait")) {
+            task.setRetryWait(json.getLong("retryWait"));
+        }
+        task.setSubmitTime(toInstant(json, "submitTime"));
+        task.setStartTime(toInstant(json, "startTime"));
+        task.setEndTime(toInstant(json, "endTime"));
+        if (json.has("duration")) {
+            task.setDuration(Duration.ofSeconds(json.getLong("duration")));
+        }
+        if (json.has("state")) {
+            task.setState(TaskState.valueOf(json.getString("state")));
+        }
+        if (json.has("tryNumber")) {
+            task.setTryNumber(json.getInt("tryNumber"));
+        }
+        return task;
+    }
+
+    /**
+     * ISO-8601 keeps nanoseconds of database timestamps
+     */
+    private static String toText(Instant instant) {
+        return instant != null ? instant.toString() : null;
+    }
+
+    /**
+     * @return instant of ISO-8601 text, or of epoch millis written by earlier archives
+     */
+    private static Instant toInstant(JSONObject json, String key) {
+        if (!json.has(key)) {
+            return null;
+        }
+        Object value = json.get(key);
+        return value instanceof Number ? Instant.ofEpochMilli(((Number) value).longValue()) : Instant.parse((String) value);
+    }
+
+}
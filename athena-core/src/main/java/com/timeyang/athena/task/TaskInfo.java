@@ -8,6 +8,9 @@ import java.time.Instant;
  */
 
 public abstract class TaskInfo {
+    public static final int DEFAULT_PRIORITY = 0;
+    public static final String DEFAULT_QUEUE = "default";
+
     private Long taskId;
     private String taskName;
     private TaskType taskType;
@@ -33,6 +36,14 @@ public abstract class TaskInfo {
      */
     private Long retryWait;
     private Instant submitTime;
+    /**
+     * tasks of higher priority are scheduled first among waiting tasks of the same queue
+     */
+    private Integer priority;
+    /**
+     * queue of the submitting team, waiting tasks of queues are scheduled by weighted fair share
+     */
+    private String queue;
 
     public Long getTaskId() {
         return taskId;
@@ -122,6 +133,22 @@ public abstract class TaskInfo {
         this.submitTime = submitTime;
     }
 
+    public Integer getPriority() {
+        return priority;
+    }
+
+    public void setPriority(Integer priority) {
+        this.priority = priority;
+    }
+
+    public String getQueue() {
+        return queue;
+    }
+
+    public void setQueue(String queue) {
+        this.queue = queue;
+    }
+
     @Override
     public String toString() {
         return "taskId=" + taskId +
@@ -134,10 +161,31 @@ public abstract class TaskInfo {
                 ", params='" + params + '\'' +
                 ", maxTries=" + maxTries +
                 ", retryWait=" + retryWait +
-                ", submitTime=" + submitTime;
+                ", submitTime=" + submitTime +
+                ", priority=" + priority +
+                ", queue='" + queue + '\'';
     }
 
-    public static final class WaitingTask extends TaskInfo {}
+    public static final class WaitingTask extends TaskInfo {
+
+        public WaitingTask() { }
+
+        public WaitingTask(TaskInfo task) {
+            super.setTaskId(task.getTaskId());
+            super.setTaskName(task.getTaskName());
+            super.setTaskType(task.getTaskType());
+            super.setHost(task.getHost());
+            super.setHostFixed(task.isHostFixed());
+            super.setClassName(task.getClassName());
+            super.setLibs(task.getLibs());
+            super.setParams(task.getParams());
+            super.setMaxTries(task.getMaxTries());
+            super.setRetryWait(task.getRetryWait());
+            super.setSubmitTime(task.getSubmitTime());
+            super.setPriority(task.getPriority());
+            super.setQueue(task.getQueue());
+        }
+    }
 
     public static final class RunningTask extends TaskInfo {
 
@@ -159,6 +207,15 @@ public abstract class TaskInfo {
             super.setMaxTries(task.getMaxTries());
             super.setRetryWait(task.getRetryWait());
             super.setSubmitTime(task.getSubmitTime());
+            super.setPriority(task.getPriority());
+            super.setQueue(task.getQueue());
+        }
+
+        public RunningTask(RunningTask task) {
+            this((TaskInfo) task);
+            this.startTime = task.getStartTime();
+            this.tryNumber = task.getTryNumber();
+            this.pid = task.getPid();
         }
 
         public Instant getStartTime() {
@@ -215,6 +272,8 @@ public abstract class TaskInfo {
             super.setMaxTries(task.getMaxTries());
             super.setRetryWait(task.getRetryWait());
             super.setSubmitTime(task.getSubmitTime());
+            super.setPriority(task.getPriority());
+            super.setQueue(task.getQueue());
         }
 
         public FinishedTask(RunningTask task) {
@@ -229,6 +288,8 @@ public abstract class TaskInfo {
             super.setMaxTries(task.getMaxTries());
             super.setRetryWait(task.getRetryWait());
             super.setSubmitTime(task.getSubmitTime());
+            super.setPriority(task.getPriority());
+            super.setQueue(task.getQueue());
 
             this.startTime = task.getStartTime();
             this.tryNumber = task.getTryNumber();
@@ -3,6 +3,9 @@ package com.timeyang.athena.task;
 import com.timeyang.athena.task.TaskInfo.FinishedTask;
 import com.timeyang.athena.task.TaskInfo.RunningTask;
 import com.timeyang.athena.task.TaskInfo.WaitingTask;
+import com.timeyang.athena.task.exec.LogLine;
+import com.timeyang.athena.task.exec.LogSearchHit;
+import com.timeyang.athena.task.exec.LogSubscriber;
 import com.timeyang.athena.task.exec.TaskFactory;
 import com.timeyang.athena.util.jdbc.Page;
 import com.timeyang.athena.util.jdbc.PagedResult;
@@ -65,7 +68,7 @@ public interface TaskManager {
      */
     long submitTask(TaskInfo task);
 
-    Future killTask(long taskId);
+    Future<?> killTask(long taskId);
 
     boolean isTaskAlive(long taskId);
 
@@ -80,6 +83,46 @@ public interface TaskManager {
      */
     List<String> getLogLines(long taskId, int lineNumber, int rows);
 
+    /**
+     * get the last task logs, without reading the whole log
+     * @param taskId task id
+     * @param rows log rows
+     * @return last log lines, in file order
+     */
+    List<String> getTailLines(long taskId, int rows);
+
+    /**
+     * grep task log, a large log is scanned concurrently by ranges. Log of a running task is scanned by its executor
+     * @param taskId task id
+     * @param regex regular expression, a line matches if it contains a match
+     * @param maxHits max matched lines
+     * @return matched lines with line numbers, in file order
+     * @throws IllegalArgumentException if regex is null or invalid
+     */
+    List<LogLine> grep(long taskId, String regex, int maxHits);
+
+    /**
+     * search logs of finished tasks, lines which contain all words of query are hits.
+     * Log around a hit can be read by {@link #getLogLines(long, int, int)}
+     * @param query words to search, case insensitive
+     * @param from min log collect time, epoch milliseconds
+     * @param to max log collect time, epoch milliseconds
+     * @param taskNamePattern task name with wildcard '*' and '?', null for all tasks
+     * @param limit max hits
+     * @return hits of recently finished tasks first
+     */
+    List<LogSearchHit> searchLog(String query, long from, long to, String taskNamePattern, int limit);
+
+    /**
+     * stream task logs to subscriber while task is running, starting from the last few lines
+     * @param taskId task id
+     * @param subscriber log subscriber, must not block
+     * @return false if task isn't running or its log can't be streamed
+     */
+    boolean subscribeLog(long taskId, LogSubscriber subscriber);
+
+    void unsubscribeLog(long taskId, LogSubscriber subscriber);
+
     TaskInfo getTask(long taskId);
 
     PagedResult<WaitingTask> getWaitingTasks(Page page);
@@ -4,21 +4,28 @@ import com.timeyang.athena.AthenaConf;
 import com.timeyang.athena.task.TaskInfo.FinishedTask;
 import com.timeyang.athena.task.TaskInfo.RunningTask;
 import com.timeyang.athena.task.TaskInfo.WaitingTask;
+import com.timeyang.athena.task.exec.LogLine;
+import com.timeyang.athena.task.exec.LogSearchHit;
+import com.timeyang.athena.task.exec.LogSubscriber;
 import com.timeyang.athena.task.exec.TaskFactory;
 import com.timeyang.athena.task.scheduler.TaskScheduler;
 import com.timeyang.athena.task.scheduler.TaskSchedulerImpl;
 import com.timeyang.athena.util.jdbc.Page;
 import com.timeyang.athena.util.jdbc.PagedResult;
 import com.timeyang.athena.util.ParametersUtils;
+import com.timeyang.athena.util.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.sql.DataSource;
 import java.time.Instant;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.Future;
+import java.util.stream.Collectors;
 
 /**
  * task manager
@@ -29,13 +36,19 @@ public class TaskManagerImpl implements TaskManager {
     private static final Logger LOGGER = LoggerFactory.getLogger(TaskManagerImpl.class);
 
     private final AthenaConf athenaConf;
+    // classes of JAVA_IN_PROCESS tasks which are accepted, any class if empty
+    private final Set<String> inProcessTaskClasses;
     private final TaskRepository taskRepository;
 
     private final TaskScheduler taskScheduler;
 
     public TaskManagerImpl(AthenaConf athenaConf, DataSource dataSource) {
         this.athenaConf = athenaConf;
-        this.taskRepository = new TaskRepository(dataSource);
+        this.inProcessTaskClasses = Arrays.stream(athenaConf.getInProcessTaskClasses().split(","))
+                .map(String::trim)
+                .filter(StringUtils::hasText)
+                .collect(Collectors.toSet());
+        this.taskRepository = new TaskRepository(dataSource, athenaConf);
         this.taskScheduler = new TaskSchedulerImpl(athenaConf, taskRepository);
     }
 
@@ -48,6 +61,7 @@ public class TaskManagerImpl implements TaskManager {
     @Override
     public void stop() {
         taskScheduler.stop();
+        taskRepository.close();
         LOGGER.info("Task manager stopped");
     }
 
@@ -107,13 +121,39 @@ public class TaskManagerImpl implements TaskManager {
             task.setRetryWait(athenaConf.getDefaultTaskRetryWait());
         if (task.getTaskType() == null)
             task.setTaskType(TaskType.JAVA);
+        if (task.getPriority() == null)
+            task.setPriority(TaskInfo.DEFAULT_PRIORITY);
+        if (task.getQueue() == null)
+            task.setQueue(TaskInfo.DEFAULT_QUEUE);
+        checkInProcessTask(task);
         task.setSubmitTime(Instant.now());
 
-        return this.taskRepository.create(task).getTaskId();
+        this.taskRepository.create(task);
+        this.taskScheduler.submit(task);
+        return task.getTaskId();
+    }
+
+    /**
+     * JAVA_IN_PROCESS task runs in athena JVM, it's accepted only if in-process tasks are enabled and its class is
+     * allowed by {@code task.inProcess.classes}
+     */
+    private void checkInProcessTask(TaskInfo task) {
+        if (!task.getTaskType().isInProcess()) {
+            return;
+        }
+        if (!athenaConf.isInProcessTaskEnabled()) {
+            throw new IllegalArgumentException(String.format(
+                    "%s tasks are disabled, task [%s] is rejected", task.getTaskType(), task.getTaskName()));
+        }
+        if (!inProcessTaskClasses.isEmpty() && !inProcessTaskClasses.contains(task.getClassName())) {
+            throw new IllegalArgumentException(String.format(
+                    "class %s isn't allowed for %s tasks, task [%s] is rejected",
+                    task.getClassName(), task.getTaskType(), task.getTaskName()));
+        }
     }
 
     @Override
-    public Future killTask(long taskId) {
+    public Future<?> killTask(long taskId) {
         return this.taskScheduler.killTask(taskId);
     }
 
@@ -124,10 +164,8 @@ public class TaskManagerImpl implements TaskManager {
 
     @Override
     public boolean isTaskFinished(long taskId) {
-        FinishedTask finishedTask = this.taskRepository.getFinishedTask(taskId);
         // return true for if task finished or not exists
-        boolean isFinished = finishedTask != null ||
-                (this.taskRepository.getWaitingTask(taskId) == null && !this.taskRepository.getRunningTask(taskId).isPresent());
+        boolean isFinished = !this.taskRepository.isTaskActive(taskId);
 
         LOGGER.info("task [{}] is finished: {}", taskId, isFinished);
         return isFinished;
@@ -138,6 +176,31 @@ public class TaskManagerImpl implements TaskManager {
         return this.taskScheduler.getLogLines(taskId, lineNumber, rows);
     }
 
+    @Override
+    public List<String> getTailLines(long taskId, int rows) {
+        return this.taskScheduler.getTailLines(taskId, rows);
+    }
+
+    @Override
+    public List<LogLine> grep(long taskId, String regex, int maxHits) {
+        return this.taskScheduler.grep(taskId, regex, maxHits);
+    }
+
+    @Override
+    public List<LogSearchHit> searchLog(String query, long from, long to, String taskNamePattern, int limit) {
+        return this.taskScheduler.searchLog(query, from, to, taskNamePattern, limit);
+    }
+
+    @Override
+    public boolean subscribeLog(long taskId, LogSubscriber subscriber) {
+        return this.taskScheduler.subscribeLog(taskId, subscriber);
+    }
+
+    @Override
+    public void unsubscribeLog(long taskId, LogSubscriber subscriber) {
+        this.taskScheduler.unsubscribeLog(taskId, subscriber);
+    }
+
     @Override
     public TaskInfo getTask(long taskId) {
         WaitingTask waitingTask = taskRepository.getWaitingTask(taskId);
@@ -148,7 +211,11 @@ public class TaskManagerImpl implements TaskManager {
         if (runningTaskOptional.isPresent()) {
             return runningTaskOptional.get();
         }
-        return taskRepository.getFinishedTask(taskId);
+        FinishedTask finishedTask = taskRepository.getFinishedTask(taskId);
+        if (finishedTask != null) {
+            return finishedTask;
+        }
+        return taskRepository.getArchivedTask(taskId);
     }
 
     @Override
@@ -1,9 +1,11 @@
 package com.timeyang.athena.task;
 
+import com.timeyang.athena.AthenaConf;
 import com.timeyang.athena.AthenaException;
 import com.timeyang.athena.task.TaskInfo.FinishedTask;
 import com.timeyang.athena.task.TaskInfo.RunningTask;
 import com.timeyang.athena.task.TaskInfo.WaitingTask;
+import com.timeyang.athena.task.TaskTransitionWriter.Step;
 import com.timeyang.athena.util.jdbc.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -11,9 +13,12 @@ import org.slf4j.LoggerFactory;
 import javax.sql.DataSource;
 import java.sql.*;
 import java.time.Duration;
+import java.time.Instant;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 import static com.timeyang.athena.util.jdbc.FieldSetter.makeSetter;
 
@@ -30,13 +35,103 @@ public class TaskRepository {
     public static final String FINISHED_TASK_TABLE = "finished_task";
 
     private final DataSource dataSource;
+    private final IndexUsageChecker indexUsageChecker;
+    private final TaskTransitionWriter transitionWriter;
+    private final TaskStateStore stateStore = new TaskStateStore();
+    private final TaskArchive taskArchive;
 
     TaskRepository(DataSource dataSource) {
+        this(dataSource, AthenaConf.getConf());
+    }
+
+    TaskRepository(DataSource dataSource, AthenaConf athenaConf) {
         this.dataSource = dataSource;
-        createTaskTableIfAbsent();
+        migrateSchema();
+        this.indexUsageChecker = new IndexUsageChecker(dataSource);
+        this.taskArchive = new TaskArchive(athenaConf.getTaskArchiveDir());
+        this.transitionWriter = new TaskTransitionWriter(dataSource,
+                athenaConf.getTaskTransitionBatchDelay(), athenaConf.getTaskTransitionBatchSize());
+        loadState();
+    }
+
+    /**
+     * Rebuild state store from waiting_task and running_task. After this, waiting and running tasks are read from
+     * state store, and changes are written behind to database
+     */
+    private void loadState() {
+        List<WaitingTask> waitingTasks = JdbcUtils.query(dataSource, "select * from " + WAITING_TASK_TABLE,
+                Collections.emptyList(), waitingTaskRowMapper);
+        waitingTasks.forEach(stateStore::putWaiting);
+        List<RunningTask> runningTasks = JdbcUtils.query(dataSource, "select * from " + RUNNING_TASK_TABLE,
+                Collections.emptyList(), runningTaskRowMapper);
+        runningTasks.forEach(stateStore::putRunning);
+        LOGGER.info("Loaded {} waiting tasks and {} running tasks", waitingTasks.size(), runningTasks.size());
+    }
+
+    /**
+     * State store is changed before transition is written, reload the task from database if the write fails and no
+     * later transition of the task is pending
+     */
+    private CompletableFuture<Void> writeBehind(long taskId, long sequence, CompletableFuture<Void> future) {
+        future.whenComplete((v, e) -> {
+            if (e != null) {
+                reloadState(taskId, sequence);
+            } else {
+                stateStore.endTransition(taskId, sequence, null);
+            }
+        });
+        return future;
+    }
+
+    private void reloadState(long taskId, long sequence) {
+        Optional<RunningTask> runningTask;
+        WaitingTask waitingTask;
+        try {
+            runningTask = queryRunningTask(taskId);
+            waitingTask = queryWaitingTask(taskId);
+        } catch (AthenaException e) {
+            LOGGER.error("Reload task [{}] state failed", taskId, e);
+            stateStore.endTransition(taskId, sequence, null);
+            return;
+        }
+        boolean reloaded = stateStore.endTransition(taskId, sequence, () -> {
+            if (runningTask.isPresent()) {
+                stateStore.putRunning(runningTask.get());
+            } else if (waitingTask != null) {
+                stateStore.putWaiting(waitingTask);
+            } else {
+                stateStore.remove(taskId);
+            }
+        });
+        if (!reloaded) {
+            LOGGER.info("Task [{}] is changed after the failed transition, it isn't reloaded", taskId);
+        }
+    }
+
+    /**
+     * @return true if task is waiting or running
+     */
+    public boolean isTaskActive(long taskId) {
+        return stateStore.contains(taskId);
+    }
+
+    /**
+     * commit pending state transitions
+     */
+    public void close() {
+        transitionWriter.close();
+    }
+
+    private void migrateSchema() {
+        new SchemaMigration("task")
+                .add(1, "create task tables", this::createTaskTableIfAbsent)
+                .add(2, "create task indexes", this::createTaskIndexIfAbsent)
+                .add(3, "add waiting task priority and queue", this::addTaskPriorityIfAbsent)
+                .add(4, "order finished task end time index descending", this::orderEndTimeIndexDescending)
+                .migrate(dataSource);
     }
 
-    private void createTaskTableIfAbsent() {
+    private void createTaskTableIfAbsent(Connection connection) {
         String waitingTaskSql = "CREATE TABLE " + WAITING_TASK_TABLE +
                 "(" +
                 "task_id INTEGER GENERATED ALWAYS AS IDENTITY " +
@@ -89,17 +184,65 @@ public class TaskRepository {
                 "state VARCHAR(40)" +
                 ")";
 
-        try (Connection connection = this.dataSource.getConnection()) {
-            boolean waitingTaskTableCreated = JdbcUtils.createTableIfAbsent(connection, WAITING_TASK_TABLE, waitingTaskSql);
-            if (waitingTaskTableCreated) LOGGER.info("Created table " + WAITING_TASK_TABLE);
+        boolean waitingTaskTableCreated = JdbcUtils.createTableIfAbsent(connection, WAITING_TASK_TABLE, waitingTaskSql);
+        if (waitingTaskTableCreated) LOGGER.info("Created table " + WAITING_TASK_TABLE);
 
-            boolean runningTaskTableCreated = JdbcUtils.createTableIfAbsent(connection, RUNNING_TASK_TABLE, runningTaskSql);
-            if (runningTaskTableCreated) LOGGER.info("Created table " + RUNNING_TASK_TABLE);
+        boolean runningTaskTableCreated = JdbcUtils.createTableIfAbsent(connection, RUNNING_TASK_TABLE, runningTaskSql);
+        if (runningTaskTableCreated) LOGGER.info("Created table " + RUNNING_TASK_TABLE);
 
-            boolean finishedTaskTableCreated = JdbcUtils.createTableIfAbsent(connection, FINISHED_TASK_TABLE, finishedTaskSql);
-            if (finishedTaskTableCreated) LOGGER.info("Created table " + FINISHED_TASK_TABLE);
-        } catch (SQLException e) {
-            throw new AthenaException("Can't get connection", e);
+        boolean finishedTaskTableCreated = JdbcUtils.createTableIfAbsent(connection, FINISHED_TASK_TABLE, finishedTaskSql);
+        if (finishedTaskTableCreated) LOGGER.info("Created table " + FINISHED_TASK_TABLE);
+    }
+
+    /**
+     * Indexes for scheduler sweep and UI listing. Seek pages are ordered by (sort field, task_id), so time indexes
+     * end with task_id
+     */
+    private void createTaskIndexIfAbsent(Connection connection) {
+        // waiting_task.task_id is an identity column without primary key
+        createIndexIfAbsent(connection, WAITING_TASK_TABLE, "waiting_task_id_idx", true, "task_id");
+        createIndexIfAbsent(connection, WAITING_TASK_TABLE, "waiting_task_submit_time_idx", false, "submit_time", "task_id");
+        createIndexIfAbsent(connection, WAITING_TASK_TABLE, "waiting_task_name_idx", false, "task_name");
+        createIndexIfAbsent(connection, WAITING_TASK_TABLE, "waiting_task_host_idx", false, "host");
+
+        createIndexIfAbsent(connection, RUNNING_TASK_TABLE, "running_task_submit_time_idx", false, "submit_time", "task_id");
+        createIndexIfAbsent(connection, RUNNING_TASK_TABLE, "running_task_name_idx", false, "task_name");
+        createIndexIfAbsent(connection, RUNNING_TASK_TABLE, "running_task_host_idx", false, "host");
+
+        createIndexIfAbsent(connection, FINISHED_TASK_TABLE, "finished_task_submit_time_idx", false, "submit_time", "task_id");
+        createIndexIfAbsent(connection, FINISHED_TASK_TABLE, "finished_task_end_time_idx", false, "end_time", "task_id");
+        createIndexIfAbsent(connection, FINISHED_TASK_TABLE, "finished_task_name_idx", false, "task_name");
+        createIndexIfAbsent(connection, FINISHED_TASK_TABLE, "finished_task_state_idx", false, "state");
+        createIndexIfAbsent(connection, FINISHED_TASK_TABLE, "finished_task_host_idx", false, "host");
+    }
+
+    private void addTaskPriorityIfAbsent(Connection connection) {
+        if (JdbcUtils.addColumnIfAbsent(connection, WAITING_TASK_TABLE, "priority", "INTEGER DEFAULT 0")) {
+            LOGGER.info("Added column priority to " + WAITING_TASK_TABLE);
+        }
+        if (JdbcUtils.addColumnIfAbsent(connection, WAITING_TASK_TABLE, "task_queue", "VARCHAR(100)")) {
+            LOGGER.info("Added column task_queue to " + WAITING_TASK_TABLE);
+        }
+    }
+
+    /**
+     * Finished tasks are listed by end_time descending, Derby doesn't scan an ascending index backwards, so a seek
+     * page of an ascending index reads every row before the cursor and sorts them
+     */
+    private void orderEndTimeIndexDescending(Connection connection) throws SQLException {
+        if (JdbcUtils.getIndexes(connection, FINISHED_TASK_TABLE).containsKey("FINISHED_TASK_END_TIME_IDX")) {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("DROP INDEX finished_task_end_time_idx");
+            }
+        }
+        createIndexIfAbsent(connection, FINISHED_TASK_TABLE, "finished_task_end_time_idx", false,
+                "end_time DESC", "task_id DESC");
+    }
+
+    private static void createIndexIfAbsent(Connection connection, String tableName, String indexName,
+                                            boolean unique, String... columns) {
+        if (JdbcUtils.createIndexIfAbsent(connection, tableName, indexName, unique, columns)) {
+            LOGGER.info("Created index " + indexName);
         }
     }
 
@@ -107,8 +250,8 @@ public class TaskRepository {
     //************************ Waiting task ************************
     public TaskInfo create(TaskInfo task) {
         String sql = "INSERT INTO " + WAITING_TASK_TABLE +
-                "(task_name, host, class_name, params, max_tries, submit_time, classpath, retry_wait, task_type, host_fixed) " +
-                "VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+                "(task_name, host, class_name, params, max_tries, submit_time, classpath, retry_wait, task_type, host_fixed, priority, task_queue) " +
+                "VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
         try (Connection connection = this.dataSource.getConnection()) {
 
 
@@ -122,12 +265,15 @@ public class TaskRepository {
                     makeSetter("classpath", task.getLibs()),
                     makeSetter("retry_wait", task.getRetryWait()),
                     makeSetter("task_type", task.getTaskType().toString()),
-                    makeSetter("host_fixed", task.isHostFixed()));
+                    makeSetter("host_fixed", task.isHostFixed()),
+                    makeSetter("priority", task.getPriority() != null ? task.getPriority() : TaskInfo.DEFAULT_PRIORITY),
+                    makeSetter("task_queue", task.getQueue() != null ? task.getQueue() : TaskInfo.DEFAULT_QUEUE));
             List<Object> generatedKeys = JdbcUtils.insert(connection, WAITING_TASK_TABLE, setterList, new String[]{"TASK_ID"}, Long.class);
 
             assert generatedKeys != null;
             Long id = (Long) generatedKeys.get(0);
             task.setTaskId(id);
+            stateStore.putWaiting(new WaitingTask(task));
         } catch (SQLException e) {
             String msg = String.format("Can't create waiting task [%s], sql: %s", task, sql);
             LOGGER.error(msg, e);
@@ -138,9 +284,13 @@ public class TaskRepository {
     }
 
     public WaitingTask getWaitingTask(long taskId) {
-        String sql = String.format("select * from %s where task_id = %d",
-                WAITING_TASK_TABLE, taskId);
-        List<WaitingTask> query = JdbcUtils.query(dataSource, sql, waitingTaskRowMapper);
+        return stateStore.getWaiting(taskId);
+    }
+
+    private WaitingTask queryWaitingTask(long taskId) {
+        String sql = "select * from " + WAITING_TASK_TABLE + " where task_id = ?";
+        List<WaitingTask> query = JdbcUtils.query(dataSource, sql, Collections.singletonList(taskId),
+                waitingTaskRowMapper);
         if (query.isEmpty()) {
             return null;
         } else {
@@ -149,19 +299,19 @@ public class TaskRepository {
     }
 
     public PagedResult<WaitingTask> getWaitingTasks(Page page) {
+        indexUsageChecker.check(WAITING_TASK_TABLE, page);
         return JdbcUtils.queryPage(dataSource, WAITING_TASK_TABLE, page, waitingTaskRowMapper);
     }
 
     public List<WaitingTask> getAllWaitingTasks() {
-        PagedResult<WaitingTask> pagedResult = getWaitingTasks(new Page(0, Integer.MAX_VALUE));
-        return pagedResult.getElements();
+        return stateStore.getAllWaiting();
     }
 
     public void deleteWaitingTask(Long taskId) {
-        String sql = String.format("delete from %s WHERE task_id = %d", WAITING_TASK_TABLE, taskId);
-        try (Connection connection = this.dataSource.getConnection();
-             Statement statement = connection.createStatement()) {
-            statement.execute(sql);
+        stateStore.remove(taskId);
+        String sql = "delete from " + WAITING_TASK_TABLE + " WHERE task_id = ?";
+        try (Connection connection = this.dataSource.getConnection()) {
+            JdbcUtils.update(connection, sql, taskId);
         } catch (SQLException e) {
             String msg = String.format("Can't delete waiting task of task_id [%d], sql [%s]", taskId, sql);
             throw new AthenaException(msg, e);
@@ -169,6 +319,7 @@ public class TaskRepository {
     }
 
     public void deleteAllWaitingTask() {
+        stateStore.clearWaiting();
         try (Connection connection = this.dataSource.getConnection();
              Statement statement = connection.createStatement()) {
             String sql = "DELETE FROM " + WAITING_TASK_TABLE;
@@ -180,68 +331,56 @@ public class TaskRepository {
 
 
     //************************ Running task ************************
-    public void moveToRunning(RunningTask task) {
-        Connection connection = null;
-        Statement statement = null;
-        try {
-            connection = this.dataSource.getConnection();
-            connection.setAutoCommit(false);
-            statement = connection.createStatement();
-
-            long taskId = task.getTaskId();
-            String deleteWaitingTaskSql = String.format("delete from %s WHERE task_id = %d", WAITING_TASK_TABLE, taskId);
-            statement.execute(deleteWaitingTaskSql);
-
-            String createRunningTaskSql = "INSERT INTO " + RUNNING_TASK_TABLE +
-                    "(task_id, task_name, host, class_name, params, max_tries, submit_time, start_time, try_number, pid, classpath, retry_wait, task_type, host_fixed) " +
-                    "VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
-            PreparedStatement pStatement = connection.prepareStatement(createRunningTaskSql);
-            pStatement.setLong(1, task.getTaskId());
-            pStatement.setString(2, task.getTaskName());
-            pStatement.setString(3, task.getHost());
-            pStatement.setString(4, task.getClassName());
-            pStatement.setString(5, task.getParams());
-            pStatement.setInt(6, task.getMaxTries());
-            pStatement.setTimestamp(7, Timestamp.from(task.getSubmitTime()));
-            pStatement.setTimestamp(8, Timestamp.from(task.getStartTime()));
-            pStatement.setInt(9, task.getTryNumber());
-            pStatement.setInt(10, task.getPid());
-            pStatement.setString(11, task.getLibs());
-            pStatement.setLong(12, task.getRetryWait());
-            pStatement.setString(13, task.getTaskType().toString());
-            pStatement.setBoolean(14, task.isHostFixed());
-
-            pStatement.execute();
-
-            connection.commit();
-        } catch (SQLException e) {
-            LOGGER.error("Move waiting task to running failed. task: " + task, e);
-        } finally {
-            close(connection, statement);
-        }
+    public CompletableFuture<Void> moveToRunning(RunningTask task) {
+        String createRunningTaskSql = "INSERT INTO " + RUNNING_TASK_TABLE +
+                "(task_id, task_name, host, class_name, params, max_tries, submit_time, start_time, try_number, pid, classpath, retry_wait, task_type, host_fixed) " +
+                "VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+        long sequence = stateStore.beginTransition(task.getTaskId(), () -> stateStore.putRunning(task));
+        return writeBehind(task.getTaskId(), sequence, transitionWriter.submit(task.getTaskId(), "Move waiting task to running",
+                deleteStep(WAITING_TASK_TABLE, task.getTaskId()),
+                new Step(createRunningTaskSql, pStatement -> {
+                    pStatement.setLong(1, task.getTaskId());
+                    pStatement.setString(2, task.getTaskName());
+                    pStatement.setString(3, task.getHost());
+                    pStatement.setString(4, task.getClassName());
+                    pStatement.setString(5, task.getParams());
+                    pStatement.setInt(6, task.getMaxTries());
+                    pStatement.setTimestamp(7, Timestamp.from(task.getSubmitTime()));
+                    pStatement.setTimestamp(8, Timestamp.from(task.getStartTime()));
+                    pStatement.setInt(9, task.getTryNumber());
+                    pStatement.setInt(10, task.getPid());
+                    pStatement.setString(11, task.getLibs());
+                    pStatement.setLong(12, task.getRetryWait());
+                    pStatement.setString(13, task.getTaskType().toString());
+                    pStatement.setBoolean(14, task.isHostFixed());
+                })));
     }
 
-    public void updateRunningTask(RunningTask task) {
+    public CompletableFuture<Void> updateRunningTask(RunningTask task) {
         String sql = "UPDATE " + RUNNING_TASK_TABLE + " " +
                 "SET try_number = ?, pid = ? " +
                 "WHERE task_id = ?";
-        try (Connection connection = this.dataSource.getConnection();
-             PreparedStatement pStatement = connection.prepareStatement(sql)) {
-            pStatement.setInt(1, task.getTryNumber());
-            pStatement.setInt(2, task.getPid());
-            pStatement.setLong(3, task.getTaskId());
+        long sequence = stateStore.beginTransition(task.getTaskId(), () -> stateStore.putRunning(task));
+        return writeBehind(task.getTaskId(), sequence, transitionWriter.submit(task.getTaskId(), "Update running task",
+                new Step(sql, pStatement -> {
+                    pStatement.setInt(1, task.getTryNumber());
+                    pStatement.setInt(2, task.getPid());
+                    pStatement.setLong(3, task.getTaskId());
+                })));
+    }
 
-            pStatement.executeUpdate();
-        } catch (SQLException e) {
-            LOGGER.error(e.getMessage(), e);
-            throw new AthenaException("Can't create waiting task, sql: " + sql, e);
-        }
+    private static Step deleteStep(String tableName, long taskId) {
+        return new Step("DELETE FROM " + tableName + " WHERE task_id = ?", pStatement -> pStatement.setLong(1, taskId));
     }
 
     public Optional<RunningTask> getRunningTask(long taskId) {
-        String sql = String.format("select * from %s where task_id = %d",
-                RUNNING_TASK_TABLE, taskId);
-        List<RunningTask> query = JdbcUtils.query(dataSource, sql, runningTaskRowMapper);
+        return Optional.ofNullable(stateStore.getRunning(taskId));
+    }
+
+    private Optional<RunningTask> queryRunningTask(long taskId) {
+        String sql = "select * from " + RUNNING_TASK_TABLE + " where task_id = ?";
+        List<RunningTask> query = JdbcUtils.query(dataSource, sql, Collections.singletonList(taskId),
+                runningTaskRowMapper);
         if (query.isEmpty()) {
             return Optional.empty();
         } else {
@@ -250,114 +389,65 @@ public class TaskRepository {
     }
 
     public List<RunningTask> getAllRunningTasks() {
-        Page page = new Page(0, Integer.MAX_VALUE);
-        return getRunningTasks(page).getElements();
+        return stateStore.getAllRunning();
     }
 
     public PagedResult<RunningTask> getRunningTasks(Page page) {
+        indexUsageChecker.check(RUNNING_TASK_TABLE, page);
         return JdbcUtils.queryPage(dataSource, RUNNING_TASK_TABLE, page, runningTaskRowMapper);
     }
 
 
     //************************ Finished Task ************************
-    public void moveFromWaitingToFinished(FinishedTask task) {
-        Connection connection = null;
-        Statement statement = null;
-        try {
-            connection = this.dataSource.getConnection();
-            connection.setAutoCommit(false);
-            statement = connection.createStatement();
-
-            long taskId = task.getTaskId();
-            String deleteRunningTaskSql = String.format("delete from %s WHERE task_id = %d", WAITING_TASK_TABLE, taskId);
-            statement.execute(deleteRunningTaskSql);
-
-            String createFinishedTaskSql = "INSERT INTO " + FINISHED_TASK_TABLE +
-                    "(task_id, task_name, host, class_name, params, max_tries,submit_time,  state, try_number, classpath, retry_wait, task_type, host_fixed) " +
-                    "VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
-            PreparedStatement pStatement = connection.prepareStatement(createFinishedTaskSql);
-            pStatement.setLong(1, task.getTaskId());
-            pStatement.setString(2, task.getTaskName());
-            pStatement.setString(3, task.getHost());
-            pStatement.setString(4, task.getClassName());
-            pStatement.setString(5, task.getParams());
-            pStatement.setInt(6, task.getMaxTries());
-            pStatement.setTimestamp(7, Timestamp.from(task.getSubmitTime()));
-            pStatement.setString(8, task.getState().toString());
-            pStatement.setInt(9, task.getTryNumber());
-            pStatement.setString(10, task.getLibs());
-            pStatement.setLong(11, task.getRetryWait());
-            pStatement.setString(12, task.getTaskType().toString());
-            pStatement.setBoolean(13, task.isHostFixed());
-
-            pStatement.execute();
-            connection.commit();
-        } catch (SQLException e) {
-            LOGGER.error("Move waiting task to finished failed. task: " + task, e);
-        } finally {
-            close(connection, statement);
-        }
-    }
-
-    public void moveToFinished(FinishedTask task) {
-        Connection connection = null;
-        Statement statement = null;
-        try {
-            connection = this.dataSource.getConnection();
-            connection.setAutoCommit(false);
-            statement = connection.createStatement();
-
-            long taskId = task.getTaskId();
-            String deleteRunningTaskSql = String.format("delete from %s WHERE task_id = %d", RUNNING_TASK_TABLE, taskId);
-            statement.execute(deleteRunningTaskSql);
-
-            String createFinishedTaskSql = "INSERT INTO " + FINISHED_TASK_TABLE +
-                    "(task_id, task_name, host, class_name, params, max_tries, submit_time, start_time, end_time, duration, state, try_number, classpath, retry_wait, task_type, host_fixed) " +
-                    "VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
-            PreparedStatement pStatement = connection.prepareStatement(createFinishedTaskSql);
-            pStatement.setLong(1, task.getTaskId());
-            pStatement.setString(2, task.getTaskName());
-            pStatement.setString(3, task.getHost());
-            pStatement.setString(4, task.getClassName());
-            pStatement.setString(5, task.getParams());
-            pStatement.setInt(6, task.getMaxTries());
-            pStatement.setTimestamp(7, Timestamp.from(task.getSubmitTime()));
-            pStatement.setTimestamp(8, Timestamp.from(task.getStartTime()));
-            pStatement.setTimestamp(9, Timestamp.from(task.getEndTime()));
-            pStatement.setLong(10, task.getDuration().getSeconds());
-            pStatement.setString(11, task.getState().toString());
-            pStatement.setInt(12, task.getTryNumber());
-            pStatement.setString(13, task.getLibs());
-            pStatement.setLong(14, task.getRetryWait());
-            pStatement.setString(15, task.getTaskType().toString());
-            pStatement.setBoolean(16, task.isHostFixed());
-
-            pStatement.execute();
-            connection.commit();
-        } catch (SQLException e) {
-            LOGGER.error("Move running task to finished failed. task: " + task, e);
-        } finally {
-            close(connection, statement);
-        }
+    public CompletableFuture<Void> moveFromWaitingToFinished(FinishedTask task) {
+        String createFinishedTaskSql = "INSERT INTO " + FINISHED_TASK_TABLE +
+                "(task_id, task_name, host, class_name, params, max_tries,submit_time,  state, try_number, classpath, retry_wait, task_type, host_fixed) " +
+                "VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+        long sequence = stateStore.beginTransition(task.getTaskId(), () -> stateStore.remove(task.getTaskId()));
+        return writeBehind(task.getTaskId(), sequence, transitionWriter.submit(task.getTaskId(), "Move waiting task to finished",
+                deleteStep(WAITING_TASK_TABLE, task.getTaskId()),
+                new Step(createFinishedTaskSql, pStatement -> {
+                    pStatement.setLong(1, task.getTaskId());
+                    pStatement.setString(2, task.getTaskName());
+                    pStatement.setString(3, task.getHost());
+                    pStatement.setString(4, task.getClassName());
+                    pStatement.setString(5, task.getParams());
+                    pStatement.setInt(6, task.getMaxTries());
+                    pStatement.setTimestamp(7, Timestamp.from(task.getSubmitTime()));
+                    pStatement.setString(8, task.getState().toString());
+                    pStatement.setInt(9, task.getTryNumber());
+                    pStatement.setString(10, task.getLibs());
+                    pStatement.setLong(11, task.getRetryWait());
+                    pStatement.setString(12, task.getTaskType().toString());
+                    pStatement.setBoolean(13, task.isHostFixed());
+                })));
     }
 
-    private void close(Connection connection, Statement statement) {
-        if (statement != null) {
-            try {
-                statement.close();
-            } catch (SQLException e) {
-                LOGGER.error(e.getMessage(), e);
-            }
-        }
-
-        if (connection != null) {
-            try {
-                connection.rollback();
-                connection.close();
-            } catch (SQLException e) {
-                LOGGER.error(e.getMessage(), e);
-            }
-        }
+    public CompletableFuture<Void> moveToFinished(FinishedTask task) {
+        String createFinishedTaskSql = "INSERT INTO " + FINISHED_TASK_TABLE +
+                "(task_id, task_name, host, class_name, params, max_tries, submit_time, start_time, end_time, duration, state, try_number, classpath, retry_wait, task_type, host_fixed) " +
+                "VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+        long sequence = stateStore.beginTransition(task.getTaskId(), () -> stateStore.remove(task.getTaskId()));
+        return writeBehind(task.getTaskId(), sequence, transitionWriter.submit(task.getTaskId(), "Move running task to finished",
+                deleteStep(RUNNING_TASK_TABLE, task.getTaskId()),
+                new Step(createFinishedTaskSql, pStatement -> {
+                    pStatement.setLong(1, task.getTaskId());
+                    pStatement.setString(2, task.getTaskName());
+                    pStatement.setString(3, task.getHost());
+                    pStatement.setString(4, task.getClassName());
+                    pStatement.setString(5, task.getParams());
+                    pStatement.setInt(6, task.getMaxTries());
+                    pStatement.setTimestamp(7, Timestamp.from(task.getSubmitTime()));
+                    pStatement.setTimestamp(8, Timestamp.from(task.getStartTime()));
+                    pStatement.setTimestamp(9, Timestamp.from(task.getEndTime()));
+                    pStatement.setLong(10, task.getDuration().getSeconds());
+                    pStatement.setString(11, task.getState().toString());
+                    pStatement.setInt(12, task.getTryNumber());
+                    pStatement.setString(13, task.getLibs());
+                    pStatement.setLong(14, task.getRetryWait());
+                    pStatement.setString(15, task.getTaskType().toString());
+                    pStatement.setBoolean(16, task.isHostFixed());
+                })));
     }
 
     public List<FinishedTask> getAllFinishedTasks() {
@@ -366,15 +456,16 @@ public class TaskRepository {
     }
 
     public PagedResult<FinishedTask> getFinishedTasks(Page page) {
+        indexUsageChecker.check(FINISHED_TASK_TABLE, page);
         return JdbcUtils.queryPage(dataSource, FINISHED_TASK_TABLE, page, finishedTaskRowMapper);
     }
 
     public FinishedTask getFinishedTask(long taskId) {
-        String sql = String.format("select * from %s where task_id=%d",
-                FINISHED_TASK_TABLE, taskId);
+        transitionWriter.awaitPending(taskId);
+        String sql = "select * from " + FINISHED_TASK_TABLE + " where task_id = ?";
 
         List<FinishedTask> tasks = JdbcUtils.query(
-                this.dataSource, sql, finishedTaskRowMapper);
+                this.dataSource, sql, Collections.singletonList(taskId), finishedTaskRowMapper);
 
         if (!tasks.isEmpty())
             return tasks.get(0);
@@ -382,6 +473,58 @@ public class TaskRepository {
             return null;
     }
 
+    /**
+     * slower path for finished tasks which are moved out of finished_task
+     *
+     * @return null if task isn't archived
+     */
+    public FinishedTask getArchivedTask(long taskId) {
+        return taskArchive.getTask(taskId);
+    }
+
+    /**
+     * Move finished tasks which end before {@code before} to task archive, {@code batchSize} tasks a segment. Tasks
+     * are deleted from finished_task after their segment is synced, a crash between them only archives tasks twice.
+     * Tasks failed before start have no end time, their submit time is used.
+     *
+     * @return archived tasks
+     */
+    public int archiveFinishedTasks(Instant before, int batchSize) {
+        String sql = String.format("select * from %s where end_time < ? OR (end_time IS NULL AND submit_time < ?) " +
+                "ORDER BY task_id FETCH FIRST %d ROWS ONLY", FINISHED_TASK_TABLE, batchSize);
+        String deleteSql = "DELETE FROM " + FINISHED_TASK_TABLE + " WHERE task_id = ?";
+        Timestamp time = Timestamp.from(before);
+        int archived = 0;
+        List<FinishedTask> tasks;
+        do {
+            tasks = JdbcUtils.query(dataSource, sql, Arrays.asList(time, time), finishedTaskRowMapper);
+            if (tasks.isEmpty()) {
+                break;
+            }
+            taskArchive.archive(tasks);
+            try (Connection connection = dataSource.getConnection()) {
+                connection.setAutoCommit(false);
+                try (PreparedStatement pStatement = connection.prepareStatement(deleteSql)) {
+                    for (FinishedTask task : tasks) {
+                        pStatement.setLong(1, task.getTaskId());
+                        pStatement.addBatch();
+                    }
+                    pStatement.executeBatch();
+                    connection.commit();
+                } catch (SQLException e) {
+                    connection.rollback();
+                    throw e;
+                }
+            } catch (SQLException e) {
+                String msg = String.format("Can't delete archived tasks from %s", FINISHED_TASK_TABLE);
+                LOGGER.error(msg, e);
+                throw new AthenaException(msg, e);
+            }
+            archived += tasks.size();
+        } while (tasks.size() == batchSize);
+        return archived;
+    }
+
     private RowMapper<WaitingTask> waitingTaskRowMapper = (rs, rowNum) -> {
         WaitingTask task = new WaitingTask();
         task.setTaskId(rs.getLong("task_id"));
@@ -395,6 +538,8 @@ public class TaskRepository {
         task.setMaxTries(rs.getInt("max_tries"));
         task.setRetryWait(rs.getLong("retry_wait"));
         task.setSubmitTime(rs.getTimestamp("submit_time").toInstant());
+        task.setPriority(rs.getInt("priority"));
+        task.setQueue(rs.getString("task_queue"));
 
         return task;
     };
@@ -447,22 +592,29 @@ public class TaskRepository {
         return task;
     };
 
-    public void updateTaskHost(Long taskId, String host) {
-        try (Connection connection = dataSource.getConnection();
-             Statement statement = connection.createStatement()) {
-            String sql = String.format("SELECT task_id from %s where task_id = %s", WAITING_TASK_TABLE, taskId);
-            List<Long> taskIds = JdbcUtils.query(connection, sql, (rs, rowNum) -> rs.getLong("task_id"));
-            if (!taskIds.isEmpty()) { // task is in waiting_task
-                String uSql = String.format("UPDATE %s SET host = '%s' WHERE task_id = %s", WAITING_TASK_TABLE, host, taskId);
-                statement.executeUpdate(uSql);
-            } else { // task is in running_task
-                String uSql = String.format("UPDATE %s SET host = '%s' WHERE task_id = %s", RUNNING_TASK_TABLE, host, taskId);
-                statement.executeUpdate(uSql);
-            }
-
-        } catch (SQLException e) {
-            LOGGER.error("Update task {} execute host to {} failed", taskId, host, e);
+    public CompletableFuture<Void> updateTaskHost(Long taskId, String host) {
+        String tableName;
+        long sequence;
+        WaitingTask waitingTask = stateStore.getWaiting(taskId);
+        RunningTask runningTask = stateStore.getRunning(taskId);
+        if (waitingTask != null) {
+            waitingTask.setHost(host);
+            sequence = stateStore.beginTransition(taskId, () -> stateStore.putWaiting(waitingTask));
+            tableName = WAITING_TASK_TABLE;
+        } else if (runningTask != null) {
+            runningTask.setHost(host);
+            sequence = stateStore.beginTransition(taskId, () -> stateStore.putRunning(runningTask));
+            tableName = RUNNING_TASK_TABLE;
+        } else {
+            LOGGER.warn("Task {} isn't waiting or running, can't update execute host", taskId);
+            return CompletableFuture.completedFuture(null);
         }
+        String sql = "UPDATE " + tableName + " SET host = ? WHERE task_id = ?";
+        return writeBehind(taskId, sequence, transitionWriter.submit(taskId, "Update task execute host",
+                new Step(sql, pStatement -> {
+                    pStatement.setString(1, host);
+                    pStatement.setLong(2, taskId);
+                })));
     }
 
 }
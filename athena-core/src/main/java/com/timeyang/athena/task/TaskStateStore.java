@@ -0,0 +1,148 @@
+package com.timeyang.athena.task;
+
+import com.timeyang.athena.task.TaskInfo.RunningTask;
+import com.timeyang.athena.task.TaskInfo.WaitingTask;
+import io.netty.util.collection.LongObjectHashMap;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * In-memory state of waiting and running tasks, which is authoritative for reads of a task. Finished tasks are only
+ * in database.
+ * <p>
+ *     Tasks are copied when put and when got, so callers can modify returned tasks before they persist the change.
+ * </p>
+ * <p>
+ *     A change written behind to database is a transition, numbered by a sequence. If its write fails, task is
+ *     reloaded from database only if it's the latest change of the task, so a failed write doesn't overwrite a later
+ *     transition which is pending.
+ * </p>
+ *
+ * @author https://github.com/chaokunyang
+ */
+class TaskStateStore {
+    private final LongObjectHashMap<WaitingTask> waitingTasks = new LongObjectHashMap<>();
+    private final LongObjectHashMap<RunningTask> runningTasks = new LongObjectHashMap<>();
+    // tasks which have transitions being written
+    private final LongObjectHashMap<PendingTransitions> pendingTransitions = new LongObjectHashMap<>();
+    private long sequence;
+
+    private static final class PendingTransitions {
+        private long latest;
+        private int count;
+    }
+
+    /**
+     * Apply a change whose write to database is pending
+     *
+     * @return sequence of the transition, passed to {@link #endTransition}
+     */
+    synchronized long beginTransition(long taskId, Runnable change) {
+        change.run();
+        PendingTransitions pending = pendingTransitions.get(taskId);
+        if (pending == null) {
+            pending = new PendingTransitions();
+            pendingTransitions.put(taskId, pending);
+        }
+        pending.count++;
+        pending.latest = ++sequence;
+        return pending.latest;
+    }
+
+    /**
+     * Called when write of a transition completes
+     *
+     * @param reload restores task from database, run if write failed and task isn't changed after the transition.
+     *               null if write succeed
+     * @return true if reload is run
+     */
+    synchronized boolean endTransition(long taskId, long sequence, Runnable reload) {
+        PendingTransitions pending = pendingTransitions.get(taskId);
+        boolean latest = pending != null && pending.latest == sequence;
+        if (pending != null && --pending.count == 0) {
+            pendingTransitions.remove(taskId);
+        }
+        if (reload != null && latest) {
+            reload.run();
+            return true;
+        }
+        return false;
+    }
+
+    synchronized boolean isTransitionPending(long taskId) {
+        return pendingTransitions.containsKey(taskId);
+    }
+
+    private void changed(long taskId) {
+        PendingTransitions pending = pendingTransitions.get(taskId);
+        if (pending != null) {
+            pending.latest = ++sequence;
+        }
+    }
+
+    synchronized void putWaiting(WaitingTask task) {
+        changed(task.getTaskId());
+        runningTasks.remove(task.getTaskId());
+        waitingTasks.put(task.getTaskId(), new WaitingTask(task));
+    }
+
+    synchronized void putRunning(RunningTask task) {
+        changed(task.getTaskId());
+        waitingTasks.remove(task.getTaskId());
+        runningTasks.put(task.getTaskId(), new RunningTask(task));
+    }
+
+    /**
+     * remove a task which is finished or deleted
+     */
+    synchronized void remove(long taskId) {
+        changed(taskId);
+        waitingTasks.remove(taskId);
+        runningTasks.remove(taskId);
+    }
+
+    synchronized void clearWaiting() {
+        waitingTasks.keySet().forEach(this::changed);
+        waitingTasks.clear();
+    }
+
+    synchronized WaitingTask getWaiting(long taskId) {
+        WaitingTask task = waitingTasks.get(taskId);
+        return task != null ? new WaitingTask(task) : null;
+    }
+
+    synchronized RunningTask getRunning(long taskId) {
+        RunningTask task = runningTasks.get(taskId);
+        return task != null ? new RunningTask(task) : null;
+    }
+
+    /**
+     * @return true if task is waiting or running
+     */
+    synchronized boolean contains(long taskId) {
+        return waitingTasks.containsKey(taskId) || runningTasks.containsKey(taskId);
+    }
+
+    /**
+     * @return waiting tasks ordered by task id
+     */
+    synchronized List<WaitingTask> getAllWaiting() {
+        List<WaitingTask> tasks = new ArrayList<>(waitingTasks.size());
+        waitingTasks.values().forEach(task -> tasks.add(new WaitingTask(task)));
+        tasks.sort(Comparator.comparing(TaskInfo::getTaskId));
+        return tasks;
+    }
+
+    /**
+     * @return running tasks ordered by task id
+     */
+    synchronized List<RunningTask> getAllRunning() {
+        List<RunningTask> tasks = new ArrayList<>(runningTasks.size());
+        runningTasks.values().forEach(task -> tasks.add(new RunningTask(task)));
+        tasks.sort(Comparator.comparing(TaskInfo::getTaskId));
+        return tasks;
+    }
+
+}
@@ -0,0 +1,215 @@
+package com.timeyang.athena.task;
+
+import com.timeyang.athena.AthenaException;
+import com.timeyang.athena.util.ThreadUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Group commit writer of task state transitions.
+ * <p>
+ *     Transitions arriving within {@code batchDelay} milliseconds are written in one transaction, statements of same
+ *     sql are executed as one JDBC batch. Transitions of a task are committed in submit order: a batch never contains
+ *     two transitions of same task. If a batch fails, its transitions are retried one by one, so a bad transition
+ *     doesn't fail others.
+ * </p>
+ *
+ * @author https://github.com/chaokunyang
+ */
+class TaskTransitionWriter {
+    private static final Logger LOGGER = LoggerFactory.getLogger(TaskTransitionWriter.class);
+    private static final long CLOSE_WAIT_MILLIS = 10000;
+
+    private final DataSource dataSource;
+    private final long batchDelayNanos;
+    private final int batchSize;
+    private final BlockingQueue<Transition> queue = new LinkedBlockingQueue<>();
+    // last submitted transition of a task which isn't committed
+    private final Map<Long, CompletableFuture<Void>> pending = new ConcurrentHashMap<>();
+    private final Thread thread;
+    private volatile boolean closed = false;
+
+    @FunctionalInterface
+    interface StatementBinder {
+        void bind(PreparedStatement statement) throws SQLException;
+    }
+
+    /**
+     * A statement of a transition. Statements of a transition should have different sql
+     */
+    static final class Step {
+        private final String sql;
+        private final StatementBinder binder;
+
+        Step(String sql, StatementBinder binder) {
+            this.sql = sql;
+            this.binder = binder;
+        }
+    }
+
+    private static final class Transition {
+        private final long taskId;
+        private final String description;
+        private final List<Step> steps;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        private Transition(long taskId, String description, List<Step> steps) {
+            this.taskId = taskId;
+            this.description = description;
+            this.steps = steps;
+        }
+    }
+
+    TaskTransitionWriter(DataSource dataSource, long batchDelayMillis, int batchSize) {
+        this.dataSource = dataSource;
+        this.batchDelayNanos = TimeUnit.MILLISECONDS.toNanos(batchDelayMillis);
+        this.batchSize = batchSize;
+        this.thread = ThreadUtils.createThreadFactory("TaskTransitionWriter").newThread(this::writeTransitions);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * @return future completed when transition is committed, or completed exceptionally when it fails
+     */
+    CompletableFuture<Void> submit(long taskId, String description, Step... steps) {
+        Transition transition = new Transition(taskId, description, Arrays.asList(steps));
+        pending.put(taskId, transition.future);
+        transition.future.whenComplete((v, e) -> pending.remove(taskId, transition.future));
+        if (closed) {
+            // writer thread is stopped, write in caller thread
+            write(Collections.singletonList(transition));
+        } else {
+            queue.offer(transition);
+        }
+        return transition.future;
+    }
+
+    /**
+     * Wait until submitted transitions of a task are committed or failed, so that a read of the task sees them
+     */
+    void awaitPending(long taskId) {
+        CompletableFuture<Void> future = pending.get(taskId);
+        if (future != null && Thread.currentThread() != thread) {
+            future.handle((v, e) -> null).join();
+        }
+    }
+
+    /**
+     * Write queued transitions and stop writer thread
+     */
+    void close() {
+        closed = true;
+        thread.interrupt();
+        try {
+            thread.join(CLOSE_WAIT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // transitions submitted when writer thread is exiting
+        List<Transition> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+        writeBatch(remaining);
+    }
+
+    private void writeTransitions() {
+        List<Transition> batch = new ArrayList<>();
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                batch.add(queue.take());
+                long deadline = System.nanoTime() + batchDelayNanos;
+                while (batch.size() < batchSize) {
+                    Transition transition = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (transition == null) {
+                        break;
+                    }
+                    batch.add(transition);
+                }
+                writeBatch(batch);
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            LOGGER.info("Task transition writer interrupted, write queued transitions and exit");
+        }
+        queue.drainTo(batch);
+        writeBatch(batch);
+    }
+
+    /**
+     * split batch where a task appears again, then write every part in a transaction
+     */
+    private void writeBatch(List<Transition> batch) {
+        List<Transition> part = new ArrayList<>();
+        Set<Long> taskIds = new HashSet<>();
+        for (Transition transition : batch) {
+            if (!taskIds.add(transition.taskId)) {
+                write(part);
+                part = new ArrayList<>();
+                taskIds.clear();
+                taskIds.add(transition.taskId);
+            }
+            part.add(transition);
+        }
+        if (!part.isEmpty()) {
+            write(part);
+        }
+    }
+
+    private void write(List<Transition> transitions) {
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                // statements of same sql in a JDBC batch, tasks of transitions are different, so order of sql is free
+                Map<String, List<StatementBinder>> statements = new LinkedHashMap<>();
+                for (Transition transition : transitions) {
+                    for (Step step : transition.steps) {
+                        statements.computeIfAbsent(step.sql, k -> new ArrayList<>()).add(step.binder);
+                    }
+                }
+                for (Map.Entry<String, List<StatementBinder>> entry : statements.entrySet()) {
+                    try (PreparedStatement statement = connection.prepareStatement(entry.getKey())) {
+                        for (StatementBinder binder : entry.getValue()) {
+                            binder.bind(statement);
+                            statement.addBatch();
+                        }
+                        statement.executeBatch();
+                    }
+                }
+                connection.commit();
+                LOGGER.debug("Committed {} task transitions", transitions.size());
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                if (transitions.size() > 1) {
+                    transitions.forEach(transition -> write(Collections.singletonList(transition)));
+                } else {
+                    fail(transitions, e);
+                }
+                return;
+            }
+        } catch (SQLException e) {
+            fail(transitions, e);
+            return;
+        }
+        transitions.forEach(transition -> transition.future.complete(null));
+    }
+
+    private void fail(List<Transition> transitions, Exception e) {
+        for (Transition transition : transitions) {
+            String msg = String.format("%s failed, task [%d]", transition.description, transition.taskId);
+            LOGGER.error(msg, e);
+            transition.future.completeExceptionally(new AthenaException(msg, e));
+        }
+    }
+
+}
@@ -5,7 +5,6 @@ import com.timeyang.athena.task.exec.TaskUtils;
 import com.timeyang.athena.util.ClassUtils;
 import com.timeyang.athena.util.FileUtils;
 import com.timeyang.athena.util.ParametersUtils;
-import com.timeyang.athena.util.StringUtils;
 import com.timeyang.athena.util.SystemUtils;
 
 import java.util.HashMap;
@@ -35,6 +34,16 @@ public enum TaskType {
             return initCmd + " && " + execCmd;
         }
     },
+    /**
+     * trusted java task executed in athena process, see {@link com.timeyang.athena.task.exec.InProcessTaskRunner}.
+     * It's accepted only if {@code task.inProcess.enable} is true. No process is started for it, so it has no task cmd
+     */
+    JAVA_IN_PROCESS {
+        @Override
+        public String getTaskCmd(TaskInfo task, String taskRpcHost, int taskRpcPort) {
+            throw new IllegalStateException(String.format("%s task runs in athena process, it has no task cmd", this));
+        }
+    },
     MAPREDUCE {
         @Override
         public String getTaskCmd(TaskInfo task, String taskRpcHost, int taskRpcPort) {
@@ -45,7 +54,7 @@ public enum TaskType {
                     + " --taskManagerHost " + taskRpcHost
                     + " --taskManagerPort " + taskRpcPort
                     + " --taskFilePath " + taskLogFilePath
-                    + " " + task.getParams();
+                    + " " + TaskUtils.getTaskParams(task);
 
             String mainJar = ClassUtils.findJar(TaskExecutor.class);
             String jars = SystemUtils.ATHENA_JARS.stream()
@@ -74,7 +83,7 @@ public enum TaskType {
             Long taskId = task.getTaskId();
             String initCmd = TaskUtils.getTaskInitCmd(task.getTaskId());
 
-            Map<String, String> args = ParametersUtils.fromArgs(task.getParams()).get();
+            Map<String, String> args = TaskUtils.getTaskArgs(task);
             String sparkOptions = args.getOrDefault("__spark__", "");
             args.remove("__spark__");
 
@@ -110,15 +119,10 @@ public enum TaskType {
             Long taskId = task.getTaskId();
             String initCmd = TaskUtils.getTaskInitCmd(task.getTaskId());
 
-            String params = task.getParams();
-            if (!StringUtils.hasText(params)) {
-                params = "";
-            }
-
-            params = " --task_id " + task.getTaskId()
+            String params = " --task_id " + task.getTaskId()
                     + " --task_manager_host " + taskRpcHost
                     + " --task_manager_port " + taskRpcPort
-                    + " " + params;
+                    + " " + TaskUtils.getTaskParams(task);
 
             String setPythonPath = " export PYTHONPATH=${ATHENA_HOME}/python/lib/`ls pyathena*` && ";
             if (SystemUtils.IS_WINDOWS) {
@@ -145,7 +149,7 @@ public enum TaskType {
             Long taskId = task.getTaskId();
             String initCmd = TaskUtils.getTaskInitCmd(task.getTaskId());
 
-            Map<String, String> args = ParametersUtils.fromArgs(task.getParams()).get();
+            Map<String, String> args = TaskUtils.getTaskArgs(task);
             String sparkOptions = args.getOrDefault("__spark__", "");
             args.remove("__spark__");
             String params = " --task_id " + task.getTaskId()
@@ -178,7 +182,7 @@ public enum TaskType {
             String params = " --taskId " + task.getTaskId()
                     + " --taskManagerHost " + taskRpcHost
                     + " --taskManagerPort " + taskRpcPort
-                    + " " + task.getParams();
+                    + " " + TaskUtils.getTaskParams(task);
 
             String mainJar = ClassUtils.findJar(TaskExecutor.class);
             String jars = SystemUtils.ATHENA_JARS.stream()
@@ -235,5 +239,15 @@ public enum TaskType {
         return sb.toString();
     }
 
+    /**
+     * @return whether task runs in athena process instead of a task process
+     */
+    public boolean isInProcess() {
+        return this == JAVA_IN_PROCESS;
+    }
+
+    /**
+     * @return cmd which inits task and starts its process
+     */
     public abstract String getTaskCmd(TaskInfo task, String taskRpcHost, int taskRpcPort);
 }
@@ -1,10 +1,12 @@
 package com.timeyang.athena.task.exec;
 
+import com.timeyang.athena.AthenaConf;
 import com.timeyang.athena.AthenaException;
 import com.timeyang.athena.rpc.RpcAddress;
 import com.timeyang.athena.rpc.RpcEndpoint;
 import com.timeyang.athena.rpc.RpcEnv;
 import com.timeyang.athena.util.IoUtils;
+import com.timeyang.athena.util.SystemUtils;
 import com.timeyang.athena.util.cmd.CmdUtils;
 import com.timeyang.athena.util.cmd.Command;
 
@@ -17,16 +19,34 @@ import java.util.UUID;
 import static com.timeyang.athena.task.message.TaskMessage.*;
 
 /**
- * Daemon task in nodes
+ * Daemon task in nodes. It runs a {@link NodeAgent} of its host, which stays connected to TaskManager and launches
+ * tasks of the host, and serves {@link Command}s by an {@link RpcEnv}.
+ * <p>Submit it host fixed on every node, TaskManager address and node agent secret are captured when the task is
+ * created.</p>
  *
  * @author https://github.com/chaokunyang
  */
 public class DaemonTask implements Task, RpcEndpoint {
+    private final String taskManagerHost;
+    private final int taskManagerPort;
+    private final String agentSecret;
+
+    public DaemonTask() {
+        AthenaConf athenaConf = AthenaConf.getConf();
+        this.taskManagerHost = athenaConf.getTaskRpcHost();
+        this.taskManagerPort = athenaConf.getTaskRpcPort();
+        this.agentSecret = athenaConf.getNodeAgentSecret();
+    }
 
     @Override
     public void exec(TaskContext ctx) {
         RpcEnv rpcEnv = new RpcEnv("0.0.0.0", 0, this);
-        rpcEnv.startAndWait();
+        rpcEnv.start();
+        try {
+            new NodeAgent(SystemUtils.HOSTNAME, taskManagerHost, taskManagerPort, agentSecret).run();
+        } finally {
+            rpcEnv.stop();
+        }
     }
 
     @Override
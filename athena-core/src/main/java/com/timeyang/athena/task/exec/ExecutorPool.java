@@ -0,0 +1,392 @@
+package com.timeyang.athena.task.exec;
+
+import com.timeyang.athena.AthenaConf;
+import com.timeyang.athena.task.TaskInfo;
+import com.timeyang.athena.task.message.TaskMessage;
+import com.timeyang.athena.task.message.TaskMessage.*;
+import com.timeyang.athena.util.StringUtils;
+import com.timeyang.athena.util.ThreadUtils;
+import com.timeyang.athena.util.cmd.Result;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of idle, already handshaked TaskExecutor JVMs.
+ * <p>A pooled JVM is a {@link TaskExecutorLauncher} started with {@code --poolId}. It handshakes with
+ * {@link TaskBackend} using taskId {@code -poolId}, reports {@link ExecutorReady} and waits. When a task is assigned,
+ * it runs the task in the same way as a cold started launcher, so the task still handshakes with its own taskId and
+ * gets {@link TaskSubmit}, only JVM boot and classloading are saved.</p>
+ * <p>Executors are keyed by host and JVM classpath, a task can only be run by an executor with the same key.
+ * Every JVM exits after {@code task.executor.pool.maxTasksPerJvm} tasks or {@code task.executor.pool.idleTimeout}
+ * seconds idle, pool is replenished asynchronously through {@link NodeAgentManager} like cold started tasks. Idle,
+ * busy and launching JVMs count towards pool size, a busy JVM which will run more tasks is expected back when its
+ * task finishes.</p>
+ *
+ * @author https://github.com/chaokunyang
+ */
+public class ExecutorPool implements ExecutorPoolMXBean {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ExecutorPool.class);
+    public static final String MBEAN_NAME = "com.timeyang.athena:type=ExecutorPool";
+    private static final long ASSIGN_TIMEOUT_MILLIS = 5000;
+    private static final long LAUNCH_TIMEOUT_MILLIS = 60000;
+
+    private final AthenaConf athenaConf;
+    private final NodeAgentManager nodeAgentManager;
+    private final String rpcHost;
+    private final int rpcPort;
+    private final int size;
+    private final int maxTasksPerJvm;
+
+    private final AtomicInteger poolIdGenerator = new AtomicInteger();
+    private final ConcurrentMap<String, Deque<PooledExecutor>> idleExecutors = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Integer, PendingLaunch> pendingLaunches = new ConcurrentHashMap<>();
+    // executors running a task, keyed by taskId
+    private final ConcurrentMap<Long, PooledExecutor> busyExecutors = new ConcurrentHashMap<>();
+    private final ChannelGroup channelGroup = new DefaultChannelGroup(ImmediateEventExecutor.INSTANCE);
+    private final ExecutorService launchExecutor =
+            Executors.newSingleThreadExecutor(ThreadUtils.createThreadFactory("ExecutorPoolLauncher"));
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong launched = new AtomicLong();
+
+    public ExecutorPool(AthenaConf athenaConf, NodeAgentManager nodeAgentManager) {
+        this.athenaConf = athenaConf;
+        this.nodeAgentManager = nodeAgentManager;
+        this.rpcHost = athenaConf.getTaskRpcHost();
+        this.rpcPort = athenaConf.getTaskRpcPort();
+        this.size = athenaConf.getExecutorPoolSize();
+        this.maxTasksPerJvm = athenaConf.getExecutorPoolMaxTasksPerJvm();
+    }
+
+    public void start() {
+        if (athenaConf.getBoolean("jmx.enable")) {
+            registerMBean();
+        }
+        // task host is localhost for now, warm up executors for tasks without extra libs
+        String classpath = TaskUtils.getExecutorClasspath((String) null);
+        replenish("localhost", classpath, TaskUtils.getExecutorPoolKey("localhost", classpath));
+    }
+
+    public void stop() {
+        launchExecutor.shutdownNow();
+        channelGroup.writeAndFlush(new TaskMessage.KillTask()).awaitUninterruptibly();
+        channelGroup.close().awaitUninterruptibly();
+        idleExecutors.clear();
+        busyExecutors.clear();
+        if (athenaConf.getBoolean("jmx.enable")) {
+            unregisterMBean();
+        }
+    }
+
+    /**
+     * Hand task to an idle pooled executor, without waiting for an executor to become idle
+     *
+     * @param args TaskExecutorLauncher arguments of task
+     * @return future completed with true if a pooled executor accepted the task, with false if task need to be cold
+     * started
+     */
+    public CompletableFuture<Boolean> assign(TaskInfo taskInfo, Map<String, String> args) {
+        String host = taskInfo.getHost();
+        String classpath = TaskUtils.getExecutorClasspath(taskInfo);
+        String poolKey = TaskUtils.getExecutorPoolKey(host, classpath);
+        long taskId = taskInfo.getTaskId();
+
+        Deque<PooledExecutor> executors = idleExecutors.get(poolKey);
+        // most recently used executor first, its JIT is warmest and the others can expire
+        PooledExecutor executor = executors != null ? executors.pollLast() : null;
+        CompletableFuture<Boolean> assigned;
+        if (executor == null) {
+            assigned = CompletableFuture.completedFuture(false);
+        } else {
+            PooledExecutor idleExecutor = executor;
+            busyExecutors.put(taskId, idleExecutor);
+            assigned = idleExecutor.assign(taskId, args).whenComplete((accepted, e) -> {
+                if (!accepted) {
+                    busyExecutors.remove(taskId, idleExecutor);
+                }
+            });
+        }
+        return assigned.whenComplete((accepted, e) -> {
+            if (accepted) {
+                hits.incrementAndGet();
+            } else {
+                misses.incrementAndGet();
+            }
+            replenish(host, classpath, poolKey);
+        });
+    }
+
+    /**
+     * Called when a task finishes, the pooled executor which ran it comes back unless it has run its last task
+     */
+    void taskFinished(long taskId) {
+        PooledExecutor executor = busyExecutors.remove(taskId);
+        if (executor != null && executor.executedTasks + 1 < maxTasksPerJvm) {
+            pendingLaunches.put(executor.poolId, new PendingLaunch(executor.poolKey, System.currentTimeMillis()));
+        }
+    }
+
+    private void replenish(String host, String classpath, String poolKey) {
+        if (launchExecutor.isShutdown()) {
+            return;
+        }
+        launchExecutor.execute(() -> {
+            long now = System.currentTimeMillis();
+            pendingLaunches.values().removeIf(pending -> now - pending.launchTime > LAUNCH_TIMEOUT_MILLIS);
+
+            Deque<PooledExecutor> executors = idleExecutors.get(poolKey);
+            int idle = executors == null ? 0 : executors.size();
+            long busy = busyExecutors.values().stream()
+                    .filter(e -> e.poolKey.equals(poolKey))
+                    .count();
+            long pending = pendingLaunches.values().stream()
+                    .filter(p -> p.poolKey.equals(poolKey))
+                    .count();
+            for (long i = idle + busy + pending; i < size; i++) {
+                launch(host, classpath, poolKey);
+            }
+        });
+    }
+
+    private void launch(String host, String classpath, String poolKey) {
+        int poolId = poolIdGenerator.incrementAndGet();
+        pendingLaunches.put(poolId, new PendingLaunch(poolKey, System.currentTimeMillis()));
+
+        String cmd = TaskUtils.getExecutorPoolInitCmd() + " && "
+                + TaskUtils.getPooledExecutorCmd(poolId, poolKey, classpath, rpcHost, rpcPort);
+        LOGGER.info("Launching pooled executor [{}]. cmd: [{}]", poolId, cmd);
+        Result result = nodeAgentManager.exec(host, cmd);
+        if (StringUtils.hasLength(result.getError())) {
+            LOGGER.warn("pooled executor [{}] launch error output: {}", poolId, result.getError());
+        }
+        if (result.isSucceed()) {
+            launched.incrementAndGet();
+        } else {
+            LOGGER.error("Launch pooled executor [{}] failed, exit code {}", poolId, result.getExitCode());
+            pendingLaunches.remove(poolId);
+        }
+    }
+
+    /**
+     * @return channel handler of pooled executor connection, which replaces task handlers after handshake
+     */
+    SimpleChannelInboundHandler<TaskMessage> newChannelHandler(int poolId, int pid) {
+        return new PooledExecutorHandler(poolId, pid);
+    }
+
+    private void register(PooledExecutor executor) {
+        pendingLaunches.remove(executor.poolId);
+        // the task channel may close after executor is back
+        busyExecutors.values().removeIf(busy -> busy.poolId == executor.poolId);
+        idleExecutors.computeIfAbsent(executor.poolKey, k -> new ConcurrentLinkedDeque<>())
+                .offerLast(executor);
+        LOGGER.info("pooled executor [{}] pid [{}] is idle", executor.poolId, executor.pid);
+    }
+
+    private void deregister(PooledExecutor executor) {
+        Deque<PooledExecutor> executors = idleExecutors.get(executor.poolKey);
+        if (executors != null) {
+            executors.remove(executor);
+        }
+    }
+
+    private void registerMBean() {
+        try {
+            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(MBEAN_NAME);
+            if (mBeanServer.isRegistered(name)) {
+                mBeanServer.unregisterMBean(name);
+            }
+            mBeanServer.registerMBean(this, name);
+        } catch (JMException e) {
+            LOGGER.warn("Register ExecutorPool MBean failed", e);
+        }
+    }
+
+    private void unregisterMBean() {
+        try {
+            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(MBEAN_NAME);
+            if (mBeanServer.isRegistered(name)) {
+                mBeanServer.unregisterMBean(name);
+            }
+        } catch (JMException e) {
+            LOGGER.warn("Unregister ExecutorPool MBean failed", e);
+        }
+    }
+
+    @Override
+    public long getHits() {
+        return hits.get();
+    }
+
+    @Override
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public double getHitRate() {
+        long hits = this.hits.get();
+        long total = hits + misses.get();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    @Override
+    public int getIdleExecutors() {
+        return idleExecutors.values().stream().mapToInt(Deque::size).sum();
+    }
+
+    @Override
+    public int getPendingLaunches() {
+        return pendingLaunches.size();
+    }
+
+    @Override
+    public long getLaunchedExecutors() {
+        return launched.get();
+    }
+
+    private class PooledExecutorHandler extends SimpleChannelInboundHandler<TaskMessage> {
+        private final int poolId;
+        private final int pid;
+        private PooledExecutor executor;
+
+        PooledExecutorHandler(int poolId, int pid) {
+            this.poolId = poolId;
+            this.pid = pid;
+        }
+
+        @Override
+        public void handlerAdded(ChannelHandlerContext ctx) {
+            channelGroup.add(ctx.channel());
+        }
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, TaskMessage msg) {
+            if (msg instanceof ExecutorReady) {
+                ExecutorReady ready = (ExecutorReady) msg;
+                executor = new PooledExecutor(poolId, pid, ready.getPoolKey(), ready.getExecutedTasks(), ctx.channel());
+                register(executor);
+            } else if (msg instanceof ExecutorAssignAck) {
+                if (executor != null) {
+                    executor.acknowledged(true);
+                }
+            }
+        }
+
+        @Override
+        public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+            if (evt instanceof IdleStateEvent) {
+                ctx.writeAndFlush(new HeartBeat(-poolId))
+                        .addListener((ChannelFutureListener) future -> {
+                            if (!future.isSuccess()) {
+                                LOGGER.warn("pooled executor [{}] heartbeat failed, close it", poolId);
+                                future.channel().close();
+                            }
+                        });
+            } else {
+                super.userEventTriggered(ctx, evt);
+            }
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) {
+            if (executor != null) {
+                deregister(executor);
+                executor.acknowledged(false);
+            }
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            LOGGER.warn("pooled executor [{}] exception, close it", poolId, cause);
+            ctx.close();
+        }
+    }
+
+    private static class PooledExecutor {
+        private final int poolId;
+        private final int pid;
+        private final String poolKey;
+        private final int executedTasks;
+        private final Channel channel;
+        private volatile CompletableFuture<Boolean> assignAck;
+
+        PooledExecutor(int poolId, int pid, String poolKey, int executedTasks, Channel channel) {
+            this.poolId = poolId;
+            this.pid = pid;
+            this.poolKey = poolKey;
+            this.executedTasks = executedTasks;
+            this.channel = channel;
+        }
+
+        /**
+         * @return future completed with false if executor doesn't accept task in {@link #ASSIGN_TIMEOUT_MILLIS}
+         */
+        CompletableFuture<Boolean> assign(long taskId, Map<String, String> args) {
+            if (!channel.isActive()) {
+                return CompletableFuture.completedFuture(false);
+            }
+            CompletableFuture<Boolean> ack = new CompletableFuture<>();
+            this.assignAck = ack;
+            channel.writeAndFlush(new ExecutorAssign(taskId, new HashMap<>(args)))
+                    .addListener(future -> {
+                        if (!future.isSuccess()) {
+                            ack.complete(false);
+                        }
+                    });
+            ScheduledFuture<?> timeout = channel.eventLoop().schedule(() -> {
+                if (ack.complete(false)) {
+                    LOGGER.warn("pooled executor [{}] didn't accept task [{}], close it", poolId, taskId);
+                    // executor checks its connection before running an accepted task
+                    channel.close();
+                }
+            }, ASSIGN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            return ack.whenComplete((accepted, e) -> {
+                timeout.cancel(false);
+                if (accepted) {
+                    LOGGER.info("task [{}] assigned to pooled executor [{}] pid [{}]", taskId, poolId, pid);
+                }
+            });
+        }
+
+        void acknowledged(boolean accepted) {
+            CompletableFuture<Boolean> ack = this.assignAck;
+            if (ack != null) {
+                ack.complete(accepted);
+            }
+        }
+    }
+
+    private static class PendingLaunch {
+        private final String poolKey;
+        private final long launchTime;
+
+        PendingLaunch(String poolKey, long launchTime) {
+            this.poolKey = poolKey;
+            this.launchTime = launchTime;
+        }
+    }
+
+}
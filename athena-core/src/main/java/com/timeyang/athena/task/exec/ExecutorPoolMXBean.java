@@ -0,0 +1,40 @@
+package com.timeyang.athena.task.exec;
+
+/**
+ * Executor pool metrics exposed by JMX
+ *
+ * @author https://github.com/chaokunyang
+ */
+public interface ExecutorPoolMXBean {
+
+    /**
+     * @return number of tasks handed to a pooled executor
+     */
+    long getHits();
+
+    /**
+     * @return number of tasks which had to cold start a JVM because no pooled executor was idle
+     */
+    long getMisses();
+
+    /**
+     * @return hits / (hits + misses), 0 if no task assigned yet
+     */
+    double getHitRate();
+
+    /**
+     * @return number of idle pooled executors
+     */
+    int getIdleExecutors();
+
+    /**
+     * @return number of executor JVMs launched but not yet handshaked
+     */
+    int getPendingLaunches();
+
+    /**
+     * @return number of executor JVMs launched by pool
+     */
+    long getLaunchedExecutors();
+
+}
@@ -0,0 +1,341 @@
+package com.timeyang.athena.task.exec;
+
+import com.timeyang.athena.AthenaConf;
+import com.timeyang.athena.task.TaskInfo;
+import com.timeyang.athena.util.ClassLoaderUtils.ChildFirstURLClassLoader;
+import com.timeyang.athena.util.IoUtils;
+import com.timeyang.athena.util.StringUtils;
+import com.timeyang.athena.util.SystemUtils;
+import com.timeyang.athena.util.ThreadUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.regex.Pattern;
+
+/**
+ * Run trusted {@link com.timeyang.athena.task.TaskType#JAVA_IN_PROCESS} tasks inside athena JVM.
+ * <p>No process is forked and no message is serialized, the task is created in a child-first classloader and
+ * executed by a bounded thread pool. {@link TaskCallback} and {@link Task} lifecycle methods are called in the same
+ * order as a task run by {@link TaskExecutor}.</p>
+ * <p>Task classloader only contains task libs which are not on athena classpath, so that {@link Task} and athena
+ * dependencies are shared with athena. Classloaders are cached by the resolved task classpath and closed when runner
+ * stops.</p>
+ * <p>A task is created and inited by the pool thread which picks it, so a task rejected by a full pool is never
+ * inited.</p>
+ * <p>Kill interrupts the task thread, a task which ignores interruption keeps running until it returns, but its
+ * result will be ignored.</p>
+ *
+ * @author https://github.com/chaokunyang
+ */
+public class InProcessTaskRunner {
+    private static final Logger LOGGER = LoggerFactory.getLogger(InProcessTaskRunner.class);
+
+    private final TaskCallback taskCallback;
+    private final ThreadPoolExecutor executor;
+    private final ConcurrentMap<String, URLClassLoader> classLoaders = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Long, InProcessTask> tasks = new ConcurrentHashMap<>();
+
+    public InProcessTaskRunner(AthenaConf athenaConf, TaskCallback taskCallback) {
+        this(athenaConf.getInProcessTaskThreads(), athenaConf.getInProcessTaskQueueSize(), taskCallback);
+    }
+
+    InProcessTaskRunner(int threads, int queueSize, TaskCallback taskCallback) {
+        this.taskCallback = taskCallback;
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize),
+                ThreadUtils.createThreadFactory("InProcessTask"));
+    }
+
+    public void stop() {
+        tasks.keySet().forEach(taskId -> kill(taskId, () -> {}));
+        executor.shutdownNow();
+        classLoaders.values().forEach(classLoader -> {
+            try {
+                classLoader.close();
+            } catch (IOException e) {
+                LOGGER.warn("close in-process task classloader failed", e);
+            }
+        });
+        classLoaders.clear();
+    }
+
+    /**
+     * Submit task to thread pool, task is created and inited by the thread which picks it, so a task rejected by a
+     * full pool is never inited
+     *
+     * @param onPicked called when a thread picks the task, before it's created
+     * @return false if thread pool is full
+     */
+    public boolean runTask(TaskInfo taskInfo, Runnable onPicked) {
+        long taskId = taskInfo.getTaskId();
+        InProcessTask inProcessTask = new InProcessTask(taskInfo);
+        tasks.put(taskId, inProcessTask);
+        try {
+            inProcessTask.future = executor.submit(() -> {
+                onPicked.run();
+                execute(inProcessTask);
+            });
+        } catch (RejectedExecutionException e) {
+            LOGGER.warn("in-process task pool is full, task [{}] will be scheduled later", taskId);
+            tasks.remove(taskId);
+            return false;
+        }
+        return true;
+    }
+
+    private void execute(InProcessTask inProcessTask) {
+        TaskInfo taskInfo = inProcessTask.taskInfo;
+        long taskId = inProcessTask.taskId;
+        Map<String, String> params = TaskUtils.getTaskArgs(taskInfo);
+
+        ClassLoader classLoader;
+        Task task;
+        try {
+            classLoader = getClassLoader(taskInfo.getLibs(), params.get("classpathFile"));
+            task = TaskUtils.createTask(taskInfo.getClassName(), params, classLoader);
+        } catch (RuntimeException e) {
+            LOGGER.error("Create in-process task [{}] failed, move task to finished", taskId, e);
+            if (tasks.remove(taskId) != null) {
+                taskCallback.onFailure(taskId);
+            }
+            return;
+        }
+        inProcessTask.task = task;
+
+        TaskContext taskContext = inProcessTask.taskContext;
+        Thread thread = Thread.currentThread();
+        ClassLoader contextClassLoader = thread.getContextClassLoader();
+        thread.setContextClassLoader(classLoader);
+        try {
+            try {
+                LOGGER.info("init in-process task [{}]", taskId);
+                task.init(taskContext);
+            } catch (Throwable throwable) {
+                LOGGER.error("init in-process task [{}] failed", taskId, throwable);
+                if (tasks.remove(taskId) != null) {
+                    taskCallback.onFailure(taskId);
+                }
+                return;
+            }
+            if (!tasks.containsKey(taskId)) {
+                // killed while initing
+                return;
+            }
+
+            taskCallback.onStarted(taskId, SystemUtils.getPID());
+            log(taskId, "task started in athena process, thread: " + thread.getName());
+            LOGGER.info("in-process task [{}] {} started", taskId, task);
+
+            Throwable failure = null;
+            try {
+                task.exec(taskContext);
+            } catch (Throwable throwable) {
+                failure = throwable;
+            }
+
+            if (tasks.remove(taskId) == null) {
+                // killed, result is ignored
+                return;
+            }
+            if (failure == null) {
+                log(taskId, "task execute succeed");
+                taskCallback.onSuccess(taskId);
+                try {
+                    task.onSuccess(taskContext);
+                } catch (Throwable throwable) {
+                    String logMsg = String.format("Call task [%s] onSuccess method failed", task);
+                    LOGGER.warn(logMsg, throwable);
+                }
+                LOGGER.info("in-process task {} {} succeed", taskId, task);
+            } else {
+                StringWriter stackTrace = new StringWriter();
+                failure.printStackTrace(new PrintWriter(stackTrace));
+                log(taskId, "task execute failed\n" + stackTrace);
+                LOGGER.warn(String.format("Task [%d] exec failed ", taskId), failure);
+                try {
+                    task.onError(taskContext, failure);
+                } catch (Throwable t) {
+                    String logMsg = String.format("Call task [%s] onError method failed", task);
+                    LOGGER.warn(logMsg, t);
+                }
+                LOGGER.info("in-process task [{}] {} failed", taskId, task);
+                taskCallback.onFailure(taskId);
+            }
+        } finally {
+            thread.setContextClassLoader(contextClassLoader);
+        }
+    }
+
+    public Future<?> kill(long taskId, Runnable runnable) {
+        InProcessTask inProcessTask = tasks.remove(taskId);
+        if (inProcessTask == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        Future<?> future = inProcessTask.future;
+        if (future != null) {
+            future.cancel(true);
+            // a cancelled task waiting in pool queue still takes its slot until it's removed
+            executor.purge();
+        }
+        log(taskId, "task killed");
+        // a task killed before it's created has nothing to call
+        Task task = inProcessTask.task;
+        if (task != null) {
+            try {
+                task.onKilled(inProcessTask.taskContext);
+            } catch (Throwable t) {
+                String logMsg = String.format("Call task [%s] onKilled method failed", task);
+                LOGGER.warn(logMsg, t);
+            }
+        }
+        runnable.run();
+        return CompletableFuture.completedFuture(null);
+    }
+
+    public boolean isTaskRunning(long taskId) {
+        return tasks.containsKey(taskId);
+    }
+
+    /**
+     * @param lineNumber start line (1 started)
+     */
+    public List<String> getLogLines(long taskId, int lineNumber, int rows) {
+        Path path = Paths.get(TaskUtils.getTaskLogFilePath(taskId));
+        if (!Files.exists(path)) {
+            return new ArrayList<>();
+        }
+        try (Stream<String> lines = Files.lines(path, StandardCharsets.UTF_8)) {
+            return lines.skip(Math.max(lineNumber - 1, 0)).limit(rows).collect(Collectors.toList());
+        } catch (IOException e) {
+            e.printStackTrace();
+            return new ArrayList<>();
+        }
+    }
+
+    public List<String> getTailLines(long taskId, int rows) {
+        String path = TaskUtils.getTaskLogFilePath(taskId);
+        if (!Files.exists(Paths.get(path))) {
+            return new ArrayList<>();
+        }
+        LogInspection logInspection = new LogInspection(path);
+        try {
+            return logInspection.getTailLines(rows);
+        } finally {
+            logInspection.close();
+        }
+    }
+
+    public List<LogLine> grep(long taskId, Pattern pattern, int maxHits, long timeoutMillis) {
+        String path = TaskUtils.getTaskLogFilePath(taskId);
+        if (!Files.exists(Paths.get(path))) {
+            return new ArrayList<>();
+        }
+        LogInspection logInspection = new LogInspection(path);
+        try {
+            return logInspection.grep(pattern, maxHits, timeoutMillis);
+        } finally {
+            logInspection.close();
+        }
+    }
+
+    /**
+     * classloaders are keyed by resolved task classpath, classpathFile is written per task, but tasks of same libs
+     * share a classloader
+     */
+    private URLClassLoader getClassLoader(String libs, String classpathFile) {
+        Set<String> classpath = new LinkedHashSet<>();
+        String sep = SystemUtils.IS_WINDOWS ? ";" : ":";
+        if (StringUtils.hasText(libs)) {
+            classpath.addAll(Arrays.asList(libs.split(sep)));
+        }
+        if (StringUtils.hasText(classpathFile)) {
+            try {
+                classpath.addAll(Arrays.asList(IoUtils.readFile(new File(classpathFile), "UTF-8").split(sep)));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        List<URL> urls = new ArrayList<>();
+        for (String entry : classpath) {
+            entry = entry.trim();
+            if (entry.isEmpty()) {
+                continue;
+            }
+            List<String> files = new ArrayList<>();
+            if (entry.endsWith("*")) {
+                try (Stream<Path> dir = Files.list(Paths.get(entry.substring(0, entry.length() - 1)))) {
+                    dir.sorted().forEach(p -> files.add(p.toAbsolutePath().toString()));
+                } catch (IOException e) {
+                    LOGGER.warn("Can't list task lib dir {}", entry, e);
+                }
+            } else {
+                files.add(new File(entry).getAbsolutePath());
+            }
+            for (String file : files) {
+                // classes on athena classpath are loaded by athena, so Task interface and TaskContext are shared
+                if (SystemUtils.CLASSPATH_SET.contains(file)) {
+                    continue;
+                }
+                try {
+                    urls.add(new File(file).toURI().toURL());
+                } catch (MalformedURLException e) {
+                    e.printStackTrace();
+                    throw new RuntimeException(e);
+                }
+            }
+        }
+        return classLoaders.computeIfAbsent(urls.toString(), k -> {
+            LOGGER.info("in-process task classpath: {}", urls);
+            return new ChildFirstURLClassLoader(urls.toArray(new URL[0]), InProcessTaskRunner.class.getClassLoader());
+        });
+    }
+
+    /**
+     * task log file keeps lifecycle and failure of in-process task, task's own logging goes to athena log
+     */
+    private void log(long taskId, String msg) {
+        try {
+            Path path = Paths.get(TaskUtils.getTaskLogFilePath(taskId));
+            Files.createDirectories(path.getParent());
+            String line = String.format("%s [%s] INFO %s - %s%n",
+                    Instant.now(), Thread.currentThread().getName(), InProcessTaskRunner.class.getName(), msg);
+            Files.write(path, line.getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            LOGGER.warn("write in-process task [{}] log failed", taskId, e);
+        }
+    }
+
+    private static class InProcessTask {
+        private final long taskId;
+        private final TaskInfo taskInfo;
+        private final TaskContext taskContext;
+        private volatile Task task;
+        private volatile Future<?> future;
+
+        InProcessTask(TaskInfo taskInfo) {
+            this.taskId = taskInfo.getTaskId();
+            this.taskInfo = taskInfo;
+            this.taskContext = TaskContextImpl.makeTaskContext(taskId);
+        }
+    }
+
+}
@@ -0,0 +1,328 @@
+package com.timeyang.athena.task.exec;
+
+import com.timeyang.athena.AthenaException;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Block-compressed archive of a collected task log.
+ * <p>
+ *     Log is split into blocks at line boundaries, and every block is deflated independently, so reading a line only
+ *     inflates the block containing it. Lines longer than block size make a larger block.
+ * </p>
+ * <p>
+ *     Layout: blocks, block index, trailer.
+ *     Block index entry: file offset(8 bytes), compressed length(4 bytes), raw length(4 bytes),
+ *     first line(8 bytes, 0 started).
+ *     Trailer: index offset(8 bytes), block count(4 bytes), line count(8 bytes), magic(4 bytes).
+ * </p>
+ *
+ * @author https://github.com/chaokunyang
+ */
+public class LogArchive implements LogSource {
+    public static final String ARCHIVE_FILE_SUFFIX = ".z";
+    private static final int MAGIC = 0x4C415231; // LAR1
+    private static final int INDEX_ENTRY_LENGTH = 24;
+    private static final int TRAILER_LENGTH = 24;
+
+    private final FileChannel channel;
+    private final long[] offsets;
+    private final int[] compressedLengths;
+    private final int[] rawLengths;
+    private final long[] firstLines;
+    private final long lineCount;
+    private final Inflater inflater = new Inflater();
+    // last inflated block
+    private int cachedBlock = -1;
+    private List<String> cachedLines;
+
+    public LogArchive(String archivePath) {
+        try {
+            channel = FileChannel.open(Paths.get(archivePath), StandardOpenOption.READ);
+            ByteBuffer trailer = read(channel.size() - TRAILER_LENGTH, TRAILER_LENGTH);
+            long indexOffset = trailer.getLong();
+            int blockCount = trailer.getInt();
+            lineCount = trailer.getLong();
+            if (trailer.getInt() != MAGIC) {
+                throw new IOException("Not a log archive");
+            }
+            ByteBuffer index = read(indexOffset, blockCount * INDEX_ENTRY_LENGTH);
+            offsets = new long[blockCount];
+            compressedLengths = new int[blockCount];
+            rawLengths = new int[blockCount];
+            firstLines = new long[blockCount];
+            for (int i = 0; i < blockCount; i++) {
+                offsets[i] = index.getLong();
+                compressedLengths[i] = index.getInt();
+                rawLengths[i] = index.getInt();
+                firstLines[i] = index.getLong();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            String msg = String.format("Can't open log archive [%s]", archivePath);
+            throw new AthenaException(msg, e);
+        }
+    }
+
+    public static String getArchivePath(String logFilePath) {
+        return logFilePath + ARCHIVE_FILE_SUFFIX;
+    }
+
+    /**
+     * Compress log file to archive. Archive is written to a temporary file first, so an archive is always complete.
+     *
+     * @param blockSize raw bytes of a block
+     */
+    public static void archive(String logFilePath, String archivePath, int blockSize) throws IOException {
+        Path tmpPath = Paths.get(archivePath + ".tmp");
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try (FileChannel in = FileChannel.open(Paths.get(logFilePath), StandardOpenOption.READ);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpPath.toFile())))) {
+            ByteBuffer raw = ByteBuffer.allocate(blockSize);
+            byte[] compressed = new byte[blockSize + blockSize / 10 + 64];
+            ByteBuffer index = ByteBuffer.allocate(1024 * INDEX_ENTRY_LENGTH);
+            long offset = 0;
+            long lines = 0;
+            int blockCount = 0;
+            boolean eof = false;
+            while (!eof || raw.position() > 0) {
+                while (!eof && raw.hasRemaining()) {
+                    eof = in.read(raw) < 0;
+                }
+                byte[] array = raw.array();
+                int length = raw.position();
+                int cut = length;
+                if (!eof) {
+                    cut = lastLineEnd(array, length);
+                    if (cut == 0) {
+                        // line longer than block, grow the block until the line ends
+                        raw = ByteBuffer.allocate(raw.capacity() * 2).put(array, 0, length);
+                        compressed = new byte[raw.capacity() + raw.capacity() / 10 + 64];
+                        continue;
+                    }
+                }
+
+                if (cut == 0) {
+                    break; // empty log
+                }
+                int blockLines = 0;
+                for (int i = 0; i < cut; i++) {
+                    if (array[i] == '\n') {
+                        blockLines++;
+                    }
+                }
+                if (cut > 0 && array[cut - 1] != '\n') {
+                    blockLines++; // last line without line separator
+                }
+
+                deflater.reset();
+                deflater.setInput(array, 0, cut);
+                deflater.finish();
+                int compressedLength = 0;
+                while (!deflater.finished()) {
+                    if (compressedLength == compressed.length) {
+                        compressed = Arrays.copyOf(compressed, compressed.length * 2);
+                    }
+                    compressedLength += deflater.deflate(compressed, compressedLength, compressed.length - compressedLength);
+                }
+                out.write(compressed, 0, compressedLength);
+
+                if (!index.hasRemaining()) {
+                    ByteBuffer larger = ByteBuffer.allocate(index.capacity() * 2);
+                    index.flip();
+                    index = larger.put(index);
+                }
+                index.putLong(offset).putInt(compressedLength).putInt(cut).putLong(lines);
+                offset += compressedLength;
+                lines += blockLines;
+                blockCount++;
+
+                // keep bytes after the last line end for next block
+                raw.flip();
+                raw.position(cut);
+                raw.compact();
+                if (raw.capacity() > blockSize && raw.position() <= blockSize) {
+                    raw.flip();
+                    raw = ByteBuffer.allocate(blockSize).put(raw);
+                }
+            }
+
+            out.write(index.array(), 0, index.position());
+            out.writeLong(offset);
+            out.writeInt(blockCount);
+            out.writeLong(lines);
+            out.writeInt(MAGIC);
+        } finally {
+            deflater.end();
+        }
+        Files.move(tmpPath, Paths.get(archivePath), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    @Override
+    public synchronized List<String> getLines(int lineNumber, int rows) {
+        List<String> lines = new ArrayList<>(Math.min(rows, 1024));
+        long line = Math.max(lineNumber, 1) - 1;
+        int block = findBlock(line);
+        try {
+            while (block >= 0 && block < offsets.length && lines.size() < rows) {
+                List<String> blockLines = getBlockLines(block);
+                int from = (int) (line - firstLines[block]);
+                for (int i = from; i < blockLines.size() && lines.size() < rows; i++) {
+                    lines.add(blockLines.get(i));
+                }
+                line = firstLines[block] + blockLines.size();
+                block++;
+            }
+        } catch (IOException | DataFormatException e) {
+            e.printStackTrace();
+        }
+        return lines;
+    }
+
+    @Override
+    public synchronized List<String> getTailLines(int rows) {
+        long start = Math.max(lineCount - rows, 0);
+        return getLines((int) (start + 1), rows);
+    }
+
+    /**
+     * Inflate and scan blocks concurrently, every scan uses its own inflater
+     */
+    @Override
+    public List<LogLine> grep(Pattern pattern, int maxHits, long timeoutMillis) {
+        List<LogGrep.Range> ranges = new ArrayList<>(offsets.length);
+        for (int i = 0; i < offsets.length; i++) {
+            ranges.add(new LogGrep.Range(i, i + 1, (int) firstLines[i] + 1, maxHits));
+        }
+        return LogGrep.grep(ranges, (range, cancelled) -> {
+            Inflater blockInflater = new Inflater();
+            try {
+                inflateBlock((int) range.start, blockInflater, line -> {
+                    if (range.isFull() || cancelled.getAsBoolean()) {
+                        return;
+                    }
+                    range.lines++;
+                    if (pattern.matcher(line).find()) {
+                        range.hits.add(new LogLine(range.lines, line));
+                    }
+                });
+            } finally {
+                blockInflater.end();
+            }
+        }, timeoutMillis);
+    }
+
+    public long getLineCount() {
+        return lineCount;
+    }
+
+    public int getBlockCount() {
+        return offsets.length;
+    }
+
+    @Override
+    public synchronized void close() {
+        inflater.end();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @return last block whose first line <= line, -1 if line is out of range
+     */
+    private int findBlock(long line) {
+        if (line >= lineCount) {
+            return -1;
+        }
+        int i = Arrays.binarySearch(firstLines, line);
+        if (i >= 0) {
+            // every block has at least one line, so first lines are distinct
+            return i;
+        }
+        return -i - 2;
+    }
+
+    private List<String> getBlockLines(int block) throws IOException, DataFormatException {
+        if (block == cachedBlock) {
+            return cachedLines;
+        }
+        List<String> lines = new ArrayList<>();
+        inflateBlock(block, inflater, lines::add);
+        cachedBlock = block;
+        cachedLines = lines;
+        return lines;
+    }
+
+    private void inflateBlock(int block, Inflater inflater, Consumer<String> lineConsumer)
+            throws IOException, DataFormatException {
+        ByteBuffer compressed = read(offsets[block], compressedLengths[block]);
+        byte[] raw = new byte[rawLengths[block]];
+        inflater.reset();
+        inflater.setInput(compressed.array(), 0, compressedLengths[block]);
+        int n = 0;
+        while (n < raw.length && !inflater.finished()) {
+            n += inflater.inflate(raw, n, raw.length - n);
+        }
+
+        int start = 0;
+        for (int i = 0; i < raw.length; i++) {
+            if (raw[i] == '\n') {
+                lineConsumer.accept(decode(raw, start, i));
+                start = i + 1;
+            }
+        }
+        if (start < raw.length) {
+            lineConsumer.accept(decode(raw, start, raw.length));
+        }
+    }
+
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Log archive is truncated");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static String decode(byte[] bytes, int start, int end) {
+        if (end > start && bytes[end - 1] == '\r') {
+            end--;
+        }
+        return new String(bytes, start, end - start, StandardCharsets.UTF_8);
+    }
+
+    private static int lastLineEnd(byte[] bytes, int length) {
+        for (int i = length - 1; i >= 0; i--) {
+            if (bytes[i] == '\n') {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+
+}
@@ -0,0 +1,200 @@
+package com.timeyang.athena.task.exec;
+
+import com.timeyang.athena.AthenaException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.regex.Pattern;
+
+/**
+ * Parallel grep of a log. Log is split into ranges at line starts, and ranges are scanned concurrently on a fork-join
+ * pool.
+ * <p>
+ *     Start line number of a range is known if the range starts at a {@link LogIndex} offset, otherwise it's counted
+ *     from lines of previous ranges after they are scanned. When a range gets max hits, ranges after it are
+ *     cancelled, so the first hits in file order are returned. All ranges are cancelled when grep times out.
+ * </p>
+ *
+ * @author https://github.com/chaokunyang
+ */
+final class LogGrep {
+    static final int RANGE_BYTES = 8 * 1024 * 1024;
+    private static final int CANCEL_CHECK_LINES = 1024;
+
+    private static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors(), pool -> {
+        ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+        thread.setName("LogGrep-" + thread.getPoolIndex());
+        return thread;
+    }, null, false);
+
+    private LogGrep() {}
+
+    /**
+     * Scanner of a range, must add hits with line numbers relative to range start (1 started), and count lines
+     */
+    interface RangeScanner {
+        void scan(Range range, BooleanSupplier cancelled) throws Exception;
+    }
+
+    static final class Range {
+        final long start;
+        final long end;
+        // -1 if unknown
+        final int startLine;
+        final int maxHits;
+        final List<LogLine> hits = new ArrayList<>();
+        int lines;
+
+        Range(long start, long end, int startLine, int maxHits) {
+            this.start = start;
+            this.end = end;
+            this.startLine = startLine;
+            this.maxHits = maxHits;
+        }
+
+        boolean isFull() {
+            return hits.size() >= maxHits;
+        }
+    }
+
+    /**
+     * Grep a plain log file
+     *
+     * @param indices index of log, may be empty
+     */
+    static List<LogLine> grepFile(String filePath, List<LogIndex.Index> indices, Pattern pattern, int maxHits,
+                                  long timeoutMillis) {
+        List<Range> ranges = new ArrayList<>();
+        try (LogReader reader = new LogReader(filePath)) {
+            long length = reader.length();
+            long start = 0;
+            int startLine = 1;
+            int i = 0;
+            while (start < length) {
+                long target = start + RANGE_BYTES;
+                long end;
+                int endLine = -1;
+                // use the last index before target
+                while (i < indices.size() && indices.get(i).getFilePointer() <= target) {
+                    i++;
+                }
+                LogIndex.Index index = i > 0 ? indices.get(i - 1) : null;
+                if (index != null && index.getFilePointer() > start) {
+                    end = index.getFilePointer();
+                    endLine = index.getLineNumber();
+                } else if (target >= length) {
+                    end = length;
+                } else {
+                    // skip to next line start
+                    reader.seek(target - 1);
+                    reader.readLine();
+                    end = Math.min(reader.position(), length);
+                }
+                ranges.add(new Range(start, end, startLine, maxHits));
+                start = end;
+                startLine = endLine;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            throw new AthenaException(String.format("Can't split log file [%s]", filePath), e);
+        }
+
+        return grep(ranges, (range, cancelled) -> {
+            try (LogReader reader = new LogReader(filePath)) {
+                reader.seek(range.start);
+                String line;
+                while (reader.position() < range.end && (line = reader.readLine()) != null) {
+                    range.lines++;
+                    if (pattern.matcher(line).find()) {
+                        range.hits.add(new LogLine(range.lines, line));
+                        if (range.isFull()) {
+                            return;
+                        }
+                    }
+                    if (range.lines % CANCEL_CHECK_LINES == 0 && cancelled.getAsBoolean()) {
+                        return;
+                    }
+                }
+            }
+        }, timeoutMillis);
+    }
+
+    /**
+     * Scan ranges concurrently
+     *
+     * @param timeoutMillis ranges not scanned by then are cancelled
+     * @return hits of ranges in order, at most max hits of a range
+     * @throws AthenaException if grep fails or times out
+     */
+    static List<LogLine> grep(List<Range> ranges, RangeScanner scanner, long timeoutMillis) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        // first range which gets max hits
+        AtomicInteger fullRange = new AtomicInteger(Integer.MAX_VALUE);
+        AtomicBoolean aborted = new AtomicBoolean();
+        List<Future<?>> futures = new ArrayList<>(ranges.size());
+        for (int i = 0; i < ranges.size(); i++) {
+            int rangeIndex = i;
+            Range range = ranges.get(i);
+            futures.add(POOL.submit(() -> {
+                BooleanSupplier cancelled = () -> aborted.get() || rangeIndex > fullRange.get();
+                if (cancelled.getAsBoolean()) {
+                    return null;
+                }
+                scanner.scan(range, cancelled);
+                if (range.isFull()) {
+                    fullRange.accumulateAndGet(rangeIndex, Math::min);
+                }
+                return null;
+            }));
+        }
+        try {
+            for (Future<?> future : futures) {
+                future.get(Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+            }
+        } catch (TimeoutException e) {
+            abort(futures, aborted);
+            throw new AthenaException(String.format("Grep log timeout after %d ms", timeoutMillis), e);
+        } catch (InterruptedException | ExecutionException e) {
+            abort(futures, aborted);
+            e.printStackTrace();
+            throw new AthenaException("Grep log failed", e);
+        }
+
+        List<LogLine> hits = new ArrayList<>();
+        int startLine = 1;
+        int maxHits = ranges.isEmpty() ? 0 : ranges.get(0).maxHits;
+        for (int i = 0; i < ranges.size() && i <= fullRange.get() && hits.size() < maxHits; i++) {
+            Range range = ranges.get(i);
+            if (range.startLine > 0) {
+                startLine = range.startLine;
+            }
+            for (LogLine hit : range.hits) {
+                if (hits.size() >= maxHits) {
+                    break;
+                }
+                hits.add(new LogLine(startLine + hit.getLineNumber() - 1, hit.getLine()));
+            }
+            startLine += range.lines;
+        }
+        return hits;
+    }
+
+    /**
+     * cancel ranges not started, running ranges stop at their next cancel check
+     */
+    private static void abort(List<Future<?>> futures, AtomicBoolean aborted) {
+        aborted.set(true);
+        futures.forEach(future -> future.cancel(false));
+    }
+
+}
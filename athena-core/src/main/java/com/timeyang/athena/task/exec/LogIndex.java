@@ -1,32 +1,82 @@
 package com.timeyang.athena.task.exec;
 
+import com.timeyang.athena.AthenaException;
 import com.timeyang.athena.util.Asserts;
 
+import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
-import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
- * Log index for fast seek for laege file
+ * Log index for fast seek for large file
  * <p>
- *     one index use 8 bytes.
- *     up to 1000000 indexes.
- *     one index every 100 line, 100000000 lines in total.
- *     if every 10 lines use up 1 kb, then it can index file up to 10G
+ *     one index every {@link #INDEX_PER_LINES} lines, one index use 8 bytes.
+ *     indexes are stored in fixed size chunks which are allocated on demand, so a small log costs one chunk, and
+ *     lookup of any line is O(1).
+ * </p>
+ * <p>
+ *     A persistent index is a memory-mapped sidecar file {@code <log file>.idx}, which can be reopened after the log
+ *     is collected. Layout: magic(4 bytes), INDEX_PER_LINES(4 bytes), index count(8 bytes), file offsets(8 bytes each).
  * </p>
  * Not thread-save
  * @author https://github.com/chaokunyang
  */
 public class LogIndex {
     public static final int INDEX_PER_LINES = 100;
-    private ByteBuffer byteBuffer;
-    private AtomicBoolean flipped = new AtomicBoolean();
+    public static final String INDEX_FILE_SUFFIX = ".idx";
+    private static final int MAGIC = 0x4C494458; // LIDX
+    private static final int HEADER_LENGTH = 16;
+    private static final int MEMORY_CHUNK_BYTES = 8 * 1024;
+    private static final int MAPPED_CHUNK_BYTES = 1024 * 1024;
+
+    private final int chunkBytes;
+    private final List<ByteBuffer> chunks = new ArrayList<>();
+    private RandomAccessFile indexFile;
+    private MappedByteBuffer header;
+    private long count;
 
+    /**
+     * in-memory index
+     */
     public LogIndex() {
-        // 80M index memory, 10 * 1024 * 1024 file offsets。
-        byteBuffer = ByteBuffer.allocateDirect(80 * 1024 * 1024);
+        this.chunkBytes = MEMORY_CHUNK_BYTES;
+    }
+
+    /**
+     * persistent index, existing indexes in file are loaded
+     */
+    public LogIndex(String indexFilePath) {
+        this.chunkBytes = MAPPED_CHUNK_BYTES;
+        try {
+            indexFile = new RandomAccessFile(indexFilePath, "rw");
+            boolean exists = indexFile.length() >= HEADER_LENGTH;
+            header = indexFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, HEADER_LENGTH);
+            if (exists && header.getInt(0) == MAGIC && header.getInt(4) == INDEX_PER_LINES) {
+                count = header.getLong(8);
+                long chunkCount = (count * 8 + chunkBytes - 1) / chunkBytes;
+                for (int i = 0; i < chunkCount; i++) {
+                    chunks.add(mapChunk(i));
+                }
+            } else {
+                header.putInt(0, MAGIC);
+                header.putInt(4, INDEX_PER_LINES);
+                header.putLong(8, 0);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            close();
+            String msg = String.format("Can't open log index file [%s]", indexFilePath);
+            throw new AthenaException(msg, e);
+        }
+    }
+
+    public static String getIndexFilePath(String logFilePath) {
+        return logFilePath + INDEX_FILE_SUFFIX;
     }
 
     /**
@@ -39,47 +89,86 @@ public class LogIndex {
         Asserts.check(lineNumber > 0, "line number must be greater than 0");
         lineNumber = lineNumber - 1; // internal line number starts form 0
 
-        int indexedOffset = lineNumber / INDEX_PER_LINES * 8;
-        if (indexedOffset == byteBuffer.position()) {
-            byteBuffer.putLong(filePointer);
-            return true;
+        if (lineNumber % INDEX_PER_LINES != 0 || lineNumber / INDEX_PER_LINES != count) {
+            return false;
         }
-
-        return false;
+        long offset = count * 8;
+        int chunk = (int) (offset / chunkBytes);
+        if (chunk == chunks.size()) {
+            chunks.add(indexFile == null ? ByteBuffer.allocate(chunkBytes) : mapChunk(chunk));
+        }
+        chunks.get(chunk).putLong((int) (offset % chunkBytes), filePointer);
+        count++;
+        if (header != null) {
+            header.putLong(8, count);
+        }
+        return true;
     }
 
     public Optional<Index> getRecentIndex(int lineNumber) {
         Asserts.check(lineNumber > 0, "line number must be greater than 0");
-        lineNumber = lineNumber - 1; // internal line number starts form 0
-
-        int offset = lineNumber / INDEX_PER_LINES * 8;
-
-        if (offset >= byteBuffer.position()) { // current line doesn't be indexed, get last index
-            if (byteBuffer.position() >= 8) {
-                long filePtr = byteBuffer.getLong(byteBuffer.position() - 8);
-                int indexedLineNumber = (byteBuffer.position() / 8 - 1) * INDEX_PER_LINES;
-                Index index = new Index(indexedLineNumber, filePtr);
-                return Optional.of(index);
-            }
+        if (count == 0) {
             return Optional.empty();
-        } else { // current line is in index range
-            int indexedLineNumber = lineNumber / INDEX_PER_LINES * INDEX_PER_LINES + 1; // line number starts from 1
-            Index index = new Index(indexedLineNumber, byteBuffer.getLong(offset));
-            return Optional.of(index);
         }
+        // current line may not be indexed, then get last index
+        long i = Math.min((lineNumber - 1) / INDEX_PER_LINES, count - 1);
+        return Optional.of(getIndex(i));
     }
 
     public List<Index> getIndices() {
-        List<Index> indices = new ArrayList<>(byteBuffer.position() / 8);
-        for (int i = 0; i < byteBuffer.position() / 8; i++) {
-            int indexedLineNumber = i * INDEX_PER_LINES + 1; // line number starts from 1
-            Index index = new Index(indexedLineNumber, byteBuffer.getLong(i * 8));
-            indices.add(index);
+        List<Index> indices = new ArrayList<>((int) count);
+        for (long i = 0; i < count; i++) {
+            indices.add(getIndex(i));
         }
-
         return indices;
     }
 
+    /**
+     * @return number of indexes
+     */
+    public long size() {
+        return count;
+    }
+
+    /**
+     * remove all indexes, used when log file doesn't match index
+     */
+    public void clear() {
+        count = 0;
+        if (header != null) {
+            header.putLong(8, 0);
+        }
+    }
+
+    public void close() {
+        chunks.clear();
+        header = null;
+        if (indexFile != null) {
+            try {
+                indexFile.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            indexFile = null;
+        }
+    }
+
+    private Index getIndex(long i) {
+        long offset = i * 8;
+        long filePointer = chunks.get((int) (offset / chunkBytes)).getLong((int) (offset % chunkBytes));
+        return new Index((int) (i * INDEX_PER_LINES + 1), filePointer); // line number starts from 1
+    }
+
+    private MappedByteBuffer mapChunk(int chunk) {
+        try {
+            return indexFile.getChannel().map(FileChannel.MapMode.READ_WRITE,
+                    HEADER_LENGTH + (long) chunk * chunkBytes, chunkBytes);
+        } catch (IOException e) {
+            e.printStackTrace();
+            throw new AthenaException("Can't map log index file", e);
+        }
+    }
+
     public static class Index {
         private final int lineNumber;
         private final long filePointer;
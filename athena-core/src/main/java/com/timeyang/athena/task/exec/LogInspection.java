@@ -3,33 +3,69 @@ package com.timeyang.athena.task.exec;
 import com.timeyang.athena.AthenaException;
 import com.timeyang.athena.task.exec.LogIndex.Index;
 import io.netty.channel.FileRegion;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.RandomAccessFile;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.regex.Pattern;
 
 /**
  * Log Query
  * <p>Because log is query by lines, so it's needed to loaded to memory, and we can't use zero-copy such as @link FileRegion}</p>
+ * <p>Used for log of running task by TaskExecutor, and for collected log by {@link LogManager}</p>
  *
  * @author https://github.com/chaokunyang
  */
-public class LogInspection {
-    private RandomAccessFile file;
+public class LogInspection implements LogSource {
+    private static final Logger LOGGER = LoggerFactory.getLogger(LogInspection.class);
+
+    private final String filePath;
+    private LogReader file;
     private LogIndex logIndex;
 
     LogInspection(String filePath) {
+        this(filePath, false);
+    }
+
+    /**
+     * @param persistIndex keep log index in sidecar file {@code <filePath>.idx}, so that it can be reused after log
+     *                     is collected
+     */
+    LogInspection(String filePath, boolean persistIndex) {
+        this.filePath = filePath;
         try {
-            file = new RandomAccessFile(filePath, "r");
-            logIndex = new LogIndex();
-        } catch (FileNotFoundException e) {
+            file = new LogReader(filePath);
+        } catch (IOException e) {
             e.printStackTrace();
             String msg = String.format("Can't open task log file [%s]", filePath);
             throw new AthenaException(msg, e);
         }
+        if (persistIndex) {
+            try {
+                logIndex = new LogIndex(LogIndex.getIndexFilePath(filePath));
+                checkIndex();
+            } catch (AthenaException | IOException e) {
+                LOGGER.warn("Can't use persistent log index, fall back to in-memory index", e);
+                if (logIndex != null) {
+                    logIndex.close();
+                    logIndex = null;
+                }
+            }
+        }
+        if (logIndex == null) {
+            logIndex = new LogIndex();
+        }
+    }
+
+    // index left by an overwritten log file is discarded
+    private void checkIndex() throws IOException {
+        Optional<Index> lastIndex = logIndex.getRecentIndex(Integer.MAX_VALUE);
+        if (lastIndex.isPresent() && lastIndex.get().getFilePointer() > file.length()) {
+            logIndex.clear();
+        }
     }
 
     /**
@@ -39,24 +75,23 @@ public class LogInspection {
      * @param rows       line number
      * @return log lines
      */
+    @Override
     public synchronized List<String> getLines(int lineNumber, int rows) {
+        int currentLine = 1;
         try {
             Optional<Index> optionalIndex = logIndex.getRecentIndex(lineNumber);
             if (optionalIndex.isPresent()) {
                 Index index = optionalIndex.get();
                 file.seek(index.getFilePointer());
-                int indexedLineNumber = index.getLineNumber();
-                for (int i = 1; i < lineNumber - indexedLineNumber; i++) {
-                    logIndex.put(indexedLineNumber + i, file.getFilePointer());
-                    if (file.readLine() == null)
-                        return new ArrayList<>();
-                }
+                currentLine = index.getLineNumber();
             } else {
-                for (int i = 1; i < lineNumber; i++) {
-                    logIndex.put(i, file.getFilePointer());
-                    if (file.readLine() == null)
-                        return new ArrayList<>();
-                }
+                file.seek(0L);
+            }
+            // skip lines before lineNumber, and index them on the way
+            for (; currentLine < lineNumber; currentLine++) {
+                logIndex.put(currentLine, file.position());
+                if (file.readLine() == null)
+                    return new ArrayList<>();
             }
         } catch (IOException e) {
             e.printStackTrace();
@@ -65,8 +100,8 @@ public class LogInspection {
 
         List<String> lines = new ArrayList<>(rows);
         try {
-            for (int i = 1; i <= rows; i++) {
-                logIndex.put(lineNumber + i, file.getFilePointer());
+            for (int i = 0; i < rows; i++, currentLine++) {
+                logIndex.put(currentLine, file.position());
                 String line = file.readLine();
                 if (line == null)
                     return lines;
@@ -80,11 +115,68 @@ public class LogInspection {
         }
     }
 
+    /**
+     * Get the last lines, without scanning log file from the start
+     *
+     * @param rows line number
+     * @return log lines
+     */
+    @Override
+    public synchronized List<String> getTailLines(int rows) {
+        List<String> lines = new ArrayList<>(rows);
+        try {
+            file.seek(file.tailPosition(rows));
+            String line;
+            while (lines.size() < rows && (line = file.readLine()) != null) {
+                lines.add(line);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return lines;
+    }
+
+    /**
+     * Scan log concurrently by ranges, with line numbers of indexed ranges from log index. Lines appended after
+     * grep starts are not scanned.
+     */
+    @Override
+    public List<LogLine> grep(Pattern pattern, int maxHits, long timeoutMillis) {
+        List<Index> indices;
+        synchronized (this) {
+            indices = logIndex.getIndices();
+        }
+        return LogGrep.grepFile(filePath, indices, pattern, maxHits, timeoutMillis);
+    }
+
+    /**
+     * Index the whole log file, so that any line can be found by one seek
+     */
+    public synchronized void buildIndex() {
+        try {
+            Optional<Index> lastIndex = logIndex.getRecentIndex(Integer.MAX_VALUE);
+            int currentLine = 1;
+            if (lastIndex.isPresent()) {
+                file.seek(lastIndex.get().getFilePointer());
+                currentLine = lastIndex.get().getLineNumber();
+            } else {
+                file.seek(0L);
+            }
+            do {
+                logIndex.put(currentLine++, file.position());
+            } while (file.readLine() != null);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
     public LogIndex getLogIndex() {
         return logIndex;
     }
 
-    public void close() {
+    @Override
+    public synchronized void close() {
+        logIndex.close();
         try {
             file.close();
         } catch (IOException e) {
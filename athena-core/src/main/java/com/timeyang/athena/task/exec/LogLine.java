@@ -0,0 +1,35 @@
+package com.timeyang.athena.task.exec;
+
+/**
+ * A task log line with its line number
+ *
+ * @author https://github.com/chaokunyang
+ */
+public class LogLine {
+    private final int lineNumber;
+    private final String line;
+
+    public LogLine(int lineNumber, String line) {
+        this.lineNumber = lineNumber;
+        this.line = line;
+    }
+
+    /**
+     * @return line number, 1 started
+     */
+    public int getLineNumber() {
+        return lineNumber;
+    }
+
+    public String getLine() {
+        return line;
+    }
+
+    @Override
+    public String toString() {
+        return "LogLine{" +
+                "lineNumber=" + lineNumber +
+                ", line='" + line + '\'' +
+                '}';
+    }
+}
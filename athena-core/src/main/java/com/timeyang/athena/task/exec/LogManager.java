@@ -1,6 +1,7 @@
 package com.timeyang.athena.task.exec;
 
 import com.timeyang.athena.AthenaConf;
+import com.timeyang.athena.AthenaException;
 import com.timeyang.athena.task.TaskInfo;
 import com.timeyang.athena.util.NetworkUtils;
 import com.timeyang.athena.util.ThreadUtils;
@@ -11,17 +12,21 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.regex.Pattern;
 
 /**
  * Task log management
@@ -31,13 +36,62 @@ import java.util.concurrent.TimeUnit;
 public class LogManager {
     private static final Logger LOGGER = LoggerFactory.getLogger(LogManager.class);
 
+    private static final int MAX_OPEN_LOGS = 16;
+    private static final int SEARCH_READ_ROWS = 1000;
+
     private ScheduledExecutorService executorService = Executors.newScheduledThreadPool(2, ThreadUtils.createThreadFactory("LogManager"));
+    // recently queried collected logs, LRU
+    private final Map<Long, OpenSource> sources = new LinkedHashMap<Long, OpenSource>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
 
-    public LogManager(AthenaConf athenaConf) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, OpenSource> eldest) {
+            if (size() > MAX_OPEN_LOGS) {
+                eldest.getValue().evict();
+                return true;
+            }
+            return false;
+        }
+    };
+    private final boolean archiveEnabled;
+    private final int archiveBlockSize;
+    private final long grepTimeoutMillis;
+    private final LogSearchIndex searchIndex;
+    private final NodeAgentManager nodeAgentManager;
+
+    /**
+     * @param nodeAgentManager node agents which clean task exec dirs of remote hosts
+     */
+    public LogManager(AthenaConf athenaConf, NodeAgentManager nodeAgentManager) {
+        this.nodeAgentManager = nodeAgentManager;
+        this.archiveEnabled = athenaConf.isTaskLogArchiveEnabled();
+        this.archiveBlockSize = athenaConf.getTaskLogArchiveBlockSize();
+        this.grepTimeoutMillis = athenaConf.getTaskLogGrepTimeout();
+        this.searchIndex = athenaConf.isTaskLogSearchEnabled() ?
+                new LogSearchIndex(TaskUtils.getLogSaveDir() + File.separator + "search") : null;
 
         File logSaveDir = new File(TaskUtils.getLogSaveDir());
         if (!logSaveDir.exists())
             logSaveDir.mkdirs();
+
+        // index of a log is kept as long as its task is kept in finished_task
+        if (searchIndex != null && athenaConf.isTaskRetentionEnabled()) {
+            int retentionDays = athenaConf.getTaskRetentionDays();
+            executorService.scheduleWithFixedDelay(() -> pruneSearchIndex(retentionDays),
+                    60, athenaConf.getTaskRetentionInterval(), TimeUnit.SECONDS);
+        }
+    }
+
+    private void pruneSearchIndex(int retentionDays) {
+        long before = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(retentionDays);
+        try {
+            int pruned = searchIndex.prune(before);
+            if (pruned > 0) {
+                LOGGER.info("Pruned {} log search index segments older than {} days", pruned, retentionDays);
+            }
+        } catch (Throwable throwable) {
+            LOGGER.error("Prune log search index failed", throwable);
+        }
     }
 
     public Future<Boolean> collect(TaskInfo taskInfo) {
@@ -57,11 +111,29 @@ public class LogManager {
         } catch (IOException e) {
             e.printStackTrace();
         }
+        // log of a retried task is collected again, index of previous log must not be reused
+        closeSource(taskId);
+        try {
+            Files.deleteIfExists(Paths.get(LogIndex.getIndexFilePath(taskLogSavePath.toString())));
+            Files.deleteIfExists(Paths.get(LogArchive.getArchivePath(taskLogSavePath.toString())));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
 
+        Path shippingPath = Paths.get(LogShipment.getShippingPath(taskLogSavePath.toString()));
+        Path shippedPath = Paths.get(LogShipment.getShippedPath(taskLogSavePath.toString()));
         if (NetworkUtils.isHostLocal(taskInfo.getHost())) {
             try {
+                Files.deleteIfExists(shippingPath);
+                Files.deleteIfExists(shippedPath);
                 Files.move(remoteLogFilePath, taskLogSavePath, StandardCopyOption.REPLACE_EXISTING);
+                Path indexPath = Paths.get(LogIndex.getIndexFilePath(remoteLogFilePath.toString()));
+                if (Files.exists(indexPath)) {
+                    Files.move(indexPath, Paths.get(LogIndex.getIndexFilePath(taskLogSavePath.toString())),
+                            StandardCopyOption.REPLACE_EXISTING);
+                }
                 LOGGER.info("task [{}] log collected", taskId);
+                storeTaskLog(taskInfo);
                 Files.deleteIfExists(execPath);
                 LOGGER.info("clear task exec dir succeed");
                 return true;
@@ -72,58 +144,320 @@ public class LogManager {
             }
         }
 
-        if (SystemUtils.IS_WINDOWS) {
-            return false;
-        } else {
+        if (Files.exists(shippedPath)) {
+            // whole log is shipped by TaskExecutor while task was running
+            if (!collectShippedLog(taskInfo, shippedPath)) {
+                return false;
+            }
+            if (!SystemUtils.IS_WINDOWS) {
+                nodeAgentManager.cleanup(host, execTaskDir);
+                LOGGER.info("clear task exec dir succeed");
+            }
+            return true;
+        }
+
+        boolean succeed = false;
+        if (!SystemUtils.IS_WINDOWS) {
             String cmd = String.format("scp %s:%s %s", host, remoteLogFilePath, taskLogSavePath);
-            boolean succeed = CmdUtils.exec(cmd).isSucceed();
+            succeed = CmdUtils.exec(cmd).isSucceed();
             if (succeed) {
+                // log index is optional
+                String indexCmd = String.format("scp %s:%s %s", host,
+                        LogIndex.getIndexFilePath(remoteLogFilePath.toString()),
+                        LogIndex.getIndexFilePath(taskLogSavePath.toString()));
+                CmdUtils.exec(indexCmd);
                 LOGGER.info("collect task [{}] log succeed", taskId);
+                storeTaskLog(taskInfo);
             } else {
                 LOGGER.error("collect task [{}] log failed", taskId);
             }
-            String clearCmd = "rm -rf " + execTaskDir;
-            CmdUtils.exec(host, clearCmd);
+            nodeAgentManager.cleanup(host, execTaskDir);
             LOGGER.info("clear task exec dir succeed");
+        }
+        if (succeed) {
+            try {
+                Files.deleteIfExists(shippingPath);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            return true;
+        }
+        if (Files.exists(shippingPath)) {
+            // TaskExecutor host is lost, log before the last acknowledged offset is kept
+            LOGGER.warn("task [{}] log can't be copied, collect incompletely shipped log", taskId);
+            return collectShippedLog(taskInfo, shippingPath);
+        }
+        return false;
+    }
 
-            return succeed;
+    private boolean collectShippedLog(TaskInfo taskInfo, Path shippedPath) {
+        long taskId = taskInfo.getTaskId();
+        try {
+            Files.move(shippedPath, Paths.get(TaskUtils.getTaskLogSavePath(taskId)), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            e.printStackTrace();
+            LOGGER.warn("task [{}] shipped log collect failed", taskId);
+            return false;
         }
+        LOGGER.info("task [{}] shipped log collected", taskId);
+        storeTaskLog(taskInfo);
+        return true;
     }
 
+    /**
+     * Get lines of collected task log
+     *
+     * @param lineNumber start line (1 started)
+     */
     public List<String> getLogLines(long taskId, int lineNumber, int rows) {
-        String taskLogSavePath = TaskUtils.getTaskLogSavePath(taskId);
-        if (!new File(taskLogSavePath).exists())
+        return read(taskId, source -> source.getLines(lineNumber, rows));
+    }
+
+    /**
+     * Get the last lines of collected task log
+     */
+    public List<String> getTailLines(long taskId, int rows) {
+        return read(taskId, source -> source.getTailLines(rows));
+    }
+
+    /**
+     * Grep collected task log, scanning stops after {@code task.log.grepTimeout} like grep of a running task
+     *
+     * @param maxHits max matched lines
+     * @return matched lines in file order, empty if grep times out
+     */
+    public List<LogLine> grep(long taskId, Pattern pattern, int maxHits) {
+        try {
+            return read(taskId, source -> source.grep(pattern, maxHits, grepTimeoutMillis));
+        } catch (AthenaException e) {
+            LOGGER.warn("grep log of task [{}] failed: {}", taskId, e.getMessage());
             return new ArrayList<>();
+        }
+    }
 
-        RandomAccessFile file = null;
+    /**
+     * Read collected task log. {@link #sources} is locked only to look up and pin the source, so that opening and
+     * reading a large log doesn't block reads of other logs, sources synchronize their own reads.
+     *
+     * @return empty list if log isn't collected
+     */
+    private <T> List<T> read(long taskId, Function<LogSource, List<T>> reader) {
+        OpenSource source;
+        synchronized (sources) {
+            source = sources.computeIfAbsent(taskId, OpenSource::new);
+            // pinned source isn't closed by eviction
+            source.pins++;
+        }
         try {
-            file = new RandomAccessFile(taskLogSavePath, "r");
-            for (int i = 0; i < lineNumber; i++) {
-                if (file.readLine() == null)
-                    return new ArrayList<>();
-            }
-
-            List<String> lines = new ArrayList<>(rows);
-            for (int i = 0; i < rows; i++) {
-                String line = file.readLine();
-                if (line != null) {
-                    lines.add(line);
-                } else {
-                    return lines;
+            LogSource logSource = source.open();
+            return logSource == null ? new ArrayList<>() : reader.apply(logSource);
+        } finally {
+            synchronized (sources) {
+                source.unpin();
+                // a log which isn't collected yet is opened again on next read
+                if (source.isMissing() && sources.get(taskId) == source) {
+                    sources.remove(taskId);
                 }
             }
-            return lines;
+        }
+    }
+
+    /**
+     * Search collected logs, lines which contain all terms of query are hits
+     *
+     * @param from            min log collect time, epoch milliseconds
+     * @param to              max log collect time, epoch milliseconds
+     * @param taskNamePattern task name with wildcard '*' and '?', null for all tasks
+     * @param limit           max hits
+     * @return hits of recently collected tasks first
+     */
+    public List<LogSearchHit> search(String query, long from, long to, String taskNamePattern, int limit) {
+        List<LogSearchHit> hits = new ArrayList<>();
+        if (searchIndex == null) {
+            return hits;
+        }
+        List<LogSearchIndex.Candidate> candidates;
+        try {
+            candidates = searchIndex.search(query, from, to, taskNamePattern);
         } catch (IOException e) {
             e.printStackTrace();
-            return new ArrayList<>();
+            throw new AthenaException("Search task log failed", e);
+        }
+        Set<String> queryTerms = LogSearchIndex.tokenize(query);
+        for (LogSearchIndex.Candidate candidate : candidates) {
+            if (hits.size() >= limit) {
+                break;
+            }
+            if (candidate.isExact()) {
+                for (int line : candidate.getLines()) {
+                    if (hits.size() >= limit) {
+                        break;
+                    }
+                    hits.add(new LogSearchHit(candidate.getTaskId(), candidate.getTaskName(), line));
+                }
+            } else {
+                checkCandidate(candidate, queryTerms, hits, limit);
+            }
+        }
+        return hits;
+    }
+
+    /**
+     * read candidate lines to find lines which contain all query terms
+     */
+    private void checkCandidate(LogSearchIndex.Candidate candidate, Set<String> queryTerms,
+                                List<LogSearchHit> hits, int limit) {
+        long taskId = candidate.getTaskId();
+        int[] lines = candidate.getLines();
+        int count = lines == null ? candidate.getLineCount() : lines.length;
+        for (int i = 0; i < count && hits.size() < limit; ) {
+            int lineNumber = lines == null ? i + 1 : lines[i];
+            // read adjacent candidate lines together
+            int rows = 1;
+            if (lines == null) {
+                rows = Math.min(SEARCH_READ_ROWS, count - i);
+            } else {
+                while (i + rows < count && rows < SEARCH_READ_ROWS && lines[i + rows] == lineNumber + rows) {
+                    rows++;
+                }
+            }
+            List<String> logLines = getLogLines(taskId, lineNumber, rows);
+            if (logLines.isEmpty()) {
+                return; // log is deleted
+            }
+            for (int j = 0; j < logLines.size() && hits.size() < limit; j++) {
+                if (LogSearchIndex.tokenize(logLines.get(j)).containsAll(queryTerms)) {
+                    hits.add(new LogSearchHit(taskId, candidate.getTaskName(), lineNumber + j));
+                }
+            }
+            i += rows;
+        }
+    }
+
+    /**
+     * Add collected log to search index, then compress it to a block archive if enabled, otherwise index its lines
+     */
+    private void storeTaskLog(TaskInfo taskInfo) {
+        long taskId = taskInfo.getTaskId();
+        if (searchIndex != null) {
+            try {
+                searchIndex.add(taskId, taskInfo.getTaskName(), System.currentTimeMillis(),
+                        TaskUtils.getTaskLogSavePath(taskId));
+                LOGGER.info("task [{}] log added to search index", taskId);
+            } catch (IOException e) {
+                e.printStackTrace();
+                LOGGER.warn("add task [{}] log to search index failed", taskId);
+            }
+        }
+        if (!archiveEnabled) {
+            indexTaskLog(taskId);
+            return;
+        }
+        String taskLogSavePath = TaskUtils.getTaskLogSavePath(taskId);
+        try {
+            LogArchive.archive(taskLogSavePath, LogArchive.getArchivePath(taskLogSavePath), archiveBlockSize);
+            Files.delete(Paths.get(taskLogSavePath));
+            Files.deleteIfExists(Paths.get(LogIndex.getIndexFilePath(taskLogSavePath)));
+            LOGGER.info("task [{}] log archived", taskId);
+        } catch (IOException e) {
+            e.printStackTrace();
+            // plain log file is still served
+            LOGGER.warn("archive task [{}] log failed", taskId);
+            indexTaskLog(taskId);
+        }
+    }
+
+    /**
+     * Build line index of collected log, so that later queries don't scan the file
+     */
+    private void indexTaskLog(long taskId) {
+        LogInspection inspection;
+        try {
+            inspection = new LogInspection(TaskUtils.getTaskLogSavePath(taskId), true);
+        } catch (AthenaException e) {
+            LOGGER.warn("index task [{}] log failed", taskId, e);
+            return;
+        }
+        try {
+            inspection.buildIndex();
+            LOGGER.info("task [{}] log indexed, {} indexes", taskId, inspection.getLogIndex().size());
         } finally {
-            if (file != null) {
+            inspection.close();
+        }
+    }
+
+    private void closeSource(long taskId) {
+        synchronized (sources) {
+            OpenSource source = sources.remove(taskId);
+            if (source != null) {
+                source.evict();
+            }
+        }
+    }
+
+    /**
+     * A log source, opened by its first read and closed when it's evicted and no read is using it. Pins and eviction
+     * are guarded by {@link #sources}, opening and closing by the OpenSource itself
+     */
+    private static final class OpenSource {
+        private final long taskId;
+        private int pins;
+        private boolean evicted;
+        private LogSource source;
+        private boolean missing;
+        private boolean closed;
+
+        private OpenSource(long taskId) {
+            this.taskId = taskId;
+        }
+
+        /**
+         * Open archive of collected log if exists, otherwise the plain log file
+         *
+         * @return null if log isn't collected
+         */
+        private synchronized LogSource open() {
+            if (source == null && !missing && !closed) {
+                String taskLogSavePath = TaskUtils.getTaskLogSavePath(taskId);
+                String archivePath = LogArchive.getArchivePath(taskLogSavePath);
                 try {
-                    file.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
+                    if (new File(archivePath).exists()) {
+                        source = new LogArchive(archivePath);
+                    } else if (new File(taskLogSavePath).exists()) {
+                        source = new LogInspection(taskLogSavePath, true);
+                    } else {
+                        missing = true;
+                    }
+                } catch (AthenaException e) {
+                    LOGGER.warn("open task [{}] log failed", taskId, e);
+                    missing = true;
                 }
             }
+            return closed ? null : source;
+        }
+
+        private synchronized boolean isMissing() {
+            return missing;
+        }
+
+        private synchronized void close() {
+            closed = true;
+            if (source != null) {
+                source.close();
+            }
+        }
+
+        private void evict() {
+            evicted = true;
+            if (pins == 0) {
+                close();
+            }
+        }
+
+        private void unpin() {
+            if (--pins == 0 && evicted) {
+                close();
+            }
         }
     }
 
@@ -0,0 +1,160 @@
+package com.timeyang.athena.task.exec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Buffered line reader over a log file with random access.
+ * <p>Unlike {@link java.io.RandomAccessFile#readLine()}, which reads one byte per system call, file is read in large
+ * blocks, and lines are decoded as UTF-8. Lines end with {@code \n}, a trailing {@code \r} is removed.</p>
+ * Not thread-save
+ *
+ * @author https://github.com/chaokunyang
+ */
+class LogReader implements Closeable {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    // file offset of buffer[0]
+    private long bufferStart;
+
+    LogReader(String filePath) throws IOException {
+        this.channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ);
+        buffer.limit(0);
+    }
+
+    long length() throws IOException {
+        return channel.size();
+    }
+
+    /**
+     * @return file offset of next line
+     */
+    long position() {
+        return bufferStart + buffer.position();
+    }
+
+    void seek(long position) {
+        if (position >= bufferStart && position <= bufferStart + buffer.limit()) {
+            buffer.position((int) (position - bufferStart));
+        } else {
+            bufferStart = position;
+            buffer.clear().limit(0);
+        }
+    }
+
+    /**
+     * Find start of the last lines by reading backwards from end of file in blocks, so that the file before these
+     * lines is never read.
+     *
+     * @return file offset of the first of last {@code rows} lines
+     */
+    long tailPosition(int rows) throws IOException {
+        long end = channel.size();
+        if (end == 0 || rows <= 0) {
+            return end;
+        }
+        ByteBuffer block = ByteBuffer.allocate(BUFFER_SIZE);
+        long blockEnd = end;
+        boolean lastByte = true;
+        int found = 0;
+        while (blockEnd > 0) {
+            int length = (int) Math.min(BUFFER_SIZE, blockEnd);
+            long blockStart = blockEnd - length;
+            block.clear().limit(length);
+            while (block.hasRemaining()) {
+                if (channel.read(block, blockStart + block.position()) < 0) {
+                    throw new EOFException("log file is truncated");
+                }
+            }
+            for (int i = length - 1; i >= 0; i--) {
+                if (block.get(i) == '\n') {
+                    // separator of last line doesn't start a new line
+                    if (!lastByte && ++found == rows) {
+                        return blockStart + i + 1;
+                    }
+                }
+                lastByte = false;
+            }
+            blockEnd = blockStart;
+        }
+        return 0;
+    }
+
+    /**
+     * @return next line, null if end of file
+     */
+    String readLine() throws IOException {
+        ByteArrayOutputStream longLine = null;
+        while (true) {
+            int start = buffer.position();
+            int limit = buffer.limit();
+            byte[] array = buffer.array();
+            for (int i = start; i < limit; i++) {
+                if (array[i] == '\n') {
+                    buffer.position(i + 1);
+                    return decode(longLine, array, start, i);
+                }
+            }
+            if (limit - start == buffer.capacity()) {
+                // line is longer than buffer
+                if (longLine == null) {
+                    longLine = new ByteArrayOutputStream(BUFFER_SIZE * 2);
+                }
+                longLine.write(array, start, limit - start);
+                buffer.position(limit);
+            }
+            if (!fill()) {
+                // last line without line separator
+                int from = buffer.position();
+                int end = buffer.limit();
+                if (end > from || longLine != null) {
+                    buffer.position(end);
+                    return decode(longLine, array, from, end);
+                }
+                return null;
+            }
+        }
+    }
+
+    /**
+     * read more bytes after the unread bytes of buffer
+     *
+     * @return false if end of file
+     */
+    private boolean fill() throws IOException {
+        long position = position();
+        buffer.compact();
+        bufferStart = position;
+        int n = channel.read(buffer, bufferStart + buffer.position());
+        buffer.flip();
+        return n > 0;
+    }
+
+    private static String decode(ByteArrayOutputStream longLine, byte[] array, int start, int end) {
+        if (longLine != null) {
+            longLine.write(array, start, end - start);
+            byte[] bytes = longLine.toByteArray();
+            int length = bytes.length > 0 && bytes[bytes.length - 1] == '\r' ? bytes.length - 1 : bytes.length;
+            return new String(bytes, 0, length, StandardCharsets.UTF_8);
+        }
+        if (end > start && array[end - 1] == '\r') {
+            end--;
+        }
+        return new String(array, start, end - start, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+}
@@ -0,0 +1,43 @@
+package com.timeyang.athena.task.exec;
+
+/**
+ * A task log line which matches a log search query. Log around it can be read by
+ * {@link com.timeyang.athena.task.TaskManager#getLogLines(long, int, int)}.
+ *
+ * @author https://github.com/chaokunyang
+ */
+public class LogSearchHit {
+    private final long taskId;
+    private final String taskName;
+    private final int lineNumber;
+
+    public LogSearchHit(long taskId, String taskName, int lineNumber) {
+        this.taskId = taskId;
+        this.taskName = taskName;
+        this.lineNumber = lineNumber;
+    }
+
+    public long getTaskId() {
+        return taskId;
+    }
+
+    public String getTaskName() {
+        return taskName;
+    }
+
+    /**
+     * @return line number, 1 started
+     */
+    public int getLineNumber() {
+        return lineNumber;
+    }
+
+    @Override
+    public String toString() {
+        return "LogSearchHit{" +
+                "taskId=" + taskId +
+                ", taskName='" + taskName + '\'' +
+                ", lineNumber=" + lineNumber +
+                '}';
+    }
+}
@@ -0,0 +1,569 @@
+package com.timeyang.athena.task.exec;
+
+import com.timeyang.athena.AthenaException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * On-disk inverted index of collected task logs, for searching logs of many tasks without reading them.
+ * <p>
+ *     Logs are tokenized into lower case terms, which are runs of letters, digits and '_'. Index of a task log is a
+ *     block appended to the segment of the day when log is collected, {@code <dir>/yyyyMMdd.seg}, so a time range
+ *     only opens segments of these days and later ones. A log collected again replaces its previous block, blocks of a
+ *     task in later segments supersede its blocks in earlier segments. Segments older than retention are deleted by
+ *     {@link #prune}.
+ * </p>
+ * <p>
+ *     Block layout: magic(4 bytes), block length(4 bytes), task id(8 bytes), collect time(8 bytes), line count(4 bytes),
+ *     complete(1 byte), task name(2 bytes length + utf8), term count(4 bytes), term area length(4 bytes),
+ *     term offsets(4 bytes each), terms(2 bytes length + utf8, postings offset(4 bytes), postings count(4 bytes)),
+ *     postings(delta encoded line numbers as varint).
+ * </p>
+ * <p>
+ *     A term in more than {@link #MAX_POSTINGS} lines doesn't keep its lines, and a log with more than
+ *     {@link #MAX_TERMS} terms is incomplete, terms after that are not indexed. Lines of these terms must be checked by
+ *     reading the log.
+ * </p>
+ *
+ * @author https://github.com/chaokunyang
+ */
+public class LogSearchIndex {
+    public static final String SEGMENT_FILE_SUFFIX = ".seg";
+    private static final int MAGIC = 0x4C534958; // LSIX
+    private static final int MAX_TERM_LENGTH = 64;
+    private static final int MAX_POSTINGS = 10000;
+    private static final int MAX_TERMS = 200000;
+    private static final int FREQUENT = -1;
+    private static final DateTimeFormatter SEGMENT_FORMATTER = DateTimeFormatter.ofPattern("yyyyMMdd");
+
+    private final Path dir;
+    private final ZoneId zone = ZoneId.systemDefault();
+
+    public LogSearchIndex(String dir) {
+        this.dir = Paths.get(dir);
+        try {
+            Files.createDirectories(this.dir);
+        } catch (IOException e) {
+            e.printStackTrace();
+            String msg = String.format("Can't create log search index dir [%s]", dir);
+            throw new AthenaException(msg, e);
+        }
+    }
+
+    /**
+     * @return distinct terms of text, in order of occurrence
+     */
+    public static Set<String> tokenize(String text) {
+        Set<String> terms = new LinkedHashSet<>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean termChar = i < text.length() && isTermChar(text.charAt(i));
+            if (termChar && start < 0) {
+                start = i;
+            } else if (!termChar && start >= 0) {
+                if (i - start >= 2 && i - start <= MAX_TERM_LENGTH) {
+                    terms.add(text.substring(start, i).toLowerCase());
+                }
+                start = -1;
+            }
+        }
+        return terms;
+    }
+
+    private static boolean isTermChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_';
+    }
+
+    /**
+     * Tokenize log file and append its index to segment of the day of {@code time}
+     *
+     * @param time log collect time, epoch milliseconds
+     */
+    public void add(long taskId, String taskName, long time, String logFilePath) throws IOException {
+        Map<String, Postings> terms = new HashMap<>();
+        int lineCount = 0;
+        boolean complete = true;
+        try (LogReader reader = new LogReader(logFilePath)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineCount++;
+                for (String term : tokenize(line)) {
+                    Postings postings = terms.get(term);
+                    if (postings == null) {
+                        if (terms.size() >= MAX_TERMS) {
+                            complete = false;
+                            continue;
+                        }
+                        postings = new Postings();
+                        terms.put(term, postings);
+                    }
+                    postings.add(lineCount);
+                }
+            }
+        }
+
+        byte[] block = encode(taskId, taskName == null ? "" : taskName, time, lineCount, complete, terms);
+        Path segment = dir.resolve(SEGMENT_FORMATTER.format(Instant.ofEpochMilli(time).atZone(zone)) + SEGMENT_FILE_SUFFIX);
+        synchronized (this) {
+            try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND)) {
+                ByteBuffer buffer = ByteBuffer.wrap(block);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+        }
+    }
+
+    private static byte[] encode(long taskId, String taskName, long time, int lineCount, boolean complete,
+                                 Map<String, Postings> terms) throws IOException {
+        String[] sortedTerms = terms.keySet().toArray(new String[0]);
+        Arrays.sort(sortedTerms);
+        ByteArrayOutputStream termBytes = new ByteArrayOutputStream();
+        DataOutputStream termOut = new DataOutputStream(termBytes);
+        ByteArrayOutputStream postingBytes = new ByteArrayOutputStream();
+        int[] termOffsets = new int[sortedTerms.length];
+        for (int i = 0; i < sortedTerms.length; i++) {
+            termOffsets[i] = termOut.size();
+            byte[] term = sortedTerms[i].getBytes(StandardCharsets.UTF_8);
+            termOut.writeShort(term.length);
+            termOut.write(term);
+            Postings postings = terms.get(sortedTerms[i]);
+            termOut.writeInt(postingBytes.size());
+            if (postings.frequent) {
+                termOut.writeInt(FREQUENT);
+            } else {
+                termOut.writeInt(postings.size);
+                int last = 0;
+                for (int j = 0; j < postings.size; j++) {
+                    writeVarInt(postingBytes, postings.lines[j] - last);
+                    last = postings.lines[j];
+                }
+            }
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(termBytes.size() + postingBytes.size() + 1024);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(0); // block length
+        out.writeLong(taskId);
+        out.writeLong(time);
+        out.writeInt(lineCount);
+        out.writeBoolean(complete);
+        byte[] name = taskName.getBytes(StandardCharsets.UTF_8);
+        out.writeShort(name.length);
+        out.write(name);
+        out.writeInt(sortedTerms.length);
+        out.writeInt(termBytes.size());
+        for (int termOffset : termOffsets) {
+            out.writeInt(termOffset);
+        }
+        termBytes.writeTo(out);
+        postingBytes.writeTo(out);
+        out.flush();
+
+        byte[] block = bytes.toByteArray();
+        ByteBuffer.wrap(block).putInt(4, block.length - 8);
+        return block;
+    }
+
+    /**
+     * Find lines which contain all terms of query
+     *
+     * @param from            min collect time, epoch milliseconds
+     * @param to              max collect time, epoch milliseconds
+     * @param taskNamePattern task name with wildcard '*' and '?', null for all tasks
+     * @return candidates of tasks in descending order of collect time
+     */
+    public List<Candidate> search(String query, long from, long to, String taskNamePattern) throws IOException {
+        Set<String> queryTerms = tokenize(query);
+        if (queryTerms.isEmpty()) {
+            return Collections.emptyList();
+        }
+        Pattern namePattern = taskNamePattern == null || taskNamePattern.isEmpty() ? null : toPattern(taskNamePattern);
+
+        // later segments are read too, so that a task collected again after the range isn't found by its stale block
+        List<Path> segments = listSegments(from, Long.MAX_VALUE);
+
+        // latest block of every task
+        Map<Long, BlockRef> blocks = new LinkedHashMap<>();
+        for (Path segment : segments) {
+            for (BlockRef block : readBlockRefs(segment)) {
+                blocks.remove(block.taskId);
+                blocks.put(block.taskId, block);
+            }
+        }
+
+        List<Candidate> candidates = new ArrayList<>();
+        // every segment is opened once per search
+        Map<Path, FileChannel> channels = new HashMap<>();
+        try {
+            for (BlockRef block : blocks.values()) {
+                if (block.time < from || block.time > to) {
+                    continue;
+                }
+                if (namePattern != null && !namePattern.matcher(block.taskName).matches()) {
+                    continue;
+                }
+                FileChannel channel = channels.get(block.segment);
+                if (channel == null) {
+                    channel = FileChannel.open(block.segment, StandardOpenOption.READ);
+                    channels.put(block.segment, channel);
+                }
+                Candidate candidate = match(channel, block, queryTerms);
+                if (candidate != null) {
+                    candidates.add(candidate);
+                }
+            }
+        } finally {
+            for (FileChannel channel : channels.values()) {
+                channel.close();
+            }
+        }
+        candidates.sort((c1, c2) -> Long.compare(c2.time, c1.time));
+        return candidates;
+    }
+
+    /**
+     * Delete segments of days before {@code before}, blocks in them are no longer found
+     *
+     * @param before epoch milliseconds
+     * @return number of deleted segments
+     */
+    public synchronized int prune(long before) throws IOException {
+        int pruned = 0;
+        for (Path segment : listSegments(Long.MIN_VALUE, before)) {
+            if (dayEnd(segment) <= before) {
+                Files.deleteIfExists(segment);
+                pruned++;
+            }
+        }
+        return pruned;
+    }
+
+    /**
+     * @return segments of days which overlap [from, to], in day order
+     */
+    private List<Path> listSegments(long from, long to) throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*" + SEGMENT_FILE_SUFFIX)) {
+            for (Path segment : stream) {
+                if (inRange(segment, from, to)) {
+                    segments.add(segment);
+                }
+            }
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    private boolean inRange(Path segment, long from, long to) {
+        LocalDate day = getDay(segment);
+        if (day == null) {
+            return false;
+        }
+        long dayStart = day.atStartOfDay(zone).toInstant().toEpochMilli();
+        long dayEnd = day.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli();
+        return dayStart <= to && dayEnd > from;
+    }
+
+    private long dayEnd(Path segment) {
+        return getDay(segment).plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli();
+    }
+
+    /**
+     * @return day of segment, null if file name isn't a day
+     */
+    private static LocalDate getDay(Path segment) {
+        String fileName = segment.getFileName().toString();
+        try {
+            return LocalDate.parse(fileName.substring(0, fileName.length() - SEGMENT_FILE_SUFFIX.length()), SEGMENT_FORMATTER);
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    private static List<BlockRef> readBlockRefs(Path segment) throws IOException {
+        List<BlockRef> blocks = new ArrayList<>();
+        ByteBuffer header = ByteBuffer.allocate(8 + 8 + 8 + 4 + 1 + 2);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long position = 0;
+            while (position + header.capacity() <= size) {
+                header.clear();
+                read(channel, header, position);
+                header.flip();
+                int length = header.getInt(4);
+                // a block being appended, or lost at crash
+                if (header.getInt(0) != MAGIC || position + 8 + length > size) {
+                    break;
+                }
+                BlockRef block = new BlockRef();
+                block.segment = segment;
+                block.position = position;
+                block.length = length + 8;
+                block.taskId = header.getLong(8);
+                block.time = header.getLong(16);
+                block.lineCount = header.getInt(24);
+                block.complete = header.get(28) != 0;
+                ByteBuffer name = ByteBuffer.allocate(header.getShort(29) & 0xFFFF);
+                read(channel, name, position + header.capacity());
+                block.taskName = new String(name.array(), StandardCharsets.UTF_8);
+                block.headerLength = header.capacity() + name.capacity();
+                blocks.add(block);
+                position += block.length;
+            }
+        }
+        return blocks;
+    }
+
+    /**
+     * @return null if task log doesn't contain query terms
+     */
+    private static Candidate match(FileChannel channel, BlockRef block, Set<String> queryTerms) throws IOException {
+        ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, block.position, block.length);
+        int termCount = buffer.getInt(block.headerLength);
+        int termAreaLength = buffer.getInt(block.headerLength + 4);
+        int offsetsStart = block.headerLength + 8;
+        int termsStart = offsetsStart + termCount * 4;
+        int postingsStart = termsStart + termAreaLength;
+
+        int[] lines = null;
+        boolean exact = true;
+        for (String queryTerm : queryTerms) {
+            int termPosition = find(buffer, queryTerm.getBytes(StandardCharsets.UTF_8), termCount, offsetsStart, termsStart);
+            if (termPosition < 0) {
+                if (block.complete) {
+                    return null;
+                }
+                exact = false;
+                continue;
+            }
+            int termLength = buffer.getShort(termPosition) & 0xFFFF;
+            int postingsOffset = buffer.getInt(termPosition + 2 + termLength);
+            int postingsCount = buffer.getInt(termPosition + 6 + termLength);
+            if (postingsCount == FREQUENT) {
+                exact = false;
+                continue;
+            }
+            int[] termLines = new int[postingsCount];
+            buffer.position(postingsStart + postingsOffset);
+            int last = 0;
+            for (int i = 0; i < postingsCount; i++) {
+                last += readVarInt(buffer);
+                termLines[i] = last;
+            }
+            lines = lines == null ? termLines : intersect(lines, termLines);
+            if (lines.length == 0) {
+                return null;
+            }
+        }
+        return new Candidate(block.taskId, block.taskName, block.time, block.lineCount, lines, exact);
+    }
+
+    /**
+     * binary search of term in sorted terms
+     *
+     * @return position of term entry in block, -1 if not found
+     */
+    private static int find(ByteBuffer buffer, byte[] term, int termCount, int offsetsStart, int termsStart) {
+        int low = 0;
+        int high = termCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int position = termsStart + buffer.getInt(offsetsStart + mid * 4);
+            int cmp = compare(buffer, position + 2, buffer.getShort(position) & 0xFFFF, term);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return position;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * compare utf8 bytes as unsigned, which is same order as {@link String#compareTo} for chars in BMP
+     */
+    private static int compare(ByteBuffer buffer, int position, int length, byte[] term) {
+        int n = Math.min(length, term.length);
+        for (int i = 0; i < n; i++) {
+            int cmp = (buffer.get(position + i) & 0xFF) - (term[i] & 0xFF);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return length - term.length;
+    }
+
+    private static int[] intersect(int[] a, int[] b) {
+        int[] result = new int[Math.min(a.length, b.length)];
+        int i = 0, j = 0, n = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                result[n++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    private static Pattern toPattern(String wildcard) {
+        StringBuilder regex = new StringBuilder();
+        for (String part : wildcard.split("((?<=[*?])|(?=[*?]))")) {
+            if ("*".equals(part)) {
+                regex.append(".*");
+            } else if ("?".equals(part)) {
+                regex.append('.');
+            } else if (!part.isEmpty()) {
+                regex.append(Pattern.quote(part));
+            }
+        }
+        return Pattern.compile(regex.toString());
+    }
+
+    private static void read(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Log search segment is truncated");
+            }
+        }
+    }
+
+    private static void writeVarInt(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarInt(ByteBuffer buffer) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    private static final class Postings {
+        private int[] lines = new int[4];
+        private int size;
+        private boolean frequent;
+
+        void add(int line) {
+            if (frequent || (size > 0 && lines[size - 1] == line)) {
+                return;
+            }
+            if (size == MAX_POSTINGS) {
+                frequent = true;
+                lines = null;
+                return;
+            }
+            if (size == lines.length) {
+                lines = Arrays.copyOf(lines, Math.min(size * 2, MAX_POSTINGS));
+            }
+            lines[size++] = line;
+        }
+    }
+
+    private static final class BlockRef {
+        private Path segment;
+        private long position;
+        private int length;
+        private int headerLength;
+        private long taskId;
+        private long time;
+        private int lineCount;
+        private boolean complete;
+        private String taskName;
+    }
+
+    /**
+     * Lines of a task log which may match query
+     */
+    public static final class Candidate {
+        private final long taskId;
+        private final String taskName;
+        private final long time;
+        private final int lineCount;
+        private final int[] lines;
+        private final boolean exact;
+
+        Candidate(long taskId, String taskName, long time, int lineCount, int[] lines, boolean exact) {
+            this.taskId = taskId;
+            this.taskName = taskName;
+            this.time = time;
+            this.lineCount = lineCount;
+            this.lines = lines;
+            this.exact = exact;
+        }
+
+        public long getTaskId() {
+            return taskId;
+        }
+
+        public String getTaskName() {
+            return taskName;
+        }
+
+        public long getTime() {
+            return time;
+        }
+
+        public int getLineCount() {
+            return lineCount;
+        }
+
+        /**
+         * @return candidate line numbers(1 started) in ascending order, null if every line is a candidate
+         */
+        public int[] getLines() {
+            return lines;
+        }
+
+        /**
+         * @return true if every candidate line contains all query terms, otherwise lines must be checked
+         */
+        public boolean isExact() {
+            return exact;
+        }
+    }
+
+}
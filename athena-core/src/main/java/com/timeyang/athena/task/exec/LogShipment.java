@@ -0,0 +1,162 @@
+package com.timeyang.athena.task.exec;
+
+import com.timeyang.athena.task.message.TaskMessage.LogChunk;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Task log shipped by TaskExecutor while task is running, stored in {@code <log save path>.shipping}.
+ * <p>
+ *     Chunks are written at their offsets, and {@link #write} returns the stored length which is acknowledged to
+ *     TaskExecutor, so when TaskExecutor host dies, log before the last acknowledged offset is still kept.
+ * </p>
+ * <p>
+ *     TaskExecutor sends log length by {@link #end(long)} when task finishes. A shipment stored up to the length is
+ *     complete, it's renamed to {@code <log save path>.shipped} when closed, and log collection renames it to log
+ *     save path instead of copying log from TaskExecutor host. An incomplete shipment is only used when log can't be
+ *     copied.
+ * </p>
+ * Not thread-save, used in event loop of task channel
+ *
+ * @author https://github.com/chaokunyang
+ */
+class LogShipment {
+    private static final Logger LOGGER = LoggerFactory.getLogger(LogShipment.class);
+    static final String SHIPPING_FILE_SUFFIX = ".shipping";
+    static final String SHIPPED_FILE_SUFFIX = ".shipped";
+
+    private final long taskId;
+    private final Path path;
+    private final FileChannel channel;
+    private long length;
+    // log length sent by TaskExecutor, -1 until task finishes
+    private long end = -1;
+
+    /**
+     * create an empty shipping file, log shipped by previous try of the task is discarded
+     */
+    LogShipment(long taskId) throws IOException {
+        this.taskId = taskId;
+        String logSavePath = TaskUtils.getTaskLogSavePath(taskId);
+        this.path = Paths.get(getShippingPath(logSavePath));
+        Files.createDirectories(path.getParent());
+        Files.deleteIfExists(Paths.get(getShippedPath(logSavePath)));
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.READ, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    static String getShippingPath(String logSavePath) {
+        return logSavePath + SHIPPING_FILE_SUFFIX;
+    }
+
+    static String getShippedPath(String logSavePath) {
+        return logSavePath + SHIPPED_FILE_SUFFIX;
+    }
+
+    /**
+     * Store a chunk. Chunk which is already stored is ignored, chunk after a gap isn't stored
+     *
+     * @return stored length, which is the offset to acknowledge
+     */
+    long write(long offset, byte[] data) {
+        if (offset > length) {
+            LOGGER.warn("task [{}] log chunk at {} is after stored length {}", taskId, offset, length);
+            return length;
+        }
+        long end = offset + data.length;
+        if (end <= length) {
+            return length;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(data, (int) (length - offset), (int) (end - length));
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, end - buffer.remaining());
+            }
+            length = end;
+        } catch (IOException e) {
+            LOGGER.error("store task [{}] log chunk failed", taskId, e);
+        }
+        return length;
+    }
+
+    long length() {
+        return length;
+    }
+
+    /**
+     * @param end log length when task finishes
+     */
+    void end(long end) {
+        this.end = end;
+    }
+
+    /**
+     * @return whether log is stored up to its length when task finishes
+     */
+    boolean isComplete() {
+        return end >= 0 && length >= end;
+    }
+
+    /**
+     * @return the last lines of stored log, at most {@code maxBytes}
+     */
+    LogChunk tail(int maxBytes) {
+        long start = Math.max(length - maxBytes, 0);
+        ByteBuffer buffer = ByteBuffer.allocate((int) (length - start));
+        try {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, start + buffer.position()) < 0) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.warn("read task [{}] shipped log failed", taskId, e);
+            return new LogChunk(length, new byte[0]);
+        }
+        byte[] data = buffer.array();
+        int from = 0;
+        if (start > 0) {
+            // skip the first partial line
+            while (from < data.length && data[from] != '\n') {
+                from++;
+            }
+            from = Math.min(from + 1, data.length);
+        }
+        byte[] tail = new byte[data.length - from];
+        System.arraycopy(data, from, tail, 0, tail.length);
+        return new LogChunk(start + from, tail);
+    }
+
+    /**
+     * close shipping file, rename it to shipped file if it's complete
+     */
+    void close() {
+        try {
+            channel.force(true);
+            channel.close();
+        } catch (IOException e) {
+            LOGGER.warn("close task [{}] shipped log failed", taskId, e);
+            return;
+        }
+        if (!isComplete()) {
+            LOGGER.warn("task [{}] log is shipped to {} of {}, it will be copied", taskId, length, end);
+            return;
+        }
+        try {
+            Files.move(path, Paths.get(getShippedPath(TaskUtils.getTaskLogSavePath(taskId))),
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            LOGGER.warn("rename task [{}] shipped log failed", taskId, e);
+        }
+    }
+
+}
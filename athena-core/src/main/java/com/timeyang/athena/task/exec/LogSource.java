@@ -0,0 +1,36 @@
+package com.timeyang.athena.task.exec;
+
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Line access to a task log, either a plain log file or a compressed log archive
+ *
+ * @author https://github.com/chaokunyang
+ */
+interface LogSource {
+
+    /**
+     * @param lineNumber start line (1 started)
+     * @param rows       line number
+     * @return log lines
+     */
+    List<String> getLines(int lineNumber, int rows);
+
+    /**
+     * @param rows line number
+     * @return the last log lines
+     */
+    List<String> getTailLines(int rows);
+
+    /**
+     * @param maxHits       max matched lines
+     * @param timeoutMillis max time to scan log
+     * @return lines which contain a match of pattern, in file order
+     * @throws com.timeyang.athena.AthenaException if grep times out
+     */
+    List<LogLine> grep(Pattern pattern, int maxHits, long timeoutMillis);
+
+    void close();
+
+}
@@ -0,0 +1,23 @@
+package com.timeyang.athena.task.exec;
+
+/**
+ * Receive log of a running task as it is written.
+ * <p>Methods are called on network threads, implementations must not block.</p>
+ *
+ * @author https://github.com/chaokunyang
+ */
+public interface LogSubscriber {
+
+    /**
+     * @param taskId task id
+     * @param offset offset of data in task log file
+     * @param data complete log lines, including line separators
+     */
+    void onLog(long taskId, long offset, String data);
+
+    /**
+     * task finished, killed or lost, no more log will be received
+     */
+    void onEnd(long taskId);
+
+}
@@ -0,0 +1,211 @@
+package com.timeyang.athena.task.exec;
+
+import com.timeyang.athena.task.message.TaskMessage.LogAck;
+import com.timeyang.athena.task.message.TaskMessage.LogChunk;
+import com.timeyang.athena.task.message.TaskMessage.LogEnd;
+import com.timeyang.athena.util.ThreadUtils;
+import io.netty.channel.Channel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Push lines appended to task log file to TaskManager as {@link LogChunk}.
+ * <p>Only complete lines are sent, so a chunk never splits a line or a multi-byte character, unless the line is
+ * longer than a chunk. Nothing is read while the channel is not writable, so a slow TaskManager holds back the
+ * tailer instead of buffering log in memory.</p>
+ * <p>When TaskManager ships the log, it starts the tailer by a {@link LogAck}, and acknowledges every stored chunk.
+ * At most {@link #MAX_UNACKED_BYTES} are sent but not acknowledged, and {@link #finish()} waits until the whole log is
+ * acknowledged, so log is stored by TaskManager before task result is sent. Then log length is sent by
+ * {@link LogEnd}, so that TaskManager knows whether it stored the whole log.</p>
+ *
+ * @author https://github.com/chaokunyang
+ */
+class LogTailer {
+    private static final Logger LOGGER = LoggerFactory.getLogger(LogTailer.class);
+    private static final long POLL_INTERVAL_MILLIS = 200;
+    private static final int MAX_CHUNK_BYTES = 64 * 1024;
+    // bytes of existing log sent when subscribe from end of file
+    private static final int TAIL_BYTES = 16 * 1024;
+    private static final long MAX_UNACKED_BYTES = 4 * 1024 * 1024;
+    private static final long FINISH_TIMEOUT_MILLIS = 10000;
+
+    private final String filePath;
+    private final Channel channel;
+    private final ScheduledExecutorService scheduler =
+            Executors.newSingleThreadScheduledExecutor(ThreadUtils.createThreadFactory("LogTailer"));
+    private ScheduledFuture<?> future;
+    private RandomAccessFile file;
+    private long position;
+    private boolean shipping;
+    private long acked;
+
+    LogTailer(String filePath, Channel channel) {
+        this.filePath = filePath;
+        this.channel = channel;
+    }
+
+    /**
+     * @param offset file offset to start from, -1 to start from the last few lines
+     */
+    synchronized void follow(long offset) {
+        if (future != null) {
+            return;
+        }
+        try {
+            file = new RandomAccessFile(filePath, "r");
+            position = offset >= 0 ? offset : tailPosition();
+        } catch (IOException e) {
+            LOGGER.warn("Can't tail log file {}", filePath, e);
+            return;
+        }
+        LOGGER.info("start streaming log from offset {}", position);
+        future = scheduler.scheduleWithFixedDelay(this::poll, 0, POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    synchronized void unfollow() {
+        if (future == null) {
+            return;
+        }
+        future.cancel(false);
+        future = null;
+        closeFile();
+        LOGGER.info("stop streaming log at offset {}", position);
+    }
+
+    /**
+     * @param offset log before offset is stored by TaskManager
+     */
+    synchronized void ack(long offset) {
+        if (!shipping) {
+            shipping = true;
+            acked = offset;
+            unfollow();
+            follow(offset);
+            return;
+        }
+        acked = Math.max(acked, offset);
+        notifyAll();
+        // continue sending if it's held back by unacknowledged log
+        scheduler.execute(this::poll);
+    }
+
+    /**
+     * Send the rest of log including the last line without line separator, called before task result is sent.
+     * If log is shipped, wait until TaskManager acknowledges all log, at most {@link #FINISH_TIMEOUT_MILLIS}, then
+     * send log length
+     */
+    synchronized void finish() {
+        finish(FINISH_TIMEOUT_MILLIS);
+    }
+
+    synchronized void finish(long timeoutMillis) {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        poll(true);
+        if (!shipping || file == null) {
+            return;
+        }
+        try {
+            while (channel.isActive() && acked < file.length()) {
+                long wait = deadline - System.currentTimeMillis();
+                if (wait <= 0) {
+                    LOGGER.warn("log acknowledged to {} of {} after {} ms", acked, file.length(), timeoutMillis);
+                    break;
+                }
+                wait(Math.min(wait, POLL_INTERVAL_MILLIS));
+                poll(true);
+            }
+            channel.writeAndFlush(new LogEnd(file.length()));
+        } catch (IOException e) {
+            LOGGER.warn("Read log file {} failed", filePath, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    void stop() {
+        unfollow();
+        scheduler.shutdownNow();
+    }
+
+    private void poll() {
+        poll(false);
+    }
+
+    /**
+     * @param last send the last line even if it has no line separator
+     */
+    private synchronized void poll(boolean last) {
+        if (file == null) {
+            return;
+        }
+        try {
+            byte[] buffer = new byte[MAX_CHUNK_BYTES];
+            while (channel.isActive() && channel.isWritable() &&
+                    (!shipping || position - acked < MAX_UNACKED_BYTES)) {
+                file.seek(position);
+                int n = file.read(buffer);
+                if (n <= 0) {
+                    break;
+                }
+                int length = lastLineEnd(buffer, n);
+                if (length == 0) {
+                    if (n < MAX_CHUNK_BYTES && !last) {
+                        // wait until the line is completed
+                        break;
+                    }
+                    // a line longer than chunk size is sent in pieces
+                    length = n;
+                }
+                channel.writeAndFlush(new LogChunk(position, Arrays.copyOf(buffer, length)));
+                position += length;
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Read log file {} failed", filePath, e);
+        }
+    }
+
+    private long tailPosition() throws IOException {
+        long length = file.length();
+        if (length <= TAIL_BYTES) {
+            return 0;
+        }
+        long start = length - TAIL_BYTES;
+        byte[] buffer = new byte[TAIL_BYTES];
+        file.seek(start);
+        int n = file.read(buffer);
+        for (int i = 0; i < n; i++) {
+            if (buffer[i] == '\n') {
+                return start + i + 1;
+            }
+        }
+        return length;
+    }
+
+    private static int lastLineEnd(byte[] buffer, int n) {
+        for (int i = n - 1; i >= 0; i--) {
+            if (buffer[i] == '\n') {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+
+    private void closeFile() {
+        if (file != null) {
+            try {
+                file.close();
+            } catch (IOException ignored) {
+            }
+            file = null;
+        }
+    }
+
+}
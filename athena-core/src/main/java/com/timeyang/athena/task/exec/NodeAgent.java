@@ -0,0 +1,214 @@
+package com.timeyang.athena.task.exec;
+
+import com.timeyang.athena.task.message.TaskMessage;
+import com.timeyang.athena.task.message.TaskMessage.*;
+import com.timeyang.athena.task.message.TaskMessageCodec;
+import com.timeyang.athena.util.ParametersUtils;
+import com.timeyang.athena.util.SystemUtils;
+import com.timeyang.athena.util.ThreadUtils;
+import com.timeyang.athena.util.cmd.CmdUtils;
+import com.timeyang.athena.util.cmd.Result;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.*;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.handler.timeout.IdleStateHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetSocketAddress;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Long-lived agent of a node, which executes commands of TaskManager locally, so that starting a task on the node
+ * doesn't need a ssh connection.
+ * <p>Connects to TaskBackend as {@link NodeAgentManager#HANDSHAKE_ID}, reports {@link AgentReady} with its host
+ * and secret,
+ * then executes {@link AgentCommands} batches in order and replies {@link AgentResults} with exit status of every
+ * command. Host utilization is sent as {@link AgentStatus} when connection is idle. The agent reconnects when
+ * connection is lost, until it's stopped.</p>
+ *
+ * @author https://github.com/chaokunyang
+ */
+public class NodeAgent {
+    private static final Logger LOGGER = LoggerFactory.getLogger(NodeAgent.class);
+    private static final int STATUS_INTERVAL_SECONDS = 10;
+    private static final long RECONNECT_WAIT_MILLIS = 5000;
+    private static final long MB = 1024 * 1024;
+
+    private final String host;
+    private final String taskManagerHost;
+    private final int taskManagerPort;
+    private final String secret;
+    private final EventLoopGroup group;
+    private final Bootstrap bootstrap;
+    // commands are executed in order, a kill or cleanup follows the launch sent before it
+    private final ExecutorService commandExecutor =
+            Executors.newSingleThreadExecutor(ThreadUtils.createThreadFactory("NodeAgentCommand"));
+    private volatile boolean stopped = false;
+    private volatile Channel channel;
+
+    /**
+     * @param secret {@code task.agent.secret} of TaskManager, empty if TaskManager authenticates agents by address
+     */
+    public NodeAgent(String host, String taskManagerHost, int taskManagerPort, String secret) {
+        this.host = host;
+        this.taskManagerHost = taskManagerHost;
+        this.taskManagerPort = taskManagerPort;
+        this.secret = secret;
+
+        Class<? extends Channel> channelClass;
+        if (SystemUtils.isLinux()) {
+            group = new EpollEventLoopGroup(1);
+            channelClass = EpollSocketChannel.class;
+        } else {
+            group = new NioEventLoopGroup(1);
+            channelClass = NioSocketChannel.class;
+        }
+        bootstrap = new Bootstrap();
+        bootstrap.group(group)
+                .channel(channelClass)
+                .remoteAddress(new InetSocketAddress(taskManagerHost, taskManagerPort))
+                .handler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        ChannelPipeline pipeline = ch.pipeline();
+                        pipeline.addLast(new IdleStateHandler(0, STATUS_INTERVAL_SECONDS, 0, TimeUnit.SECONDS));
+                        pipeline.addLast(new TaskMessageCodec());
+                        pipeline.addLast(new AgentHandler());
+                    }
+                });
+    }
+
+    /**
+     * Keep connected to TaskManager until stopped
+     */
+    public void run() {
+        try {
+            while (!stopped) {
+                try {
+                    channel = bootstrap.connect().sync().channel();
+                    LOGGER.info("Node agent {} connected to {}:{}", host, taskManagerHost, taskManagerPort);
+                    channel.closeFuture().sync();
+                    LOGGER.warn("Node agent {} disconnected from {}:{}", host, taskManagerHost, taskManagerPort);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (Exception e) {
+                    LOGGER.warn("Node agent {} connect to {}:{} failed: {}",
+                            host, taskManagerHost, taskManagerPort, e.getMessage());
+                }
+                if (!stopped) {
+                    Thread.sleep(RECONNECT_WAIT_MILLIS);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            commandExecutor.shutdownNow();
+            group.shutdownGracefully();
+        }
+    }
+
+    public void stop() {
+        stopped = true;
+        Channel channel = this.channel;
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    static Result execute(AgentCommand command) {
+        String arg = command.getArg();
+        switch (command.getKind()) {
+            case LAUNCH:
+                return CmdUtils.exec(arg);
+            case KILL:
+                // pid only, arg isn't passed to shell as is
+                return CmdUtils.exec("kill -9 " + Integer.parseInt(arg));
+            case CLEANUP:
+                return CmdUtils.exec("rm -rf '" + arg.replace("'", "'\\''") + "'");
+            default:
+                throw new IllegalArgumentException("Unsupported command " + command);
+        }
+    }
+
+    private class AgentHandler extends SimpleChannelInboundHandler<TaskMessage> {
+
+        // handshake with TaskManager, then report host
+        @Override
+        public void channelActive(ChannelHandlerContext ctx) {
+            ByteBuf buffer = ctx.alloc().buffer();
+            buffer.writeLong(NodeAgentManager.HANDSHAKE_ID);
+            buffer.writeInt(SystemUtils.getPID());
+            ctx.write(buffer);
+            ctx.writeAndFlush(new AgentReady(host, secret));
+        }
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, TaskMessage msg) {
+            if (msg instanceof AgentCommands) {
+                AgentCommands commands = (AgentCommands) msg;
+                commandExecutor.execute(() -> {
+                    Map<Long, Result> results = new LinkedHashMap<>();
+                    for (AgentCommand command : commands.getCommands()) {
+                        try {
+                            results.put(command.getCommandId(), execute(command));
+                        } catch (RuntimeException e) {
+                            LOGGER.warn("Execute {} failed", command, e);
+                            results.put(command.getCommandId(), CmdUtils.failed(e));
+                        }
+                    }
+                    ctx.writeAndFlush(new AgentResults(results));
+                });
+            } else if (msg instanceof KillTask) {
+                LOGGER.info("Node agent {} received kill command, stop it", host);
+                stop();
+            }
+        }
+
+        @Override
+        public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+            if (evt instanceof IdleStateEvent) {
+                long total = SystemUtils.getTotalPhysicalMemory();
+                long free = SystemUtils.getFreePhysicalMemory();
+                long usedMemory = total >= 0 && free >= 0 ? (total - free) / MB : -1;
+                ctx.writeAndFlush(new AgentStatus(SystemUtils.getSystemCpuLoad(), usedMemory))
+                        .addListener((ChannelFutureListener) future -> {
+                            if (!future.isSuccess()) {
+                                future.channel().close();
+                            }
+                        });
+            } else {
+                super.userEventTriggered(ctx, evt);
+            }
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            LOGGER.warn("Node agent {} exception, reconnect", host, cause);
+            ctx.close();
+        }
+    }
+
+    /**
+     * Start a node agent. args: --taskManagerHost host --taskManagerPort port [--host name of this node]
+     * [--secret task.agent.secret]
+     */
+    public static void main(String[] args) {
+        ParametersUtils parametersUtils = ParametersUtils.fromArgs(args);
+        String host = parametersUtils.getOrDefault("host", SystemUtils.HOSTNAME);
+        new NodeAgent(host, parametersUtils.get("taskManagerHost"), parametersUtils.getInt("taskManagerPort"),
+                parametersUtils.getOrDefault("secret", "")).run();
+    }
+
+}
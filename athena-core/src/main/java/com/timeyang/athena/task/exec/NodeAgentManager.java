@@ -0,0 +1,326 @@
+package com.timeyang.athena.task.exec;
+
+import com.timeyang.athena.task.message.TaskMessage;
+import com.timeyang.athena.task.message.TaskMessage.*;
+import com.timeyang.athena.util.NetworkUtils;
+import com.timeyang.athena.util.cmd.CmdUtils;
+import com.timeyang.athena.util.cmd.Result;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Connections of {@link NodeAgent}s to TaskBackend.
+ * <p>Commands to a host are sent to its node agent if one is connected, otherwise they fall back to
+ * {@link CmdUtils#exec(String, String)}, which uses ssh for a remote host. Commands submitted to an agent while a
+ * batch is being flushed are sent together in the next {@link AgentCommands}, so launches of many tasks share one
+ * write. A batch fails with {@link ClosedChannelException} if agent disconnects before it replies.</p>
+ * <p>An agent is accepted only if its {@link AgentReady} carries {@code task.agent.secret}, or, when no secret is
+ * configured, if its reported host resolves to the address it connects from. Otherwise any client could take over
+ * the commands of a host.</p>
+ *
+ * @author https://github.com/chaokunyang
+ */
+public class NodeAgentManager {
+    private static final Logger LOGGER = LoggerFactory.getLogger(NodeAgentManager.class);
+    /**
+     * taskId of node agent handshake, pooled executors use {@code -poolId} which is never this
+     */
+    public static final long HANDSHAKE_ID = Long.MIN_VALUE;
+
+    private final long commandTimeoutMillis;
+    private final String secret;
+    private final AtomicLong commandIdGenerator = new AtomicLong();
+    // agents keyed by reported host and by address, a host may be placed by either
+    private final ConcurrentMap<String, AgentConnection> agents = new ConcurrentHashMap<>();
+    private final ChannelGroup channelGroup = new DefaultChannelGroup(ImmediateEventExecutor.INSTANCE);
+
+    public NodeAgentManager(long commandTimeoutMillis, String secret) {
+        this.commandTimeoutMillis = commandTimeoutMillis;
+        this.secret = secret;
+    }
+
+    public void stop() {
+        channelGroup.close().awaitUninterruptibly();
+        agents.clear();
+    }
+
+    public boolean isConnected(String host) {
+        return agents.containsKey(host);
+    }
+
+    /**
+     * @return latest utilization reported by node agents, keyed by host reported by agent
+     */
+    public Map<String, AgentStatus> getStatuses() {
+        Map<String, AgentStatus> statuses = new HashMap<>();
+        new HashSet<>(agents.values()).forEach(agent -> {
+            if (agent.status != null) {
+                statuses.put(agent.host, agent.status);
+            }
+        });
+        return statuses;
+    }
+
+    /**
+     * Execute a shell command on host by its node agent, or by {@link CmdUtils} if host is local or has no agent
+     */
+    public Result exec(String host, String cmd) {
+        AgentConnection agent = NetworkUtils.isHostLocal(host) ? null : agents.get(host);
+        if (agent == null) {
+            return CmdUtils.exec(host, cmd);
+        }
+        return await(agent.submit(AgentCommand.Kind.LAUNCH, cmd), host, cmd);
+    }
+
+    /**
+     * Execute a shell command on host by its node agent, or by {@link CmdUtils#execAsync(String, String)} if host is
+     * local or has no agent
+     *
+     * @return future completed with result when command exits, completed exceptionally if agent fails
+     */
+    public CompletableFuture<Result> execAsync(String host, String cmd) {
+        AgentConnection agent = NetworkUtils.isHostLocal(host) ? null : agents.get(host);
+        if (agent == null) {
+            return CmdUtils.execAsync(host, cmd);
+        }
+        CompletableFuture<Result> future = agent.submit(AgentCommand.Kind.LAUNCH, cmd);
+        ScheduledFuture<?> timeout = agent.channel.eventLoop().schedule(() -> {
+            future.completeExceptionally(new TimeoutException(String.format(
+                    "Node agent of host %s didn't execute [%s] in %d ms", host, cmd, commandTimeoutMillis)));
+        }, commandTimeoutMillis, TimeUnit.MILLISECONDS);
+        future.whenComplete((result, e) -> timeout.cancel(false));
+        return future;
+    }
+
+    /**
+     * Delete a directory on host
+     */
+    public Result cleanup(String host, String dir) {
+        AgentConnection agent = NetworkUtils.isHostLocal(host) ? null : agents.get(host);
+        if (agent == null) {
+            return CmdUtils.exec(host, "rm -rf " + dir);
+        }
+        return await(agent.submit(AgentCommand.Kind.CLEANUP, dir), host, dir);
+    }
+
+    /**
+     * Kill a process on host by its node agent
+     *
+     * @return false if host has no node agent
+     */
+    public boolean kill(String host, int pid) {
+        AgentConnection agent = agents.get(host);
+        if (agent == null) {
+            return false;
+        }
+        agent.submit(AgentCommand.Kind.KILL, String.valueOf(pid)).whenComplete((result, e) -> {
+            if (e != null || !result.isSucceed()) {
+                LOGGER.warn("Kill process [{}] on host {} failed: {}", pid, host, e != null ? e.getMessage() : result);
+            }
+        });
+        return true;
+    }
+
+    private Result await(CompletableFuture<Result> future, String host, String arg) {
+        try {
+            return future.get(commandTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return CmdUtils.failed(e);
+        } catch (ExecutionException | TimeoutException e) {
+            LOGGER.error("Node agent of host {} failed to execute [{}]", host, arg, e);
+            return CmdUtils.failed(e);
+        }
+    }
+
+    /**
+     * @return whether agent reporting {@code ready} from {@code remote} may receive commands of its host
+     */
+    boolean authenticate(AgentReady ready, InetAddress remote) {
+        String host = ready.getHost();
+        if (host == null || host.isEmpty()) {
+            return false;
+        }
+        if (!secret.isEmpty()) {
+            return ready.getSecret() != null && MessageDigest.isEqual(
+                    secret.getBytes(StandardCharsets.UTF_8), ready.getSecret().getBytes(StandardCharsets.UTF_8));
+        }
+        try {
+            return Arrays.asList(InetAddress.getAllByName(host)).contains(remote);
+        } catch (UnknownHostException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return channel handler of node agent connection, which replaces task handlers after handshake
+     */
+    SimpleChannelInboundHandler<TaskMessage> newChannelHandler(int pid) {
+        return new NodeAgentHandler(pid);
+    }
+
+    private class AgentConnection {
+        private final String host;
+        private final Channel channel;
+        private final Queue<AgentCommand> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean flushScheduled = new AtomicBoolean();
+        private final ConcurrentMap<Long, CompletableFuture<Result>> pending = new ConcurrentHashMap<>();
+        private volatile AgentStatus status;
+
+        AgentConnection(String host, Channel channel) {
+            this.host = host;
+            this.channel = channel;
+        }
+
+        CompletableFuture<Result> submit(AgentCommand.Kind kind, String arg) {
+            AgentCommand command = new AgentCommand(commandIdGenerator.incrementAndGet(), kind, arg);
+            CompletableFuture<Result> future = new CompletableFuture<>();
+            pending.put(command.getCommandId(), future);
+            queue.offer(command);
+            if (flushScheduled.compareAndSet(false, true)) {
+                channel.eventLoop().execute(this::flush);
+            }
+            if (!channel.isActive() && pending.remove(command.getCommandId()) != null) {
+                future.completeExceptionally(new ClosedChannelException());
+            }
+            return future;
+        }
+
+        /**
+         * send commands queued until now as one batch
+         */
+        private void flush() {
+            flushScheduled.set(false);
+            List<AgentCommand> batch = new ArrayList<>();
+            AgentCommand command;
+            while ((command = queue.poll()) != null) {
+                batch.add(command);
+            }
+            if (batch.isEmpty()) {
+                return;
+            }
+            LOGGER.debug("Send {} commands to node agent {}", batch.size(), host);
+            channel.writeAndFlush(new AgentCommands(batch)).addListener(future -> {
+                if (!future.isSuccess()) {
+                    batch.forEach(c -> fail(c.getCommandId(), future.cause()));
+                }
+            });
+        }
+
+        void complete(AgentResults results) {
+            results.getResults().forEach((commandId, result) -> {
+                CompletableFuture<Result> future = pending.remove(commandId);
+                if (future != null) {
+                    future.complete(result);
+                }
+            });
+        }
+
+        void fail(long commandId, Throwable cause) {
+            CompletableFuture<Result> future = pending.remove(commandId);
+            if (future != null) {
+                future.completeExceptionally(cause);
+            }
+        }
+
+        void close() {
+            ClosedChannelException e = new ClosedChannelException();
+            new ArrayList<>(pending.keySet()).forEach(commandId -> fail(commandId, e));
+        }
+    }
+
+    private class NodeAgentHandler extends SimpleChannelInboundHandler<TaskMessage> {
+        private final int pid;
+        private AgentConnection agent;
+        private String address;
+
+        NodeAgentHandler(int pid) {
+            this.pid = pid;
+        }
+
+        @Override
+        public void handlerAdded(ChannelHandlerContext ctx) {
+            channelGroup.add(ctx.channel());
+        }
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, TaskMessage msg) {
+            if (msg instanceof AgentReady) {
+                String host = ((AgentReady) msg).getHost();
+                InetAddress remote = ((InetSocketAddress) ctx.channel().remoteAddress()).getAddress();
+                if (agent != null || !authenticate((AgentReady) msg, remote)) {
+                    LOGGER.warn("Reject node agent {} [{}] pid [{}], close it", host, remote.getHostAddress(), pid);
+                    ctx.close();
+                    return;
+                }
+                agent = new AgentConnection(host, ctx.channel());
+                address = remote.getHostAddress();
+                replace(host, agent);
+                replace(address, agent);
+                LOGGER.info("Node agent {} [{}] pid [{}] connected", host, address, pid);
+            } else if (msg instanceof AgentResults) {
+                if (agent != null) {
+                    agent.complete((AgentResults) msg);
+                }
+            } else if (msg instanceof AgentStatus) {
+                if (agent != null) {
+                    agent.status = (AgentStatus) msg;
+                }
+            }
+        }
+
+        private void replace(String key, AgentConnection agent) {
+            AgentConnection old = agents.put(key, agent);
+            if (old != null && old != agent) {
+                LOGGER.info("Node agent {} reconnected, close old connection", key);
+                old.channel.close();
+            }
+        }
+
+        @Override
+        public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+            if (evt instanceof IdleStateEvent) {
+                // agent sends status more often than heartbeat timeout
+                LOGGER.warn("Node agent {} pid [{}] timeout, close it", agent != null ? agent.host : address, pid);
+                ctx.close();
+            } else {
+                super.userEventTriggered(ctx, evt);
+            }
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) {
+            if (agent != null) {
+                agents.remove(agent.host, agent);
+                agents.remove(address, agent);
+                agent.close();
+                LOGGER.warn("Node agent {} [{}] disconnected", agent.host, address);
+            }
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            LOGGER.warn("Node agent pid [{}] exception, close it", pid, cause);
+            ctx.close();
+        }
+    }
+
+}
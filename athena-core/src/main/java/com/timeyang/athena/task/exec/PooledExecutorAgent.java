@@ -0,0 +1,250 @@
+package com.timeyang.athena.task.exec;
+
+import com.timeyang.athena.task.message.TaskMessage;
+import com.timeyang.athena.task.message.TaskMessage.*;
+import com.timeyang.athena.task.message.TaskMessageCodec;
+import com.timeyang.athena.util.ParametersUtils;
+import com.timeyang.athena.util.SystemUtils;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.*;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.handler.timeout.IdleStateHandler;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Idle executor JVM of {@link ExecutorPool}.
+ * <p>Connects to TaskBackend as {@code -poolId}, waits for an {@link ExecutorAssign}, then closes the connection
+ * and runs the task by {@link TaskExecutorLauncher#launch}, with stdout and stderr redirected to task log file.
+ * When task finished, connects again and waits for next task, until max tasks executed or idle timeout.</p>
+ *
+ * @author https://github.com/chaokunyang
+ */
+class PooledExecutorAgent {
+    private static final Object DISCONNECTED = new Object();
+
+    private final int poolId;
+    private final String poolKey;
+    private final int maxTasks;
+    private final long idleTimeout;
+    private final EventLoopGroup group;
+    private final Bootstrap bootstrap;
+    // classloaders are reused across tasks, so that classes are loaded and JIT compiled once per JVM
+    private final Map<String, URLClassLoader> classLoaders = new HashMap<>();
+    private final RedirectOutputStream redirectOut = new RedirectOutputStream();
+    private int executedTasks;
+
+    PooledExecutorAgent(ParametersUtils parametersUtils) {
+        this.poolId = parametersUtils.getInt("poolId");
+        this.poolKey = parametersUtils.get("poolKey");
+        this.maxTasks = parametersUtils.getInt("poolMaxTasks");
+        this.idleTimeout = parametersUtils.getLong("poolIdleTimeout");
+        String taskManagerHost = parametersUtils.get("taskManagerHost");
+        int taskManagerPort = parametersUtils.getInt("taskManagerPort");
+
+        Class<? extends Channel> channelClass;
+        if (SystemUtils.isLinux()) {
+            group = new EpollEventLoopGroup(1);
+            channelClass = EpollSocketChannel.class;
+        } else {
+            group = new NioEventLoopGroup(1);
+            channelClass = NioSocketChannel.class;
+        }
+        bootstrap = new Bootstrap();
+        bootstrap.group(group)
+                .channel(channelClass)
+                .remoteAddress(new InetSocketAddress(taskManagerHost, taskManagerPort));
+    }
+
+    void run() {
+        // log appenders created by tasks hold System.out, so System.out must stay the same stream across tasks
+        redirectOut.target = System.out;
+        PrintStream out = new PrintStream(redirectOut, true);
+        System.setOut(out);
+        System.setErr(out);
+        try {
+            while (executedTasks < maxTasks) {
+                ExecutorAssign assign = awaitAssignment();
+                if (assign == null) {
+                    break;
+                }
+                runTask(assign);
+                executedTasks++;
+            }
+            TaskExecutorLauncher.info(String.format("pooled executor [%d] exit, executed %d tasks", poolId, executedTasks));
+        } finally {
+            group.shutdownGracefully();
+        }
+    }
+
+    /**
+     * @return assigned task, null if idle timeout or disconnected
+     */
+    private ExecutorAssign awaitAssignment() {
+        BlockingQueue<Object> messages = new LinkedBlockingQueue<>();
+        AtomicBoolean accepting = new AtomicBoolean(true);
+        Channel channel;
+        try {
+            channel = bootstrap.handler(new ChannelInitializer<SocketChannel>() {
+                @Override
+                protected void initChannel(SocketChannel ch) {
+                    ChannelPipeline pipeline = ch.pipeline();
+                    pipeline.addLast(new IdleStateHandler(0, 60, 0, TimeUnit.SECONDS));
+                    pipeline.addLast(new TaskMessageCodec());
+                    pipeline.addLast(new AgentHandler(messages, accepting));
+                }
+            }).connect().sync().channel();
+        } catch (Exception e) {
+            TaskExecutorLauncher.info("pooled executor [" + poolId + "] connect to taskManager failed: " + e);
+            return null;
+        }
+
+        try {
+            Object msg = messages.poll(idleTimeout, TimeUnit.SECONDS);
+            if (msg == null && !accepting.compareAndSet(true, false)) {
+                // an assignment is accepted concurrently
+                msg = messages.take();
+            }
+            if (msg instanceof ExecutorAssign && channel.isActive()) {
+                return (ExecutorAssign) msg;
+            }
+            return null;
+        } catch (InterruptedException e) {
+            return null;
+        } finally {
+            channel.close().syncUninterruptibly();
+        }
+    }
+
+    private void runTask(ExecutorAssign assign) {
+        Map<String, String> args = assign.getArgs();
+        String taskFilePath = args.get("taskFilePath");
+        OutputStream poolOut = redirectOut.target;
+        FileOutputStream taskOut = null;
+        try {
+            Path path = Paths.get(taskFilePath);
+            if (path.getParent() != null) {
+                Files.createDirectories(path.getParent());
+            }
+            taskOut = new FileOutputStream(taskFilePath);
+            redirectOut.target = taskOut;
+            TaskExecutorLauncher.info(String.format("pooled executor [%d] run task [%d], args: %s",
+                    poolId, assign.getTaskId(), args));
+            TaskExecutorLauncher.launch(new ParametersUtils(args), classLoaders);
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            redirectOut.target = poolOut;
+            if (taskOut != null) {
+                try {
+                    taskOut.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    private class AgentHandler extends SimpleChannelInboundHandler<TaskMessage> {
+        private final BlockingQueue<Object> messages;
+        private final AtomicBoolean accepting;
+
+        AgentHandler(BlockingQueue<Object> messages, AtomicBoolean accepting) {
+            this.messages = messages;
+            this.accepting = accepting;
+        }
+
+        // handshake with TaskManager, then report ready
+        @Override
+        public void channelActive(ChannelHandlerContext ctx) {
+            ByteBuf buffer = ctx.alloc().buffer();
+            buffer.writeLong(-poolId);
+            buffer.writeInt(SystemUtils.getPID());
+            ctx.write(buffer);
+            ctx.writeAndFlush(new ExecutorReady(poolId, poolKey, executedTasks));
+        }
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, TaskMessage msg) {
+            if (msg instanceof ExecutorAssign) {
+                ExecutorAssign assign = (ExecutorAssign) msg;
+                if (accepting.compareAndSet(true, false)) {
+                    ctx.writeAndFlush(new ExecutorAssignAck(assign.getTaskId()));
+                    messages.offer(assign);
+                }
+            } else if (msg instanceof KillTask) {
+                TaskExecutorLauncher.info("pooled executor [" + poolId + "] received kill command. Exit now");
+                System.exit(0);
+            }
+        }
+
+        @Override
+        public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+            if (evt instanceof IdleStateEvent) {
+                ctx.writeAndFlush(new HeartBeat(-poolId))
+                        .addListener((ChannelFutureListener) future -> {
+                            if (!future.isSuccess()) {
+                                future.channel().close();
+                            }
+                        });
+            } else {
+                super.userEventTriggered(ctx, evt);
+            }
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) {
+            if (accepting.compareAndSet(true, false)) {
+                messages.offer(DISCONNECTED);
+            }
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            cause.printStackTrace();
+            ctx.close();
+        }
+    }
+
+    /**
+     * OutputStream whose target can be switched between pool log and task log
+     */
+    private static class RedirectOutputStream extends OutputStream {
+        private volatile OutputStream target;
+
+        @Override
+        public void write(int b) throws IOException {
+            target.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            target.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            target.flush();
+        }
+    }
+
+}
@@ -1,15 +1,15 @@
 package com.timeyang.athena.task.exec;
 
 import com.timeyang.athena.AthenaConf;
+import com.timeyang.athena.AthenaException;
 import com.timeyang.athena.task.TaskInfo;
+import com.timeyang.athena.task.TaskType;
 import com.timeyang.athena.task.message.TaskMessage;
 import com.timeyang.athena.task.message.TaskMessage.*;
 import com.timeyang.athena.task.message.TaskMessageCodec;
-import com.timeyang.athena.util.ParametersUtils;
+import com.timeyang.athena.util.NetworkUtils;
 import com.timeyang.athena.util.StringUtils;
 import com.timeyang.athena.util.SystemUtils;
-import com.timeyang.athena.util.cmd.CmdUtils;
-import com.timeyang.athena.util.cmd.Result;
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.*;
@@ -26,18 +26,27 @@ import io.netty.util.concurrent.ImmediateEventExecutor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongFunction;
+import java.util.regex.Pattern;
 
 /**
  * TaskBackend, responsible for communicating with TaskExecutor
  *
  * @author https://github.com/chaokunyang
  */
-public class TaskBackend {
+public class TaskBackend implements TaskLauncher {
     private static final Logger LOGGER = LoggerFactory.getLogger(TaskBackend.class);
+    // bytes of shipped log sent to a new log subscriber
+    private static final int LOG_TAIL_BYTES = 16 * 1024;
 
     private final String host;
     private final int port;
@@ -56,12 +65,21 @@ public class TaskBackend {
     private final ConcurrentMap<Channel, Long> channelMap = new ConcurrentHashMap<>();
     private final ConcurrentMap<Long, Task> taskInstances = new ConcurrentHashMap<>();
     private final Set<Long> startingTaskIds = ConcurrentHashMap.newKeySet();
+    private final ConcurrentMap<Long, Set<LogSubscriber>> logSubscribers = new ConcurrentHashMap<>();
+    // null if executor pool is disabled
+    private final ExecutorPool executorPool;
+    private final InProcessTaskRunner inProcessTaskRunner;
+    private final NodeAgentManager nodeAgentManager;
 
     public TaskBackend(AthenaConf athenaConf, TaskCallback taskCallback) {
         this.host = athenaConf.getTaskRpcHost();
         this.port = athenaConf.getTaskRpcPort();
         this.athenaConf = athenaConf;
         this.taskCallback = taskCallback;
+        this.nodeAgentManager = new NodeAgentManager(athenaConf.getNodeAgentCommandTimeout(),
+                athenaConf.getNodeAgentSecret());
+        this.executorPool = athenaConf.isExecutorPoolEnabled() ? new ExecutorPool(athenaConf, nodeAgentManager) : null;
+        this.inProcessTaskRunner = new InProcessTaskRunner(athenaConf, taskCallback);
 
         Class<? extends ServerChannel> channelClass;
         if (SystemUtils.IS_LINUX) {
@@ -97,9 +115,17 @@ public class TaskBackend {
         ChannelFuture future = bootstrap.bind(host, port);
         future.syncUninterruptibly();
         serverChannel = future.channel();
+        if (executorPool != null) {
+            executorPool.start();
+        }
     }
 
     public void stop() {
+        if (executorPool != null) {
+            executorPool.stop();
+        }
+        inProcessTaskRunner.stop();
+        nodeAgentManager.stop();
         ChannelGroupFuture channelGroupFuture = channelGroup.writeAndFlush(new TaskMessage.KillTask());
         channelGroupFuture.syncUninterruptibly();
         channelGroupFuture.forEach(f -> {
@@ -120,30 +146,51 @@ public class TaskBackend {
     }
 
     /**
-     * @return true if task_cmd executed successfully
+     * Mark a task as starting, it isn't started again until it's started or failed to start
+     *
+     * @return false if task is starting already
      */
-    public boolean runTask(TaskInfo taskInfo) {
-        Long taskId = taskInfo.getTaskId();
-        LOGGER.debug("starting tasks: " + startingTaskIds);
-        // start task if not started
-        synchronized (startingTaskIds) {
-            if (!startingTaskIds.contains(taskId)) {
-                startingTaskIds.add(taskId);
-            } else {
-                LOGGER.debug("task [{}] is starting, won't run it repeatedly", taskId);
-                return false;
-            }
+    @Override
+    public boolean claimTask(long taskId) {
+        if (!startingTaskIds.add(taskId)) {
+            LOGGER.debug("task [{}] is starting, won't run it repeatedly", taskId);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Release a claimed task which won't be started for now
+     */
+    @Override
+    public void unclaimTask(long taskId) {
+        startingTaskIds.remove(taskId);
+        // instance of a started copy of task is kept
+        if (!remoteTasks.containsKey(taskId)) {
+            taskInstances.remove(taskId);
+        }
+    }
+
+    /**
+     * Create and init a claimed task. JAVA_IN_PROCESS tasks are created by {@link InProcessTaskRunner}.
+     *
+     * @return false if task failed to init, task is failed by callback
+     */
+    @Override
+    public boolean initTask(TaskInfo taskInfo) {
+        if (taskInfo.getTaskType().isInProcess()) {
+            return true;
         }
 
+        Long taskId = taskInfo.getTaskId();
         String className = taskInfo.getClassName();
         Task task;
         try {
-            task = TaskUtils.createTask(className, ParametersUtils.fromArgs(taskInfo.getParams()).get());
+            task = TaskUtils.createTask(className, TaskUtils.getTaskArgs(taskInfo));
         } catch (RuntimeException e) {
             LOGGER.error("Create task [{}] failed, move task to finished", taskId, e);
             taskCallback.onFailure(taskId);
-            startingTaskIds.remove(taskId);
-            taskInstances.remove(taskId);
+            unclaimTask(taskId);
             return false;
         }
         taskInstances.put(taskId, task);
@@ -155,39 +202,80 @@ public class TaskBackend {
         } catch (Throwable throwable) {
             LOGGER.error("init task [{}] failed", taskId, throwable);
             taskCallback.onFailure(taskId);
-            startingTaskIds.remove(taskId);
-            taskInstances.remove(taskId);
+            unclaimTask(taskId);
             return false;
         }
+        return true;
+    }
 
-        String taskCmd = TaskUtils.getTaskCmd(taskInfo, host, port);
-        LOGGER.info("Starting task. task_start_cmd: [{}]", taskCmd);
-        Result result = CmdUtils.exec(taskInfo.getHost(), taskCmd);
-        if (StringUtils.hasLength(result.getOut()))
-            LOGGER.info("task cmd output: " + result.getOut());
-        if (StringUtils.hasLength(result.getError())) {
-            LOGGER.warn("task error output: " + result.getError());
+    /**
+     * Start process of an inited task, by a pooled executor or by task_cmd. A failed task_cmd fails the task by
+     * callback
+     *
+     * @return future completed when task is handed to its process, with false if task isn't started
+     */
+    @Override
+    public CompletableFuture<Boolean> spawnTask(TaskInfo taskInfo) {
+        Long taskId = taskInfo.getTaskId();
+        if (taskInfo.getTaskType().isInProcess()) {
+            // task is starting until it's picked by a thread
+            boolean submitted = inProcessTaskRunner.runTask(taskInfo, () -> startingTaskIds.remove(taskId));
+            if (!submitted) {
+                startingTaskIds.remove(taskId);
+            }
+            return CompletableFuture.completedFuture(submitted);
         }
 
-        if (result.isSucceed()) {
-            LOGGER.info("task_start_cmd of task [{}] executed, exit code {}", taskId, result.getExitCode());
-        } else {
-            LOGGER.error("Execute task_cmd [{}] failed, exit code {}. Move task to finished", taskCmd, result.getExitCode());
-
-            taskCallback.onFailure(taskId);
-            startingTaskIds.remove(taskId);
-            taskInstances.remove(taskId);
+        if (executorPool != null && taskInfo.getTaskType() == TaskType.JAVA) {
+            return executorPool.assign(taskInfo, TaskUtils.getTaskExecArgs(taskInfo, host, port))
+                    .thenCompose(assigned -> assigned ? CompletableFuture.completedFuture(true) : execTaskCmd(taskInfo));
         }
+        return execTaskCmd(taskInfo);
+    }
 
-        return true;
+    /**
+     * Start task by task_cmd, a failed task_cmd fails the task by callback
+     */
+    private CompletableFuture<Boolean> execTaskCmd(TaskInfo taskInfo) {
+        Long taskId = taskInfo.getTaskId();
+        String taskCmd = TaskUtils.getTaskCmd(taskInfo, host, port);
+        LOGGER.info("Starting task. task_start_cmd: [{}]", taskCmd);
+        return nodeAgentManager.execAsync(taskInfo.getHost(), taskCmd).handle((result, throwable) -> {
+            if (throwable != null) {
+                LOGGER.error("Execute task_cmd [{}] failed. Move task to finished", taskCmd, throwable);
+            } else {
+                if (StringUtils.hasLength(result.getOut()))
+                    LOGGER.info("task cmd output: " + result.getOut());
+                if (StringUtils.hasLength(result.getError())) {
+                    LOGGER.warn("task error output: " + result.getError());
+                }
+                if (result.isSucceed()) {
+                    LOGGER.info("task_start_cmd of task [{}] executed, exit code {}", taskId, result.getExitCode());
+                    return true;
+                }
+                LOGGER.error("Execute task_cmd [{}] failed, exit code {}. Move task to finished", taskCmd, result.getExitCode());
+            }
+
+            taskCallback.onFailure(taskId);
+            unclaimTask(taskId);
+            return false;
+        });
     }
 
-    public Future killTask(long taskId, Runnable runnable) {
+    public Future<?> killTask(long taskId, Runnable runnable) {
+        if (inProcessTaskRunner.isTaskRunning(taskId)) {
+            return inProcessTaskRunner.kill(taskId, runnable);
+        }
         RemoteTaskHandle remoteTaskHandle = remoteTasks.get(taskId);
         if (remoteTaskHandle != null) {
             Channel channel = remoteTaskHandle.getChannel();
             ChannelFuture channelFuture = channel.writeAndFlush(new TaskMessage.KillTask());
             channelFuture.addListener((ChannelFutureListener) future -> {
+                InetSocketAddress address = (InetSocketAddress) channel.remoteAddress();
+                if (!future.isSuccess() && address != null) {
+                    // TaskExecutor can't receive KillTask, kill its process by node agent
+                    nodeAgentManager.kill(address.getAddress().getHostAddress(), remoteTaskHandle.getPid());
+                }
                 Task task = taskInstances.get(taskId);
                 TaskContext taskContext = TaskContextImpl.makeTaskContext(taskId);
                 task.onKilled(taskContext);
@@ -203,20 +291,159 @@ public class TaskBackend {
         }
     }
 
+    public NodeAgentManager getNodeAgentManager() {
+        return nodeAgentManager;
+    }
+
     public boolean isTaskStarting(long taskId) {
         return startingTaskIds.contains(taskId);
     }
 
+    @Override
     public boolean isTaskRunning(long taskId) {
-        return taskInstances.containsKey(taskId);
+        return taskInstances.containsKey(taskId) || inProcessTaskRunner.isTaskRunning(taskId);
     }
 
     public List<String> getLogLines(long taskId, int lineNumber, int rows) {
+        try {
+            return getLogLinesAsync(taskId, lineNumber, rows).get();
+        } catch (InterruptedException | ExecutionException e) {
+            LOGGER.warn("query log of task [{}] failed: {}", taskId, e.getMessage());
+            return new ArrayList<>();
+        }
+    }
+
+    /**
+     * Query log lines of a running task. Queries of a task don't block each other
+     *
+     * @return future completed with log lines, or completed exceptionally if query timeout or task channel closed
+     */
+    public CompletableFuture<List<String>> getLogLinesAsync(long taskId, int lineNumber, int rows) {
+        if (inProcessTaskRunner.isTaskRunning(taskId)) {
+            return CompletableFuture.completedFuture(inProcessTaskRunner.getLogLines(taskId, lineNumber, rows));
+        }
         RemoteTaskHandle remoteTaskHandle = remoteTasks.get(taskId);
         if (remoteTaskHandle != null) {
-            return remoteTaskHandle.getLogExchange().get(lineNumber, rows);
+            return remoteTaskHandle.getLogExchange().query(lineNumber, rows);
+        }
+        return CompletableFuture.completedFuture(new ArrayList<>());
+    }
+
+    public List<String> getTailLines(long taskId, int rows) {
+        try {
+            return getTailLinesAsync(taskId, rows).get();
+        } catch (InterruptedException | ExecutionException e) {
+            LOGGER.warn("query log tail of task [{}] failed: {}", taskId, e.getMessage());
+            return new ArrayList<>();
+        }
+    }
+
+    /**
+     * Query the last log lines of a running task, TaskExecutor reads log file backwards from the end
+     *
+     * @return future completed with log lines, or completed exceptionally if query timeout or task channel closed
+     */
+    public CompletableFuture<List<String>> getTailLinesAsync(long taskId, int rows) {
+        if (inProcessTaskRunner.isTaskRunning(taskId)) {
+            return CompletableFuture.completedFuture(inProcessTaskRunner.getTailLines(taskId, rows));
+        }
+        RemoteTaskHandle remoteTaskHandle = remoteTasks.get(taskId);
+        if (remoteTaskHandle != null) {
+            return remoteTaskHandle.getLogExchange().tail(rows);
+        }
+        return CompletableFuture.completedFuture(new ArrayList<>());
+    }
+
+    public List<LogLine> grep(long taskId, String regex, int maxHits) {
+        try {
+            return grepAsync(taskId, regex, maxHits).get();
+        } catch (InterruptedException | ExecutionException e) {
+            LOGGER.warn("grep log of task [{}] failed: {}", taskId, e.getMessage());
+            return new ArrayList<>();
+        }
+    }
+
+    /**
+     * Grep log of a running task. TaskExecutor scans its log, so only matched lines are sent over task channel
+     *
+     * @return future completed with matched lines, or completed exceptionally if grep timeout or task channel closed
+     */
+    public CompletableFuture<List<LogLine>> grepAsync(long taskId, String regex, int maxHits) {
+        if (inProcessTaskRunner.isTaskRunning(taskId)) {
+            CompletableFuture<List<LogLine>> future = new CompletableFuture<>();
+            try {
+                future.complete(inProcessTaskRunner.grep(taskId, Pattern.compile(regex), maxHits,
+                        athenaConf.getTaskLogGrepTimeout()));
+            } catch (AthenaException e) {
+                future.completeExceptionally(e);
+            }
+            return future;
+        }
+        RemoteTaskHandle remoteTaskHandle = remoteTasks.get(taskId);
+        if (remoteTaskHandle != null) {
+            return remoteTaskHandle.getLogExchange().grep(regex, maxHits);
+        }
+        return CompletableFuture.completedFuture(new ArrayList<>());
+    }
+
+    /**
+     * Stream log of a running task to subscriber. TaskExecutor starts streaming from the last few lines when the first
+     * subscriber subscribes, later subscribers only receive new lines. If log is shipped, every subscriber starts from
+     * the last few lines of shipped log. Log of in-process task isn't streamed.
+     *
+     * @return false if task isn't running in a TaskExecutor
+     */
+    public boolean subscribeLog(long taskId, LogSubscriber subscriber) {
+        RemoteTaskHandle remoteTaskHandle = remoteTasks.get(taskId);
+        if (remoteTaskHandle == null) {
+            return false;
+        }
+        if (remoteTaskHandle.getLogShipment() != null) {
+            // in event loop, so no chunk is stored between the tail and subscription
+            remoteTaskHandle.getChannel().eventLoop().execute(() -> {
+                LogChunk tail = remoteTaskHandle.getLogShipment().tail(LOG_TAIL_BYTES);
+                if (tail.getData().length > 0) {
+                    subscriber.onLog(taskId, tail.getOffset(), new String(tail.getData(), StandardCharsets.UTF_8));
+                }
+                synchronized (logSubscribers) {
+                    logSubscribers.computeIfAbsent(taskId, k -> new CopyOnWriteArraySet<>()).add(subscriber);
+                }
+                if (!remoteTasks.containsKey(taskId)) {
+                    unsubscribeLog(taskId, subscriber);
+                }
+            });
+            return true;
+        }
+        boolean first;
+        synchronized (logSubscribers) {
+            Set<LogSubscriber> subscribers = logSubscribers.computeIfAbsent(taskId, k -> new CopyOnWriteArraySet<>());
+            first = subscribers.isEmpty();
+            subscribers.add(subscriber);
+        }
+        if (!remoteTasks.containsKey(taskId)) {
+            // task cleared concurrently, onEnd may have been missed
+            unsubscribeLog(taskId, subscriber);
+            return false;
+        }
+        if (first) {
+            remoteTaskHandle.getChannel().writeAndFlush(new LogSubscribe(true, -1));
+        }
+        return true;
+    }
+
+    public void unsubscribeLog(long taskId, LogSubscriber subscriber) {
+        boolean last = false;
+        synchronized (logSubscribers) {
+            Set<LogSubscriber> subscribers = logSubscribers.get(taskId);
+            if (subscribers != null && subscribers.remove(subscriber) && subscribers.isEmpty()) {
+                logSubscribers.remove(taskId);
+                last = true;
+            }
+        }
+        RemoteTaskHandle remoteTaskHandle = remoteTasks.get(taskId);
+        if (last && remoteTaskHandle != null && remoteTaskHandle.getLogShipment() == null) {
+            remoteTaskHandle.getChannel().writeAndFlush(new LogSubscribe(false, -1));
         }
-        return new ArrayList<>();
     }
 
     /**
@@ -225,6 +452,7 @@ public class TaskBackend {
      * <li>ad channel to ChannelGroup</li>
      * <li>taskId</li>
      * <li>remove TaskHandShakeHandler from pipeline when handshake finished</li>
+     * <li>negative taskId is an idle pooled executor, its connection is handled by {@link ExecutorPool}</li>
      * </ol>
      * <ol>
      * massage：
@@ -246,9 +474,50 @@ public class TaskBackend {
             long taskId = byteBuf.readLong();
             int pid = byteBuf.readInt();
 
+            if (taskId == NodeAgentManager.HANDSHAKE_ID) {
+                LOGGER.info("node agent pid [{}] hand shake finished", pid);
+                ctx.pipeline().remove(TaskHeartbeatHandler.class);
+                ctx.pipeline().replace(TaskHandler.class, "nodeAgentHandler",
+                        nodeAgentManager.newChannelHandler(pid));
+                ctx.pipeline().remove(this);
+                // node agent sends AgentReady right after handshake
+                if (byteBuf.isReadable()) {
+                    ctx.fireChannelRead(byteBuf);
+                } else {
+                    byteBuf.release();
+                }
+                return;
+            }
+
+            if (taskId < 0 && executorPool != null) {
+                int poolId = (int) -taskId;
+                LOGGER.info("pooled executor [{}] hand shake finished", poolId);
+                ctx.pipeline().remove(TaskHeartbeatHandler.class);
+                ctx.pipeline().replace(TaskHandler.class, "pooledExecutorHandler",
+                        executorPool.newChannelHandler(poolId, pid));
+                ctx.pipeline().remove(this);
+                // pooled executor sends ExecutorReady right after handshake
+                if (byteBuf.isReadable()) {
+                    ctx.fireChannelRead(byteBuf);
+                } else {
+                    byteBuf.release();
+                }
+                return;
+            }
+
             channelGroup.add(ctx.channel());
             RemoteTaskHandle remoteTaskHandle =
-                    new RemoteTaskHandle(taskId, pid, ctx.channel());
+                    new RemoteTaskHandle(taskId, pid, ctx.channel(), athenaConf.getTaskLogQueryTimeout(),
+                            athenaConf.getTaskLogGrepTimeout());
+            // log of a task on local host is moved at collection, no need to ship it
+            String remoteHost = ((InetSocketAddress) ctx.channel().remoteAddress()).getAddress().getHostAddress();
+            if (athenaConf.isTaskLogShipEnabled() && !NetworkUtils.isHostLocal(remoteHost)) {
+                try {
+                    remoteTaskHandle.setLogShipment(new LogShipment(taskId));
+                } catch (IOException e) {
+                    LOGGER.warn("can't ship task [{}] log, log will be copied at collection", taskId, e);
+                }
+            }
             remoteTasks.put(taskId, remoteTaskHandle);
             channelMap.put(ctx.channel(), taskId);
 
@@ -325,6 +594,9 @@ public class TaskBackend {
                 Task task = taskInstances.get(taskId);
                 TaskContext taskContext = TaskContextImpl.makeTaskContext(taskId);
                 ctx.writeAndFlush(new TaskMessage.TaskSubmit(task, taskContext)); // send task to TaskExecutor
+                if (this.remoteTaskHandle.getLogShipment() != null) {
+                    ctx.writeAndFlush(new LogAck(0)); // start log shipping
+                }
             } else if (evt == TaskEvent.TASK_LOST) {
                 ctx.close(); // task lost, close channel
                 long taskId = this.remoteTaskHandle.getTaskId();
@@ -381,7 +653,34 @@ public class TaskBackend {
                 clear(taskId);
             } else if (msg instanceof LogQueryResult) {
                 LogQueryResult logQueryResult = (LogQueryResult) msg;
-                this.remoteTaskHandle.getLogExchange().set(logQueryResult.getLines());
+                this.remoteTaskHandle.getLogExchange().set(logQueryResult);
+            } else if (msg instanceof LogGrepResult) {
+                LogGrepResult logGrepResult = (LogGrepResult) msg;
+                this.remoteTaskHandle.getLogExchange().set(logGrepResult);
+            } else if (msg instanceof LogEnd) {
+                LogShipment logShipment = this.remoteTaskHandle.getLogShipment();
+                if (logShipment != null) {
+                    logShipment.end(((LogEnd) msg).getLength());
+                }
+            } else if (msg instanceof LogChunk) {
+                LogChunk logChunk = (LogChunk) msg;
+                long taskId = this.remoteTaskHandle.getTaskId();
+                LogShipment logShipment = this.remoteTaskHandle.getLogShipment();
+                if (logShipment != null) {
+                    long stored = logShipment.write(logChunk.getOffset(), logChunk.getData());
+                    ctx.writeAndFlush(new LogAck(stored));
+                }
+                Set<LogSubscriber> subscribers = logSubscribers.get(taskId);
+                if (subscribers != null) {
+                    String data = new String(logChunk.getData(), StandardCharsets.UTF_8);
+                    for (LogSubscriber subscriber : subscribers) {
+                        try {
+                            subscriber.onLog(taskId, logChunk.getOffset(), data);
+                        } catch (Throwable t) {
+                            LOGGER.warn("log subscriber of task [{}] failed", taskId, t);
+                        }
+                    }
+                }
             }
         }
 
@@ -406,12 +705,27 @@ public class TaskBackend {
 
     private void clear(long taskId) {
         taskInstances.remove(taskId);
+        if (executorPool != null) {
+            executorPool.taskFinished(taskId);
+        }
         RemoteTaskHandle taskHandle = remoteTasks.remove(taskId);
         Channel channel = taskHandle != null ? taskHandle.getChannel() : null;
         channelMap.remove(channel);
         if (channel != null) {
             channel.close();
         }
+        if (taskHandle != null && taskHandle.getLogShipment() != null) {
+            // shipped log is finalized at log collection
+            LogShipment logShipment = taskHandle.getLogShipment();
+            channel.eventLoop().execute(logShipment::close);
+        }
+        Set<LogSubscriber> subscribers;
+        synchronized (logSubscribers) {
+            subscribers = logSubscribers.remove(taskId);
+        }
+        if (subscribers != null) {
+            subscribers.forEach(subscriber -> subscriber.onEnd(taskId));
+        }
     }
 
     /**
@@ -424,12 +738,13 @@ public class TaskBackend {
         private final int pid;
         private final Channel channel;
         private final LogExchange logExchange;
+        private volatile LogShipment logShipment;
 
-        RemoteTaskHandle(long taskId, int pid, Channel channel) {
+        RemoteTaskHandle(long taskId, int pid, Channel channel, long logQueryTimeoutMillis, long logGrepTimeoutMillis) {
             this.taskId = taskId;
             this.pid = pid;
             this.channel = channel;
-            this.logExchange = new LogExchange(channel);
+            this.logExchange = new LogExchange(channel, logQueryTimeoutMillis, logGrepTimeoutMillis);
         }
 
         public long getTaskId() {
@@ -447,36 +762,98 @@ public class TaskBackend {
         public LogExchange getLogExchange() {
             return logExchange;
         }
+
+        /**
+         * @return null if log isn't shipped
+         */
+        public LogShipment getLogShipment() {
+            return logShipment;
+        }
+
+        public void setLogShipment(LogShipment logShipment) {
+            this.logShipment = logShipment;
+        }
     }
 
     /**
-     *  single-threaded log query tool。
-     * <p>由于只有一个channel，多线程会导致多条日志消息乱序。需要在TaskExecutor中启动一个Rpc服务，提供并发日志查询能力</p>\
-     * <p>There is only one channel, multi-threaded will cause message out-of-order</p>
-     * <p>If concurrent log query needed, provide log query rpc service on TaskExecutor</p>
+     * Log query exchange of a TaskExecutor channel.
+     * <p>Every query carries a request id which is echoed by {@link LogQueryResult}, so many queries can be
+     * outstanding on the channel at the same time. A query fails with {@link TimeoutException} if no result
+     * arrives in time, and all outstanding queries fail when the channel is closed.</p>
      */
-    private static class LogExchange {
+    static class LogExchange {
         private final Channel channel;
-        private List<String> lines;
+        private final long timeoutMillis;
+        private final long grepTimeoutMillis;
+        private final AtomicLong requestIdGenerator = new AtomicLong();
+        private final ConcurrentMap<Long, CompletableFuture<?>> pendingQueries = new ConcurrentHashMap<>();
 
-        LogExchange(Channel channel) {
+        LogExchange(Channel channel, long timeoutMillis, long grepTimeoutMillis) {
             this.channel = channel;
+            this.timeoutMillis = timeoutMillis;
+            this.grepTimeoutMillis = grepTimeoutMillis;
+            channel.closeFuture().addListener(f -> {
+                ClosedChannelException e = new ClosedChannelException();
+                pendingQueries.values().forEach(query -> query.completeExceptionally(e));
+                pendingQueries.clear();
+            });
         }
 
-        public synchronized void set(List<String> lines) {
-            this.lines = lines;
-            notify();
+        public void set(LogQueryResult result) {
+            complete(result.getRequestId(), result.getLines());
         }
 
-        public synchronized List<String> get(int lineNumber, int rows) {
-            try {
-                LogQueryRequest queryRequest = new LogQueryRequest(lineNumber, rows);
-                channel.writeAndFlush(queryRequest).syncUninterruptibly();
-                wait();
-            } catch (InterruptedException e) {
-                LOGGER.error(e.getMessage(), e);
+        public void set(LogGrepResult result) {
+            complete(result.getRequestId(), result.getHits());
+        }
+
+        @SuppressWarnings("unchecked")
+        private void complete(long requestId, Object result) {
+            CompletableFuture<Object> query = (CompletableFuture<Object>) pendingQueries.remove(requestId);
+            if (query != null) {
+                query.complete(result);
+            } else {
+                LOGGER.debug("log query [{}] result arrived after timeout", requestId);
             }
-            return lines;
+        }
+
+        public CompletableFuture<List<String>> query(int lineNumber, int rows) {
+            return send(requestId -> new LogQueryRequest(requestId, lineNumber, rows), timeoutMillis);
+        }
+
+        public CompletableFuture<List<String>> tail(int rows) {
+            return send(requestId -> new LogTailRequest(requestId, rows), timeoutMillis);
+        }
+
+        public CompletableFuture<List<LogLine>> grep(String regex, int maxHits) {
+            return send(requestId -> new LogGrepRequest(requestId, regex, maxHits), grepTimeoutMillis);
+        }
+
+        private <T> CompletableFuture<T> send(LongFunction<TaskMessage> request, long timeoutMillis) {
+            long requestId = requestIdGenerator.incrementAndGet();
+            CompletableFuture<T> query = new CompletableFuture<>();
+            pendingQueries.put(requestId, query);
+            if (!channel.isActive()) {
+                pendingQueries.remove(requestId);
+                query.completeExceptionally(new ClosedChannelException());
+                return query;
+            }
+
+            ScheduledFuture<?> timeout = channel.eventLoop().schedule(() -> {
+                if (pendingQueries.remove(requestId) != null) {
+                    query.completeExceptionally(new TimeoutException(
+                            String.format("log query [%d] timeout after %d ms", requestId, timeoutMillis)));
+                }
+            }, timeoutMillis, TimeUnit.MILLISECONDS);
+            query.whenComplete((lines, e) -> timeout.cancel(false));
+
+            channel.writeAndFlush(request.apply(requestId))
+                    .addListener(future -> {
+                        if (!future.isSuccess() && pendingQueries.remove(requestId) != null) {
+                            query.completeExceptionally(future.cause());
+                        }
+                    });
+            return query;
         }
     }
 
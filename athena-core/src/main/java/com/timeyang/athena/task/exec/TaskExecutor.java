@@ -1,10 +1,13 @@
 package com.timeyang.athena.task.exec;
 
+import com.timeyang.athena.AthenaConf;
+import com.timeyang.athena.AthenaException;
 import com.timeyang.athena.task.message.TaskMessage;
 import com.timeyang.athena.task.message.TaskMessageCodec;
 import com.timeyang.athena.util.ParametersUtils;
 import com.timeyang.athena.util.StringUtils;
 import com.timeyang.athena.util.SystemUtils;
+import com.timeyang.athena.util.ThreadUtils;
 import io.netty.bootstrap.Bootstrap;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.*;
@@ -23,7 +26,11 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 import static com.timeyang.athena.task.message.TaskMessage.*;
 
@@ -46,6 +53,8 @@ public class TaskExecutor {
     //     list.forEach(appender -> appender.setLayout(layout));
     // }
     private static final Logger LOGGER = LoggerFactory.getLogger(TaskExecutor.class);
+    // TaskBackend stops waiting for a grep after task.log.grepTimeout, don't scan longer than that
+    private static final long GREP_TIMEOUT_MILLIS = AthenaConf.DEFAULT_CONF.getTaskLogGrepTimeout();
 
     private final long taskId;
     private final String taskManagerHost;
@@ -57,6 +66,11 @@ public class TaskExecutor {
     private Task task;
     private TaskContext taskContext;
     private LogInspection logInspection;
+    private final String taskFilePath;
+    private volatile LogTailer logTailer;
+    // grep scans the whole log, it runs off event loop one request at a time
+    private final ExecutorService grepExecutor =
+            Executors.newSingleThreadExecutor(ThreadUtils.createThreadFactory("LogGrepRequest"));
     // wait TaskManager send task object to TaskExecutor, and synchronizes memory
     private CountDownLatch latch = new CountDownLatch(1);
     private volatile boolean closed = false;
@@ -65,8 +79,9 @@ public class TaskExecutor {
         this.taskId = taskId;
         this.taskManagerHost = taskManagerHost;
         this.taskManagerPort = taskManagerPort;
+        this.taskFilePath = taskFilePath;
         if (StringUtils.hasText(taskFilePath)) {
-            this.logInspection = new LogInspection(taskFilePath);
+            this.logInspection = new LogInspection(taskFilePath, true);
         } else {
             LOGGER.warn("taskFilePath is null, taskExecutor won't provide log view feature");
         }
@@ -109,11 +124,19 @@ public class TaskExecutor {
     }
 
     public void stop() {
+        if (logTailer != null) {
+            logTailer.stop();
+        }
         if (channel != null) {
             closed = true;
             channel.close().syncUninterruptibly();
         }
         group.shutdownGracefully();
+        grepExecutor.shutdownNow();
+        if (logInspection != null) {
+            // pooled executor JVM outlives the task
+            logInspection.close();
+        }
         LOGGER.info("TaskExecutor stopped");
     }
 
@@ -125,6 +148,7 @@ public class TaskExecutor {
                 LOGGER.info("taskContext: " + taskContext);
                 task.exec(taskContext);
                 LOGGER.info("task [{}] execute succeed", taskContext.taskId());
+                flushLog();
                 try {
                     channel.writeAndFlush(new TaskSuccess(task));
                     LOGGER.info("Send TaskSuccess message succeed");
@@ -135,6 +159,7 @@ public class TaskExecutor {
             } catch (Throwable throwable) {
                 LOGGER.info("task [{}] execute failed", taskContext.taskId());
                 throwable.printStackTrace();
+                flushLog();
                 try {
                     channel.writeAndFlush(new TaskFailure(task, throwable));
                     LOGGER.info("Send TaskFailure message succeed");
@@ -151,6 +176,14 @@ public class TaskExecutor {
         }
     }
 
+    // subscribers should receive all log, and shipped log should be stored before task result
+    private void flushLog() {
+        if (logTailer != null) {
+            System.out.flush();
+            logTailer.finish();
+        }
+    }
+
     /**
      * exit when timeout
      */
@@ -181,6 +214,10 @@ public class TaskExecutor {
         // handshake with TaskManager
         @Override
         public void channelActive(ChannelHandlerContext ctx) {
+            // before handshake, TaskManager may start log shipping right after handshake
+            if (logInspection != null) {
+                logTailer = new LogTailer(taskFilePath, ctx.channel());
+            }
             ByteBuf buffer = ctx.alloc().buffer();
             buffer.writeLong(taskId);
             buffer.writeInt(SystemUtils.getPID());
@@ -228,9 +265,57 @@ public class TaskExecutor {
                 } else {
                     lines = new ArrayList<>();
                 }
-                LogQueryResult logQueryResult = new LogQueryResult(lines);
+                LogQueryResult logQueryResult = new LogQueryResult(logQueryRequest.getRequestId(), lines);
                 ctx.writeAndFlush(logQueryResult);
             }
+
+            if (msg instanceof LogTailRequest) {
+                LogTailRequest logTailRequest = (LogTailRequest) msg;
+                LOGGER.info("log tail request: " + logTailRequest);
+                List<String> lines;
+                if (logInspection != null) {
+                    lines = logInspection.getTailLines(logTailRequest.getRows());
+                } else {
+                    lines = new ArrayList<>();
+                }
+                ctx.writeAndFlush(new LogQueryResult(logTailRequest.getRequestId(), lines));
+            }
+
+            if (msg instanceof LogSubscribe) {
+                LogSubscribe logSubscribe = (LogSubscribe) msg;
+                if (logTailer == null) {
+                    LOGGER.warn("taskFilePath is null, can't stream log");
+                } else if (logSubscribe.isFollow()) {
+                    logTailer.follow(logSubscribe.getOffset());
+                } else {
+                    logTailer.unfollow();
+                }
+            }
+
+            if (msg instanceof LogAck) {
+                if (logTailer == null) {
+                    LOGGER.warn("taskFilePath is null, can't ship log");
+                } else {
+                    logTailer.ack(((LogAck) msg).getOffset());
+                }
+            }
+
+            if (msg instanceof LogGrepRequest) {
+                LogGrepRequest logGrepRequest = (LogGrepRequest) msg;
+                LOGGER.info("log grep request: " + logGrepRequest);
+                grepExecutor.execute(() -> {
+                    List<LogLine> hits = new ArrayList<>();
+                    if (logInspection != null) {
+                        try {
+                            hits = logInspection.grep(Pattern.compile(logGrepRequest.getRegex()),
+                                    logGrepRequest.getMaxHits(), GREP_TIMEOUT_MILLIS);
+                        } catch (PatternSyntaxException | AthenaException e) {
+                            LOGGER.warn("log grep failed", e);
+                        }
+                    }
+                    ctx.writeAndFlush(new LogGrepResult(logGrepRequest.getRequestId(), hits));
+                });
+            }
         }
 
         @Override
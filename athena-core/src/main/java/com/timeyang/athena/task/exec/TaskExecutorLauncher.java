@@ -16,6 +16,7 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.Instant;
 import java.time.ZoneId;
@@ -23,7 +24,9 @@ import java.time.format.DateTimeFormatter;
 import java.util.Arrays;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.stream.Stream;
 
 
 /**
@@ -36,6 +39,9 @@ public class TaskExecutorLauncher {
     private static final String TASK_EXECUTOR_NAME = "com.timeyang.athena.task.exec.TaskExecutor";
     private static final DateTimeFormatter FORMATTER =
             DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss").withZone(ZoneId.systemDefault());
+    private static Set<String> hadoopClasspath;
+    private static Set<String> sparkClasspath;
+
     /**
      * get classpath
      */
@@ -52,9 +58,12 @@ public class TaskExecutorLauncher {
                 String[] splits = extraClasspathStr.split(sep);
                 for (String split : splits) {
                     if (split.endsWith("*")) {
-                        Files.list(Paths.get(split.substring(0, split.length() - 1)))
-                                .map(p -> p.toAbsolutePath().toString())
-                                .forEach(classpath::add);
+                        // sorted, so that the same classpath resolves to the same urls
+                        try (Stream<Path> files = Files.list(Paths.get(split.substring(0, split.length() - 1)))) {
+                            files.map(p -> p.toAbsolutePath().toString())
+                                    .sorted()
+                                    .forEach(classpath::add);
+                        }
                     } else {
                         classpath.add(split);
                     }
@@ -64,7 +73,7 @@ public class TaskExecutorLauncher {
             }
         }
 
-        Set<String> hadoopClasspath = ClassUtils.getHadoopClasspath();
+        Set<String> hadoopClasspath = getHadoopClasspath();
         if (hadoopClasspath.isEmpty()) {
             info("Hadoop not installed");
         } else {
@@ -72,7 +81,7 @@ public class TaskExecutorLauncher {
             info("Add hadoop classpath to task classpath");
         }
 
-        Set<String> sparkClasspath = ClassUtils.getSparkClasspath();
+        Set<String> sparkClasspath = getSparkClasspath();
         if (sparkClasspath.isEmpty()) {
             info("Spark not installed");
         } else {
@@ -93,6 +102,23 @@ public class TaskExecutorLauncher {
         return urls;
     }
 
+    /**
+     * `hadoop classpath` forks a JVM, compute it once for pooled executors
+     */
+    private static synchronized Set<String> getHadoopClasspath() {
+        if (hadoopClasspath == null) {
+            hadoopClasspath = ClassUtils.getHadoopClasspath();
+        }
+        return hadoopClasspath;
+    }
+
+    private static synchronized Set<String> getSparkClasspath() {
+        if (sparkClasspath == null) {
+            sparkClasspath = ClassUtils.getSparkClasspath();
+        }
+        return sparkClasspath;
+    }
+
     private static URLClassLoader createClassLoader(URL[] urls, String jars, ClassLoader parent) {
         ClassLoaderUtils.ChildFirstURLClassLoader mainClassLoader = new ClassLoaderUtils.ChildFirstURLClassLoader(urls, parent);
         if (StringUtils.hasText(jars)) {
@@ -122,7 +148,7 @@ public class TaskExecutorLauncher {
         return Integer.parseInt(processName.split("@")[0]);
     }
 
-    private static void info(Object msg) {
+    static void info(Object msg) {
         String time = FORMATTER.format(Instant.now());
         System.out.printf("%s [%s] INFO %s - %s \n",
                 time, Thread.currentThread().getName(), TaskExecutorLauncher.class.getName(),
@@ -132,6 +158,22 @@ public class TaskExecutorLauncher {
     public static void main(String[] args) {
         info("args: " + Arrays.asList(args));
         ParametersUtils parametersUtils = ParametersUtils.fromArgs(args);
+        if (parametersUtils.has("poolId")) {
+            new PooledExecutorAgent(parametersUtils).run();
+        } else {
+            launch(parametersUtils, null);
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Set up task classloader, start TaskExecutor and execute task
+     *
+     * @param classLoaders classloaders reused by a pooled executor, keyed by resolved classpath and jars, so tasks
+     *                     with the same classpath share a classloader whatever their classpathFile is. null to always
+     *                     create a new classloader
+     */
+    static void launch(ParametersUtils parametersUtils, Map<String, URLClassLoader> classLoaders) {
         long taskId = parametersUtils.getLong("taskId");
         String taskManagerHost = parametersUtils.get("taskManagerHost");
         int taskManagerPort = parametersUtils.getInt("taskManagerPort");
@@ -139,15 +181,15 @@ public class TaskExecutorLauncher {
         String mainClasspath = System.getProperty("java.class.path");
         String classpathFile = parametersUtils.get("classpathFile");
         String jars = parametersUtils.get("jars");
-        URL[] classpath = getClassPath(mainClasspath, classpathFile);
 
-        info("mainClasspath: " + mainClasspath);
-        info("classpathFile: " + classpathFile);
-        info("jars: " + jars);
-        info("classpath: " + Arrays.asList(classpath));
-
-        URLClassLoader urlClassLoader = createClassLoader(classpath, jars,
-                TaskExecutorLauncher.class.getClassLoader());
+        URL[] classpath = getClassPath(mainClasspath, classpathFile);
+        URLClassLoader urlClassLoader;
+        if (classLoaders != null) {
+            urlClassLoader = classLoaders.computeIfAbsent(Arrays.toString(classpath) + "|" + jars,
+                    k -> createClassLoader(mainClasspath, classpathFile, classpath, jars));
+        } else {
+            urlClassLoader = createClassLoader(mainClasspath, classpathFile, classpath, jars);
+        }
         Thread.currentThread().setContextClassLoader(urlClassLoader);
         try {
             Class<?> executorClass = urlClassLoader.loadClass(TASK_EXECUTOR_NAME);
@@ -168,12 +210,19 @@ public class TaskExecutorLauncher {
             info("stop task executor");
             ReflectionUtils.invokeMethod(executor, "stop");
             info("stopped task executor");
-
-            System.exit(0);
         } catch (ClassNotFoundException | InvocationTargetException | InstantiationException | NoSuchMethodException | IllegalAccessException e) {
             e.printStackTrace();
         }
-        System.exit(0);
+    }
+
+    private static URLClassLoader createClassLoader(String mainClasspath, String classpathFile, URL[] classpath,
+                                                    String jars) {
+        info("mainClasspath: " + mainClasspath);
+        info("classpathFile: " + classpathFile);
+        info("jars: " + jars);
+        info("classpath: " + Arrays.asList(classpath));
+
+        return createClassLoader(classpath, jars, TaskExecutorLauncher.class.getClassLoader());
     }
 
 }
@@ -0,0 +1,45 @@
+package com.timeyang.athena.task.exec;
+
+import com.timeyang.athena.task.TaskInfo;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Steps to launch a task, called by launch pipeline in order: claim, init, spawn
+ *
+ * @author https://github.com/chaokunyang
+ */
+public interface TaskLauncher {
+
+    /**
+     * Mark task starting, so that it isn't launched repeatedly
+     *
+     * @return false if task is starting already
+     */
+    boolean claimTask(long taskId);
+
+    /**
+     * Release a claimed task which won't be started for now
+     */
+    void unclaimTask(long taskId);
+
+    /**
+     * Create and init a claimed task
+     *
+     * @return false if task failed to init, task is failed by callback
+     */
+    boolean initTask(TaskInfo taskInfo);
+
+    /**
+     * Start process of an inited task
+     *
+     * @return future completed when task is handed to its process, with false if task isn't started
+     */
+    CompletableFuture<Boolean> spawnTask(TaskInfo taskInfo);
+
+    /**
+     * @return true if task is inited or running
+     */
+    boolean isTaskRunning(long taskId);
+
+}
@@ -2,6 +2,7 @@ package com.timeyang.athena.task.exec;
 
 import com.timeyang.athena.AthenaConf;
 import com.timeyang.athena.task.TaskInfo;
+import com.timeyang.athena.util.Asserts;
 import com.timeyang.athena.util.ParametersUtils;
 import com.timeyang.athena.util.StringUtils;
 import com.timeyang.athena.util.SystemUtils;
@@ -9,9 +10,16 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.regex.Pattern;
 
 /**
  * @author https://github.com/chaokunyang
@@ -22,7 +30,15 @@ public class TaskUtils {
     private static final String DEFAULT_TASK_EXEC_DIR_NAME = ".tasks";
     private static final String DEFAULT_TASKS_DIR_PATH = getDefaultTasksDir();
     private static final String TASK_LOG_FILE_NAME = "task.log";
+    private static final String EXECUTOR_POOL_DIR_NAME = ".pool";
     private static final String CLASSPATH_SPLIT;
+    /**
+     * params which declare resources of task for placement
+     */
+    public static final String CPUS_PARAM = "__cpus__";
+    public static final String MEMORY_PARAM = "__memory__";
+    private static final Pattern RESOURCE_PARAMS =
+            Pattern.compile("(?<!\\S)(" + CPUS_PARAM + "|" + MEMORY_PARAM + ")\\s+(\"[^\"]*\"|[^\\s\"]+)");
 
     static {
         if (SystemUtils.IS_WINDOWS) {
@@ -51,6 +67,24 @@ public class TaskUtils {
         return Paths.get(tasksDir, String.valueOf(taskId)).toAbsolutePath().toString();
     }
 
+    /**
+     * Params passed to task: params of task without resource declarations, which are for placement only
+     */
+    public static String getTaskParams(TaskInfo task) {
+        String params = task.getParams();
+        if (!StringUtils.hasText(params)) {
+            return "";
+        }
+        return RESOURCE_PARAMS.matcher(params).replaceAll("").trim();
+    }
+
+    /**
+     * @see #getTaskParams(TaskInfo)
+     */
+    public static Map<String, String> getTaskArgs(TaskInfo task) {
+        return ParametersUtils.fromArgs(getTaskParams(task)).get();
+    }
+
     public static String getTaskInitCmd(long taskId) {
         String taskDir = getExecTaskDir(taskId);
         if (SystemUtils.IS_WINDOWS) {
@@ -65,10 +99,7 @@ public class TaskUtils {
     public static String getTaskExecCmd(TaskInfo task, String taskRpcHost, int taskRpcPort) {
         Long taskId = task.getTaskId();
 
-        String params = task.getParams();
-        if (!StringUtils.hasText(params)) {
-            params = "";
-        }
+        String params = getTaskParams(task);
 
         String classpath = buildClasspath(task);
 
@@ -102,22 +133,144 @@ public class TaskUtils {
         return cmd;
     }
 
-    private static String buildClasspath(TaskInfo task) {
-        String params = task.getParams();
-        if (!StringUtils.hasText(params)) {
-            params = "";
+    /**
+     * Arguments of {@link TaskExecutorLauncher} for task, same as the arguments passed by {@link #getTaskExecCmd}
+     */
+    public static Map<String, String> getTaskExecArgs(TaskInfo task, String taskRpcHost, int taskRpcPort) {
+        Map<String, String> args = new LinkedHashMap<>();
+        args.put("taskId", String.valueOf(task.getTaskId()));
+        args.put("taskManagerHost", taskRpcHost);
+        args.put("taskManagerPort", String.valueOf(taskRpcPort));
+        args.put("taskFilePath", getTaskLogFilePath(task.getTaskId()));
+        String params = getTaskParams(task);
+        if (StringUtils.hasText(params)) {
+            args.putAll(ParametersUtils.fromArgs(splitArgs(params)).get());
         }
+        return args;
+    }
 
+    /**
+     * split command line like shell: whitespace separates arguments, double quotes group them
+     */
+    private static String[] splitArgs(String line) {
+        List<String> args = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        boolean quoted = false;
+        boolean hasArg = false;
+        for (char c : line.toCharArray()) {
+            if (c == '"') {
+                quoted = !quoted;
+                hasArg = true;
+            } else if (Character.isWhitespace(c) && !quoted) {
+                if (hasArg) {
+                    args.add(current.toString());
+                    current.setLength(0);
+                    hasArg = false;
+                }
+            } else {
+                current.append(c);
+                hasArg = true;
+            }
+        }
+        if (hasArg) {
+            args.add(current.toString());
+        }
+        return args.toArray(new String[0]);
+    }
+
+    /**
+     * JVM classpath of the executor which runs task
+     */
+    public static String getExecutorClasspath(TaskInfo task) {
+        return buildClasspath(task);
+    }
+
+    /**
+     * JVM classpath of the executor which runs tasks with libs
+     */
+    public static String getExecutorClasspath(String libs) {
+        return buildClasspath(libs);
+    }
+
+    /**
+     * Pooled executors can only run tasks which have the same host and JVM classpath
+     */
+    public static String getExecutorPoolKey(String host, String classpath) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] bytes = digest.digest((host + "|" + classpath).getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder();
+            for (byte b : bytes) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static String getExecutorPoolDir() {
+        return Paths.get(getTasksDir(), EXECUTOR_POOL_DIR_NAME).toAbsolutePath().toString();
+    }
+
+    public static String getExecutorPoolInitCmd() {
+        String poolDir = getExecutorPoolDir();
+        if (SystemUtils.IS_WINDOWS) {
+            return String.format("(if not exist %s mkdir %s)", poolDir, poolDir);
+        } else {
+            return String.format("test -d %s || mkdir -p %s", poolDir, poolDir);
+        }
+    }
+
+    /**
+     * command to launch an idle pooled executor JVM, which handshake with TaskBackend and wait for task assignments
+     */
+    public static String getPooledExecutorCmd(int poolId, String poolKey, String classpath,
+                                              String taskRpcHost, int taskRpcPort) {
+        if (StringUtils.hasText(classpath)) {
+            classpath = " -classpath \"" + classpath + "\" ";
+        } else {
+            classpath = " ";
+        }
+
+        String params = " --poolId " + poolId
+                + " --poolKey " + poolKey
+                + " --taskManagerHost " + taskRpcHost
+                + " --taskManagerPort " + taskRpcPort
+                + " --poolMaxTasks " + athenaConf.getExecutorPoolMaxTasksPerJvm()
+                + " --poolIdleTimeout " + athenaConf.getExecutorPoolIdleTimeout();
+        String logFile = getExecutorPoolDir() + "/" + poolId + ".log";
+        String redirectOut = " >" + logFile + " 2>&1 &";
+        String cmd = "java -server -XX:OnOutOfMemoryError=kill "
+                + classpath
+                + TaskExecutorLauncher.class.getName()
+                + params + " "
+                + redirectOut;
+        if (SystemUtils.IS_WINDOWS) {
+            cmd = cmd.replaceAll("/", "\\\\");
+        }
+        if (SystemUtils.isLinux()) {
+            cmd = "(nohup " + cmd + ")";
+        }
+
+        return cmd;
+    }
+
+    private static String buildClasspath(TaskInfo task) {
+        return buildClasspath(task.getLibs());
+    }
+
+    private static String buildClasspath(String libs) {
         StringBuilder classpathBuilder = new StringBuilder();
         String athenaClasspath = getAthenaClasspath();
         if (StringUtils.hasText(athenaClasspath)) {
             classpathBuilder.append(athenaClasspath);
         }
-        if (StringUtils.hasText(task.getLibs())) {
+        if (StringUtils.hasText(libs)) {
             if (StringUtils.hasText(classpathBuilder)) {
                 classpathBuilder.append(CLASSPATH_SPLIT);
             }
-            classpathBuilder.append(task.getLibs());
+            classpathBuilder.append(libs);
         }
 
         return classpathBuilder.toString();
@@ -140,6 +293,8 @@ public class TaskUtils {
     }
 
     public static String getTaskCmd(TaskInfo task, String taskRpcHost, int taskRpcPort) {
+        Asserts.check(!task.getTaskType().isInProcess(), "task [%s] runs in athena process, it has no task cmd",
+                task.getTaskId());
         return task.getTaskType().getTaskCmd(task, taskRpcHost, taskRpcPort);
     }
 
@@ -177,8 +332,15 @@ public class TaskUtils {
     }
 
     public static Task createTask(String className, Map<String, String> params) {
+        return createTask(className, params, TaskUtils.class.getClassLoader());
+    }
+
+    /**
+     * @param classLoader classloader to load task class
+     */
+    public static Task createTask(String className, Map<String, String> params, ClassLoader classLoader) {
         try {
-            Class<?> aClass = Class.forName(className);
+            Class<?> aClass = Class.forName(className, true, classLoader);
             Object o = aClass.newInstance();
             if (TaskFactory.class.isAssignableFrom(aClass)) {
                 TaskFactory taskFactory = TaskFactory.class.cast(o);
@@ -1,10 +1,13 @@
 package com.timeyang.athena.task.message;
 
+import com.timeyang.athena.task.exec.LogLine;
 import com.timeyang.athena.task.exec.Task;
 import com.timeyang.athena.task.exec.TaskContext;
+import com.timeyang.athena.util.cmd.Result;
 
 import java.io.Serializable;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Message between TaskManager and TaskExecutor
@@ -92,14 +95,25 @@ public abstract class TaskMessage {
     }
 
     public static final class LogQueryRequest extends ObjectMessage {
+        private static final long serialVersionUID = 1L;
+
+        private long requestId;
         private int lineNumber;
         private int rows;
 
-        public LogQueryRequest(int lineNumber, int size) {
+        /**
+         * @param requestId echoed by {@link LogQueryResult} to correlate concurrent queries on a channel
+         */
+        public LogQueryRequest(long requestId, int lineNumber, int size) {
+            this.requestId = requestId;
             this.lineNumber = lineNumber;
             this.rows = size;
         }
 
+        public long getRequestId() {
+            return requestId;
+        }
+
         public int getLineNumber() {
             return lineNumber;
         }
@@ -111,19 +125,28 @@ public abstract class TaskMessage {
         @Override
         public String toString() {
             return "LogQueryRequest{" +
-                    "lineNumber=" + lineNumber +
+                    "requestId=" + requestId +
+                    ", lineNumber=" + lineNumber +
                     ", rows=" + rows +
                     '}';
         }
     }
 
     public static final class LogQueryResult extends ObjectMessage {
+        private static final long serialVersionUID = 1L;
+
+        private long requestId;
         private List<String> lines;
 
-        public LogQueryResult(List<String> lines) {
+        public LogQueryResult(long requestId, List<String> lines) {
+            this.requestId = requestId;
             this.lines = lines;
         }
 
+        public long getRequestId() {
+            return requestId;
+        }
+
         public List<String> getLines() {
             return lines;
         }
@@ -131,7 +154,8 @@ public abstract class TaskMessage {
         @Override
         public String toString() {
             return "LogQueryResult{" +
-                    "lines=" + lines +
+                    "requestId=" + requestId +
+                    ", lines=" + lines +
                     '}';
         }
     }
@@ -154,4 +178,434 @@ public abstract class TaskMessage {
         }
     }
 
+    /**
+     * Sent by an idle pooled executor JVM after handshake, and again every time it comes back from a task
+     */
+    public static final class ExecutorReady extends ObjectMessage {
+        private static final long serialVersionUID = 1L;
+
+        private final int poolId;
+        private final String poolKey;
+        private final int executedTasks;
+
+        public ExecutorReady(int poolId, String poolKey, int executedTasks) {
+            this.poolId = poolId;
+            this.poolKey = poolKey;
+            this.executedTasks = executedTasks;
+        }
+
+        public int getPoolId() {
+            return poolId;
+        }
+
+        public String getPoolKey() {
+            return poolKey;
+        }
+
+        public int getExecutedTasks() {
+            return executedTasks;
+        }
+
+        @Override
+        public String toString() {
+            return "ExecutorReady{" +
+                    "poolId=" + poolId +
+                    ", poolKey='" + poolKey + '\'' +
+                    ", executedTasks=" + executedTasks +
+                    '}';
+        }
+    }
+
+    /**
+     * Hand a task to an idle pooled executor JVM. args are the same arguments a cold started
+     * {@link com.timeyang.athena.task.exec.TaskExecutorLauncher} receives from command line
+     */
+    public static final class ExecutorAssign extends ObjectMessage {
+        private static final long serialVersionUID = 1L;
+
+        private final long taskId;
+        private final Map<String, String> args;
+
+        public ExecutorAssign(long taskId, Map<String, String> args) {
+            this.taskId = taskId;
+            this.args = args;
+        }
+
+        public long getTaskId() {
+            return taskId;
+        }
+
+        public Map<String, String> getArgs() {
+            return args;
+        }
+
+        @Override
+        public String toString() {
+            return "ExecutorAssign{" +
+                    "taskId=" + taskId +
+                    ", args=" + args +
+                    '}';
+        }
+    }
+
+    /**
+     * Sent by a pooled executor JVM when it accepted an {@link ExecutorAssign}
+     */
+    public static final class ExecutorAssignAck extends ObjectMessage {
+        private static final long serialVersionUID = 1L;
+
+        private final long taskId;
+
+        public ExecutorAssignAck(long taskId) {
+            this.taskId = taskId;
+        }
+
+        public long getTaskId() {
+            return taskId;
+        }
+    }
+
+    /**
+     * Query the last lines of task log, answered by {@link LogQueryResult} with the same request id
+     */
+    public static final class LogTailRequest extends ObjectMessage {
+        private static final long serialVersionUID = 1L;
+
+        private final long requestId;
+        private final int rows;
+
+        public LogTailRequest(long requestId, int rows) {
+            this.requestId = requestId;
+            this.rows = rows;
+        }
+
+        public long getRequestId() {
+            return requestId;
+        }
+
+        public int getRows() {
+            return rows;
+        }
+
+        @Override
+        public String toString() {
+            return "LogTailRequest{" +
+                    "requestId=" + requestId +
+                    ", rows=" + rows +
+                    '}';
+        }
+    }
+
+    /**
+     * Ask TaskExecutor to start or stop streaming appended task log as {@link LogChunk}
+     */
+    public static final class LogSubscribe extends ObjectMessage {
+        private static final long serialVersionUID = 1L;
+
+        private final boolean follow;
+        private final long offset;
+
+        /**
+         * @param follow true to start streaming, false to stop
+         * @param offset file offset to stream from, -1 to start from the last few lines
+         */
+        public LogSubscribe(boolean follow, long offset) {
+            this.follow = follow;
+            this.offset = offset;
+        }
+
+        public boolean isFollow() {
+            return follow;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+    }
+
+    /**
+     * Complete lines appended to task log file, starting at file offset
+     */
+    public static final class LogChunk extends ObjectMessage {
+        private static final long serialVersionUID = 1L;
+
+        private final long offset;
+        private final byte[] data;
+
+        public LogChunk(long offset, byte[] data) {
+            this.offset = offset;
+            this.data = data;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+    }
+
+    /**
+     * Grep task log in TaskExecutor, answered by {@link LogGrepResult} with the same request id, so that only matched
+     * lines are sent back
+     */
+    public static final class LogGrepRequest extends ObjectMessage {
+        private static final long serialVersionUID = 1L;
+
+        private final long requestId;
+        private final String regex;
+        private final int maxHits;
+
+        public LogGrepRequest(long requestId, String regex, int maxHits) {
+            this.requestId = requestId;
+            this.regex = regex;
+            this.maxHits = maxHits;
+        }
+
+        public long getRequestId() {
+            return requestId;
+        }
+
+        public String getRegex() {
+            return regex;
+        }
+
+        public int getMaxHits() {
+            return maxHits;
+        }
+
+        @Override
+        public String toString() {
+            return "LogGrepRequest{" +
+                    "requestId=" + requestId +
+                    ", regex='" + regex + '\'' +
+                    ", maxHits=" + maxHits +
+                    '}';
+        }
+    }
+
+    public static final class LogGrepResult extends ObjectMessage {
+        private static final long serialVersionUID = 1L;
+
+        private final long requestId;
+        private final List<LogLine> hits;
+
+        public LogGrepResult(long requestId, List<LogLine> hits) {
+            this.requestId = requestId;
+            this.hits = hits;
+        }
+
+        public long getRequestId() {
+            return requestId;
+        }
+
+        public List<LogLine> getHits() {
+            return hits;
+        }
+    }
+
+    /**
+     * Acknowledge that task log before offset is stored by TaskManager. The first ack asks TaskExecutor to ship its
+     * log from the offset as {@link LogChunk}, and TaskExecutor keeps a bounded amount of unacknowledged log in flight
+     */
+    public static final class LogAck extends ObjectMessage {
+        private static final long serialVersionUID = 1L;
+
+        private final long offset;
+
+        public LogAck(long offset) {
+            this.offset = offset;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        @Override
+        public String toString() {
+            return "LogAck{" +
+                    "offset=" + offset +
+                    '}';
+        }
+    }
+
+    /**
+     * Length of task log when task finishes, sent by TaskExecutor after the last {@link LogChunk}. Shipped log is
+     * complete if it's stored up to the length
+     */
+    public static final class LogEnd extends ObjectMessage {
+        private static final long serialVersionUID = 1L;
+
+        private final long length;
+
+        public LogEnd(long length) {
+            this.length = length;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        @Override
+        public String toString() {
+            return "LogEnd{" +
+                    "length=" + length +
+                    '}';
+        }
+    }
+
+    /**
+     * Sent by a {@link com.timeyang.athena.task.exec.NodeAgent} right after handshake, host is the name tasks are
+     * placed on, secret is {@code task.agent.secret} of the agent
+     */
+    public static final class AgentReady extends ObjectMessage {
+        private static final long serialVersionUID = 1L;
+
+        private final String host;
+        private final String secret;
+
+        public AgentReady(String host, String secret) {
+            this.host = host;
+            this.secret = secret;
+        }
+
+        public String getHost() {
+            return host;
+        }
+
+        public String getSecret() {
+            return secret;
+        }
+
+        @Override
+        public String toString() {
+            return "AgentReady{" +
+                    "host='" + host + '\'' +
+                    '}';
+        }
+    }
+
+    /**
+     * A command executed by node agent, not a message itself
+     */
+    public static final class AgentCommand implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        public enum Kind {
+            /**
+             * arg is a shell command
+             */
+            LAUNCH,
+            /**
+             * arg is a pid
+             */
+            KILL,
+            /**
+             * arg is a directory deleted recursively
+             */
+            CLEANUP
+        }
+
+        private final long commandId;
+        private final Kind kind;
+        private final String arg;
+
+        public AgentCommand(long commandId, Kind kind, String arg) {
+            this.commandId = commandId;
+            this.kind = kind;
+            this.arg = arg;
+        }
+
+        public long getCommandId() {
+            return commandId;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        public String getArg() {
+            return arg;
+        }
+
+        @Override
+        public String toString() {
+            return "AgentCommand{" +
+                    "commandId=" + commandId +
+                    ", kind=" + kind +
+                    ", arg='" + arg + '\'' +
+                    '}';
+        }
+    }
+
+    /**
+     * A batch of commands sent to node agent, executed in order
+     */
+    public static final class AgentCommands extends ObjectMessage {
+        private static final long serialVersionUID = 1L;
+
+        private final List<AgentCommand> commands;
+
+        public AgentCommands(List<AgentCommand> commands) {
+            this.commands = commands;
+        }
+
+        public List<AgentCommand> getCommands() {
+            return commands;
+        }
+    }
+
+    /**
+     * Exit status of an {@link AgentCommands} batch, keyed by command id
+     */
+    public static final class AgentResults extends ObjectMessage {
+        private static final long serialVersionUID = 1L;
+
+        private final Map<Long, Result> results;
+
+        public AgentResults(Map<Long, Result> results) {
+            this.results = results;
+        }
+
+        public Map<Long, Result> getResults() {
+            return results;
+        }
+    }
+
+    /**
+     * Utilization of node agent host, sent periodically, which is the heartbeat of node agent too
+     */
+    public static final class AgentStatus extends ObjectMessage {
+        private static final long serialVersionUID = 1L;
+
+        private final double cpuLoad;
+        private final long usedMemory;
+
+        /**
+         * @param cpuLoad cpu load in [0.0, 1.0], negative if unknown
+         * @param usedMemory used memory in MB, negative if unknown
+         */
+        public AgentStatus(double cpuLoad, long usedMemory) {
+            this.cpuLoad = cpuLoad;
+            this.usedMemory = usedMemory;
+        }
+
+        public double getCpuLoad() {
+            return cpuLoad;
+        }
+
+        public long getUsedMemory() {
+            return usedMemory;
+        }
+
+        @Override
+        public String toString() {
+            return "AgentStatus{" +
+                    "cpuLoad=" + cpuLoad +
+                    ", usedMemory=" + usedMemory +
+                    '}';
+        }
+    }
+
 }
@@ -1,155 +1,360 @@
 package com.timeyang.athena.task.message;
 
 import com.timeyang.athena.AthenaException;
+import com.timeyang.athena.task.exec.LogLine;
 import com.timeyang.athena.task.exec.Task;
+import com.timeyang.athena.task.exec.TaskContextImpl;
 import com.timeyang.athena.task.message.TaskMessage.*;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufOutputStream;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.ByteToMessageCodec;
+import io.netty.handler.codec.CorruptedFrameException;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
+ * Binary codec of {@link TaskMessage}
+ * <p>
+ * frame: opcode(1 byte) | version(1 byte) | body length(4 bytes) | body
+ * </p>
+ * <p>Message fields are written into the frame directly by schema of each opcode. Strings are length prefixed UTF-8,
+ * length -1 is null. User objects such as {@link Task} and Throwable are payload fields, which are length prefixed
+ * java serialization bytes. Messages without schema fall back to {@link #OPCODE_OBJECT}, a java serialized
+ * {@link ObjectMessage}.</p>
+ *
  * @author https://github.com/chaokunyang
  */
 public class TaskMessageCodec extends ByteToMessageCodec<TaskMessage> {
 
+    public static final byte PROTOCOL_VERSION = 6;
+    private static final int HEADER_LENGTH = 6;
+    private static final int MAX_BODY_LENGTH = 64 * 1024 * 1024;
+
     private static final byte OPCODE_OBJECT = 0x01;
     private static final byte OPCODE_TASK_SUBMIT = 0x02;
     private static final byte OPCODE_TASK_SUCCESS = 0x03;
     private static final byte OPCODE_KILL_TASK = 0x04;
+    private static final byte OPCODE_HEARTBEAT = 0x05;
+    private static final byte OPCODE_TASK_FAILURE = 0x06;
+    private static final byte OPCODE_LOG_QUERY_REQUEST = 0x07;
+    private static final byte OPCODE_LOG_QUERY_RESULT = 0x08;
+    private static final byte OPCODE_STATUS_UPDATE = 0x09;
+    private static final byte OPCODE_EXECUTOR_READY = 0x0A;
+    private static final byte OPCODE_EXECUTOR_ASSIGN = 0x0B;
+    private static final byte OPCODE_EXECUTOR_ASSIGN_ACK = 0x0C;
+    private static final byte OPCODE_LOG_SUBSCRIBE = 0x0D;
+    private static final byte OPCODE_LOG_CHUNK = 0x0E;
+    private static final byte OPCODE_LOG_TAIL_REQUEST = 0x0F;
+    private static final byte OPCODE_LOG_GREP_REQUEST = 0x10;
+    private static final byte OPCODE_LOG_GREP_RESULT = 0x11;
+    private static final byte OPCODE_LOG_ACK = 0x12;
+    private static final byte OPCODE_LOG_END = 0x13;
 
-    private byte messageCode;
-    private int messageLength;
-
-    private int objectSize;
+    // StatusUpdate state types
+    private static final byte STATE_NULL = 0;
+    private static final byte STATE_STRING = 1;
+    private static final byte STATE_OBJECT = 2;
 
     @Override
     protected void encode(ChannelHandlerContext ctx, TaskMessage msg, ByteBuf out) throws Exception {
-        if (msg instanceof ObjectMessage) {
-            out.writeByte(OPCODE_OBJECT);
-
-            byte[] bytes = serialize((ObjectMessage) msg);
-            out.writeInt(bytes.length);
-            out.writeBytes(bytes); // 数据
-        }
+        int start = out.writerIndex();
+        out.writeByte(opcode(msg));
+        out.writeByte(PROTOCOL_VERSION);
+        out.writeInt(0); // body length placeholder
+        int bodyStart = out.writerIndex();
 
         if (msg instanceof TaskSubmit) {
-            out.writeByte(OPCODE_TASK_SUBMIT);
-
-            byte[] bytes = serialize((TaskSubmit) msg);
-            out.writeInt(bytes.length);
-            out.writeBytes(bytes);
+            TaskSubmit submit = (TaskSubmit) msg;
+            // TaskContext is rebuilt by TaskExecutor, only taskId is sent
+            out.writeLong(submit.getTaskContext().taskId());
+            writePayload(out, submit.getTask());
+        } else if (msg instanceof TaskSuccess) {
+            writePayload(out, ((TaskSuccess) msg).getTask());
+        } else if (msg instanceof HeartBeat) {
+            out.writeLong(((HeartBeat) msg).getTaskId());
+        } else if (msg instanceof TaskFailure) {
+            TaskFailure failure = (TaskFailure) msg;
+            Throwable throwable = failure.getThrowable();
+            writePayload(out, failure.getTask());
+            writeString(out, throwable == null ? null : throwable.getClass().getName());
+            writeString(out, throwable == null ? null : throwable.getMessage());
+            writePayload(out, throwable);
+        } else if (msg instanceof LogQueryRequest) {
+            LogQueryRequest request = (LogQueryRequest) msg;
+            out.writeLong(request.getRequestId());
+            out.writeInt(request.getLineNumber());
+            out.writeInt(request.getRows());
+        } else if (msg instanceof LogQueryResult) {
+            LogQueryResult result = (LogQueryResult) msg;
+            List<String> lines = result.getLines();
+            out.writeLong(result.getRequestId());
+            out.writeInt(lines.size());
+            lines.forEach(line -> writeString(out, line));
+        } else if (msg instanceof StatusUpdate) {
+            Object state = ((StatusUpdate) msg).getState();
+            if (state == null) {
+                out.writeByte(STATE_NULL);
+            } else if (state instanceof String) {
+                out.writeByte(STATE_STRING);
+                writeString(out, (String) state);
+            } else {
+                out.writeByte(STATE_OBJECT);
+                writePayload(out, (Serializable) state);
+            }
+        } else if (msg instanceof ExecutorReady) {
+            ExecutorReady ready = (ExecutorReady) msg;
+            out.writeInt(ready.getPoolId());
+            writeString(out, ready.getPoolKey());
+            out.writeInt(ready.getExecutedTasks());
+        } else if (msg instanceof ExecutorAssign) {
+            ExecutorAssign assign = (ExecutorAssign) msg;
+            out.writeLong(assign.getTaskId());
+            out.writeInt(assign.getArgs().size());
+            assign.getArgs().forEach((key, value) -> {
+                writeString(out, key);
+                writeString(out, value);
+            });
+        } else if (msg instanceof ExecutorAssignAck) {
+            out.writeLong(((ExecutorAssignAck) msg).getTaskId());
+        } else if (msg instanceof LogTailRequest) {
+            LogTailRequest request = (LogTailRequest) msg;
+            out.writeLong(request.getRequestId());
+            out.writeInt(request.getRows());
+        } else if (msg instanceof LogSubscribe) {
+            LogSubscribe subscribe = (LogSubscribe) msg;
+            out.writeBoolean(subscribe.isFollow());
+            out.writeLong(subscribe.getOffset());
+        } else if (msg instanceof LogChunk) {
+            LogChunk chunk = (LogChunk) msg;
+            out.writeLong(chunk.getOffset());
+            out.writeInt(chunk.getData().length);
+            out.writeBytes(chunk.getData());
+        } else if (msg instanceof LogGrepRequest) {
+            LogGrepRequest request = (LogGrepRequest) msg;
+            out.writeLong(request.getRequestId());
+            writeString(out, request.getRegex());
+            out.writeInt(request.getMaxHits());
+        } else if (msg instanceof LogGrepResult) {
+            LogGrepResult result = (LogGrepResult) msg;
+            out.writeLong(result.getRequestId());
+            out.writeInt(result.getHits().size());
+            result.getHits().forEach(hit -> {
+                out.writeInt(hit.getLineNumber());
+                writeString(out, hit.getLine());
+            });
+        } else if (msg instanceof LogAck) {
+            out.writeLong(((LogAck) msg).getOffset());
+        } else if (msg instanceof LogEnd) {
+            out.writeLong(((LogEnd) msg).getLength());
+        } else if (msg instanceof ObjectMessage) {
+            writeObject(out, (ObjectMessage) msg);
         }
-        if (msg instanceof TaskSuccess) {
-            out.writeByte(OPCODE_TASK_SUCCESS);
+        // KillTask has no body
 
-            Task task = ((TaskSuccess) msg).getTask();
-            byte[] bytes = serialize(task);
-            out.writeInt(bytes.length);
-            out.writeBytes(bytes);
-        }
+        out.setInt(start + 2, out.writerIndex() - bodyStart);
+    }
 
-        if (msg instanceof KillTask) {
-            out.writeByte(OPCODE_KILL_TASK);
-        }
+    private static byte opcode(TaskMessage msg) {
+        if (msg instanceof TaskSubmit) return OPCODE_TASK_SUBMIT;
+        if (msg instanceof TaskSuccess) return OPCODE_TASK_SUCCESS;
+        if (msg instanceof KillTask) return OPCODE_KILL_TASK;
+        if (msg instanceof HeartBeat) return OPCODE_HEARTBEAT;
+        if (msg instanceof TaskFailure) return OPCODE_TASK_FAILURE;
+        if (msg instanceof LogQueryRequest) return OPCODE_LOG_QUERY_REQUEST;
+        if (msg instanceof LogQueryResult) return OPCODE_LOG_QUERY_RESULT;
+        if (msg instanceof StatusUpdate) return OPCODE_STATUS_UPDATE;
+        if (msg instanceof ExecutorReady) return OPCODE_EXECUTOR_READY;
+        if (msg instanceof ExecutorAssign) return OPCODE_EXECUTOR_ASSIGN;
+        if (msg instanceof ExecutorAssignAck) return OPCODE_EXECUTOR_ASSIGN_ACK;
+        if (msg instanceof LogTailRequest) return OPCODE_LOG_TAIL_REQUEST;
+        if (msg instanceof LogSubscribe) return OPCODE_LOG_SUBSCRIBE;
+        if (msg instanceof LogChunk) return OPCODE_LOG_CHUNK;
+        if (msg instanceof LogGrepRequest) return OPCODE_LOG_GREP_REQUEST;
+        if (msg instanceof LogGrepResult) return OPCODE_LOG_GREP_RESULT;
+        if (msg instanceof LogAck) return OPCODE_LOG_ACK;
+        if (msg instanceof LogEnd) return OPCODE_LOG_END;
+        if (msg instanceof ObjectMessage) return OPCODE_OBJECT;
+        throw new AthenaException("Unsupported message " + msg.getClass().getName());
     }
 
     @Override
     protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
-        if (messageCode == 0) {
-            messageCode = in.readByte();
+        if (in.readableBytes() < HEADER_LENGTH)
+            return;
+        int start = in.readerIndex();
+        byte opcode = in.getByte(start);
+        byte version = in.getByte(start + 1);
+        int length = in.getInt(start + 2);
+        if (version != PROTOCOL_VERSION) {
+            throw new CorruptedFrameException(String.format("Unsupported protocol version %d, expected %d",
+                    version, PROTOCOL_VERSION));
         }
+        if (length < 0 || length > MAX_BODY_LENGTH) {
+            throw new CorruptedFrameException("Invalid message length " + length);
+        }
+        if (in.readableBytes() < HEADER_LENGTH + length)
+            return;
 
-        if (messageCode == OPCODE_OBJECT) {
-            if (objectSize == 0) {
-                if (in.readableBytes() < 4)
-                    return;
-                objectSize = in.readInt();
-            } else {
-                if (in.readableBytes() < objectSize)
-                    return;
-                byte[] obj = new byte[objectSize];
-                in.readBytes(obj);
-
-                out.add(deserialize(obj));
+        in.skipBytes(HEADER_LENGTH);
+        ByteBuf body = in.readSlice(length);
+        out.add(decodeBody(opcode, body));
+    }
 
-                // mark message read finished
-                messageCode = 0;
-                objectSize = 0;
+    private static TaskMessage decodeBody(byte opcode, ByteBuf body) {
+        switch (opcode) {
+            case OPCODE_TASK_SUBMIT: {
+                long taskId = body.readLong();
+                Task task = (Task) readPayload(body);
+                return new TaskSubmit(task, TaskContextImpl.makeTaskContext(taskId));
             }
-        }
-
-        if (messageCode == OPCODE_TASK_SUBMIT ||
-                messageCode == OPCODE_TASK_SUCCESS) {
-            if (messageLength == 0) {
-                if (in.readableBytes() < 4)
-                    return;
-                messageLength = in.readInt();
-            } else {
-                if (in.readableBytes() >= messageLength) {
-                    byte[] bytes = new byte[messageLength];
-                    in.readBytes(bytes);
-
-                    if (messageCode == OPCODE_TASK_SUBMIT) {
-                        TaskSubmit task = (TaskSubmit) deserialize(bytes);
-                        out.add(task);
-                    } else if (messageCode == OPCODE_TASK_SUCCESS) {
-                        Task task = (Task) deserialize(bytes);
-                        out.add(new TaskSuccess(task));
-                    }
-
-                    // mark message read finished
-                    messageCode = 0;
-                    messageLength = 0;
+            case OPCODE_TASK_SUCCESS:
+                return new TaskSuccess((Task) readPayload(body));
+            case OPCODE_KILL_TASK:
+                return new KillTask();
+            case OPCODE_HEARTBEAT:
+                return new HeartBeat(body.readLong());
+            case OPCODE_TASK_FAILURE: {
+                Task task = (Task) readPayload(body);
+                String className = readString(body);
+                String message = readString(body);
+                Throwable throwable;
+                try {
+                    throwable = (Throwable) readPayload(body);
+                } catch (AthenaException e) {
+                    // exception class isn't on this side's classpath
+                    throwable = new AthenaException(className + ": " + message, e);
                 }
+                return new TaskFailure(task, throwable);
             }
+            case OPCODE_LOG_QUERY_REQUEST:
+                return new LogQueryRequest(body.readLong(), body.readInt(), body.readInt());
+            case OPCODE_LOG_QUERY_RESULT: {
+                long requestId = body.readLong();
+                int size = body.readInt();
+                List<String> lines = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    lines.add(readString(body));
+                }
+                return new LogQueryResult(requestId, lines);
+            }
+            case OPCODE_STATUS_UPDATE: {
+                byte type = body.readByte();
+                if (type == STATE_STRING) {
+                    return new StatusUpdate(readString(body));
+                } else if (type == STATE_OBJECT) {
+                    return new StatusUpdate(readPayload(body));
+                }
+                return new StatusUpdate(null);
+            }
+            case OPCODE_EXECUTOR_READY:
+                return new ExecutorReady(body.readInt(), readString(body), body.readInt());
+            case OPCODE_EXECUTOR_ASSIGN: {
+                long taskId = body.readLong();
+                int size = body.readInt();
+                Map<String, String> args = new HashMap<>(size * 2);
+                for (int i = 0; i < size; i++) {
+                    args.put(readString(body), readString(body));
+                }
+                return new ExecutorAssign(taskId, args);
+            }
+            case OPCODE_EXECUTOR_ASSIGN_ACK:
+                return new ExecutorAssignAck(body.readLong());
+            case OPCODE_LOG_TAIL_REQUEST:
+                return new LogTailRequest(body.readLong(), body.readInt());
+            case OPCODE_LOG_SUBSCRIBE:
+                return new LogSubscribe(body.readBoolean(), body.readLong());
+            case OPCODE_LOG_CHUNK: {
+                long offset = body.readLong();
+                byte[] data = new byte[body.readInt()];
+                body.readBytes(data);
+                return new LogChunk(offset, data);
+            }
+            case OPCODE_LOG_GREP_REQUEST:
+                return new LogGrepRequest(body.readLong(), readString(body), body.readInt());
+            case OPCODE_LOG_GREP_RESULT: {
+                long requestId = body.readLong();
+                int size = body.readInt();
+                List<LogLine> hits = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    hits.add(new LogLine(body.readInt(), readString(body)));
+                }
+                return new LogGrepResult(requestId, hits);
+            }
+            case OPCODE_LOG_ACK:
+                return new LogAck(body.readLong());
+            case OPCODE_LOG_END:
+                return new LogEnd(body.readLong());
+            case OPCODE_OBJECT:
+                return (TaskMessage) readObject(body, body.readableBytes());
+            default:
+                throw new CorruptedFrameException("Unknown opcode " + opcode);
         }
+    }
+
+    private static void writeString(ByteBuf out, String str) {
+        if (str == null) {
+            out.writeInt(-1);
+            return;
+        }
+        int lengthIndex = out.writerIndex();
+        out.writeInt(0);
+        int length = out.writeCharSequence(str, StandardCharsets.UTF_8);
+        out.setInt(lengthIndex, length);
+    }
 
-        if (messageCode == OPCODE_KILL_TASK) {
-            out.add(new KillTask());
-            messageCode = 0; // mark message read finished
+    private static String readString(ByteBuf in) {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
         }
+        return in.readCharSequence(length, StandardCharsets.UTF_8).toString();
     }
 
-    private static byte[] serialize(Serializable object) {
-        ByteArrayOutputStream bos = new ByteArrayOutputStream();
-        ObjectOutput objectOutput;
-        byte[] bytes;
-        try {
-            objectOutput = new ObjectOutputStream(bos);
+    /**
+     * length prefixed java serialization of a user object, length -1 is null
+     */
+    private static void writePayload(ByteBuf out, Serializable object) {
+        if (object == null) {
+            out.writeInt(-1);
+            return;
+        }
+        int lengthIndex = out.writerIndex();
+        out.writeInt(0);
+        writeObject(out, object);
+        out.setInt(lengthIndex, out.writerIndex() - lengthIndex - 4);
+    }
+
+    private static Object readPayload(ByteBuf in) {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        return readObject(in, length);
+    }
+
+    private static void writeObject(ByteBuf out, Serializable object) {
+        try (ObjectOutputStream objectOutput = new ObjectOutputStream(new ByteBufOutputStream(out))) {
             objectOutput.writeObject(object);
-            objectOutput.flush();
-            bytes = bos.toByteArray();
         } catch (IOException e) {
             e.printStackTrace();
             throw new AthenaException("Can't serialize object " + object, e);
-        } finally {
-            try {
-                bos.close();
-            } catch (IOException ignored) {
-            }
         }
-        return bytes;
     }
 
-    private static Object deserialize(byte[] bytes) {
-        ByteArrayInputStream bis = new ByteArrayInputStream(bytes);
-        ObjectInput objectIn = null;
-        try {
-            objectIn = new ObjectInputStream(bis);
+    private static Object readObject(ByteBuf in, int length) {
+        ByteBuf slice = in.readSlice(length);
+        try (ObjectInputStream objectIn = new ObjectInputStream(new ByteBufInputStream(slice))) {
             return objectIn.readObject();
         } catch (IOException | ClassNotFoundException e) {
             e.printStackTrace();
             throw new AthenaException("Can't deserialize bytes to Object", e);
-        } finally {
-            try {
-                if (objectIn != null) {
-                    objectIn.close();
-                }
-            } catch (IOException ignored) {
-            }
         }
     }
 
@@ -0,0 +1,269 @@
+package com.timeyang.athena.task.scheduler;
+
+import com.timeyang.athena.AthenaConf;
+import com.timeyang.athena.task.TaskInfo;
+import com.timeyang.athena.util.StringUtils;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Dispatch queue of tasks to be scheduled, shared by queues of teams by weighted fair share.
+ * <p>
+ *     Every queue has a heap of its tasks ordered by priority (higher first), then submit time and task id. Queues
+ *     with tasks are in a heap ordered by pass: a queue is charged {@code 1 / weight} every time a task of it is
+ *     taken, and the queue with least pass goes next, so a queue of weight 4 gets 4 times the turns of a queue of
+ *     weight 1 while both have tasks. A queue which becomes non-empty starts from the pass of the last taken task, so
+ *     it can't save turns while it's idle. Offer and take are O(log n).
+ * </p>
+ * <p>
+ *     Weights are set by {@code task.queue.weights} as {@code queue:weight,...}, other queues have weight 1.
+ *     {@link #take()} blocks while queue is paused, scheduler pauses it when no host has resources for a task.
+ * </p>
+ * <p>
+ *     Tasks which are always placed, see {@link PlacementEngine#isAlwaysPlaced}, don't wait for free resources, they
+ *     are kept in a heap by priority out of fair share, and taken first even when queue is paused.
+ * </p>
+ * <p>
+ *     A taken task is dispatched until {@link #done(long)}, it isn't queued again meanwhile, so a stale copy of a
+ *     task on its way to launch can't be offered by the recovery sweep.
+ * </p>
+ *
+ * @author https://github.com/chaokunyang
+ */
+public class FairShareQueue {
+    private static final double DEFAULT_WEIGHT = 1;
+
+    private static final Comparator<TaskInfo> TASK_ORDER = Comparator
+            .comparingInt(FairShareQueue::getPriority).reversed()
+            .thenComparing(TaskInfo::getSubmitTime, Comparator.nullsLast(Comparator.naturalOrder()))
+            .thenComparing(TaskInfo::getTaskId);
+
+    private static final Comparator<SubQueue> QUEUE_ORDER = Comparator
+            .comparingDouble((SubQueue q) -> q.pass)
+            .thenComparing(q -> q.name);
+
+    private final Map<String, Double> weights = new HashMap<>();
+    private final Map<String, SubQueue> queues = new HashMap<>();
+    private final PriorityQueue<SubQueue> activeQueues = new PriorityQueue<>(QUEUE_ORDER);
+    private final PriorityQueue<TaskInfo> alwaysPlacedTasks = new PriorityQueue<>(TASK_ORDER);
+    private final Set<Long> taskIds = new HashSet<>();
+    // taken tasks which aren't done
+    private final Set<Long> dispatchedTaskIds = new HashSet<>();
+    // pass of queue of last taken task
+    private double virtualTime;
+    private long pausedUntilNanos;
+    private boolean paused;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+
+    private static final class SubQueue {
+        private final String name;
+        private final double weight;
+        private final PriorityQueue<TaskInfo> tasks = new PriorityQueue<>(TASK_ORDER);
+        private double pass;
+
+        private SubQueue(String name, double weight) {
+            this.name = name;
+            this.weight = weight;
+        }
+    }
+
+    public FairShareQueue(AthenaConf athenaConf) {
+        this(parseWeights(athenaConf.getTaskQueueWeights()));
+    }
+
+    public FairShareQueue(Map<String, Double> weights) {
+        weights.forEach((queue, weight) -> {
+            if (weight <= 0) {
+                throw new IllegalArgumentException(String.format("Weight of queue %s must be positive: %s", queue, weight));
+            }
+        });
+        this.weights.putAll(weights);
+    }
+
+    /**
+     * @param weights {@code queue:weight,...}
+     */
+    static Map<String, Double> parseWeights(String weights) {
+        Map<String, Double> result = new HashMap<>();
+        for (String entry : weights.split(",")) {
+            if (StringUtils.hasText(entry)) {
+                String[] parts = entry.trim().split(":");
+                result.put(parts[0], parts.length > 1 ? Double.valueOf(parts[1]) : DEFAULT_WEIGHT);
+            }
+        }
+        return result;
+    }
+
+    private static int getPriority(TaskInfo task) {
+        return task.getPriority() != null ? task.getPriority() : TaskInfo.DEFAULT_PRIORITY;
+    }
+
+    private static String getQueue(TaskInfo task) {
+        return task.getQueue() != null ? task.getQueue() : TaskInfo.DEFAULT_QUEUE;
+    }
+
+    /**
+     * @return false if task is in queue or dispatched already
+     */
+    public boolean offer(TaskInfo task) {
+        lock.lock();
+        try {
+            if (dispatchedTaskIds.contains(task.getTaskId()) || !taskIds.add(task.getTaskId())) {
+                return false;
+            }
+            if (PlacementEngine.isAlwaysPlaced(task)) {
+                alwaysPlacedTasks.add(task);
+                changed.signalAll();
+                return true;
+            }
+            String name = getQueue(task);
+            SubQueue queue = queues.computeIfAbsent(name,
+                    k -> new SubQueue(k, weights.getOrDefault(k, DEFAULT_WEIGHT)));
+            if (queue.tasks.isEmpty()) {
+                queue.pass = Math.max(queue.pass, virtualTime);
+                queue.tasks.add(task);
+                activeQueues.add(queue);
+            } else {
+                queue.tasks.add(task);
+            }
+            changed.signalAll();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Take next task, wait while queue is empty or paused
+     */
+    public TaskInfo take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (true) {
+                if (!alwaysPlacedTasks.isEmpty()) {
+                    return dequeueAlwaysPlaced();
+                }
+                if (paused) {
+                    long nanos = pausedUntilNanos - System.nanoTime();
+                    if (nanos > 0) {
+                        changed.awaitNanos(nanos);
+                        continue;
+                    }
+                    paused = false;
+                }
+                if (!activeQueues.isEmpty()) {
+                    return dequeue();
+                }
+                changed.await();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return next task, null if queue is empty or paused
+     */
+    public TaskInfo poll() {
+        lock.lock();
+        try {
+            if (!alwaysPlacedTasks.isEmpty()) {
+                return dequeueAlwaysPlaced();
+            }
+            if (paused && pausedUntilNanos - System.nanoTime() > 0) {
+                return null;
+            }
+            paused = false;
+            return activeQueues.isEmpty() ? null : dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private TaskInfo dequeueAlwaysPlaced() {
+        TaskInfo task = alwaysPlacedTasks.poll();
+        taskIds.remove(task.getTaskId());
+        dispatchedTaskIds.add(task.getTaskId());
+        return task;
+    }
+
+    private TaskInfo dequeue() {
+        SubQueue queue = activeQueues.poll();
+        TaskInfo task = queue.tasks.poll();
+        taskIds.remove(task.getTaskId());
+        dispatchedTaskIds.add(task.getTaskId());
+        virtualTime = queue.pass;
+        queue.pass += 1 / queue.weight;
+        if (!queue.tasks.isEmpty()) {
+            activeQueues.add(queue);
+        }
+        return task;
+    }
+
+    /**
+     * A taken task has left dispatch, it can be queued again
+     */
+    public void done(long taskId) {
+        lock.lock();
+        try {
+            dispatchedTaskIds.remove(taskId);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stop {@link #take()} from returning tasks until {@link #resume()} or timeout
+     */
+    public void pause(long timeout, TimeUnit unit) {
+        lock.lock();
+        try {
+            paused = true;
+            pausedUntilNanos = System.nanoTime() + unit.toNanos(timeout);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void resume() {
+        lock.lock();
+        try {
+            if (paused) {
+                paused = false;
+                changed.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return taskIds.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return number of tasks of every queue which has tasks
+     */
+    public Map<String, Integer> getQueueSizes() {
+        lock.lock();
+        try {
+            Map<String, Integer> sizes = new TreeMap<>();
+            activeQueues.forEach(queue -> sizes.put(queue.name, queue.tasks.size()));
+            alwaysPlacedTasks.forEach(task -> sizes.merge(getQueue(task), 1, Integer::sum));
+            return sizes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+}
@@ -0,0 +1,404 @@
+package com.timeyang.athena.task.scheduler;
+
+import com.timeyang.athena.AthenaConf;
+import com.timeyang.athena.AthenaException;
+import com.timeyang.athena.task.TaskInfo;
+import com.timeyang.athena.task.exec.TaskUtils;
+import com.timeyang.athena.util.NetworkUtils;
+import com.timeyang.athena.util.ParametersUtils;
+import com.timeyang.athena.util.StringUtils;
+import com.timeyang.athena.util.SystemUtils;
+import io.netty.util.collection.LongObjectHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+
+/**
+ * Chooses execution host of tasks by host capacity, live utilization and resources reserved by placed tasks.
+ * <p>
+ *     Hosts are indexed in a tree ordered by free memory, idle cpus and running task number, so a host is chosen in
+ *     O(log n): SPREAD takes the host with most free resources, BINPACK takes the host with least free memory which
+ *     still fits the task. Hosts are only walked further when the candidate doesn't have enough cpus.
+ * </p>
+ * <p>
+ *     Free memory is the less of unreserved memory and memory unused by live utilization. Cpus are fitted by
+ *     reservation only, cpu load of a host orders hosts but doesn't reject tasks, a busy host would otherwise never
+ *     fit a task needing a whole cpu.
+ * </p>
+ * <p>
+ *     A task declares its resources by {@code __cpus__} and {@code __memory__} (MB) in params, others use
+ *     {@code task.resource.cpus} and {@code task.resource.memory}. The declarations aren't passed to task.
+ *     JAVA_IN_PROCESS tasks run in athena process, they are always placed on local host and don't reserve resources.
+ * </p>
+ *
+ * @author https://github.com/chaokunyang
+ */
+public class PlacementEngine {
+    private static final Logger LOGGER = LoggerFactory.getLogger(PlacementEngine.class);
+    public static final String CPUS_KEY = TaskUtils.CPUS_PARAM;
+    public static final String MEMORY_KEY = TaskUtils.MEMORY_PARAM;
+    static final String LOCAL_HOST = "localhost";
+    private static final long MB = 1024 * 1024;
+
+    public enum Strategy {
+        SPREAD, BINPACK
+    }
+
+    private static final Comparator<HostState> ORDER = Comparator
+            .comparingLong((HostState h) -> h.freeMemory)
+            .thenComparingDouble(h -> h.idleCpus)
+            .thenComparing(Comparator.comparingInt((HostState h) -> h.runningTasks).reversed())
+            .thenComparing(h -> h.host);
+
+    private final Strategy strategy;
+    private final double defaultCpus;
+    private final long defaultMemory;
+    private final TreeSet<HostState> pool = new TreeSet<>(ORDER);
+    private final Map<String, HostState> hosts = new HashMap<>();
+    private final LongObjectHashMap<Placement> placements = new LongObjectHashMap<>();
+    private long releases;
+
+    /**
+     * cpus and memory in MB
+     */
+    public static final class Resources {
+        private final double cpus;
+        private final long memory;
+
+        public Resources(double cpus, long memory) {
+            this.cpus = cpus;
+            this.memory = memory;
+        }
+
+        public double getCpus() {
+            return cpus;
+        }
+
+        public long getMemory() {
+            return memory;
+        }
+
+        @Override
+        public String toString() {
+            return "Resources{cpus=" + cpus + ", memory=" + memory + "}";
+        }
+    }
+
+    private static final class Placement {
+        private final HostState host;
+        private final Resources resources;
+
+        private Placement(HostState host, Resources resources) {
+            this.host = host;
+            this.resources = resources;
+        }
+    }
+
+    /**
+     * Mutable state of a host. Fields used by {@link #ORDER} only change when host is out of pool
+     */
+    private static final class HostState {
+        private final String host;
+        private double cpus;
+        private long memory;
+        private double reservedCpus;
+        private long reservedMemory;
+        private double cpuLoad = -1;
+        private long usedMemory = -1;
+        private int runningTasks;
+        private double freeCpus;
+        private double idleCpus;
+        private long freeMemory;
+
+        private HostState(String host) {
+            this.host = host;
+        }
+
+        private void refresh() {
+            freeCpus = cpus - reservedCpus;
+            idleCpus = cpuLoad >= 0 ? Math.min(freeCpus, cpus * (1 - cpuLoad)) : freeCpus;
+            freeMemory = memory - reservedMemory;
+            if (usedMemory >= 0) {
+                freeMemory = Math.min(freeMemory, memory - usedMemory);
+            }
+        }
+
+        private boolean fits(Resources resources) {
+            return freeCpus >= resources.cpus && freeMemory >= resources.memory;
+        }
+    }
+
+    public PlacementEngine(AthenaConf athenaConf) {
+        this(Strategy.valueOf(athenaConf.getTaskPlacementStrategy().toUpperCase()), athenaConf.getTaskDefaultCpus(),
+                athenaConf.getTaskDefaultMemory());
+        for (String entry : athenaConf.getTaskHosts().split(",")) {
+            if (StringUtils.hasText(entry)) {
+                String[] parts = entry.trim().split(":");
+                if (parts.length < 3 && !NetworkUtils.isHostLocal(parts[0])) {
+                    LOGGER.warn("Task host {} doesn't declare its capacity as host:cpus:memoryMb, "
+                            + "capacity of local host is used for what isn't declared", parts[0]);
+                }
+                double cpus = parts.length > 1 ? Double.valueOf(parts[1]) : Runtime.getRuntime().availableProcessors();
+                long memory = parts.length > 2 ? Long.valueOf(parts[2]) : SystemUtils.getTotalPhysicalMemory() / MB;
+                addHost(parts[0], cpus, memory);
+            }
+        }
+    }
+
+    public PlacementEngine(Strategy strategy, double defaultCpus, long defaultMemory) {
+        this.strategy = strategy;
+        this.defaultCpus = defaultCpus;
+        this.defaultMemory = defaultMemory;
+    }
+
+    /**
+     * add a host to pool, or replace capacity of a host in pool
+     * @param memory memory in MB
+     */
+    public synchronized void addHost(String host, double cpus, long memory) {
+        HostState state = hosts.computeIfAbsent(host, HostState::new);
+        update(state, () -> {
+            state.cpus = cpus;
+            state.memory = memory;
+        });
+        pool.add(state);
+        LOGGER.info("Task host {} added, cpus {}, memory {}MB", host, cpus, memory);
+    }
+
+    /**
+     * remove a host from pool, tasks placed on it keep their host
+     */
+    public synchronized void removeHost(String host) {
+        HostState state = hosts.remove(host);
+        if (state != null) {
+            pool.remove(state);
+            LOGGER.info("Task host {} removed", host);
+        }
+    }
+
+    /**
+     * update live utilization of a host
+     * @param cpuLoad cpu load in [0.0, 1.0], negative if unknown
+     * @param usedMemory used memory in MB, negative if unknown
+     */
+    public synchronized void updateUtilization(String host, double cpuLoad, long usedMemory) {
+        HostState state = hosts.get(host);
+        if (state != null) {
+            update(state, () -> {
+                state.cpuLoad = cpuLoad;
+                state.usedMemory = usedMemory;
+            });
+        }
+    }
+
+    /**
+     * update utilization of hosts in pool which are local host
+     */
+    public void updateLocalUtilization() {
+        long total = SystemUtils.getTotalPhysicalMemory();
+        long free = SystemUtils.getFreePhysicalMemory();
+        long usedMemory = total >= 0 && free >= 0 ? (total - free) / MB : -1;
+        double cpuLoad = SystemUtils.getSystemCpuLoad();
+        List<String> localHosts = new ArrayList<>();
+        synchronized (this) {
+            for (String host : hosts.keySet()) {
+                if (NetworkUtils.isHostLocal(host)) {
+                    localHosts.add(host);
+                }
+            }
+        }
+        localHosts.forEach(host -> updateUtilization(host, cpuLoad, usedMemory));
+    }
+
+    /**
+     * @return true if task is placed whatever free resources hosts have, such as a host fixed task
+     */
+    public static boolean isAlwaysPlaced(TaskInfo taskInfo) {
+        return taskInfo.isHostFixed() || taskInfo.getTaskType().isInProcess();
+    }
+
+    /**
+     * Choose a host for task and reserve task resources on it. A task placed before is released first.
+     * Host fixed task reserves resources on its host if the host is in pool.
+     *
+     * @return chosen host, empty if no host has enough free resources now
+     */
+    public synchronized Optional<String> place(TaskInfo taskInfo) {
+        long taskId = taskInfo.getTaskId();
+        release(taskId);
+        if (taskInfo.getTaskType().isInProcess()) {
+            return Optional.of(LOCAL_HOST);
+        }
+
+        Resources resources = getResources(taskInfo);
+        if (taskInfo.isHostFixed()) {
+            HostState state = hosts.get(taskInfo.getHost());
+            if (state != null) {
+                reserve(taskId, state, resources);
+            }
+            return Optional.of(taskInfo.getHost());
+        }
+
+        resources = capToLargestHost(taskId, resources);
+        HostState state = choose(resources);
+        if (state == null) {
+            return Optional.empty();
+        }
+        reserve(taskId, state, resources);
+        return Optional.of(state.host);
+    }
+
+    /**
+     * Reserve resources of a task on the host it was placed on before, such as a task left running by a restart.
+     * Nothing is reserved if its host isn't in pool.
+     */
+    public synchronized void restore(TaskInfo taskInfo) {
+        long taskId = taskInfo.getTaskId();
+        release(taskId);
+        if (taskInfo.getTaskType().isInProcess() || taskInfo.getHost() == null) {
+            return;
+        }
+        HostState state = hosts.get(taskInfo.getHost());
+        if (state != null) {
+            reserve(taskId, state, getResources(taskInfo));
+        }
+    }
+
+    /**
+     * release resources reserved by task, called when task finishes
+     */
+    public synchronized void release(long taskId) {
+        Placement placement = placements.remove(taskId);
+        if (placement != null) {
+            releases++;
+            HostState state = placement.host;
+            update(state, () -> {
+                state.reservedCpus -= placement.resources.cpus;
+                state.reservedMemory -= placement.resources.memory;
+                state.runningTasks--;
+            });
+        }
+    }
+
+    /**
+     * @return resources declared in task params, or default resources
+     */
+    public Resources getResources(TaskInfo taskInfo) {
+        double cpus = defaultCpus;
+        long memory = defaultMemory;
+        if (StringUtils.hasText(taskInfo.getParams())) {
+            Map<String, String> args = ParametersUtils.fromArgs(taskInfo.getParams()).get();
+            try {
+                if (args.containsKey(CPUS_KEY)) {
+                    cpus = Double.valueOf(args.get(CPUS_KEY));
+                }
+                if (args.containsKey(MEMORY_KEY)) {
+                    memory = Long.valueOf(args.get(MEMORY_KEY));
+                }
+            } catch (NumberFormatException e) {
+                String msg = String.format("Task [%s] declares invalid resources: %s", taskInfo.getTaskId(), args);
+                throw new AthenaException(msg, e);
+            }
+        }
+        return new Resources(cpus, memory);
+    }
+
+    /**
+     * number of releases of reserved resources so far, a placement which failed may succeed after a release
+     */
+    public synchronized long getReleases() {
+        return releases;
+    }
+
+    /**
+     * number of tasks placed on host
+     */
+    public synchronized int getRunningTasks(String host) {
+        HostState state = hosts.get(host);
+        return state != null ? state.runningTasks : 0;
+    }
+
+    public synchronized Set<String> getHosts() {
+        return new HashSet<>(hosts.keySet());
+    }
+
+    private HostState choose(Resources resources) {
+        if (strategy == Strategy.BINPACK) {
+            // least free memory which fits, then walk up to a host with enough cpus
+            HostState probe = new HostState("");
+            probe.freeMemory = resources.memory;
+            probe.idleCpus = Double.NEGATIVE_INFINITY;
+            probe.runningTasks = Integer.MAX_VALUE;
+            for (HostState state : pool.tailSet(probe, true)) {
+                if (state.fits(resources)) {
+                    return state;
+                }
+            }
+        } else {
+            for (HostState state : pool.descendingSet()) {
+                if (state.freeMemory < resources.memory) {
+                    break;
+                }
+                if (state.fits(resources)) {
+                    return state;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * a task larger than every host would never be placed, cap it to the host covering the largest share of its
+     * dominant resource, so that it runs when that host is free. Cpus and memory are capped to the same host, maxima
+     * of different hosts may fit no host at all.
+     */
+    private Resources capToLargestHost(long taskId, Resources resources) {
+        HostState largest = null;
+        double largestShare = -1;
+        for (HostState state : hosts.values()) {
+            if (state.cpus >= resources.cpus && state.memory >= resources.memory) {
+                return resources;
+            }
+            double share = Math.min(share(state.cpus, resources.cpus), share(state.memory, resources.memory));
+            if (share > largestShare || share == largestShare && state.host.compareTo(largest.host) < 0) {
+                largest = state;
+                largestShare = share;
+            }
+        }
+        if (largest == null) {
+            return resources;
+        }
+        LOGGER.warn("Task [{}] requests {}, more than any host, cap it to host {}", taskId, resources, largest.host);
+        return new Resources(Math.min(resources.cpus, largest.cpus), Math.min(resources.memory, largest.memory));
+    }
+
+    /**
+     * @return share of requested amount a capacity covers
+     */
+    private static double share(double capacity, double requested) {
+        return requested > 0 ? capacity / requested : 1;
+    }
+
+    private void reserve(long taskId, HostState state, Resources resources) {
+        update(state, () -> {
+            state.reservedCpus += resources.cpus;
+            state.reservedMemory += resources.memory;
+            state.runningTasks++;
+        });
+        placements.put(taskId, new Placement(state, resources));
+    }
+
+    /**
+     * take host out of pool while changing fields its order depends on
+     */
+    private void update(HostState state, Runnable change) {
+        boolean inPool = pool.remove(state);
+        change.run();
+        state.refresh();
+        if (inPool) {
+            pool.add(state);
+        }
+    }
+
+}
@@ -0,0 +1,343 @@
+package com.timeyang.athena.task.scheduler;
+
+import com.timeyang.athena.AthenaConf;
+import com.timeyang.athena.task.TaskInfo;
+import com.timeyang.athena.task.TaskRepository;
+import com.timeyang.athena.task.exec.TaskLauncher;
+import com.timeyang.athena.util.ThreadUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Optional;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Launches scheduled tasks in three stages, each stage has its own threads, so a slow host or a slow task init
+ * doesn't stall launches of other tasks:
+ * <ol>
+ *     <li>placement: choose task host by {@link PlacementEngine} and save it. A task which doesn't fit any host
+ *     leaves pipeline and is handed back to scheduler, so that it's ordered with other waiting tasks again</li>
+ *     <li>init: create the task and call its init</li>
+ *     <li>spawn: start task process asynchronously, task leaves pipeline when the spawn completes. Processes
+ *     spawned on a host are limited to {@code task.launch.hostRate} per second, a task over the rate is delayed
+ *     without holding a spawn thread</li>
+ * </ol>
+ * <p>A task is claimed as starting by {@link TaskLauncher} when it enters pipeline, so it's never launched twice.
+ * A copy of a task may be submitted after the task is started by another copy, such as a waiting task queued by the
+ * recovery sweep, so task is checked to be still launchable once it's claimed, a stale copy is dropped.
+ * At most {@code task.launch.queueSize} tasks are in pipeline, {@link #submit(TaskInfo)} blocks when it's full.</p>
+ *
+ * @author https://github.com/chaokunyang
+ */
+public class TaskLaunchPipeline implements TaskLaunchPipelineMXBean {
+    private static final Logger LOGGER = LoggerFactory.getLogger(TaskLaunchPipeline.class);
+    public static final String MBEAN_NAME = "com.timeyang.athena:type=TaskLaunchPipeline";
+
+    private final boolean jmxEnabled;
+    private final TaskRepository taskRepository;
+    private final TaskLauncher taskLauncher;
+    private final PlacementEngine placementEngine;
+    private final Predicate<TaskInfo> launchable;
+    private final Listener listener;
+
+    private final ThreadPoolExecutor placementExecutor;
+    private final ThreadPoolExecutor initExecutor;
+    private final ThreadPoolExecutor spawnExecutor;
+    // rate limited spawns
+    private final ScheduledExecutorService delayExecutor =
+            Executors.newSingleThreadScheduledExecutor(ThreadUtils.createThreadFactory("TaskLaunchDelay"));
+    private final int queueSize;
+    private final Semaphore capacity;
+    private final long hostIntervalNanos;
+    // earliest time of next spawn on a host
+    private final ConcurrentMap<String, AtomicLong> nextSpawnNanos = new ConcurrentHashMap<>();
+
+    private final AtomicInteger throttled = new AtomicInteger();
+    private final AtomicLong unplaced = new AtomicLong();
+    private final AtomicLong launched = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    /**
+     * Receives tasks leaving pipeline
+     */
+    public interface Listener {
+
+        /**
+         * Called once for every submitted task when it leaves pipeline, whether it's launched or not
+         */
+        void onLeft(TaskInfo task);
+
+        /**
+         * Called with a task which doesn't fit any host, after it left pipeline
+         *
+         * @param releases {@link PlacementEngine#getReleases()} before task was placed
+         */
+        void onUnplaced(TaskInfo task, long releases);
+
+    }
+
+    /**
+     * @param launchable checks whether a claimed task is still to be launched
+     */
+    public TaskLaunchPipeline(AthenaConf athenaConf, TaskRepository taskRepository, TaskLauncher taskLauncher,
+                              PlacementEngine placementEngine, Predicate<TaskInfo> launchable, Listener listener) {
+        this(athenaConf.getBoolean("jmx.enable"), athenaConf.getTaskLaunchPlacementThreads(),
+                athenaConf.getTaskLaunchInitThreads(), athenaConf.getTaskLaunchSpawnThreads(),
+                athenaConf.getTaskLaunchHostRate(), athenaConf.getTaskLaunchQueueSize(),
+                taskRepository, taskLauncher, placementEngine, launchable, listener);
+    }
+
+    TaskLaunchPipeline(boolean jmxEnabled, int placementThreads, int initThreads, int spawnThreads, double hostRate,
+                       int queueSize, TaskRepository taskRepository, TaskLauncher taskLauncher,
+                       PlacementEngine placementEngine, Predicate<TaskInfo> launchable, Listener listener) {
+        this.jmxEnabled = jmxEnabled;
+        this.taskRepository = taskRepository;
+        this.taskLauncher = taskLauncher;
+        this.placementEngine = placementEngine;
+        this.launchable = launchable;
+        this.listener = listener;
+        this.placementExecutor = newStageExecutor(placementThreads, "TaskLaunchPlacement");
+        this.initExecutor = newStageExecutor(initThreads, "TaskLaunchInit");
+        this.spawnExecutor = newStageExecutor(spawnThreads, "TaskLaunchSpawn");
+        this.queueSize = queueSize;
+        this.capacity = new Semaphore(queueSize);
+        this.hostIntervalNanos = hostRate > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / hostRate) : 0;
+    }
+
+    private static ThreadPoolExecutor newStageExecutor(int threads, String name) {
+        // queue is bounded by pipeline capacity
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), ThreadUtils.createThreadFactory(name));
+    }
+
+    public void start() {
+        if (jmxEnabled) {
+            registerMBean();
+        }
+    }
+
+    public void stop() {
+        delayExecutor.shutdownNow();
+        placementExecutor.shutdownNow();
+        initExecutor.shutdownNow();
+        spawnExecutor.shutdownNow();
+        if (jmxEnabled) {
+            unregisterMBean();
+        }
+    }
+
+    /**
+     * Put a task into pipeline, block until pipeline has room
+     *
+     * @return false if task is starting already or it isn't launchable any more
+     * @throws InterruptedException if interrupted while waiting for room
+     */
+    public boolean submit(TaskInfo task) throws InterruptedException {
+        capacity.acquire();
+        if (!taskLauncher.claimTask(task.getTaskId())) {
+            capacity.release();
+            listener.onLeft(task);
+            LOGGER.info("Task {} is starting", task.getTaskId());
+            return false;
+        }
+        // checked after claim, so that task can't be started by another copy meanwhile
+        if (!launchable.test(task)) {
+            taskLauncher.unclaimTask(task.getTaskId());
+            capacity.release();
+            listener.onLeft(task);
+            LOGGER.info("Task [{}] is started or finished already, drop its stale copy", task.getTaskId());
+            return false;
+        }
+        execute(placementExecutor, task, this::place);
+        return true;
+    }
+
+    private void place(TaskInfo task) {
+        long taskId = task.getTaskId();
+        long releases = placementEngine.getReleases();
+        Optional<String> host = placementEngine.place(task);
+        if (!host.isPresent()) {
+            LOGGER.info("No host has free resources for task [{}], hand it back to scheduler", taskId);
+            taskLauncher.unclaimTask(taskId);
+            unplaced.incrementAndGet();
+            capacity.release();
+            listener.onLeft(task);
+            listener.onUnplaced(task, releases);
+            return;
+        }
+        if (!task.isHostFixed()) {
+            task.setHost(host.get());
+            this.taskRepository.updateTaskHost(taskId, task.getHost());
+        }
+
+        LOGGER.info("schedule task [{}] for execute on host {}", taskId, task.getHost());
+        execute(initExecutor, task, this::init);
+    }
+
+    private void init(TaskInfo task) {
+        if (!taskLauncher.initTask(task)) {
+            // task is failed by TaskLauncher
+            leave(task, false);
+            return;
+        }
+        // no process is spawned for JAVA_IN_PROCESS task
+        long delay = task.getTaskType().isInProcess() ? 0 : reserveSpawn(task.getHost());
+        if (delay > 0) {
+            throttled.incrementAndGet();
+            delay(() -> {
+                throttled.decrementAndGet();
+                execute(spawnExecutor, task, this::spawn);
+            }, task, delay);
+        } else {
+            execute(spawnExecutor, task, this::spawn);
+        }
+    }
+
+    /**
+     * spawn thread only starts the spawn, task leaves pipeline when its process is spawned, so a slow host doesn't
+     * hold a spawn thread
+     */
+    private void spawn(TaskInfo task) {
+        taskLauncher.spawnTask(task).whenComplete((started, throwable) -> {
+            if (throwable != null) {
+                LOGGER.error("Spawn task [{}] failed", task.getTaskId(), throwable);
+                abort(task);
+            } else {
+                leave(task, started);
+            }
+        });
+    }
+
+    /**
+     * reserve next spawn slot of host
+     *
+     * @return nanos to wait until the slot
+     */
+    long reserveSpawn(String host) {
+        if (hostIntervalNanos <= 0) {
+            return 0;
+        }
+        long now = System.nanoTime();
+        AtomicLong next = nextSpawnNanos.computeIfAbsent(host, h -> new AtomicLong(now));
+        long slot = next.getAndAccumulate(hostIntervalNanos, (prev, interval) -> Math.max(prev, now) + interval);
+        return Math.max(slot - now, 0);
+    }
+
+    /**
+     * run a stage of task, a stage which throws leaves task in waiting_task for the recovery sweep
+     */
+    private void execute(ExecutorService stage, TaskInfo task, Consumer<TaskInfo> action) {
+        try {
+            stage.execute(() -> {
+                try {
+                    action.accept(task);
+                } catch (Throwable throwable) {
+                    LOGGER.error("Launch task [{}] failed", task.getTaskId(), throwable);
+                    abort(task);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            LOGGER.info("Task launch pipeline stopped, task [{}] isn't launched", task.getTaskId());
+            abort(task);
+        }
+    }
+
+    private void delay(Runnable runnable, TaskInfo task, long nanos) {
+        try {
+            delayExecutor.schedule(runnable, nanos, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            LOGGER.info("Task launch pipeline stopped, task [{}] isn't launched", task.getTaskId());
+            abort(task);
+        }
+    }
+
+    private void abort(TaskInfo task) {
+        placementEngine.release(task.getTaskId());
+        taskLauncher.unclaimTask(task.getTaskId());
+        leave(task, false);
+    }
+
+    private void leave(TaskInfo task, boolean started) {
+        if (started) {
+            launched.incrementAndGet();
+        } else {
+            failed.incrementAndGet();
+        }
+        capacity.release();
+        listener.onLeft(task);
+    }
+
+    private void registerMBean() {
+        try {
+            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(MBEAN_NAME);
+            if (mBeanServer.isRegistered(name)) {
+                mBeanServer.unregisterMBean(name);
+            }
+            mBeanServer.registerMBean(this, name);
+        } catch (JMException e) {
+            LOGGER.warn("Register TaskLaunchPipeline MBean failed", e);
+        }
+    }
+
+    private void unregisterMBean() {
+        try {
+            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(MBEAN_NAME);
+            if (mBeanServer.isRegistered(name)) {
+                mBeanServer.unregisterMBean(name);
+            }
+        } catch (JMException e) {
+            LOGGER.warn("Unregister TaskLaunchPipeline MBean failed", e);
+        }
+    }
+
+    @Override
+    public int getTasksInPipeline() {
+        return queueSize - capacity.availablePermits();
+    }
+
+    @Override
+    public int getPlacementQueueDepth() {
+        return placementExecutor.getQueue().size();
+    }
+
+    @Override
+    public long getUnplacedTasks() {
+        return unplaced.get();
+    }
+
+    @Override
+    public int getInitQueueDepth() {
+        return initExecutor.getQueue().size();
+    }
+
+    @Override
+    public int getThrottledTasks() {
+        return throttled.get();
+    }
+
+    @Override
+    public int getSpawnQueueDepth() {
+        return spawnExecutor.getQueue().size();
+    }
+
+    @Override
+    public long getLaunchedTasks() {
+        return launched.get();
+    }
+
+    @Override
+    public long getFailedLaunches() {
+        return failed.get();
+    }
+
+}
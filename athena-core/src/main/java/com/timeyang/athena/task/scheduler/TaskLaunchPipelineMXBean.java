@@ -0,0 +1,50 @@
+package com.timeyang.athena.task.scheduler;
+
+/**
+ * Task launch pipeline metrics exposed by JMX
+ *
+ * @author https://github.com/chaokunyang
+ */
+public interface TaskLaunchPipelineMXBean {
+
+    /**
+     * @return number of tasks from submit until their process is spawned or they fail to launch
+     */
+    int getTasksInPipeline();
+
+    /**
+     * @return number of tasks waiting for a placement thread
+     */
+    int getPlacementQueueDepth();
+
+    /**
+     * @return number of tasks handed back to scheduler because no host had free resources for them
+     */
+    long getUnplacedTasks();
+
+    /**
+     * @return number of tasks waiting for an init thread
+     */
+    int getInitQueueDepth();
+
+    /**
+     * @return number of tasks delayed by launch rate limit of their host
+     */
+    int getThrottledTasks();
+
+    /**
+     * @return number of tasks waiting for a spawn thread
+     */
+    int getSpawnQueueDepth();
+
+    /**
+     * @return number of tasks whose process is spawned
+     */
+    long getLaunchedTasks();
+
+    /**
+     * @return number of tasks failed in pipeline
+     */
+    long getFailedLaunches();
+
+}
@@ -1,6 +1,9 @@
 package com.timeyang.athena.task.scheduler;
 
 import com.timeyang.athena.task.TaskInfo;
+import com.timeyang.athena.task.exec.LogLine;
+import com.timeyang.athena.task.exec.LogSearchHit;
+import com.timeyang.athena.task.exec.LogSubscriber;
 
 import java.util.List;
 import java.util.concurrent.Future;
@@ -16,10 +19,33 @@ public interface TaskScheduler {
 
     void schedule(TaskInfo taskInfo);
 
+    /**
+     * Put a newly created waiting task into the in-memory dispatch queue, so it can be scheduled
+     * without waiting for the next waiting_task sweep
+     * @param taskInfo task persisted in waiting_task
+     */
+    void submit(TaskInfo taskInfo);
+
     boolean isTaskRunning(long taskId);
 
-    Future killTask(long taskId);
+    Future<?> killTask(long taskId);
 
     List<String> getLogLines(long taskId, int lineNumber, int rows);
 
+    List<String> getTailLines(long taskId, int rows);
+
+    List<LogLine> grep(long taskId, String regex, int maxHits);
+
+    /**
+     * search collected task logs
+     */
+    List<LogSearchHit> searchLog(String query, long from, long to, String taskNamePattern, int limit);
+
+    /**
+     * @return false if task log can't be streamed, such as task not running
+     */
+    boolean subscribeLog(long taskId, LogSubscriber subscriber);
+
+    void unsubscribeLog(long taskId, LogSubscriber subscriber);
+
 }
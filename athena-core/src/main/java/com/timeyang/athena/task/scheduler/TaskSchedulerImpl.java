@@ -7,37 +7,40 @@ import com.timeyang.athena.task.TaskInfo.RunningTask;
 import com.timeyang.athena.task.TaskInfo.WaitingTask;
 import com.timeyang.athena.task.TaskRepository;
 import com.timeyang.athena.task.TaskState;
-import com.timeyang.athena.task.TaskType;
 import com.timeyang.athena.task.exec.*;
-import com.timeyang.athena.util.ParametersUtils;
 import com.timeyang.athena.util.ThreadUtils;
-import com.timeyang.athena.util.jdbc.Page;
-import com.timeyang.athena.util.jdbc.PagedResult;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.time.Instant;
-import java.util.Collections;
+import java.time.temporal.ChronoUnit;
 import java.util.List;
 import java.util.Optional;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.*;
+import java.util.regex.Pattern;
 
 /**
  * @author https://github.com/chaokunyang
  */
 public class TaskSchedulerImpl implements TaskScheduler {
     private static final Logger LOGGER = LoggerFactory.getLogger(TaskSchedulerImpl.class);
-    private static final long SCHEDULE_INTERVAL_SECONDS = 1;
     private static final long AWAIT_TERMINATION_SECONDS = 5;
+    private static final int ARCHIVE_BATCH_SIZE = 10000;
+    private static final long UTILIZATION_INTERVAL_SECONDS = 10;
+    private static final long PLACEMENT_RETRY_SECONDS = 5;
     private final ScheduledExecutorService scheduledExecutorService = Executors.newScheduledThreadPool(10, ThreadUtils.createThreadFactory("TaskScheduler"));
+    private final ExecutorService dispatchExecutor = Executors.newSingleThreadExecutor(ThreadUtils.createThreadFactory("TaskDispatcher"));
+    // in-memory dispatch queue, fed by submit, by the waiting_task recovery sweep and by tasks no host fits
+    private final FairShareQueue dispatchQueue;
 
     private final AthenaConf athenaConf;
     private final TaskRepository taskRepository;
     private final TaskBackend taskBackend;
     private final LogManager logManager;
+    private final PlacementEngine placementEngine;
+    private final TaskLaunchPipeline launchPipeline;
+    // orders pausing dispatch for an unplaced task against releases which resume it
+    private final Object releaseLock = new Object();
 
     public TaskSchedulerImpl(AthenaConf athenaConf,
                              TaskRepository taskRepository) {
@@ -46,21 +49,46 @@ public class TaskSchedulerImpl implements TaskScheduler {
 
         TaskCallback callback = new TaskCallbackImpl();
         this.taskBackend = new TaskBackend(athenaConf, callback);
-        this.logManager = new LogManager(athenaConf);
+        this.logManager = new LogManager(athenaConf, taskBackend.getNodeAgentManager());
+        this.placementEngine = new PlacementEngine(athenaConf);
+        this.dispatchQueue = new FairShareQueue(athenaConf);
+        this.launchPipeline = new TaskLaunchPipeline(athenaConf, taskRepository, taskBackend, placementEngine,
+                this::isLaunchable, new TaskLaunchPipeline.Listener() {
+                    @Override
+                    public void onLeft(TaskInfo task) {
+                        dispatchQueue.done(task.getTaskId());
+                    }
+
+                    @Override
+                    public void onUnplaced(TaskInfo task, long releases) {
+                        requeueUnplaced(task, releases);
+                    }
+                });
     }
 
     @Override
     public void start() {
+        restorePlacements();
         taskBackend.start();
+        launchPipeline.start();
+        scheduledExecutorService.scheduleWithFixedDelay(
+                this::updateUtilization, 0, UTILIZATION_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        dispatchExecutor.execute(this::dispatchTasks);
         scheduledExecutorService.scheduleWithFixedDelay(
-                this::scheduleWaitingTasks, 0, SCHEDULE_INTERVAL_SECONDS, TimeUnit.SECONDS);
+                this::scheduleWaitingTasks, 0, athenaConf.getTaskScheduleSweepInterval(), TimeUnit.SECONDS);
         LOGGER.info("Task scheduler started");
         scheduledExecutorService.schedule(
                 this::checkRunningTasks, 3, TimeUnit.SECONDS);
+        if (athenaConf.isTaskRetentionEnabled()) {
+            scheduledExecutorService.scheduleWithFixedDelay(
+                    this::archiveFinishedTasks, 60, athenaConf.getTaskRetentionInterval(), TimeUnit.SECONDS);
+        }
     }
 
     @Override
     public void stop() {
+        dispatchExecutor.shutdownNow();
+        launchPipeline.stop();
         taskBackend.stop();
         scheduledExecutorService.shutdown();
         try {
@@ -71,34 +99,84 @@ public class TaskSchedulerImpl implements TaskScheduler {
         }
     }
 
+    /**
+     * Put task into launch pipeline, block while pipeline is full
+     */
     @Override
     public void schedule(TaskInfo task) {
         try {
-            Long taskId = task.getTaskId();
-            if (taskBackend.isTaskStarting(taskId)) {
-                LOGGER.info("Task {} is starting", taskId);
-            } else {
-                if (!task.isHostFixed()) {
-                    task.setHost(getTaskHost(task));
-                    this.taskRepository.updateTaskHost(taskId, task.getHost());
-                }
-
-                LOGGER.info("schedule task [{}] for execute on host {}", taskId, task.getHost());
-                this.taskBackend.runTask(task);
-            }
+            launchPipeline.submit(task);
+        } catch (InterruptedException e) {
+            LOGGER.info("Interrupted while scheduling task [{}]", task.getTaskId());
+            Thread.currentThread().interrupt();
         } catch (Throwable throwable) {
             LOGGER.error(throwable.getMessage(), throwable);
         }
     }
 
+    @Override
+    public void submit(TaskInfo task) {
+        // a task already in the queue won't be queued again, whether it comes from submit or from sweep
+        dispatchQueue.offer(task);
+    }
+
+    /**
+     * No host has resources for task, put it back and stop dispatching until a task releases its resources, or
+     * {@link #PLACEMENT_RETRY_SECONDS} later for changed utilization. Dispatching isn't stopped if resources are
+     * released since the placement, task may fit now.
+     */
+    private void requeueUnplaced(TaskInfo task, long releases) {
+        synchronized (releaseLock) {
+            if (placementEngine.getReleases() == releases) {
+                dispatchQueue.pause(PLACEMENT_RETRY_SECONDS, TimeUnit.SECONDS);
+            }
+        }
+        dispatchQueue.offer(task);
+    }
+
+    /**
+     * A waiting task is launchable while it's in waiting_task, a retried running task while it's in running_task
+     * and isn't running. Other copies are stale, their task is started or finished by another copy.
+     */
+    private boolean isLaunchable(TaskInfo task) {
+        long taskId = task.getTaskId();
+        if (task instanceof RunningTask) {
+            return taskRepository.getRunningTask(taskId).isPresent() && !taskBackend.isTaskRunning(taskId);
+        }
+        return taskRepository.getWaitingTask(taskId) != null;
+    }
+
+    private void release(long taskId) {
+        synchronized (releaseLock) {
+            placementEngine.release(taskId);
+            dispatchQueue.resume();
+        }
+    }
+
+    /**
+     * take tasks from dispatch queue by fair share and put them into launch pipeline
+     */
+    private void dispatchTasks() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                TaskInfo task = dispatchQueue.take();
+                schedule(task);
+            } catch (InterruptedException e) {
+                LOGGER.info("Task dispatcher interrupted, exit dispatch loop");
+                return;
+            }
+        }
+    }
+
     @Override
     public boolean isTaskRunning(long taskId) {
         return this.taskBackend.isTaskRunning(taskId);
     }
 
     @Override
-    public Future killTask(long taskId) {
+    public Future<?> killTask(long taskId) {
         return this.taskBackend.killTask(taskId, () -> {
+            release(taskId);
             Optional<RunningTask> optionalTask = this.taskRepository.getRunningTask(taskId);
             if (optionalTask.isPresent()) {
                 RunningTask runningTask = optionalTask.get();
@@ -120,46 +198,126 @@ public class TaskSchedulerImpl implements TaskScheduler {
         }
     }
 
+    @Override
+    public List<String> getTailLines(long taskId, int rows) {
+        if (isTaskRunning(taskId)) {
+            return taskBackend.getTailLines(taskId, rows);
+        } else {
+            return this.logManager.getTailLines(taskId, rows);
+        }
+    }
+
+    @Override
+    public List<LogLine> grep(long taskId, String regex, int maxHits) {
+        if (regex == null) {
+            throw new IllegalArgumentException("regex is null");
+        }
+        // invalid regex fails here, before it's sent to TaskExecutor
+        Pattern pattern = Pattern.compile(regex);
+        if (isTaskRunning(taskId)) {
+            return taskBackend.grep(taskId, regex, maxHits);
+        } else {
+            return this.logManager.grep(taskId, pattern, maxHits);
+        }
+    }
+
+    @Override
+    public List<LogSearchHit> searchLog(String query, long from, long to, String taskNamePattern, int limit) {
+        return this.logManager.search(query, from, to, taskNamePattern, limit);
+    }
+
+    @Override
+    public boolean subscribeLog(long taskId, LogSubscriber subscriber) {
+        return this.taskBackend.subscribeLog(taskId, subscriber);
+    }
+
+    @Override
+    public void unsubscribeLog(long taskId, LogSubscriber subscriber) {
+        this.taskBackend.unsubscribeLog(taskId, subscriber);
+    }
+
+    /**
+     * Recovery sweep over waiting tasks. Tasks are dispatched by {@link #submit(TaskInfo)} when submitted,
+     * this only picks up tasks missed by the dispatch queue, such as tasks left by a restart. Waiting tasks are read
+     * from memory, dispatch order is decided by dispatch queue.
+     */
     private void scheduleWaitingTasks() {
         try {
-            List<Page.Sort> sorts = Collections.singletonList(
-                    new Page.Sort("submit_time", Page.Order.ASC));
-
-            PagedResult<WaitingTask> pagedResult;
-            do {
-                Page page = new Page(0, 10, sorts);
-                pagedResult = taskRepository.getWaitingTasks(page);
-                if (pagedResult.getTotalSize() > 0) {
-                    LOGGER.info("There's {} tasks waiting to be scheduled", pagedResult.getTotalSize());
+            List<WaitingTask> tasks = taskRepository.getAllWaitingTasks();
+            if (!tasks.isEmpty()) {
+                LOGGER.info("There's {} tasks waiting to be scheduled, queued tasks: {}",
+                        tasks.size(), dispatchQueue.getQueueSizes());
+            }
+            for (WaitingTask task : tasks) {
+                // response thread interrupt
+                if (Thread.currentThread().isInterrupted()) {
+                    return;
+                }
+                if (!taskBackend.isTaskStarting(task.getTaskId()) && dispatchQueue.offer(task)) {
+                    LOGGER.info("task [{}] is in waiting_task, dispatch it", task);
                 }
+            }
+        } catch (Throwable throwable) {
+            LOGGER.error(throwable.getMessage(), throwable);
+        }
 
-                List<WaitingTask> waitingTasks = pagedResult.getElements();
-                waitingTasks.forEach(task -> {
-                    // response thread interrupt
-                    if(!Thread.currentThread().isInterrupted()) {
-                        LOGGER.info("task [{}] is in waiting_task, schedule it", task);
-                        schedule(task);
-                    }
-                });
-            } while (pagedResult.getTotalSize() > pagedResult.getSize());
+    }
+
+    /**
+     * feed utilization of local host and hosts of node agents to placement engine
+     */
+    private void updateUtilization() {
+        try {
+            placementEngine.updateLocalUtilization();
+            taskBackend.getNodeAgentManager().getStatuses().forEach((host, status) ->
+                    placementEngine.updateUtilization(host, status.getCpuLoad(), status.getUsedMemory()));
         } catch (Throwable throwable) {
             LOGGER.error(throwable.getMessage(), throwable);
         }
+    }
 
+    /**
+     * keep finished_task bounded, tasks finished before retention days are moved to task archive
+     */
+    private void archiveFinishedTasks() {
+        try {
+            Instant before = Instant.now().minus(athenaConf.getTaskRetentionDays(), ChronoUnit.DAYS);
+            int archived = taskRepository.archiveFinishedTasks(before, ARCHIVE_BATCH_SIZE);
+            if (archived > 0) {
+                LOGGER.info("Archived {} tasks finished before {}", archived, before);
+            }
+        } catch (Throwable throwable) {
+            LOGGER.error(throwable.getMessage(), throwable);
+        }
+    }
+
+    /**
+     * Running tasks left by a restart still use their hosts until they are checked, reserve their resources before
+     * any task is placed
+     */
+    private void restorePlacements() {
+        for (RunningTask taskInfo : taskRepository.getAllRunningTasks()) {
+            try {
+                placementEngine.restore(taskInfo);
+            } catch (RuntimeException e) {
+                LOGGER.warn("Restore placement of task [{}] failed", taskInfo.getTaskId(), e);
+            }
+        }
     }
 
     private void checkRunningTasks() {
         try {
             LOGGER.info("Check running tasks");
-            PagedResult<RunningTask> pagedResult = taskRepository.getRunningTasks(new Page(0, Integer.MAX_VALUE));
-            LOGGER.info("There's {} tasks waiting to be scheduled", pagedResult.getTotalSize());
-            List<RunningTask> tasks = pagedResult.getElements();
+            // running tasks are loaded into state store when TaskRepository is created
+            List<RunningTask> tasks = taskRepository.getAllRunningTasks();
+            LOGGER.info("There's {} tasks running", tasks.size());
             for (RunningTask taskInfo : tasks) {
                 Task task;
                 try {
-                    task = TaskUtils.createTask(taskInfo.getClassName(), ParametersUtils.fromArgs(taskInfo.getParams()).get());
+                    task = TaskUtils.createTask(taskInfo.getClassName(), TaskUtils.getTaskArgs(taskInfo));
                 } catch (RuntimeException e) {
                     LOGGER.error("Create task [{}] failed, move task to finished", taskInfo.getTaskId(), e);
+                    release(taskInfo.getTaskId());
                     FinishedTask finishedTask = new FinishedTask(taskInfo);
                     finishedTask.setState(TaskState.FAILED);
                     taskRepository.moveToFinished(finishedTask);
@@ -180,6 +338,7 @@ public class TaskSchedulerImpl implements TaskScheduler {
                     LOGGER.info("task {} in table {} is not running, start it", taskId, TaskRepository.RUNNING_TASK_TABLE);
                     schedule(taskInfo);
                 } else {
+                    release(taskId);
                     FinishedTask finishedTask = new FinishedTask(taskInfo);
                     finishedTask.setState(TaskState.FAILED);
                     taskRepository.moveToFinished(finishedTask);
@@ -191,19 +350,6 @@ public class TaskSchedulerImpl implements TaskScheduler {
         }
     }
 
-    /**
-     * get host by task type, host available resources and roles
-     * @param taskInfo task info
-     * @return task exec host
-     */
-    private String getTaskHost(TaskInfo taskInfo) {
-        if (taskInfo.getTaskType() == TaskType.JAVA) {
-            return "localhost";
-        } else {
-            return "localhost";
-        }
-    }
-
     /**
      * @author https://github.com/chaokunyang
      */
@@ -238,6 +384,7 @@ public class TaskSchedulerImpl implements TaskScheduler {
 
         @Override
         public void onSuccess(long taskId) {
+            release(taskId);
             Optional<RunningTask> optionalInfo = taskRepository.getRunningTask(taskId);
             if (optionalInfo.isPresent()) {
                 RunningTask runningTask = optionalInfo.get();
@@ -252,6 +399,7 @@ public class TaskSchedulerImpl implements TaskScheduler {
 
         @Override
         public void onFailure(long taskId) {
+            release(taskId);
             Optional<RunningTask> optionalTask = taskRepository.getRunningTask(taskId);
             if (optionalTask.isPresent()) { // task started, exec failed
                 RunningTask runningTaskInfo = optionalTask.get();
@@ -279,6 +427,7 @@ public class TaskSchedulerImpl implements TaskScheduler {
 
         @Override
         public void onLost(long taskId) {
+            release(taskId);
             Optional<RunningTask> optionalTask = taskRepository.getRunningTask(taskId);
 
             if (optionalTask.isPresent()) {
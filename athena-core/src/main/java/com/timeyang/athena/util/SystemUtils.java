@@ -3,6 +3,7 @@ package com.timeyang.athena.util;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Paths;
@@ -66,6 +67,56 @@ public class SystemUtils {
         return Integer.parseInt(processName.split("@")[0]);
     }
 
+    /**
+     * Only work in HotSpot jvm
+     *
+     * @return physical memory in bytes, -1 if unknown
+     */
+    public static long getTotalPhysicalMemory() {
+        java.lang.management.OperatingSystemMXBean bean = java.lang.management.ManagementFactory.getOperatingSystemMXBean();
+        if (bean instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) bean).getTotalPhysicalMemorySize();
+        }
+        return -1;
+    }
+
+    /**
+     * MemAvailable of /proc/meminfo in linux, which counts reclaimable page cache. Otherwise only work in HotSpot jvm
+     *
+     * @return free physical memory in bytes, -1 if unknown
+     */
+    public static long getFreePhysicalMemory() {
+        if (IS_LINUX) {
+            try {
+                for (String line : Files.readAllLines(Paths.get("/proc/meminfo"))) {
+                    if (line.startsWith("MemAvailable:")) {
+                        return Long.parseLong(line.replaceAll("\\D", "")) * 1024;
+                    }
+                }
+            } catch (IOException | NumberFormatException e) {
+                LOGGER.warn("Can't read MemAvailable of /proc/meminfo", e);
+            }
+        }
+        java.lang.management.OperatingSystemMXBean bean = java.lang.management.ManagementFactory.getOperatingSystemMXBean();
+        if (bean instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) bean).getFreePhysicalMemorySize();
+        }
+        return -1;
+    }
+
+    /**
+     * Only work in HotSpot jvm
+     *
+     * @return recent cpu load of the whole system in [0.0, 1.0], negative if unknown
+     */
+    public static double getSystemCpuLoad() {
+        java.lang.management.OperatingSystemMXBean bean = java.lang.management.ManagementFactory.getOperatingSystemMXBean();
+        if (bean instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) bean).getSystemCpuLoad();
+        }
+        return -1;
+    }
+
     public static boolean isLinux() {
         return System.getProperty("os.name").toUpperCase().startsWith("LINUX");
     }
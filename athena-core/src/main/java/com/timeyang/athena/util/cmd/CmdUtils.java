@@ -1,49 +1,123 @@
 package com.timeyang.athena.util.cmd;
 
-import com.timeyang.athena.util.IoUtils;
+import com.timeyang.athena.AthenaConf;
 import com.timeyang.athena.util.NetworkUtils;
 import com.timeyang.athena.util.StringUtils;
 import com.timeyang.athena.util.SystemUtils;
+import com.timeyang.athena.util.ThreadUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.*;
 import java.util.Arrays;
+import java.util.concurrent.*;
 
 /**
+ * Execute shell commands.
+ * <p>
+ *     stdout and stderr of a command are drained concurrently, so a command writing a lot to one of them can't block on
+ *     a full pipe. At most {@link #MAX_CAPTURE_CHARS} chars of each are kept in {@link Result}. {@code execAsync}
+ *     runs commands in a pool of {@code cmd.launch.threads} threads, so callers such as task launch aren't blocked by
+ *     a slow command or ssh.
+ * </p>
+ *
  * @author https://github.com/chaokunyang
  */
 public class CmdUtils {
     private static final Logger LOGGER = LoggerFactory.getLogger(CmdUtils.class);
+    static final int MAX_CAPTURE_CHARS = 64 * 1024;
+
+    // stderr readers, one for every running command
+    private static final ExecutorService STREAM_EXECUTOR = Executors.newCachedThreadPool(daemon("CmdStream"));
+
+    private static final class LaunchPool {
+        private static final ExecutorService EXECUTOR = createLaunchPool();
+
+        private static ExecutorService createLaunchPool() {
+            int threads = AthenaConf.getConf().getCmdLaunchThreads();
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(), daemon("CmdLaunch"));
+            executor.allowCoreThreadTimeOut(true);
+            return executor;
+        }
+    }
+
+    private static ThreadFactory daemon(String name) {
+        ThreadFactory threadFactory = ThreadUtils.createThreadFactory(name);
+        return r -> {
+            Thread thread = threadFactory.newThread(r);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
 
     public static Result exec(String cmd) {
+        return exec(getCommands(cmd));
+    }
+
+    public static Result exec(String host, String cmd) {
+        return exec(getCommands(host, cmd));
+    }
+
+    /**
+     * Execute command in launch pool
+     *
+     * @return future completed with result when command exits
+     */
+    public static CompletableFuture<Result> execAsync(String cmd) {
+        return execAsync(getCommands(cmd));
+    }
+
+    /**
+     * Execute command on host in launch pool, by ssh if host isn't local
+     *
+     * @return future completed with result when command exits
+     */
+    public static CompletableFuture<Result> execAsync(String host, String cmd) {
         String[] commands;
+        try {
+            commands = getCommands(host, cmd);
+        } catch (UnsupportedOperationException e) {
+            CompletableFuture<Result> future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+            return future;
+        }
+        return execAsync(commands);
+    }
+
+    private static CompletableFuture<Result> execAsync(String[] commands) {
+        return CompletableFuture.supplyAsync(() -> exec(commands), LaunchPool.EXECUTOR);
+    }
+
+    private static String[] getCommands(String cmd) {
         if (SystemUtils.IS_WINDOWS) {
-            commands = new String[]{"cmd", "/c", cmd};
+            return new String[]{"cmd", "/c", cmd};
         } else {
-            commands = new String[]{"bash", "-c", cmd};
+            return new String[]{"bash", "-c", cmd};
         }
-
-        return exec(commands);
     }
 
-    public static Result exec(String host, String cmd) {
+    private static String[] getCommands(String host, String cmd) {
         if (NetworkUtils.isHostLocal(host)) {
-            return exec(cmd);
+            return getCommands(cmd);
         } else {
             if (SystemUtils.IS_WINDOWS) {
                 String msg = String.format("Execute command on other host in windows is not supported. host [%s], command [%s]", host, cmd);
                 throw new UnsupportedOperationException(msg);
             } else {
                 cmd = String.format("'%s'", cmd); // for bash -c in ssh
-                String[] commands = {"ssh", host, "bash", "-c", cmd};
-                return exec(commands);
+                return new String[]{"ssh", host, "bash", "-c", cmd};
             }
         }
     }
 
+    /**
+     * @return result of a command which can't be executed
+     */
+    public static Result failed(Throwable throwable) {
+        return new Result(null, throwable);
+    }
+
     private static Result exec(String[] commands) {
         return exec(commands, true);
     }
@@ -54,8 +128,15 @@ public class CmdUtils {
             Process process = Runtime.getRuntime().exec(commands);
 
             if (captureOutput) {
-                String procOutput = IoUtils.toString(process.getInputStream(), SystemUtils.ENCODING);
-                String procError = IoUtils.toString(process.getErrorStream(), SystemUtils.ENCODING);
+                process.getOutputStream().close();
+                Future<String> error = STREAM_EXECUTOR.submit(() -> capture(process.getErrorStream()));
+                String procOutput = capture(process.getInputStream());
+                String procError;
+                try {
+                    procError = error.get();
+                } catch (ExecutionException e) {
+                    throw new IOException(e.getCause());
+                }
                 int code = process.waitFor();
 
                 if (code != 0) {
@@ -105,4 +186,25 @@ public class CmdUtils {
         }
     }
 
+    /**
+     * Read stream to the end, keep first {@link #MAX_CAPTURE_CHARS} chars
+     */
+    static String capture(InputStream in) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        long dropped = 0;
+        char[] buffer = new char[8192];
+        try (Reader reader = new InputStreamReader(in, SystemUtils.ENCODING)) {
+            int n;
+            while ((n = reader.read(buffer)) >= 0) {
+                int kept = Math.min(n, MAX_CAPTURE_CHARS - sb.length());
+                sb.append(buffer, 0, kept);
+                dropped += n - kept;
+            }
+        }
+        if (dropped > 0) {
+            sb.append(String.format("%n... %d chars truncated", dropped));
+        }
+        return sb.toString();
+    }
+
 }
\ No newline at end of file
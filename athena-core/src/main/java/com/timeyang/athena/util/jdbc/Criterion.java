@@ -1,9 +1,15 @@
 package com.timeyang.athena.util.jdbc;
 
+import java.util.regex.Pattern;
+
 /**
+ * A filter of {@link Page}. Value is bound to a placeholder of the clause, field must be a column name
+ *
  * @author https://github.com/chaokunyang
  */
 public class Criterion {
+    private static final Pattern FIELD_PATTERN = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+
     private final String field;
     private final Predicate predicate;
     private final Object compareTo;
@@ -15,7 +21,7 @@ public class Criterion {
 
     public Criterion(String field, Predicate predicate,
                   Object compareTo, Condition condition) {
-        this.field = field;
+        this.field = checkField(field);
         this.predicate = predicate;
         this.compareTo = compareTo;
         this.condition = condition;
@@ -41,46 +47,65 @@ public class Criterion {
         return predicate.toClause(this);
     }
 
+    /**
+     * @return value bound to placeholder of {@link #toClause()}
+     */
+    public Object toParameter() {
+        return predicate.toParameter(this);
+    }
+
+    /**
+     * field is put in sql, so it must be a column name
+     */
+    static String checkField(String field) {
+        if (field == null || !FIELD_PATTERN.matcher(field).matches()) {
+            throw new IllegalArgumentException(String.format("Invalid field [%s]", field));
+        }
+        return field;
+    }
+
     public enum Predicate {
         LIKE {
             @Override
             public String toClause(Criterion criterion) {
-                return String.format(" %s LIKE '%%%s%%' ", criterion.field, getString(criterion));
+                return String.format(" %s LIKE ? ", criterion.field);
+            }
+
+            @Override
+            public Object toParameter(Criterion criterion) {
+                return "%" + getString(criterion) + "%";
             }
         },
         NOT_LIKE {
             @Override
             public String toClause(Criterion criterion) {
-                return String.format(" %s NOT LIKE '%%%s%%' ", criterion.field, getString(criterion));
+                return String.format(" %s NOT LIKE ? ", criterion.field);
+            }
+
+            @Override
+            public Object toParameter(Criterion criterion) {
+                return "%" + getString(criterion) + "%";
             }
         },
         EQ {
             @Override
             public String toClause(Criterion criterion) {
-                if (criterion.getCompareTo() instanceof String) {
-                    return String.format(" %s = '%s' ",
-                            criterion.field, criterion.getCompareTo());
-                } else {
-                    return String.format(" %s = %s ",
-                            criterion.field, criterion.getCompareTo());
-                }
+                return String.format(" %s = ? ", criterion.field);
             }
         },
         NEQ {
             @Override
             public String toClause(Criterion criterion) {
-                if (criterion.getCompareTo() instanceof String) {
-                    return String.format(" %s <> '%s' ",
-                            criterion.field, criterion.getCompareTo());
-                } else {
-                    return String.format(" %s <> %s ",
-                            criterion.field, criterion.getCompareTo());
-                }
+                return String.format(" %s <> ? ", criterion.field);
             }
         };
 
         public abstract String toClause(Criterion criterion);
 
+        public Object toParameter(Criterion criterion) {
+            return criterion.getCompareTo();
+        }
+
         public static String getString(Criterion f) {
             if (!(f.getCompareTo() instanceof String))
                 throw new IllegalArgumentException(f.getField());
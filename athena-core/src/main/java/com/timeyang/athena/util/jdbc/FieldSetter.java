@@ -12,6 +12,7 @@ public class FieldSetter {
     private Object[] objects;
     private String methodName;
     private Class<?>[] signature;
+    private StatementBinders.ParameterBinder binder;
 
     private FieldSetter(String fieldName, Object value, Object... extraValues) {
         this.fieldName = fieldName;
@@ -96,6 +97,16 @@ public class FieldSetter {
         return signature;
     }
 
+    /**
+     * @return binder of setter method, shared by setters of same method and signature
+     */
+    StatementBinders.ParameterBinder getBinder() {
+        if (binder == null) {
+            binder = StatementBinders.getParameterBinder(methodName, signature);
+        }
+        return binder;
+    }
+
     public static FieldSetter makeSetter(String fieldName, Object value, Object... objects) {
         return new FieldSetter(fieldName, value, objects);
     }
@@ -0,0 +1,86 @@
+package com.timeyang.athena.util.jdbc;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Check whether sorts and criteria of a {@link Page} can use an index, based on index metadata of the table.
+ * <p>
+ *     A sort or an {@link Criterion.Predicate#EQ} criterion can use an index if its field is the leading column of an
+ *     index. Other predicates, such as LIKE '%name%', can't use an index. Every field which can't use an index is
+ *     logged once for a table, so queries that scan the whole table show up in log.
+ * </p>
+ *
+ * @author https://github.com/chaokunyang
+ */
+public class IndexUsageChecker {
+    private static final Logger LOGGER = LoggerFactory.getLogger(IndexUsageChecker.class);
+
+    private final DataSource dataSource;
+    // table -> index name -> columns
+    private final Map<String, Map<String, List<String>>> indexes = new ConcurrentHashMap<>();
+    private final Set<String> logged = ConcurrentHashMap.newKeySet();
+
+    public IndexUsageChecker(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    /**
+     * @return true if all sorts and criteria of page can use an index
+     */
+    public boolean check(String tableName, Page page) {
+        boolean indexed = true;
+        List<Page.Sort> sorts = page.getSeekSorts();
+        if (!sorts.isEmpty() && !isLeadingColumn(tableName, sorts.get(0).getField())) {
+            indexed = false;
+            logOnce(tableName, sorts.get(0).getField(), "sort by");
+        }
+        if (page.getCriteria() != null) {
+            for (Criterion criterion : page.getCriteria()) {
+                if (criterion.getPredicate() != Criterion.Predicate.EQ) {
+                    indexed = false;
+                    logOnce(tableName, criterion.getField(), criterion.getPredicate() + " filter on");
+                } else if (!isLeadingColumn(tableName, criterion.getField())) {
+                    indexed = false;
+                    logOnce(tableName, criterion.getField(), "EQ filter on");
+                }
+            }
+        }
+        return indexed;
+    }
+
+    private boolean isLeadingColumn(String tableName, String field) {
+        Collection<List<String>> columns = getIndexes(tableName).values();
+        return columns.stream().anyMatch(c -> c.get(0).equalsIgnoreCase(field));
+    }
+
+    private Map<String, List<String>> getIndexes(String tableName) {
+        // indexes are created by schema migration before queries, load them once
+        Map<String, List<String>> tableIndexes = indexes.computeIfAbsent(tableName.toUpperCase(), table -> {
+            try (Connection connection = dataSource.getConnection()) {
+                return JdbcUtils.getIndexes(connection, table);
+            } catch (SQLException e) {
+                LOGGER.warn("Can't get indexes of table {}", table, e);
+                return null;
+            }
+        });
+        return tableIndexes != null ? tableIndexes : Collections.emptyMap();
+    }
+
+    private void logOnce(String tableName, String field, String usage) {
+        if (logged.add(tableName.toUpperCase() + "." + field.toUpperCase() + " " + usage)) {
+            LOGGER.warn("{} {} of table {} doesn't hit an index, query scans the table", usage, field, tableName);
+        }
+    }
+
+}
@@ -2,7 +2,6 @@ package com.timeyang.athena.util.jdbc;
 
 import com.timeyang.athena.AthenaException;
 import com.timeyang.athena.util.Asserts;
-import com.timeyang.athena.util.ReflectionUtils;
 import com.timeyang.athena.util.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -10,8 +9,11 @@ import org.slf4j.LoggerFactory;
 import javax.sql.DataSource;
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 /**
@@ -20,6 +22,25 @@ import java.util.stream.Collectors;
 public class JdbcUtils {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(JdbcUtils.class);
+    private static final int INSERT_SQL_CACHE_SIZE = 256;
+    // table and columns -> insert sql
+    private static final Map<String, String> INSERT_SQL_CACHE = Collections.synchronizedMap(
+            new LinkedHashMap<String, String>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                    return size() > INSERT_SQL_CACHE_SIZE;
+                }
+            });
+    private static final long COUNT_CACHE_MILLIS = 10 * 1000;
+    private static final int COUNT_CACHE_SIZE = 256;
+    // count sql -> [count, count time]
+    private static final Map<String, long[]> COUNT_CACHE = Collections.synchronizedMap(
+            new LinkedHashMap<String, long[]>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, long[]> eldest) {
+                    return size() > COUNT_CACHE_SIZE;
+                }
+            });
 
     public static List<String> getAllTables(Connection connection) {
         List<String> tables = new ArrayList<>();
@@ -81,6 +102,88 @@ public class JdbcUtils {
         return false;
     }
 
+    public static boolean isColumnExists(Connection connection, String tableName, String columnName) {
+        try (ResultSet rs = connection.getMetaData()
+                .getColumns(null, null, tableName.toUpperCase(), columnName.toUpperCase())) {
+            return rs.next();
+        } catch (SQLException e) {
+            String msg = String.format("Can't get columns of table %s", tableName);
+            LOGGER.error(msg, e);
+            throw new AthenaException(msg, e);
+        }
+    }
+
+    /**
+     * add column if column absent
+     *
+     * @param definition column type and constraints, such as {@code INTEGER DEFAULT 0}
+     * @return true if column added or false if column exists
+     */
+    public static boolean addColumnIfAbsent(Connection connection, String tableName, String columnName, String definition) {
+        if (isColumnExists(connection, tableName, columnName)) {
+            return false;
+        }
+        String sql = String.format("ALTER TABLE %s ADD COLUMN %s %s", tableName, columnName, definition);
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+        } catch (SQLException e) {
+            e.printStackTrace();
+            String msg = String.format("Can't add column %s, sql: %s", columnName, sql);
+            LOGGER.error(msg, e);
+            throw new AthenaException(msg, e);
+        }
+        return true;
+    }
+
+    /**
+     * @return index name -> index columns in order, names are upper case
+     */
+    public static Map<String, List<String>> getIndexes(Connection connection, String tableName) {
+        Map<String, List<String>> indexes = new LinkedHashMap<>();
+        try {
+            DatabaseMetaData md = connection.getMetaData();
+            try (ResultSet rs = md.getIndexInfo(null, null, tableName.toUpperCase(), false, false)) {
+                while (rs.next()) {
+                    String indexName = rs.getString("INDEX_NAME");
+                    String column = rs.getString("COLUMN_NAME");
+                    if (indexName == null || column == null) {
+                        continue;
+                    }
+                    // rows are ordered by index name and ordinal position
+                    indexes.computeIfAbsent(indexName.toUpperCase(), k -> new ArrayList<>()).add(column.toUpperCase());
+                }
+            }
+        } catch (SQLException e) {
+            String msg = String.format("Can't get indexes of table %s", tableName);
+            LOGGER.error(msg, e);
+            throw new AthenaException(msg, e);
+        }
+        return indexes;
+    }
+
+    /**
+     * create index if index absent
+     *
+     * @return true if index created or false if index exists
+     */
+    public static boolean createIndexIfAbsent(Connection connection, String tableName, String indexName,
+                                              boolean unique, String... columns) {
+        if (getIndexes(connection, tableName).containsKey(indexName.toUpperCase())) {
+            return false;
+        }
+        String sql = String.format("CREATE %sINDEX %s ON %s(%s)",
+                unique ? "UNIQUE " : "", indexName, tableName, String.join(", ", columns));
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+        } catch (SQLException e) {
+            e.printStackTrace();
+            String msg = String.format("Can't create index %s, index sql: %s", indexName, sql);
+            LOGGER.error(msg, e);
+            throw new AthenaException(msg, e);
+        }
+        return true;
+    }
+
     public static <T> List<T> query(Connection connection, String sql, RowMapper<T> rowMapper) {
         try (Statement statement = connection.createStatement();
              ResultSet rs = statement.executeQuery(sql)) {
@@ -101,6 +204,56 @@ public class JdbcUtils {
         }
     }
 
+    /**
+     * Query with a prepared statement, parameters are bound to placeholders in order. Derby caches compiled plan of
+     * same sql, so a query with different parameters isn't compiled again
+     */
+    public static <T> List<T> query(Connection connection, String sql, List<Object> parameters, RowMapper<T> rowMapper) {
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            bind(statement, parameters);
+            List<T> results = new ArrayList<>();
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    results.add(rowMapper.mapRow(rs, results.size() + 1));
+                }
+            }
+            return results;
+        } catch (SQLException e) {
+            LOGGER.error(e.getMessage(), e);
+            throw new AthenaException("Execute sql failed, sql: " + sql, e);
+        }
+    }
+
+    public static <T> List<T> query(DataSource dataSource, String sql, List<Object> parameters, RowMapper<T> rowMapper) {
+        try (Connection connection = dataSource.getConnection()) {
+            return query(connection, sql, parameters, rowMapper);
+        } catch (SQLException e) {
+            LOGGER.error(e.getMessage(), e);
+            throw new AthenaException("Can't get connection", e);
+        }
+    }
+
+    /**
+     * Execute an update with a prepared statement
+     *
+     * @return updated rows
+     */
+    public static int update(Connection connection, String sql, Object... parameters) {
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            bind(statement, Arrays.asList(parameters));
+            return statement.executeUpdate();
+        } catch (SQLException e) {
+            LOGGER.error(e.getMessage(), e);
+            throw new AthenaException("Execute sql failed, sql: " + sql, e);
+        }
+    }
+
+    private static void bind(PreparedStatement statement, List<Object> parameters) throws SQLException {
+        for (int i = 0; i < parameters.size(); i++) {
+            statement.setObject(i + 1, parameters.get(i));
+        }
+    }
+
     public static <T> List<T> query(DataSource dataSource, String sql, RowMapper<T> rowMapper) {
         try (Connection connection = dataSource.getConnection()) {
             return query(connection, sql, rowMapper);
@@ -110,6 +263,9 @@ public class JdbcUtils {
         }
     }
 
+    /**
+     * Query a page of table. See {@link Page} for seek pages, and {@link Page.Count} for how total size is counted
+     */
     public static <T> PagedResult<T> queryPage(DataSource dataSource, String tableName, Page page, RowMapper<T> rowMapper) {
         long offset = page.getOffset();
         String orderByClause = page.buildOrderByClause();
@@ -118,24 +274,109 @@ public class JdbcUtils {
         if (StringUtils.hasText(criterionClause)) {
             whereClause = String.format(" where %s ", criterionClause);
         }
-        String sql = String.format("select * from %s %s %s offset %d ROWS FETCH NEXT %d ROWS ONLY",
-                tableName, whereClause, orderByClause, offset, page.getSize());
-        try (Connection connection = dataSource.getConnection();
-             Statement statement = connection.createStatement();
-             ResultSet countRs = statement.executeQuery("SELECT COUNT(*) AS total FROM " + tableName + whereClause)) {
-            List<T> items = query(connection, sql, rowMapper);
-
-            long total = 0;
-            while (countRs.next())
-                total = countRs.getLong("total");
+        String sql;
+        List<Object> parameters;
+        if (page.isSeek()) {
+            String seekClause = page.buildSeekClause();
+            String seekWhereClause = StringUtils.hasText(criterionClause) ?
+                    String.format(" where (%s) AND %s ", criterionClause, seekClause) :
+                    String.format(" where %s ", seekClause);
+            sql = String.format("select * from %s %s %s FETCH FIRST %d ROWS ONLY",
+                    tableName, seekWhereClause, orderByClause, page.getSize());
+            parameters = new ArrayList<>(page.getCriterionParameters());
+            parameters.addAll(page.getSeekParameters());
+        } else {
+            sql = String.format("select * from %s %s %s offset %d ROWS FETCH NEXT %d ROWS ONLY",
+                    tableName, whereClause, orderByClause, offset, page.getSize());
+            parameters = page.getCriterionParameters();
+        }
+        List<Page.Sort> cursorFields = page.getKeyField() != null ? page.getSeekSorts() : Collections.emptyList();
+        try (Connection connection = dataSource.getConnection()) {
+            List<T> items = new ArrayList<>();
+            List<Object> lastRow = readPage(connection, sql, parameters, rowMapper, cursorFields, items);
+            if (items.size() < page.getSize() && page.hasNullsAfterSeek()) {
+                // rows whose first sort value is null are after the ascending seek range
+                String nullsWhereClause = StringUtils.hasText(criterionClause) ?
+                        String.format(" where (%s) AND %s ", criterionClause, page.buildNullsAfterClause()) :
+                        String.format(" where %s ", page.buildNullsAfterClause());
+                sql = String.format("select * from %s %s %s FETCH FIRST %d ROWS ONLY",
+                        tableName, nullsWhereClause, orderByClause, page.getSize() - items.size());
+                List<Object> nullsLastRow = readPage(connection, sql, page.getCriterionParameters(), rowMapper,
+                        cursorFields, items);
+                if (nullsLastRow != null) {
+                    lastRow = nullsLastRow;
+                }
+            }
+            // a full page may have more rows
+            String nextCursor = null;
+            if (lastRow != null && items.size() == page.getSize()) {
+                nextCursor = Page.encodeCursor(lastRow);
+            }
 
-            return new PagedResult<>(items, total, page);
+            long total = count(dataSource, connection, tableName, whereClause, page.getCriterionParameters(),
+                    page.getCount());
+            return new PagedResult<>(items, total, page, nextCursor);
         } catch (SQLException e) {
             String msg = String.format("Can't execute %s, sql: %s", tableName, sql);
             throw new AthenaException(msg, e);
         }
     }
 
+    /**
+     * Add rows of query to items
+     *
+     * @return values of cursor fields of last row, null if query has no rows or there's no cursor fields
+     */
+    private static <T> List<Object> readPage(Connection connection, String sql, List<Object> parameters,
+                                             RowMapper<T> rowMapper, List<Page.Sort> cursorFields,
+                                             List<T> items) throws SQLException {
+        List<Object> lastRow = null;
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            bind(statement, parameters);
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    items.add(rowMapper.mapRow(rs, items.size() + 1));
+                    if (!cursorFields.isEmpty()) {
+                        lastRow = new ArrayList<>(cursorFields.size());
+                        for (Page.Sort field : cursorFields) {
+                            lastRow.add(rs.getObject(field.getField()));
+                        }
+                    }
+                }
+            }
+        }
+        return lastRow;
+    }
+
+    /**
+     * @return -1 if count is {@link Page.Count#NONE}
+     */
+    private static long count(DataSource dataSource, Connection connection, String tableName, String whereClause,
+                              List<Object> parameters, Page.Count count) throws SQLException {
+        if (count == Page.Count.NONE) {
+            return -1;
+        }
+        String sql = "SELECT COUNT(*) AS total FROM " + tableName + whereClause;
+        String key = System.identityHashCode(dataSource) + sql + parameters;
+        if (count == Page.Count.CACHED) {
+            long[] cached = COUNT_CACHE.get(key);
+            if (cached != null && System.currentTimeMillis() - cached[1] < COUNT_CACHE_MILLIS) {
+                return cached[0];
+            }
+        }
+
+        long total = 0;
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            bind(statement, parameters);
+            try (ResultSet countRs = statement.executeQuery()) {
+                while (countRs.next())
+                    total = countRs.getLong("total");
+            }
+        }
+        COUNT_CACHE.put(key, new long[]{total, System.currentTimeMillis()});
+        return total;
+    }
+
     public static void insert(Connection connection, String tableName, List<FieldSetter> setFields) {
         insert(connection, tableName, setFields, null);
     }
@@ -146,20 +387,22 @@ public class JdbcUtils {
                     "If generatedIds provided, generatedIdClasses must be provided too");
         }
 
-        StringBuilder sqlBuilder = new StringBuilder("INSERT INTO ").append(tableName);
         List<FieldSetter> fields = fieldSetters.stream()
                 .filter(fieldSetter -> fieldSetter.getMethodName().equals("setString") || fieldSetter.getObjects() != null)
                 .collect(Collectors.toList());
+        String sql = INSERT_SQL_CACHE.computeIfAbsent(tableName + fields.stream()
+                .map(FieldSetter::getFieldName).collect(Collectors.toList()), k -> {
+            StringBuilder sqlBuilder = new StringBuilder("INSERT INTO ").append(tableName);
+            sqlBuilder.append('(');
+            sqlBuilder.append(fields.stream().map(fieldSetter -> StringUtils.addUnderscores(fieldSetter.getFieldName()))
+                    .collect(Collectors.joining(", ")));
+            sqlBuilder.append(") ");
+            sqlBuilder.append("VALUES(");
+            sqlBuilder.append(String.join(", ", Collections.nCopies(fields.size(), "?")));
+            sqlBuilder.append(")");
+            return sqlBuilder.toString();
+        });
 
-        sqlBuilder.append('(');
-        sqlBuilder.append(fields.stream().map(fieldSetter -> StringUtils.addUnderscores(fieldSetter.getFieldName()))
-                .collect(Collectors.joining(", ")));
-        sqlBuilder.append(") ");
-        sqlBuilder.append("VALUES(");
-        sqlBuilder.append(String.join(", ", Collections.nCopies(fields.size(), "?")));
-        sqlBuilder.append(")");
-
-        String sql = sqlBuilder.toString();
         LOGGER.debug("insert sql: {}", sql);
 
         PreparedStatement pStatement = null;
@@ -171,11 +414,8 @@ public class JdbcUtils {
             }
             for (int i = 0; i < fields.size(); i++) {
                 FieldSetter fieldSetter = fields.get(i);
-                Object[] params = new Object[1 + fieldSetter.getObjects().length];
-                params[0] = i + 1;  // index starts from 1
-                System.arraycopy(fieldSetter.getObjects(), 0, params, 1, fieldSetter.getObjects().length);
-                ReflectionUtils.invokeMethod(pStatement, fieldSetter.getMethodName(),
-                        fieldSetter.getSignature(), (Object[]) params);
+                // index starts from 1
+                fieldSetter.getBinder().bind(pStatement, i + 1, fieldSetter.getObjects());
             }
             pStatement.executeUpdate();
             if (generatedIds != null) {
@@ -184,9 +424,8 @@ public class JdbcUtils {
                     for (int i = 0; i < generatedIds.length; i++) {
                         generatedRs.next();
 
-                        String methodName = "get" + StringUtils.capitalize(generatedIdClasses[i].getSimpleName());
-                        Object object = ReflectionUtils.invokeMethod(
-                                generatedRs, methodName, new Class[]{int.class}, i + 1); // index starts from 1
+                        Object object = StatementBinders.getColumnReader(generatedIdClasses[i])
+                                .read(generatedRs, i + 1); // index starts from 1
                         generatedList.add(object);
                     }
                 }
@@ -1,10 +1,29 @@
 package com.timeyang.athena.util.jdbc;
 
+import java.io.UnsupportedEncodingException;
+import java.math.BigDecimal;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Base64;
 import java.util.List;
 import java.util.stream.Collectors;
 
 /**
  * page starts from 0
+ * <p>
+ *     If {@code keyField}, a unique column such as task_id, is set, rows are ordered by sorts and then key field, and
+ *     {@link PagedResult#getNextCursor()} is the sort values and key of the last row. A page with {@code cursor} seeks
+ *     to rows after the cursor instead of skipping {@code offset} rows, so deep pages take constant time, and rows
+ *     deleted before the cursor don't shift the next page. Key field is ordered like the last sort, so that an index
+ *     on sort fields and key field is scanned in one direction.
+ * </p>
+ * <p>
+ *     Null sort values are kept in cursor. Derby orders nulls after other values, so rows whose first sort value is
+ *     null follow the rows of an ascending seek range, they are read by {@link #buildNullsAfterClause()}.
+ * </p>
  *
  * @author https://github.com/chaokunyang
  */
@@ -14,6 +33,9 @@ public class Page {
     private int offset;
     private List<Sort> sorts;
     private List<Criterion> criteria;
+    private String keyField;
+    private String cursor;
+    private Count count = Count.EXACT;
 
     public Page() { }
 
@@ -74,11 +96,74 @@ public class Page {
         this.offset = offset;
     }
 
+    public List<Sort> getSorts() {
+        return sorts;
+    }
+
+    public void setSorts(List<Sort> sorts) {
+        this.sorts = sorts;
+    }
+
+    public List<Criterion> getCriteria() {
+        return criteria;
+    }
+
+    public void setCriteria(List<Criterion> criteria) {
+        this.criteria = criteria;
+    }
+
+    public String getKeyField() {
+        return keyField;
+    }
+
+    public void setKeyField(String keyField) {
+        this.keyField = keyField;
+    }
+
+    public String getCursor() {
+        return cursor;
+    }
+
+    public void setCursor(String cursor) {
+        this.cursor = cursor;
+    }
+
+    public Count getCount() {
+        return count;
+    }
+
+    public void setCount(Count count) {
+        this.count = count;
+    }
+
+    /**
+     * @return true if page seeks to rows after cursor
+     */
+    public boolean isSeek() {
+        return keyField != null && cursor != null;
+    }
+
+    /**
+     * @return sorts, followed by key field in order of last sort if key field is set
+     */
+    List<Sort> getSeekSorts() {
+        List<Sort> seekSorts = new ArrayList<>();
+        if (sorts != null) {
+            seekSorts.addAll(sorts);
+        }
+        if (keyField != null) {
+            Order order = seekSorts.isEmpty() ? Order.ASC : seekSorts.get(seekSorts.size() - 1).getOrder();
+            seekSorts.add(new Sort(keyField, order));
+        }
+        return seekSorts;
+    }
+
     public String buildOrderByClause() {
         String clause = "";
-        if (sorts != null) {
-            String orderBy = sorts.stream()
-                    .map(sort -> sort.getField() + " " + sort.getOrder().toString())
+        List<Sort> orderSorts = getSeekSorts();
+        if (!orderSorts.isEmpty()) {
+            String orderBy = orderSorts.stream()
+                    .map(sort -> Criterion.checkField(sort.getField()) + " " + sort.getOrder().toString())
                     .collect(Collectors.joining(", "));
             orderBy = " ORDER BY " + orderBy;
             clause = orderBy;
@@ -87,6 +172,193 @@ public class Page {
         return clause;
     }
 
+    /**
+     * Build predicate of rows after cursor, {@code a >= ? AND ((a > ?) OR (a = ? AND b > ?) ...)}. Derby doesn't
+     * support row value comparison, and sorts may have different orders. The leading range of first sort field is
+     * the start key of an index scan, the disjunction alone can't be used as one.
+     *
+     * @return clause with a parameter for every non-null cursor value in {@link #getSeekParameters()}
+     */
+    public String buildSeekClause() {
+        StringBuilder clause = new StringBuilder();
+        buildSeek(clause);
+        return clause.toString();
+    }
+
+    /**
+     * @return parameters of {@link #buildSeekClause()}
+     */
+    public List<Object> getSeekParameters() {
+        return buildSeek(new StringBuilder());
+    }
+
+    /**
+     * @return true if rows whose first sort value is null follow rows of {@link #buildSeekClause()}
+     */
+    public boolean hasNullsAfterSeek() {
+        if (!isSeek()) {
+            return false;
+        }
+        Sort first = getSeekSorts().get(0);
+        return first.getOrder() == Order.ASC && decodeCursor(cursor).get(0) != null;
+    }
+
+    /**
+     * @return predicate of rows whose first sort value is null, they are after every row of an ascending seek range
+     */
+    public String buildNullsAfterClause() {
+        return Criterion.checkField(getSeekSorts().get(0).getField()) + " IS NULL";
+    }
+
+    private List<Object> buildSeek(StringBuilder clause) {
+        List<Sort> seekSorts = getSeekSorts();
+        List<Object> values = decodeCursor(cursor);
+        if (values.size() != seekSorts.size()) {
+            throw new IllegalArgumentException(String.format("cursor [%s] should have %d values", cursor,
+                    seekSorts.size()));
+        }
+        List<Object> parameters = new ArrayList<>();
+        Sort first = seekSorts.get(0);
+        String firstField = Criterion.checkField(first.getField());
+        Object firstValue = values.get(0);
+        if (firstValue != null) {
+            // nulls are after an ascending range, see buildNullsAfterClause
+            clause.append(firstField).append(first.getOrder() == Order.DESC ? " <= ?" : " >= ?").append(" AND ");
+            parameters.add(firstValue);
+        } else if (first.getOrder() == Order.ASC) {
+            clause.append(firstField).append(" IS NULL AND ");
+        }
+
+        clause.append('(');
+        boolean firstTerm = true;
+        for (int i = 0; i < seekSorts.size(); i++) {
+            Sort sort = seekSorts.get(i);
+            String field = Criterion.checkField(sort.getField());
+            Object value = values.get(i);
+            String after;
+            if (value == null) {
+                // nulls are last in ascending order, first in descending order
+                after = sort.getOrder() == Order.DESC ? field + " IS NOT NULL" : null;
+            } else if (sort.getOrder() == Order.DESC) {
+                after = field + " < ?";
+            } else if (i == seekSorts.size() - 1 && keyField != null) {
+                // key field is unique and not null
+                after = field + " > ?";
+            } else {
+                after = "(" + field + " > ? OR " + field + " IS NULL)";
+            }
+            if (after != null) {
+                if (!firstTerm) {
+                    clause.append(" OR ");
+                }
+                firstTerm = false;
+                clause.append('(');
+                for (int j = 0; j < i; j++) {
+                    String equalField = Criterion.checkField(seekSorts.get(j).getField());
+                    if (values.get(j) == null) {
+                        clause.append(equalField).append(" IS NULL AND ");
+                    } else {
+                        clause.append(equalField).append(" = ? AND ");
+                        parameters.add(values.get(j));
+                    }
+                }
+                clause.append(after).append(')');
+                if (value != null) {
+                    parameters.add(value);
+                }
+            }
+        }
+        if (firstTerm) {
+            // cursor is at the last row of the order
+            clause.append("1 = 0");
+        }
+        clause.append(')');
+        return parameters;
+    }
+
+    /**
+     * Encode values of a row into an opaque cursor, every value is prefixed by a type char, null is {@code N}
+     */
+    static String encodeCursor(List<Object> values) {
+        StringBuilder builder = new StringBuilder();
+        for (Object value : values) {
+            if (builder.length() > 0) {
+                builder.append('|');
+            }
+            char type;
+            if (value == null) {
+                builder.append('N');
+                continue;
+            } else if (value instanceof Integer) {
+                type = 'I';
+            } else if (value instanceof Long) {
+                type = 'L';
+            } else if (value instanceof Timestamp) {
+                type = 'T';
+            } else if (value instanceof BigDecimal) {
+                type = 'M';
+            } else if (value instanceof Double) {
+                type = 'D';
+            } else if (value instanceof Boolean) {
+                type = 'B';
+            } else {
+                type = 'S';
+            }
+            builder.append(type);
+            try {
+                builder.append(URLEncoder.encode(value.toString(), "UTF-8"));
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(builder.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    static List<Object> decodeCursor(String cursor) {
+        List<Object> values = new ArrayList<>();
+        try {
+            String decoded = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            for (String part : decoded.split("\\|")) {
+                String text = URLDecoder.decode(part.substring(1), "UTF-8");
+                switch (part.charAt(0)) {
+                    case 'I':
+                        values.add(Integer.valueOf(text));
+                        break;
+                    case 'L':
+                        values.add(Long.valueOf(text));
+                        break;
+                    case 'T':
+                        values.add(Timestamp.valueOf(text));
+                        break;
+                    case 'M':
+                        values.add(new BigDecimal(text));
+                        break;
+                    case 'D':
+                        values.add(Double.valueOf(text));
+                        break;
+                    case 'B':
+                        values.add(Boolean.valueOf(text));
+                        break;
+                    case 'S':
+                        values.add(text);
+                        break;
+                    case 'N':
+                        values.add(null);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown cursor value type " + part.charAt(0));
+                }
+            }
+        } catch (RuntimeException | UnsupportedEncodingException e) {
+            throw new IllegalArgumentException(String.format("Invalid cursor [%s]", cursor), e);
+        }
+        return values;
+    }
+
+    /**
+     * @return clause with a placeholder for every criterion, values are {@link #getCriterionParameters()}
+     */
     public String buildCriterionClause() {
         StringBuilder filterBuilder = new StringBuilder(" ");
         if (criteria != null) {
@@ -105,10 +377,23 @@ public class Page {
         return filterBuilder.toString();
     }
 
+    /**
+     * @return parameters of {@link #buildCriterionClause()}
+     */
+    public List<Object> getCriterionParameters() {
+        List<Object> parameters = new ArrayList<>();
+        if (criteria != null) {
+            criteria.forEach(criterion -> parameters.add(criterion.toParameter()));
+        }
+        return parameters;
+    }
+
     public static class Sort {
         private String field;
         private Order order;
 
+        public Sort() { }
+
         public Sort(String field, Order order) {
             this.field = field;
             this.order = order;
@@ -135,6 +420,31 @@ public class Page {
         ASC, DESC
     }
 
+    /**
+     * How {@link PagedResult#getTotalSize()} is counted
+     */
+    public enum Count {
+        /** count rows for every page */
+        EXACT,
+        /** reuse count of same table and criteria for a few seconds */
+        CACHED,
+        /** don't count, total size is -1 */
+        NONE
+    }
+
+    /**
+     * Page of rows after cursor, first page if cursor is null
+     *
+     * @param keyField unique column to break ties of sorts
+     * @param cursor {@link PagedResult#getNextCursor()} of previous page
+     */
+    public static Page makeSeekPage(int size, List<Sort> sorts, String keyField, String cursor) {
+        Page p = new Page(0, size, sorts);
+        p.setKeyField(keyField);
+        p.setCursor(cursor);
+        return p;
+    }
+
     public static Page makePageWithOffset(int offset, int size) {
         int page = offset/ size;
         Page p = new Page(page, size);
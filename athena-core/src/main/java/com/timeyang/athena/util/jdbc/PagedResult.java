@@ -15,17 +15,27 @@ public class PagedResult<T> {
     private int offset;
     private long totalSize;
     private List<T> elements;
+    private String nextCursor;
 
     public PagedResult(List<T> elements, long totalSize, Page page) {
+        this(elements, totalSize, page, null);
+    }
+
+    /**
+     * @param totalSize -1 if not counted
+     * @param nextCursor cursor of next page, null if there's no more rows
+     */
+    public PagedResult(List<T> elements, long totalSize, Page page, String nextCursor) {
         this.elements = elements;
         this.totalSize = totalSize;
         this.page = page.getPage();
         this.offset = page.getOffset();
         this.size = elements.size();
+        this.nextCursor = nextCursor;
     }
 
     public boolean hasMore() {
-        return totalSize > page + size;
+        return nextCursor != null || totalSize > offset + size;
     }
 
     public boolean hasPrevious() {
@@ -52,6 +62,10 @@ public class PagedResult<T> {
         return elements;
     }
 
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
     @Override
     public String toString() {
         return "PagedResult{" +
@@ -59,6 +73,7 @@ public class PagedResult<T> {
                 ", offset=" + offset +
                 ", size=" + size +
                 ", totalSize=" + totalSize +
+                ", nextCursor=" + nextCursor +
                 ", elements=" + elements +
                 '}';
     }
@@ -0,0 +1,120 @@
+package com.timeyang.athena.util.jdbc;
+
+import com.timeyang.athena.AthenaException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Versioned schema migration of a component. Version of every component is stored in {@code schema_version} table,
+ * steps newer than it are applied in order, and every step is committed together with the version update. Steps
+ * should be idempotent, so a database created before versioning can be migrated from version 0.
+ *
+ * @author https://github.com/chaokunyang
+ */
+public class SchemaMigration {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SchemaMigration.class);
+    public static final String VERSION_TABLE = "schema_version";
+
+    private final String component;
+    private final List<Step> steps = new ArrayList<>();
+
+    public SchemaMigration(String component) {
+        this.component = component;
+    }
+
+    @FunctionalInterface
+    public interface Migration {
+        void migrate(Connection connection) throws SQLException;
+    }
+
+    private static class Step {
+        private final int version;
+        private final String description;
+        private final Migration migration;
+
+        private Step(int version, String description, Migration migration) {
+            this.version = version;
+            this.description = description;
+            this.migration = migration;
+        }
+    }
+
+    /**
+     * @param version must be greater than version of previous step
+     */
+    public SchemaMigration add(int version, String description, Migration migration) {
+        if (!steps.isEmpty() && steps.get(steps.size() - 1).version >= version) {
+            throw new IllegalArgumentException(String.format("version %d of [%s] isn't increasing", version, description));
+        }
+        steps.add(new Step(version, description, migration));
+        return this;
+    }
+
+    /**
+     * @return schema version after migration
+     */
+    public int migrate(DataSource dataSource) {
+        String versionTableSql = "CREATE TABLE " + VERSION_TABLE +
+                "(" +
+                "component VARCHAR(100) PRIMARY KEY, " +
+                "version INTEGER" +
+                ")";
+        try (Connection connection = dataSource.getConnection()) {
+            JdbcUtils.createTableIfAbsent(connection, VERSION_TABLE, versionTableSql);
+            int version = getVersion(connection);
+            for (Step step : steps) {
+                if (step.version <= version) {
+                    continue;
+                }
+                LOGGER.info("Migrate schema of {} to version {}: {}", component, step.version, step.description);
+                boolean autoCommit = connection.getAutoCommit();
+                connection.setAutoCommit(false);
+                try {
+                    step.migration.migrate(connection);
+                    setVersion(connection, version, step.version);
+                    connection.commit();
+                } catch (SQLException | RuntimeException e) {
+                    connection.rollback();
+                    throw e;
+                } finally {
+                    connection.setAutoCommit(autoCommit);
+                }
+                version = step.version;
+            }
+            return version;
+        } catch (SQLException e) {
+            e.printStackTrace();
+            throw new AthenaException(String.format("Migrate schema of %s failed", component), e);
+        }
+    }
+
+    private int getVersion(Connection connection) throws SQLException {
+        String sql = "SELECT version FROM " + VERSION_TABLE + " WHERE component = ?";
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setString(1, component);
+            try (ResultSet rs = statement.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : 0;
+            }
+        }
+    }
+
+    private void setVersion(Connection connection, int oldVersion, int version) throws SQLException {
+        String sql = oldVersion == 0 ?
+                "INSERT INTO " + VERSION_TABLE + "(version, component) VALUES(?, ?)" :
+                "UPDATE " + VERSION_TABLE + " SET version = ? WHERE component = ?";
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setInt(1, version);
+            statement.setString(2, component);
+            statement.executeUpdate();
+        }
+    }
+
+}
@@ -0,0 +1,117 @@
+package com.timeyang.athena.util.jdbc;
+
+import com.timeyang.athena.AthenaException;
+import com.timeyang.athena.util.StringUtils;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.math.BigDecimal;
+import java.sql.*;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Binders of {@link PreparedStatement} setters and {@link ResultSet} getters, resolved once by method name and
+ * signature instead of looked up by reflection for every call. Common setters are plain lambdas, others are
+ * {@link MethodHandle}s of JDBC interface methods.
+ *
+ * @author https://github.com/chaokunyang
+ */
+final class StatementBinders {
+    private static final Map<String, ParameterBinder> PARAMETER_BINDERS = new ConcurrentHashMap<>();
+    private static final Map<Class<?>, ColumnReader> COLUMN_READERS = new ConcurrentHashMap<>();
+
+    static {
+        register("setString", (s, i, v) -> s.setString(i, (String) v[0]), String.class);
+        register("setInt", (s, i, v) -> s.setInt(i, (Integer) v[0]), int.class);
+        register("setLong", (s, i, v) -> s.setLong(i, (Long) v[0]), long.class);
+        register("setBoolean", (s, i, v) -> s.setBoolean(i, (Boolean) v[0]), boolean.class);
+        register("setShort", (s, i, v) -> s.setShort(i, (Short) v[0]), short.class);
+        register("setDouble", (s, i, v) -> s.setDouble(i, (Double) v[0]), double.class);
+        register("setFloat", (s, i, v) -> s.setFloat(i, (Float) v[0]), float.class);
+        register("setTimestamp", (s, i, v) -> s.setTimestamp(i, (Timestamp) v[0]), Timestamp.class);
+        register("setDate", (s, i, v) -> s.setDate(i, (Date) v[0]), Date.class);
+        register("setBigDecimal", (s, i, v) -> s.setBigDecimal(i, (BigDecimal) v[0]), BigDecimal.class);
+
+        COLUMN_READERS.put(Long.class, ResultSet::getLong);
+        COLUMN_READERS.put(Integer.class, ResultSet::getInt);
+        COLUMN_READERS.put(String.class, ResultSet::getString);
+    }
+
+    private StatementBinders() {}
+
+    @FunctionalInterface
+    interface ParameterBinder {
+        void bind(PreparedStatement statement, int index, Object[] values) throws SQLException;
+    }
+
+    @FunctionalInterface
+    interface ColumnReader {
+        Object read(ResultSet rs, int index) throws SQLException;
+    }
+
+    private static void register(String methodName, ParameterBinder binder, Class<?> valueClass) {
+        PARAMETER_BINDERS.put(key(methodName, new Class<?>[]{int.class, valueClass}), binder);
+    }
+
+    private static String key(String methodName, Class<?>[] signature) {
+        return methodName + Arrays.toString(signature);
+    }
+
+    /**
+     * @param signature parameter types of setter, starts with int index
+     */
+    static ParameterBinder getParameterBinder(String methodName, Class<?>[] signature) {
+        return PARAMETER_BINDERS.computeIfAbsent(key(methodName, signature), k -> {
+            MethodHandle handle = findHandle(PreparedStatement.class, methodName, void.class, signature)
+                    .asSpreader(Object[].class, signature.length - 1);
+            return (statement, index, values) -> {
+                try {
+                    handle.invoke(statement, index, values);
+                } catch (SQLException | RuntimeException | Error e) {
+                    throw e;
+                } catch (Throwable t) {
+                    throw new AthenaException("Invoke " + methodName + " failed", t);
+                }
+            };
+        });
+    }
+
+    /**
+     * @return reader of a column as {@code clazz}, by {@code get<SimpleName>} method of ResultSet
+     */
+    static ColumnReader getColumnReader(Class<?> clazz) {
+        return COLUMN_READERS.computeIfAbsent(clazz, c -> {
+            String methodName = "get" + StringUtils.capitalize(c.getSimpleName());
+            MethodHandle handle = findHandle(ResultSet.class, methodName, null, new Class<?>[]{int.class});
+            return (rs, index) -> {
+                try {
+                    return handle.invoke(rs, index);
+                } catch (SQLException | RuntimeException | Error e) {
+                    throw e;
+                } catch (Throwable t) {
+                    throw new AthenaException("Invoke " + methodName + " failed", t);
+                }
+            };
+        });
+    }
+
+    /**
+     * @param returnType null to use return type of the only method of the name and parameter types
+     */
+    private static MethodHandle findHandle(Class<?> clazz, String methodName, Class<?> returnType,
+                                           Class<?>[] parameterTypes) {
+        try {
+            Class<?> type = returnType != null ? returnType :
+                    clazz.getMethod(methodName, parameterTypes).getReturnType();
+            return MethodHandles.publicLookup().findVirtual(clazz, methodName, MethodType.methodType(type, parameterTypes));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            String msg = String.format("%s doesn't have %s with parameterTypes: %s",
+                    clazz.getName(), methodName, Arrays.toString(parameterTypes));
+            throw new AthenaException(msg, e);
+        }
+    }
+
+}
@@ -1,6 +1,10 @@
 package com.timeyang.athena.web;
 
 import com.timeyang.athena.Athena;
+import com.timeyang.athena.task.exec.ExecutorPool;
+import com.timeyang.athena.task.exec.ExecutorPoolMXBean;
+import com.timeyang.athena.task.scheduler.TaskLaunchPipeline;
+import com.timeyang.athena.task.scheduler.TaskLaunchPipelineMXBean;
 import com.zaxxer.hikari.HikariDataSource;
 import com.zaxxer.hikari.HikariPoolMXBean;
 import org.json.JSONObject;
@@ -59,4 +63,51 @@ public class MetricsEndpoint {
         return result;
     }
 
+    @GET
+    @Path("/executor_pool")
+    @Produces(MediaType.APPLICATION_JSON)
+    public JSONObject executorPoolMetrics() throws Exception {
+        JSONObject result = new JSONObject();
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        ObjectName poolName = new ObjectName(ExecutorPool.MBEAN_NAME);
+        if (mBeanServer.isRegistered(poolName)) {
+            ExecutorPoolMXBean poolProxy = JMX.newMXBeanProxy(mBeanServer, poolName, ExecutorPoolMXBean.class);
+
+            result.put("hits", poolProxy.getHits());
+            result.put("misses", poolProxy.getMisses());
+            result.put("hitRate", poolProxy.getHitRate());
+            result.put("idleExecutors", poolProxy.getIdleExecutors());
+            result.put("pendingLaunches", poolProxy.getPendingLaunches());
+            result.put("launchedExecutors", poolProxy.getLaunchedExecutors());
+            LOGGER.debug("executor pool stats: " + result);
+        }
+
+        return result;
+    }
+
+    @GET
+    @Path("/launch_pipeline")
+    @Produces(MediaType.APPLICATION_JSON)
+    public JSONObject launchPipelineMetrics() throws Exception {
+        JSONObject result = new JSONObject();
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        ObjectName pipelineName = new ObjectName(TaskLaunchPipeline.MBEAN_NAME);
+        if (mBeanServer.isRegistered(pipelineName)) {
+            TaskLaunchPipelineMXBean pipelineProxy =
+                    JMX.newMXBeanProxy(mBeanServer, pipelineName, TaskLaunchPipelineMXBean.class);
+
+            result.put("tasksInPipeline", pipelineProxy.getTasksInPipeline());
+            result.put("placementQueueDepth", pipelineProxy.getPlacementQueueDepth());
+            result.put("unplacedTasks", pipelineProxy.getUnplacedTasks());
+            result.put("initQueueDepth", pipelineProxy.getInitQueueDepth());
+            result.put("throttledTasks", pipelineProxy.getThrottledTasks());
+            result.put("spawnQueueDepth", pipelineProxy.getSpawnQueueDepth());
+            result.put("launchedTasks", pipelineProxy.getLaunchedTasks());
+            result.put("failedLaunches", pipelineProxy.getFailedLaunches());
+            LOGGER.debug("launch pipeline stats: " + result);
+        }
+
+        return result;
+    }
+
 }
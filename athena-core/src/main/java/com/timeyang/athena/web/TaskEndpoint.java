@@ -3,13 +3,24 @@ package com.timeyang.athena.web;
 import com.timeyang.athena.Athena;
 import com.timeyang.athena.task.TaskInfo.WaitingTask;
 import com.timeyang.athena.task.TaskManager;
+import com.timeyang.athena.task.exec.LogLine;
+import com.timeyang.athena.task.exec.LogSearchHit;
+import com.timeyang.athena.util.StringUtils;
 import com.timeyang.athena.util.jdbc.Page;
 import com.timeyang.athena.util.jdbc.PagedResult;
 
+import javax.ws.rs.BadRequestException;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.MediaType;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 import static com.timeyang.athena.task.TaskInfo.FinishedTask;
 import static com.timeyang.athena.task.TaskInfo.RunningTask;
@@ -25,20 +36,90 @@ public class TaskEndpoint {
     @Path("/waiting_tasks")
     @Produces(MediaType.APPLICATION_JSON)
     public PagedResult<WaitingTask> getWaitingTasks(Page page) {
-        return taskManager.getWaitingTasks(page);
+        return taskManager.getWaitingTasks(withDefaults(page));
     }
 
     @POST
     @Path("/running_tasks")
     @Produces(MediaType.APPLICATION_JSON)
     public PagedResult<RunningTask> getRunningTasks(Page page) {
-        return taskManager.getRunningTasks(page);
+        return taskManager.getRunningTasks(withDefaults(page));
     }
 
     @POST
     @Path("/finished_tasks")
     @Produces(MediaType.APPLICATION_JSON)
     public PagedResult<FinishedTask> getFinishedTasks(Page page) {
-        return taskManager.getFinishedTasks(page);
+        return taskManager.getFinishedTasks(withDefaults(page));
+    }
+
+    /**
+     * Page which doesn't choose a key field is ordered by task_id too, so response has a next cursor, and total size is
+     * cached instead of counted for every page
+     */
+    private static Page withDefaults(Page page) {
+        if (page.getKeyField() == null) {
+            page.setKeyField("task_id");
+            page.setCount(Page.Count.CACHED);
+        }
+        return page;
+    }
+
+    /**
+     * @param lineNumber start line, starts from 1
+     */
+    @GET
+    @Path("/{taskId}/log")
+    @Produces(MediaType.APPLICATION_JSON)
+    public List<String> getLogLines(@PathParam("taskId") long taskId,
+                                    @QueryParam("lineNumber") @DefaultValue("1") int lineNumber,
+                                    @QueryParam("rows") @DefaultValue("200") int rows) {
+        return taskManager.getLogLines(taskId, lineNumber, rows);
+    }
+
+    /**
+     * @param regex   regular expression, a line matches if it contains a match
+     * @param maxHits max matched lines
+     */
+    @GET
+    @Path("/{taskId}/log/grep")
+    @Produces(MediaType.APPLICATION_JSON)
+    public List<LogLine> grep(@PathParam("taskId") long taskId,
+                              @QueryParam("regex") String regex,
+                              @QueryParam("maxHits") @DefaultValue("100") int maxHits) {
+        if (!StringUtils.hasLength(regex)) {
+            throw new BadRequestException("regex is required");
+        }
+        try {
+            Pattern.compile(regex);
+        } catch (PatternSyntaxException e) {
+            throw new BadRequestException("Invalid regex: " + e.getDescription());
+        }
+        return taskManager.grep(taskId, regex, maxHits);
+    }
+
+    /**
+     * @param q         words to search
+     * @param from      min log collect time, epoch milliseconds
+     * @param to        max log collect time, epoch milliseconds
+     * @param taskName  task name with wildcard '*' and '?'
+     */
+    @GET
+    @Path("/log/search")
+    @Produces(MediaType.APPLICATION_JSON)
+    public List<LogSearchHit> searchLog(@QueryParam("q") String q,
+                                        @QueryParam("from") @DefaultValue("0") long from,
+                                        @QueryParam("to") @DefaultValue("9223372036854775807") long to,
+                                        @QueryParam("taskName") String taskName,
+                                        @QueryParam("limit") @DefaultValue("100") int limit) {
+        return taskManager.searchLog(q == null ? "" : q, from, to, taskName, limit);
+    }
+
+    @GET
+    @Path("/{taskId}/log/tail")
+    @Produces(MediaType.APPLICATION_JSON)
+    public List<String> getTailLines(@PathParam("taskId") long taskId,
+                                     @QueryParam("rows") @DefaultValue("200") int rows) {
+        return taskManager.getTailLines(taskId, rows);
     }
 }
@@ -0,0 +1,40 @@
+package com.timeyang.athena.message;
+
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MessageSinkTest {
+
+    private static String readText(EmbeddedChannel channel) {
+        TextWebSocketFrame frame = channel.readOutbound();
+        try {
+            return frame.text();
+        } finally {
+            frame.release();
+        }
+    }
+
+    @Test
+    public void end() {
+        EmbeddedChannel channel = new EmbeddedChannel();
+        List<MessageSink> ended = new ArrayList<>();
+        MessageSink sink = new MessageSink("t", channel, 2, ended::add);
+        sink.offer("m1");
+        sink.end("end");
+        assertTrue(ended.isEmpty());
+        channel.runPendingTasks();
+        assertEquals("m1", readText(channel));
+        assertEquals("end", readText(channel));
+        // sink is released after its last message is written
+        assertEquals(1, ended.size());
+        assertSame(sink, ended.get(0));
+        channel.finish();
+    }
+
+}
@@ -2,22 +2,33 @@ package com.timeyang.athena.task;
 
 import com.timeyang.athena.Athena;
 import com.timeyang.athena.util.jdbc.Criterion;
+import com.timeyang.athena.util.jdbc.IndexUsageChecker;
+import com.timeyang.athena.util.jdbc.JdbcUtils;
 import com.timeyang.athena.util.jdbc.Page;
 import com.timeyang.athena.util.jdbc.PagedResult;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.sql.Connection;
+import java.sql.SQLException;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
 
 public class TaskRepositoryTest {
 
+    private Athena athena;
     private TaskRepository taskRepository;
 
     @Before
     public void setUp() {
-        Athena athena = Athena.builder()
+        athena = Athena.builder()
                 .disable("hive", "webServer", "messageServer")
                 .getOrCreate();
         taskRepository = new TaskRepository(athena.getDataSource());
@@ -60,6 +71,170 @@ public class TaskRepositoryTest {
         System.out.printf("--------Sorted tasks--------: total size [%d], page [%d], size[%d] \n",
                 sortedTasks.getTotalSize(), sortedTasks.getPage(), sortedTasks.getSize());
         sortedTasks.getElements().forEach(System.out::println);
+
+        // values are bound, not put in sql
+        Page injected = new Page(0, 5, null, Collections.singletonList(
+                new Criterion("task_name", Criterion.Predicate.EQ, "x' OR '1' = '1")));
+        assertTrue(taskRepository.getWaitingTasks(injected).getElements().isEmpty());
+    }
+
+    @Test
+    public void seekWaitingTasks() {
+        createWaitingTasks();
+
+        List<Page.Sort> sorts = Arrays.asList(
+                new Page.Sort("max_tries", Page.Order.DESC),
+                new Page.Sort("submit_time", Page.Order.ASC));
+        Page all = new Page(0, Integer.MAX_VALUE, sorts);
+        all.setKeyField("task_id");
+        List<Long> expected = taskRepository.getWaitingTasks(all).getElements().stream()
+                .map(TaskInfo::getTaskId).collect(Collectors.toList());
+
+        List<Long> sought = new ArrayList<>();
+        String cursor = null;
+        do {
+            Page page = Page.makeSeekPage(3, sorts, "task_id", cursor);
+            page.setCount(Page.Count.NONE);
+            PagedResult<TaskInfo.WaitingTask> result = taskRepository.getWaitingTasks(page);
+            assertEquals(-1, result.getTotalSize());
+            result.getElements().forEach(task -> sought.add(task.getTaskId()));
+            cursor = result.getNextCursor();
+        } while (cursor != null);
+        assertEquals(expected, sought);
+    }
+
+    @Test
+    public void seekNullSortValues() {
+        String name = "nullable" + System.currentTimeMillis() + "_";
+        for (int i = 0; i < 10; i++) {
+            TaskInfo waitingTask = new TaskInfo.WaitingTask();
+            waitingTask.setTaskName(name + i);
+            // hosts are null, or shared by a few tasks
+            waitingTask.setHost(i % 3 == 0 ? null : "host" + i % 2);
+            waitingTask.setClassName("com.timeyang.athena.Test");
+            waitingTask.setMaxTries(1);
+            waitingTask.setRetryWait(0L);
+            waitingTask.setTaskType(TaskType.JAVA);
+            waitingTask.setSubmitTime(Instant.now());
+            taskRepository.create(waitingTask);
+        }
+        List<Criterion> criteria = Collections.singletonList(new Criterion("task_name", Criterion.Predicate.LIKE, name));
+
+        for (Page.Order order : Page.Order.values()) {
+            List<Page.Sort> sorts = Collections.singletonList(new Page.Sort("host", order));
+            Page all = new Page(0, Integer.MAX_VALUE, sorts, criteria);
+            all.setKeyField("task_id");
+            List<Long> expected = taskRepository.getWaitingTasks(all).getElements().stream()
+                    .map(TaskInfo::getTaskId).collect(Collectors.toList());
+            assertEquals(10, expected.size());
+
+            // pages end on null and non-null hosts, and span from non-null hosts to null hosts
+            List<Long> sought = new ArrayList<>();
+            String cursor = null;
+            do {
+                Page page = Page.makeSeekPage(3, sorts, "task_id", cursor);
+                page.setCriteria(criteria);
+                page.setCount(Page.Count.NONE);
+                PagedResult<TaskInfo.WaitingTask> result = taskRepository.getWaitingTasks(page);
+                result.getElements().forEach(task -> sought.add(task.getTaskId()));
+                cursor = result.getNextCursor();
+            } while (cursor != null);
+            assertEquals(expected, sought);
+        }
+    }
+
+    @Test
+    public void indexes() throws SQLException {
+        try (Connection connection = athena.getDataSource().getConnection()) {
+            assertEquals(Arrays.asList("END_TIME", "TASK_ID"), JdbcUtils.getIndexes(connection,
+                    TaskRepository.FINISHED_TASK_TABLE).get("FINISHED_TASK_END_TIME_IDX"));
+        }
+        IndexUsageChecker checker = new IndexUsageChecker(athena.getDataSource());
+        Page page = Page.makeSeekPage(10, Collections.singletonList(new Page.Sort("end_time", Page.Order.DESC)),
+                "task_id", null);
+        assertTrue(checker.check(TaskRepository.FINISHED_TASK_TABLE, page));
+        page = new Page(0, 10, null, Collections.singletonList(
+                new Criterion("task_name", Criterion.Predicate.LIKE, "import")));
+        assertFalse(checker.check(TaskRepository.FINISHED_TASK_TABLE, page));
+    }
+
+    @Test
+    public void priorityAndQueue() {
+        TaskInfo task = new TaskInfo.WaitingTask();
+        task.setTaskName("priority" + System.currentTimeMillis());
+        task.setHost("localhost");
+        task.setClassName("com.timeyang.athena.Test");
+        task.setMaxTries(1);
+        task.setRetryWait(0L);
+        task.setTaskType(TaskType.JAVA);
+        task.setSubmitTime(Instant.now());
+        task.setPriority(5);
+        task.setQueue("etl");
+        long taskId = taskRepository.create(task).getTaskId();
+
+        // reload waiting tasks from database
+        TaskRepository reloaded = new TaskRepository(athena.getDataSource());
+        try {
+            TaskInfo.WaitingTask waitingTask = reloaded.getWaitingTask(taskId);
+            assertEquals(5, waitingTask.getPriority().intValue());
+            assertEquals("etl", waitingTask.getQueue());
+        } finally {
+            reloaded.close();
+        }
+    }
+
+    @Test
+    public void transitions() {
+        List<TaskInfo.WaitingTask> waitingTasks = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            TaskInfo.WaitingTask task = new TaskInfo.WaitingTask();
+            task.setTaskName("transition" + i);
+            task.setHost("localhost");
+            task.setClassName("com.timeyang.athena.Test");
+            task.setMaxTries(1);
+            task.setRetryWait(0L);
+            task.setTaskType(TaskType.JAVA);
+            task.setSubmitTime(Instant.now());
+            waitingTasks.add((TaskInfo.WaitingTask) taskRepository.create(task));
+        }
+
+        // transitions of a task submitted together are committed in order
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (TaskInfo.WaitingTask waitingTask : waitingTasks) {
+            TaskInfo.RunningTask runningTask = new TaskInfo.RunningTask(waitingTask);
+            // sub-millisecond part is kept by database and by task archive
+            runningTask.setStartTime(Instant.now().plusNanos(123));
+            runningTask.setTryNumber(1);
+            runningTask.setPid(1);
+            futures.add(taskRepository.moveToRunning(runningTask));
+            TaskInfo.FinishedTask finishedTask = new TaskInfo.FinishedTask(runningTask);
+            finishedTask.setState(TaskState.SUCCESS);
+            futures.add(taskRepository.moveToFinished(finishedTask));
+        }
+        // state store is changed before transitions are written
+        waitingTasks.forEach(task -> assertFalse(taskRepository.isTaskActive(task.getTaskId())));
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+
+        for (TaskInfo.WaitingTask waitingTask : waitingTasks) {
+            assertFalse(taskRepository.getRunningTask(waitingTask.getTaskId()).isPresent());
+            assertEquals(TaskState.SUCCESS, taskRepository.getFinishedTask(waitingTask.getTaskId()).getState());
+        }
+    }
+
+    @Test
+    public void archiveFinishedTasks() {
+        transitions();
+        List<TaskInfo.FinishedTask> finishedTasks = taskRepository.getAllFinishedTasks();
+
+        // segments of 7 tasks, gzip members of several segments are read
+        assertEquals(finishedTasks.size(), taskRepository.archiveFinishedTasks(Instant.now().plusSeconds(1), 7));
+        assertTrue(taskRepository.getAllFinishedTasks().isEmpty());
+        for (TaskInfo.FinishedTask task : finishedTasks) {
+            assertNull(taskRepository.getFinishedTask(task.getTaskId()));
+            TaskInfo.FinishedTask archived = taskRepository.getArchivedTask(task.getTaskId());
+            assertEquals(task.toString(), archived.toString());
+        }
+        assertNull(taskRepository.getArchivedTask(1));
     }
 
-}
\ No newline at end of file
+}
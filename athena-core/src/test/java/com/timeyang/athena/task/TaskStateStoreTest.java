@@ -0,0 +1,91 @@
+package com.timeyang.athena.task;
+
+import com.timeyang.athena.task.TaskInfo.RunningTask;
+import com.timeyang.athena.task.TaskInfo.WaitingTask;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class TaskStateStoreTest {
+
+    private final TaskStateStore store = new TaskStateStore();
+
+    private static WaitingTask waitingTask(long taskId) {
+        WaitingTask task = new WaitingTask();
+        task.setTaskId(taskId);
+        task.setTaskType(TaskType.JAVA);
+        return task;
+    }
+
+    private static RunningTask runningTask(long taskId) {
+        RunningTask task = new RunningTask();
+        task.setTaskId(taskId);
+        task.setTaskType(TaskType.JAVA);
+        return task;
+    }
+
+    @Test
+    public void reloadLatest() {
+        store.putWaiting(waitingTask(1));
+        long sequence = store.beginTransition(1, () -> store.putRunning(runningTask(1)));
+        assertTrue(store.isTransitionPending(1));
+
+        // write failed and task isn't changed since, it's restored
+        assertTrue(store.endTransition(1, sequence, () -> store.putWaiting(waitingTask(1))));
+        assertNotNull(store.getWaiting(1));
+        assertNull(store.getRunning(1));
+        assertFalse(store.isTransitionPending(1));
+    }
+
+    @Test
+    public void notReloadOverLaterTransition() {
+        store.putWaiting(waitingTask(1));
+        long running = store.beginTransition(1, () -> store.putRunning(runningTask(1)));
+        long finished = store.beginTransition(1, () -> store.remove(1));
+
+        // earlier write failed after a later transition is applied
+        AtomicInteger reloads = new AtomicInteger();
+        assertFalse(store.endTransition(1, running, reloads::incrementAndGet));
+        assertEquals(0, reloads.get());
+        assertFalse(store.contains(1));
+        assertTrue(store.isTransitionPending(1));
+
+        assertFalse(store.endTransition(1, finished, null));
+        assertFalse(store.isTransitionPending(1));
+    }
+
+    @Test
+    public void notReloadOverLaterChange() {
+        long sequence = store.beginTransition(1, () -> store.putWaiting(waitingTask(1)));
+        // a change which isn't written behind, e.g. recovery
+        store.putRunning(runningTask(1));
+
+        AtomicInteger reloads = new AtomicInteger();
+        assertFalse(store.endTransition(1, sequence, reloads::incrementAndGet));
+        assertEquals(0, reloads.get());
+        assertNotNull(store.getRunning(1));
+        assertFalse(store.isTransitionPending(1));
+
+        sequence = store.beginTransition(2, () -> store.putWaiting(waitingTask(2)));
+        store.clearWaiting();
+        assertFalse(store.endTransition(2, sequence, reloads::incrementAndGet));
+        assertEquals(0, reloads.get());
+    }
+
+    @Test
+    public void tasksAreSeparated() {
+        long first = store.beginTransition(1, () -> store.putWaiting(waitingTask(1)));
+        long second = store.beginTransition(2, () -> store.putWaiting(waitingTask(2)));
+
+        // transition of another task doesn't prevent reload
+        AtomicInteger reloads = new AtomicInteger();
+        assertTrue(store.endTransition(1, first, reloads::incrementAndGet));
+        assertEquals(1, reloads.get());
+        assertFalse(store.endTransition(2, second, null));
+        assertFalse(store.isTransitionPending(1));
+        assertFalse(store.isTransitionPending(2));
+    }
+
+}
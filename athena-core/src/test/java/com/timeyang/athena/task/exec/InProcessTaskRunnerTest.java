@@ -0,0 +1,170 @@
+package com.timeyang.athena.task.exec;
+
+import com.timeyang.athena.task.TaskInfo;
+import com.timeyang.athena.task.TaskInfo.WaitingTask;
+import com.timeyang.athena.task.TaskType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class InProcessTaskRunnerTest {
+    private static final BlockingQueue<String> EVENTS = new LinkedBlockingQueue<>();
+
+    private InProcessTaskRunner runner;
+
+    public static class QuickTask implements Task {
+        @Override
+        public void init(TaskContext ctx) {
+            EVENTS.add("init " + ctx.taskId());
+        }
+
+        @Override
+        public void onSuccess(TaskContext ctx) {
+            EVENTS.add("onSuccess " + ctx.taskId());
+        }
+    }
+
+    public static class BlockingTask implements Task {
+        @Override
+        public void init(TaskContext ctx) {
+            EVENTS.add("init " + ctx.taskId());
+        }
+
+        @Override
+        public void exec(TaskContext ctx) {
+            try {
+                Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+            } catch (InterruptedException e) {
+                EVENTS.add("interrupted " + ctx.taskId());
+            }
+        }
+
+        @Override
+        public void onKilled(TaskContext ctx) {
+            EVENTS.add("onKilled " + ctx.taskId());
+        }
+    }
+
+    private static TaskInfo makeTask(long taskId, Class<? extends Task> clz) {
+        WaitingTask task = new WaitingTask();
+        task.setTaskId(taskId);
+        task.setTaskType(TaskType.JAVA_IN_PROCESS);
+        task.setClassName(clz.getName());
+        return task;
+    }
+
+    private static String nextEvent() throws InterruptedException {
+        return EVENTS.poll(10, TimeUnit.SECONDS);
+    }
+
+    /**
+     * events of task thread and killing thread are in any order
+     */
+    private static Set<String> nextEvents(int n) throws InterruptedException {
+        Set<String> events = new HashSet<>();
+        for (int i = 0; i < n; i++) {
+            events.add(nextEvent());
+        }
+        return events;
+    }
+
+    @Before
+    public void setUp() {
+        EVENTS.clear();
+        runner = new InProcessTaskRunner(1, 1, new TaskCallback() {
+            @Override
+            public void onStarted(long taskId, int pid) {
+                EVENTS.add("started " + taskId);
+            }
+
+            @Override
+            public void onSuccess(long taskId) {
+                EVENTS.add("success " + taskId);
+            }
+
+            @Override
+            public void onFailure(long taskId) {
+                EVENTS.add("failure " + taskId);
+            }
+
+            @Override
+            public void onLost(long taskId) {
+                EVENTS.add("lost " + taskId);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        runner.stop();
+    }
+
+    @Test
+    public void submit() throws InterruptedException {
+        AtomicBoolean picked = new AtomicBoolean();
+        assertTrue(runner.runTask(makeTask(1, QuickTask.class), () -> picked.set(true)));
+        assertEquals("init 1", nextEvent());
+        assertTrue(picked.get());
+        assertEquals("started 1", nextEvent());
+        assertEquals("success 1", nextEvent());
+        assertEquals("onSuccess 1", nextEvent());
+        assertFalse(runner.isTaskRunning(1));
+
+        // a task which can't be created fails
+        TaskInfo missing = makeTask(2, QuickTask.class);
+        missing.setClassName("com.timeyang.athena.NoSuchTask");
+        assertTrue(runner.runTask(missing, () -> {}));
+        assertEquals("failure 2", nextEvent());
+    }
+
+    @Test
+    public void kill() throws InterruptedException {
+        assertTrue(runner.runTask(makeTask(1, BlockingTask.class), () -> {}));
+        assertEquals("init 1", nextEvent());
+        assertEquals("started 1", nextEvent());
+        assertTrue(runner.isTaskRunning(1));
+
+        AtomicBoolean killed = new AtomicBoolean();
+        runner.kill(1, () -> killed.set(true));
+        assertTrue(killed.get());
+        assertFalse(runner.isTaskRunning(1));
+        // result of a killed task is ignored
+        assertEquals(new HashSet<>(Arrays.asList("onKilled 1", "interrupted 1")), nextEvents(2));
+        assertNull(EVENTS.poll(200, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void reject() throws InterruptedException {
+        // one thread and one queue slot
+        assertTrue(runner.runTask(makeTask(1, BlockingTask.class), () -> {}));
+        assertEquals("init 1", nextEvent());
+        assertEquals("started 1", nextEvent());
+        assertTrue(runner.runTask(makeTask(2, BlockingTask.class), () -> {}));
+        assertFalse(runner.runTask(makeTask(3, BlockingTask.class), () -> {}));
+        assertFalse(runner.isTaskRunning(3));
+
+        // a queued task killed before it's picked is never inited
+        runner.kill(2, () -> {});
+        runner.kill(1, () -> {});
+        assertEquals(new HashSet<>(Arrays.asList("onKilled 1", "interrupted 1")), nextEvents(2));
+
+        // rejected task is inited once when it's submitted again
+        assertTrue(runner.runTask(makeTask(3, QuickTask.class), () -> {}));
+        assertEquals("init 3", nextEvent());
+        assertEquals("started 3", nextEvent());
+        assertEquals("success 3", nextEvent());
+        assertEquals("onSuccess 3", nextEvent());
+        assertNull(EVENTS.poll(200, TimeUnit.MILLISECONDS));
+    }
+
+}
@@ -0,0 +1,110 @@
+package com.timeyang.athena.task.exec;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class LogArchiveTest {
+    private static final long GREP_TIMEOUT_MILLIS = 60000;
+
+    private static File writeLog(String content) throws IOException {
+        File file = File.createTempFile("task", ".log");
+        file.deleteOnExit();
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private static LogArchive archive(File log, int blockSize) throws IOException {
+        String archivePath = LogArchive.getArchivePath(log.getPath());
+        new File(archivePath).deleteOnExit();
+        LogArchive.archive(log.getPath(), archivePath, blockSize);
+        return new LogArchive(archivePath);
+    }
+
+    @Test
+    public void blocks() throws IOException {
+        File log = File.createTempFile("task", ".log");
+        log.deleteOnExit();
+        try (PrintWriter writer = new PrintWriter(log, "UTF-8")) {
+            for (int i = 1; i <= 100000; i++) {
+                writer.println("2017-12-01 12:00:00 INFO  [main] task log line " + i);
+            }
+        }
+        LogArchive archive = archive(log, 64 * 1024);
+        assertEquals(100000, archive.getLineCount());
+        assertTrue(archive.getBlockCount() > 1);
+        assertTrue(new File(LogArchive.getArchivePath(log.getPath())).length() * 5 < log.length());
+
+        for (int lineNumber : new int[]{1, 1234, 50000, 99999}) {
+            assertEquals("2017-12-01 12:00:00 INFO  [main] task log line " + lineNumber,
+                    archive.getLines(lineNumber, 1).get(0));
+        }
+        // across blocks
+        List<String> lines = archive.getLines(1, 100000);
+        assertEquals(100000, lines.size());
+        assertEquals("2017-12-01 12:00:00 INFO  [main] task log line 100000", lines.get(99999));
+        assertEquals(Arrays.asList(
+                "2017-12-01 12:00:00 INFO  [main] task log line 99999",
+                "2017-12-01 12:00:00 INFO  [main] task log line 100000"), archive.getTailLines(2));
+        assertTrue(archive.getLines(100001, 10).isEmpty());
+        archive.close();
+    }
+
+    @Test
+    public void grep() throws IOException {
+        File log = File.createTempFile("task", ".log");
+        log.deleteOnExit();
+        try (PrintWriter writer = new PrintWriter(log, "UTF-8")) {
+            for (int i = 1; i <= 100000; i++) {
+                writer.println(i % 7000 == 0 ? "java.lang.IllegalStateException: record " + i : "record " + i);
+            }
+        }
+        Pattern pattern = Pattern.compile("Exception: record \\d+0000$");
+        LogArchive archive = archive(log, 16 * 1024);
+        List<LogLine> hits = archive.grep(pattern, 10, GREP_TIMEOUT_MILLIS);
+        assertEquals(Arrays.asList(70000), hits.stream().map(LogLine::getLineNumber).collect(Collectors.toList()));
+        assertEquals("java.lang.IllegalStateException: record 70000", hits.get(0).getLine());
+
+        // first hits in file order
+        hits = archive.grep(Pattern.compile("Exception"), 3, GREP_TIMEOUT_MILLIS);
+        assertEquals(Arrays.asList(7000, 14000, 21000), hits.stream().map(LogLine::getLineNumber).collect(Collectors.toList()));
+        archive.close();
+
+        LogInspection inspection = new LogInspection(log.getPath());
+        hits = inspection.grep(Pattern.compile("Exception"), 100, GREP_TIMEOUT_MILLIS);
+        assertEquals(14, hits.size());
+        assertEquals(98000, hits.get(13).getLineNumber());
+        inspection.close();
+    }
+
+    @Test
+    public void edgeCases() throws IOException {
+        char[] chars = new char[5000];
+        Arrays.fill(chars, 'x');
+        String longLine = new String(chars);
+        File log = writeLog("日志 1\r\n\n" + longLine + "\nlast");
+        LogArchive archive = archive(log, 1024);
+        assertEquals(4, archive.getLineCount());
+        assertEquals(Arrays.asList("日志 1", "", longLine, "last"), archive.getLines(1, 10));
+        assertEquals(Collections.singletonList("last"), archive.getTailLines(1));
+        archive.close();
+
+        LogArchive empty = archive(writeLog(""), 1024);
+        assertEquals(0, empty.getLineCount());
+        assertTrue(empty.getLines(1, 10).isEmpty());
+        assertTrue(empty.getTailLines(10).isEmpty());
+        empty.close();
+    }
+
+}
@@ -0,0 +1,89 @@
+package com.timeyang.athena.task.exec;
+
+import com.timeyang.athena.task.exec.TaskBackend.LogExchange;
+import com.timeyang.athena.task.message.TaskMessage.LogQueryRequest;
+import com.timeyang.athena.task.message.TaskMessage.LogQueryResult;
+import com.timeyang.athena.task.message.TaskMessage.LogTailRequest;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.channels.ClosedChannelException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.*;
+
+public class LogExchangeTest {
+    private static final long TIMEOUT_MILLIS = 100;
+
+    private EmbeddedChannel channel;
+    private LogExchange exchange;
+
+    @Before
+    public void setUp() {
+        channel = new EmbeddedChannel();
+        exchange = new LogExchange(channel, TIMEOUT_MILLIS, TIMEOUT_MILLIS);
+    }
+
+    @After
+    public void tearDown() {
+        channel.finishAndReleaseAll();
+    }
+
+    private static Throwable cause(CompletableFuture<?> future) throws InterruptedException {
+        assertTrue(future.isCompletedExceptionally());
+        try {
+            future.get();
+            throw new AssertionError("future should fail");
+        } catch (ExecutionException e) {
+            return e.getCause();
+        }
+    }
+
+    @Test
+    public void correlation() throws Exception {
+        CompletableFuture<List<String>> first = exchange.query(1, 10);
+        CompletableFuture<List<String>> second = exchange.tail(10);
+        LogQueryRequest firstRequest = channel.readOutbound();
+        LogTailRequest secondRequest = channel.readOutbound();
+        assertNotEquals(firstRequest.getRequestId(), secondRequest.getRequestId());
+
+        // results arrive out of order
+        exchange.set(new LogQueryResult(secondRequest.getRequestId(), Collections.singletonList("second")));
+        assertFalse(first.isDone());
+        assertEquals(Collections.singletonList("second"), second.get());
+        // result of an unknown request is dropped
+        exchange.set(new LogQueryResult(secondRequest.getRequestId() + 100, Collections.singletonList("unknown")));
+        assertFalse(first.isDone());
+        exchange.set(new LogQueryResult(firstRequest.getRequestId(), Collections.singletonList("first")));
+        assertEquals(Collections.singletonList("first"), first.get());
+    }
+
+    @Test
+    public void timeout() throws Exception {
+        CompletableFuture<List<String>> query = exchange.query(1, 10);
+        LogQueryRequest request = channel.readOutbound();
+        Thread.sleep(TIMEOUT_MILLIS * 2);
+        channel.runScheduledPendingTasks();
+        assertTrue(cause(query) instanceof TimeoutException);
+
+        // result arriving after timeout is ignored
+        exchange.set(new LogQueryResult(request.getRequestId(), Collections.singletonList("late")));
+        assertTrue(query.isCompletedExceptionally());
+    }
+
+    @Test
+    public void channelClosed() throws Exception {
+        CompletableFuture<List<String>> query = exchange.query(1, 10);
+        channel.close();
+        assertTrue(cause(query) instanceof ClosedChannelException);
+        // query on a closed channel fails at once
+        assertTrue(cause(exchange.tail(10)) instanceof ClosedChannelException);
+    }
+
+}
@@ -0,0 +1,38 @@
+package com.timeyang.athena.task.exec;
+
+import com.timeyang.athena.AthenaException;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.*;
+
+public class LogGrepTest {
+
+    @Test
+    public void timeout() throws InterruptedException {
+        List<LogGrep.Range> ranges = Arrays.asList(new LogGrep.Range(0, 1, 1, 10), new LogGrep.Range(1, 2, -1, 10));
+        CountDownLatch stopped = new CountDownLatch(1);
+        long start = System.currentTimeMillis();
+        try {
+            // a scan which never ends by itself, it only stops when cancelled
+            LogGrep.grep(ranges, (range, cancelled) -> {
+                while (!cancelled.getAsBoolean()) {
+                    Thread.sleep(10);
+                }
+                stopped.countDown();
+            }, 200);
+            fail("grep should time out");
+        } catch (AthenaException e) {
+            assertTrue(e.getThrowable() instanceof TimeoutException);
+        }
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        // a running scan sees cancellation and stops, ranges not started yet are cancelled
+        assertTrue(stopped.await(5, TimeUnit.SECONDS));
+    }
+
+}
@@ -0,0 +1,52 @@
+package com.timeyang.athena.task.exec;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class LogIndexTest {
+
+    @Test
+    public void grow() {
+        LogIndex logIndex = new LogIndex();
+        assertFalse(logIndex.getRecentIndex(1).isPresent());
+        // 3 memory chunks
+        for (int i = 0; i < 3000; i++) {
+            assertTrue(logIndex.put(i * LogIndex.INDEX_PER_LINES + 1, i * 1000L));
+        }
+        assertFalse(logIndex.put(5, 0));
+        assertFalse(logIndex.put(3001 * LogIndex.INDEX_PER_LINES + 1, 0));
+        assertEquals(3000, logIndex.size());
+
+        LogIndex.Index index = logIndex.getRecentIndex(150050).get();
+        assertEquals(150001, index.getLineNumber());
+        assertEquals(1500000L, index.getFilePointer());
+        // beyond indexed lines, last index is returned
+        index = logIndex.getRecentIndex(Integer.MAX_VALUE).get();
+        assertEquals(299901, index.getLineNumber());
+        assertEquals(2999000L, index.getFilePointer());
+    }
+
+    @Test
+    public void persist() throws IOException {
+        File file = File.createTempFile("task.log", LogIndex.INDEX_FILE_SUFFIX);
+        file.deleteOnExit();
+        LogIndex logIndex = new LogIndex(file.getPath());
+        for (int i = 0; i < 200000; i++) {
+            logIndex.put(i * LogIndex.INDEX_PER_LINES + 1, i * 10L);
+        }
+        logIndex.close();
+
+        LogIndex reopened = new LogIndex(file.getPath());
+        assertEquals(200000, reopened.size());
+        assertEquals(1999990L, reopened.getRecentIndex(19999901).get().getFilePointer());
+        assertTrue(reopened.put(200000 * LogIndex.INDEX_PER_LINES + 1, 2000000L));
+        reopened.clear();
+        assertFalse(reopened.getRecentIndex(1).isPresent());
+        reopened.close();
+    }
+
+}
@@ -0,0 +1,113 @@
+package com.timeyang.athena.task.exec;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class LogReaderTest {
+    // longer than the 64KB block read backwards by tailPosition
+    private static final String LONG_LINE = String.join("", Collections.nCopies(150 * 1024, "x"));
+
+    private File log;
+
+    @Before
+    public void setUp() throws IOException {
+        log = File.createTempFile("task", ".log");
+        log.deleteOnExit();
+    }
+
+    @After
+    public void tearDown() {
+        log.delete();
+    }
+
+    private void writeLog(String content) throws IOException {
+        Files.write(log.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return lines from tail position of last {@code rows} lines to end of file
+     */
+    private List<String> tail(int rows) throws IOException {
+        try (LogReader reader = new LogReader(log.getPath())) {
+            reader.seek(reader.tailPosition(rows));
+            List<String> lines = new ArrayList<>();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+            return lines;
+        }
+    }
+
+    @Test
+    public void tailPosition() throws IOException {
+        writeLog("line1\nline2\nline3\n");
+        try (LogReader reader = new LogReader(log.getPath())) {
+            assertEquals(12, reader.tailPosition(1));
+            assertEquals(6, reader.tailPosition(2));
+            assertEquals(0, reader.tailPosition(3));
+            assertEquals(18, reader.tailPosition(0));
+        }
+        assertEquals(Arrays.asList("line2", "line3"), tail(2));
+    }
+
+    @Test
+    public void emptyFile() throws IOException {
+        try (LogReader reader = new LogReader(log.getPath())) {
+            assertEquals(0, reader.tailPosition(1));
+            assertEquals(0, reader.tailPosition(10));
+        }
+        assertEquals(Collections.emptyList(), tail(10));
+    }
+
+    @Test
+    public void noTrailingNewline() throws IOException {
+        writeLog("line1\nline2\nline3");
+        try (LogReader reader = new LogReader(log.getPath())) {
+            // the unterminated last line is a line
+            assertEquals(12, reader.tailPosition(1));
+            assertEquals(6, reader.tailPosition(2));
+        }
+        assertEquals(Collections.singletonList("line3"), tail(1));
+        assertEquals(Arrays.asList("line2", "line3"), tail(2));
+    }
+
+    @Test
+    public void longLines() throws IOException {
+        writeLog("line1\n" + LONG_LINE + "\n" + LONG_LINE + "\nline4\n");
+        try (LogReader reader = new LogReader(log.getPath())) {
+            long lineLength = LONG_LINE.length() + 1;
+            assertEquals(6 + 2 * lineLength, reader.tailPosition(1));
+            assertEquals(6 + lineLength, reader.tailPosition(2));
+            assertEquals(6, reader.tailPosition(3));
+            assertEquals(0, reader.tailPosition(4));
+        }
+        assertEquals(Arrays.asList(LONG_LINE, LONG_LINE, "line4"), tail(3));
+    }
+
+    @Test
+    public void moreRowsThanLines() throws IOException {
+        writeLog("line1\nline2\n");
+        try (LogReader reader = new LogReader(log.getPath())) {
+            assertEquals(0, reader.tailPosition(3));
+            assertEquals(0, reader.tailPosition(Integer.MAX_VALUE));
+        }
+        assertEquals(Arrays.asList("line1", "line2"), tail(100));
+
+        writeLog(LONG_LINE);
+        assertEquals(Collections.singletonList(LONG_LINE), tail(100));
+    }
+
+}
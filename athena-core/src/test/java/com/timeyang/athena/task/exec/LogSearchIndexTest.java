@@ -0,0 +1,111 @@
+package com.timeyang.athena.task.exec;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class LogSearchIndexTest {
+    private static final long DAY = 24 * 3600 * 1000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private String writeLog(int lines, String... extraLines) throws IOException {
+        File log = folder.newFile();
+        try (PrintWriter writer = new PrintWriter(log, "UTF-8")) {
+            for (int i = 1; i <= lines; i++) {
+                writer.println("2017-12-01 12:00:00 INFO  [main] process record " + i);
+            }
+            for (String line : extraLines) {
+                writer.println(line);
+            }
+        }
+        return log.getPath();
+    }
+
+    @Test
+    public void tokenize() {
+        assertArrayEquals(new String[]{"java", "lang", "nullpointerexception", "at", "task_1", "日志"},
+                LogSearchIndex.tokenize("java.lang.NullPointerException: at Task_1 a 日志").toArray());
+    }
+
+    @Test
+    public void search() throws IOException {
+        LogSearchIndex index = new LogSearchIndex(folder.newFolder().getPath());
+        long now = System.currentTimeMillis();
+        index.add(1, "import-orders", now - 3 * DAY,
+                writeLog(10, "java.lang.NullPointerException: order is null"));
+        index.add(2, "export-orders", now,
+                writeLog(20, "java.lang.IllegalStateException", "NullPointerException again"));
+
+        List<LogSearchIndex.Candidate> candidates = index.search("NullPointerException", 0, Long.MAX_VALUE, null);
+        assertEquals(2, candidates.size());
+        // recently collected first
+        assertEquals(2, candidates.get(0).getTaskId());
+        assertArrayEquals(new int[]{22}, candidates.get(0).getLines());
+        assertTrue(candidates.get(0).isExact());
+        assertArrayEquals(new int[]{11}, candidates.get(1).getLines());
+
+        // all terms in same line
+        candidates = index.search("lang nullpointerexception", 0, Long.MAX_VALUE, null);
+        assertEquals(1, candidates.size());
+        assertEquals(1, candidates.get(0).getTaskId());
+        assertTrue(index.search("lang again", 0, Long.MAX_VALUE, null).isEmpty());
+
+        assertEquals(1, index.search("NullPointerException", now - DAY, Long.MAX_VALUE, null).size());
+        candidates = index.search("NullPointerException", 0, Long.MAX_VALUE, "import-*");
+        assertEquals(1, candidates.size());
+        assertEquals("import-orders", candidates.get(0).getTaskName());
+
+        // log collected again replaces previous index
+        index.add(1, "import-orders", now, writeLog(5));
+        candidates = index.search("NullPointerException", 0, Long.MAX_VALUE, null);
+        assertEquals(1, candidates.size());
+        assertEquals(2, candidates.get(0).getTaskId());
+        // stale block in an earlier segment isn't found by a range which ends before task is collected again
+        assertTrue(index.search("NullPointerException", 0, now - 2 * DAY, null).isEmpty());
+    }
+
+    @Test
+    public void prune() throws IOException {
+        File dir = folder.newFolder();
+        LogSearchIndex index = new LogSearchIndex(dir.getPath());
+        long now = System.currentTimeMillis();
+        index.add(1, "task", now - 10 * DAY, writeLog(1, "expired error"));
+        index.add(2, "task", now - 2 * DAY, writeLog(1, "kept error"));
+        index.add(3, "task", now, writeLog(1, "recent error"));
+        assertEquals(3, dir.list().length);
+
+        assertEquals(1, index.prune(now - 5 * DAY));
+        assertEquals(2, dir.list().length);
+        List<LogSearchIndex.Candidate> candidates = index.search("error", 0, Long.MAX_VALUE, null);
+        assertEquals(2, candidates.size());
+        assertEquals(3, candidates.get(0).getTaskId());
+        assertEquals(2, candidates.get(1).getTaskId());
+        // segment of the day of retention boundary is kept
+        assertEquals(0, index.prune(now - 2 * DAY));
+    }
+
+    @Test
+    public void frequentTerm() throws IOException {
+        LogSearchIndex index = new LogSearchIndex(folder.newFolder().getPath());
+        index.add(1, "task", System.currentTimeMillis(), writeLog(20000, "record finished"));
+
+        LogSearchIndex.Candidate candidate = index.search("record", 0, Long.MAX_VALUE, null).get(0);
+        assertNull(candidate.getLines());
+        assertFalse(candidate.isExact());
+        assertEquals(20001, candidate.getLineCount());
+
+        candidate = index.search("record finished", 0, Long.MAX_VALUE, null).get(0);
+        assertArrayEquals(new int[]{20001}, candidate.getLines());
+        assertFalse(candidate.isExact());
+    }
+
+}
@@ -0,0 +1,90 @@
+package com.timeyang.athena.task.exec;
+
+import com.timeyang.athena.task.message.TaskMessage.LogChunk;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static org.junit.Assert.*;
+
+public class LogShipmentTest {
+    private static final long TASK_ID = Long.MAX_VALUE - 13;
+
+    private final String logSavePath = TaskUtils.getTaskLogSavePath(TASK_ID);
+    private final Path shippingPath = Paths.get(LogShipment.getShippingPath(logSavePath));
+    private final Path shippedPath = Paths.get(LogShipment.getShippedPath(logSavePath));
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(shippingPath);
+        Files.deleteIfExists(shippedPath);
+        Files.deleteIfExists(shippingPath.getParent());
+    }
+
+    @Test
+    public void write() throws IOException {
+        LogShipment shipment = new LogShipment(TASK_ID);
+        assertEquals(6, shipment.write(0, bytes("line1\n")));
+        // duplicated chunk is ignored
+        assertEquals(6, shipment.write(0, bytes("line1\n")));
+        // chunk after a gap isn't stored
+        assertEquals(6, shipment.write(12, bytes("line3\n")));
+        // overlapped chunk stores its new part only
+        assertEquals(12, shipment.write(3, bytes("e1\nline2\n")));
+        assertEquals(18, shipment.write(12, bytes("line3\n")));
+
+        LogChunk tail = shipment.tail(8);
+        assertEquals(12, tail.getOffset());
+        assertEquals("line3\n", new String(tail.getData(), StandardCharsets.UTF_8));
+        assertEquals(0, shipment.tail(100).getOffset());
+        assertEquals("line1\nline2\nline3\n", new String(shipment.tail(100).getData(), StandardCharsets.UTF_8));
+        shipment.close();
+        assertEquals("line1\nline2\nline3\n", new String(Files.readAllBytes(shippingPath), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void complete() throws IOException {
+        LogShipment shipment = new LogShipment(TASK_ID);
+        shipment.write(0, bytes("line1\nline2\n"));
+        assertFalse(shipment.isComplete());
+        shipment.end(12);
+        assertTrue(shipment.isComplete());
+        shipment.close();
+        assertFalse(Files.exists(shippingPath));
+        assertEquals("line1\nline2\n", new String(Files.readAllBytes(shippedPath), StandardCharsets.UTF_8));
+
+        // shipped log of previous try is discarded
+        shipment = new LogShipment(TASK_ID);
+        assertFalse(Files.exists(shippedPath));
+        shipment.close();
+    }
+
+    @Test
+    public void incomplete() throws IOException {
+        LogShipment shipment = new LogShipment(TASK_ID);
+        shipment.write(0, bytes("line1\n"));
+        // TaskExecutor gave up waiting for acknowledge
+        shipment.end(12);
+        assertFalse(shipment.isComplete());
+        shipment.close();
+        assertTrue(Files.exists(shippingPath));
+        assertFalse(Files.exists(shippedPath));
+
+        // TaskExecutor is lost before task finishes
+        shipment = new LogShipment(TASK_ID);
+        shipment.write(0, bytes("line1\n"));
+        shipment.close();
+        assertTrue(Files.exists(shippingPath));
+        assertFalse(Files.exists(shippedPath));
+    }
+
+}
@@ -0,0 +1,117 @@
+package com.timeyang.athena.task.exec;
+
+import com.timeyang.athena.task.message.TaskMessage.LogChunk;
+import com.timeyang.athena.task.message.TaskMessage.LogEnd;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class LogTailerTest {
+    private static final long UNACKED_LIMIT = 4 * 1024 * 1024;
+
+    private final BlockingQueue<Object> sent = new LinkedBlockingQueue<>();
+    private File log;
+    private EmbeddedChannel channel;
+    private LogTailer tailer;
+
+    @Before
+    public void setUp() throws IOException {
+        log = File.createTempFile("task", ".log");
+        log.deleteOnExit();
+        // messages are written by tailer thread, collect them without touching channel outbound buffer
+        channel = new EmbeddedChannel(new ChannelOutboundHandlerAdapter() {
+            @Override
+            public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) {
+                sent.add(msg);
+                promise.setSuccess();
+            }
+        });
+        tailer = new LogTailer(log.getPath(), channel);
+    }
+
+    @After
+    public void tearDown() {
+        tailer.stop();
+        channel.close();
+    }
+
+    private void writeLog(int lines) throws IOException {
+        try (PrintWriter writer = new PrintWriter(log, "UTF-8")) {
+            for (int i = 1; i <= lines; i++) {
+                writer.println("2017-12-01 12:00:00 INFO  [main] task log line " + i);
+            }
+        }
+    }
+
+    /**
+     * @return end offset of chunks received until nothing is sent for a while
+     */
+    private long receive(long offset) throws InterruptedException {
+        Object msg;
+        while ((msg = sent.poll(1, TimeUnit.SECONDS)) != null) {
+            LogChunk chunk = (LogChunk) msg;
+            assertEquals(offset, chunk.getOffset());
+            offset += chunk.getData().length;
+        }
+        return offset;
+    }
+
+    @Test
+    public void ack() throws Exception {
+        writeLog(100);
+        // the first ack starts shipping from its offset
+        tailer.ack(0);
+        long received = receive(0);
+        assertEquals(log.length(), received);
+
+        tailer.ack(received);
+        tailer.finish(1000);
+        LogEnd end = (LogEnd) sent.poll(1, TimeUnit.SECONDS);
+        assertEquals(log.length(), end.getLength());
+    }
+
+    @Test
+    public void backpressure() throws Exception {
+        // about 5MB log
+        writeLog(100000);
+        assertTrue(log.length() > UNACKED_LIMIT);
+        tailer.ack(0);
+        long received = receive(0);
+        // sending stops once unacknowledged log reaches the limit
+        assertTrue(received >= UNACKED_LIMIT && received < log.length());
+
+        // acknowledge lets tailer continue
+        tailer.ack(received);
+        received = receive(received);
+        assertEquals(log.length(), received);
+    }
+
+    @Test
+    public void finishTimeout() throws Exception {
+        writeLog(100);
+        tailer.ack(0);
+        long received = receive(0);
+        tailer.ack(received / 2);
+
+        // log isn't fully acknowledged, end is still sent so that TaskManager knows its shipment is incomplete
+        long start = System.nanoTime();
+        tailer.finish(300);
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(300));
+        LogEnd end = (LogEnd) sent.poll(1, TimeUnit.SECONDS);
+        assertEquals(log.length(), end.getLength());
+    }
+
+}
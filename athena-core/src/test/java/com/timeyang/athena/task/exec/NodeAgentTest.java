@@ -0,0 +1,92 @@
+package com.timeyang.athena.task.exec;
+
+import com.timeyang.athena.AthenaConf;
+import com.timeyang.athena.task.message.TaskMessage.AgentReady;
+import com.timeyang.athena.util.cmd.Result;
+import org.junit.Test;
+
+import java.io.File;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class NodeAgentTest {
+
+    @Test
+    public void executeCommands() throws Exception {
+        AthenaConf original = AthenaConf.getConf();
+        Map<String, String> settings = original.getAll();
+        settings.put("task.rpc.port", "20029");
+        settings.put("task.agent.secret", "secret");
+        AthenaConf athenaConf = new AthenaConf(settings);
+        new AthenaConf(original.getAll()); // restore global conf
+
+        TaskBackend taskBackend = new TaskBackend(athenaConf, new TaskCallback() {
+            @Override
+            public void onStarted(long taskId, int pid) {
+            }
+
+            @Override
+            public void onSuccess(long taskId) {
+            }
+
+            @Override
+            public void onFailure(long taskId) {
+            }
+
+            @Override
+            public void onLost(long taskId) {
+            }
+        });
+        taskBackend.start();
+        NodeAgent nodeAgent = new NodeAgent("node1", "127.0.0.1", 20029, "secret");
+        Thread thread = new Thread(nodeAgent::run);
+        thread.start();
+        try {
+            NodeAgentManager manager = taskBackend.getNodeAgentManager();
+            for (int i = 0; i < 100 && !manager.isConnected("node1"); i++) {
+                Thread.sleep(100);
+            }
+            assertTrue(manager.isConnected("node1"));
+
+            Result result = manager.exec("node1", "echo agent");
+            assertTrue(result.isSucceed());
+            assertEquals("agent", result.getOut().trim());
+            assertEquals(3, manager.exec("node1", "exit 3").getExitCode().intValue());
+
+            File dir = Files.createTempDirectory("node-agent").toFile();
+            assertTrue(new File(dir, "task.log").createNewFile());
+            assertTrue(manager.cleanup("node1", dir.getPath()).isSucceed());
+            assertFalse(dir.exists());
+
+            assertTrue(manager.kill("node1", Integer.MAX_VALUE));
+            assertFalse(manager.kill("node2", 1));
+        } finally {
+            nodeAgent.stop();
+            thread.join(10000);
+            taskBackend.stop();
+        }
+        assertFalse(taskBackend.getNodeAgentManager().isConnected("node1"));
+    }
+
+    @Test
+    public void authenticate() throws Exception {
+        InetAddress loopback = InetAddress.getByName("127.0.0.1");
+        InetAddress other = InetAddress.getByName("10.0.0.1");
+
+        NodeAgentManager manager = new NodeAgentManager(1000, "secret");
+        assertTrue(manager.authenticate(new AgentReady("node1", "secret"), other));
+        assertFalse(manager.authenticate(new AgentReady("node1", "wrong"), other));
+        assertFalse(manager.authenticate(new AgentReady("node1", null), other));
+        assertFalse(manager.authenticate(new AgentReady(null, "secret"), other));
+
+        // without secret, reported host must resolve to connection address
+        manager = new NodeAgentManager(1000, "");
+        assertTrue(manager.authenticate(new AgentReady("localhost", ""), loopback));
+        assertFalse(manager.authenticate(new AgentReady("localhost", ""), other));
+        assertFalse(manager.authenticate(new AgentReady("", ""), loopback));
+    }
+
+}
@@ -0,0 +1,139 @@
+package com.timeyang.athena.task.message;
+
+import com.timeyang.athena.task.TestTask;
+import com.timeyang.athena.task.exec.LogLine;
+import com.timeyang.athena.task.exec.TaskContextImpl;
+import com.timeyang.athena.task.message.TaskMessage.*;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class TaskMessageCodecTest {
+
+    @SuppressWarnings("unchecked")
+    private static <T extends TaskMessage> T roundTrip(TaskMessage msg) {
+        EmbeddedChannel channel = new EmbeddedChannel(new TaskMessageCodec());
+        assertTrue(channel.writeOutbound(msg));
+        ByteBuf frame = channel.readOutbound();
+        assertTrue(channel.writeInbound(frame));
+        T decoded = channel.readInbound();
+        channel.finish();
+        return decoded;
+    }
+
+    @Test
+    public void heartBeat() {
+        HeartBeat heartBeat = roundTrip(new HeartBeat(10000001L));
+        assertEquals(10000001L, heartBeat.getTaskId());
+    }
+
+    @Test
+    public void logQuery() {
+        LogQueryRequest request = roundTrip(new LogQueryRequest(5L, 201, 50));
+        assertEquals(5L, request.getRequestId());
+        assertEquals(201, request.getLineNumber());
+        assertEquals(50, request.getRows());
+
+        LogTailRequest tail = roundTrip(new LogTailRequest(6L, 200));
+        assertEquals(6L, tail.getRequestId());
+        assertEquals(200, tail.getRows());
+
+        LogQueryResult result = roundTrip(new LogQueryResult(5L, Arrays.asList("line 1", "", "日志 3", null)));
+        assertEquals(5L, result.getRequestId());
+        assertEquals(Arrays.asList("line 1", "", "日志 3", null), result.getLines());
+
+        LogGrepRequest grep = roundTrip(new LogGrepRequest(7L, "Exception$", 100));
+        assertEquals(7L, grep.getRequestId());
+        assertEquals("Exception$", grep.getRegex());
+        assertEquals(100, grep.getMaxHits());
+
+        LogGrepResult grepResult = roundTrip(new LogGrepResult(7L, Arrays.asList(new LogLine(3, "日志 3"), new LogLine(9, ""))));
+        assertEquals(7L, grepResult.getRequestId());
+        assertEquals(2, grepResult.getHits().size());
+        assertEquals(9, grepResult.getHits().get(1).getLineNumber());
+        assertEquals("日志 3", grepResult.getHits().get(0).getLine());
+    }
+
+    @Test
+    public void taskSubmit() {
+        TaskSubmit submit = roundTrip(new TaskSubmit(new TestTask(), TaskContextImpl.makeTaskContext(7L)));
+        assertTrue(submit.getTask() instanceof TestTask);
+        assertEquals(7L, submit.getTaskContext().taskId());
+    }
+
+    @Test
+    public void taskFailure() {
+        TaskFailure failure = roundTrip(new TaskFailure(new TestTask(), new IllegalStateException("error")));
+        assertTrue(failure.getTask() instanceof TestTask);
+        assertTrue(failure.getThrowable() instanceof IllegalStateException);
+        assertEquals("error", failure.getThrowable().getMessage());
+    }
+
+    @Test
+    public void executorMessages() {
+        Map<String, String> args = new LinkedHashMap<>();
+        args.put("taskId", "7");
+        args.put("classpathFile", "/tmp/a b/classpath");
+        ExecutorAssign assign = roundTrip(new ExecutorAssign(7L, args));
+        assertEquals(7L, assign.getTaskId());
+        assertEquals(args, assign.getArgs());
+
+        ExecutorReady ready = roundTrip(new ExecutorReady(3, "key", 2));
+        assertEquals(3, ready.getPoolId());
+        assertEquals("key", ready.getPoolKey());
+        assertEquals(2, ready.getExecutedTasks());
+    }
+
+    @Test
+    public void logStreaming() {
+        LogSubscribe subscribe = roundTrip(new LogSubscribe(true, -1L));
+        assertTrue(subscribe.isFollow());
+        assertEquals(-1L, subscribe.getOffset());
+
+        byte[] data = "日志 1\nline 2\n".getBytes(StandardCharsets.UTF_8);
+        LogChunk chunk = roundTrip(new LogChunk(1024L, data));
+        assertEquals(1024L, chunk.getOffset());
+        assertArrayEquals(data, chunk.getData());
+
+        LogAck ack = roundTrip(new LogAck(1024L + data.length));
+        assertEquals(1024L + data.length, ack.getOffset());
+
+        LogEnd end = roundTrip(new LogEnd(4096L));
+        assertEquals(4096L, end.getLength());
+    }
+
+    @Test
+    public void fragmentedFrames() {
+        EmbeddedChannel channel = new EmbeddedChannel(new TaskMessageCodec());
+        channel.writeOutbound(new LogQueryResult(1, Collections.singletonList("line")));
+        channel.writeOutbound(new KillTask());
+        ByteBuf frames = Unpooled.buffer();
+        ByteBuf frame;
+        while ((frame = channel.readOutbound()) != null) {
+            frames.writeBytes(frame);
+            frame.release();
+        }
+
+        // feed byte by byte
+        while (frames.isReadable()) {
+            channel.writeInbound(frames.readRetainedSlice(1));
+        }
+        frames.release();
+
+        LogQueryResult result = channel.readInbound();
+        assertEquals(Collections.singletonList("line"), result.getLines());
+        assertTrue(channel.readInbound() instanceof KillTask);
+        assertNull(channel.readInbound());
+        channel.finish();
+    }
+
+}
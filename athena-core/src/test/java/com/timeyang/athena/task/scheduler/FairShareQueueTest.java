@@ -0,0 +1,123 @@
+package com.timeyang.athena.task.scheduler;
+
+import com.timeyang.athena.task.TaskInfo;
+import com.timeyang.athena.task.TaskInfo.WaitingTask;
+import com.timeyang.athena.task.TaskType;
+import org.junit.Test;
+
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class FairShareQueueTest {
+
+    private static TaskInfo makeTask(long taskId, String queue, int priority) {
+        WaitingTask task = new WaitingTask();
+        task.setTaskId(taskId);
+        task.setTaskType(TaskType.JAVA);
+        task.setQueue(queue);
+        task.setPriority(priority);
+        task.setSubmitTime(Instant.ofEpochSecond(taskId));
+        return task;
+    }
+
+    @Test
+    public void weightedFairShare() {
+        FairShareQueue queue = new FairShareQueue(FairShareQueue.parseWeights("interactive:3,backfill:1"));
+        for (long i = 0; i < 100; i++) {
+            queue.offer(makeTask(i, "backfill", 0));
+        }
+        for (long i = 100; i < 106; i++) {
+            queue.offer(makeTask(i, "interactive", 0));
+        }
+        assertFalse(queue.offer(makeTask(1, "backfill", 0)));
+
+        // interactive gets 3 of every 4 turns though its tasks are submitted later
+        Map<String, Integer> taken = new HashMap<>();
+        for (int i = 0; i < 8; i++) {
+            taken.merge(queue.poll().getQueue(), 1, Integer::sum);
+        }
+        assertEquals(6, taken.get("interactive").intValue());
+        assertEquals(2, taken.get("backfill").intValue());
+        assertEquals(98, queue.size());
+
+        // an idle queue doesn't save turns
+        assertEquals("backfill", queue.poll().getQueue());
+        queue.offer(makeTask(200, "adhoc", 0));
+        queue.offer(makeTask(201, "adhoc", 0));
+        assertEquals("adhoc", queue.poll().getQueue());
+        // adhoc starts from pass of backfill, they take turns then
+        assertNotEquals(queue.poll().getQueue(), queue.poll().getQueue());
+    }
+
+    @Test
+    public void priorityInQueue() {
+        FairShareQueue queue = new FairShareQueue(new HashMap<>());
+        queue.offer(makeTask(1, null, 0));
+        queue.offer(makeTask(2, TaskInfo.DEFAULT_QUEUE, 10));
+        queue.offer(makeTask(3, null, 0));
+        queue.offer(makeTask(4, null, 10));
+        assertEquals(2, queue.poll().getTaskId().longValue());
+        assertEquals(4, queue.poll().getTaskId().longValue());
+        assertEquals(1, queue.poll().getTaskId().longValue());
+        assertEquals(3, queue.poll().getTaskId().longValue());
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void dispatched() {
+        FairShareQueue queue = new FairShareQueue(new HashMap<>());
+        queue.offer(makeTask(1, null, 0));
+        assertEquals(1, queue.poll().getTaskId().longValue());
+        assertEquals(0, queue.size());
+        // a taken task isn't queued again until it's done
+        assertFalse(queue.offer(makeTask(1, null, 0)));
+        assertNull(queue.poll());
+        queue.done(1);
+        assertTrue(queue.offer(makeTask(1, null, 0)));
+        assertEquals(1, queue.poll().getTaskId().longValue());
+    }
+
+    @Test
+    public void pause() throws InterruptedException {
+        FairShareQueue queue = new FairShareQueue(new HashMap<>());
+        queue.offer(makeTask(1, null, 0));
+        queue.pause(1, TimeUnit.HOURS);
+        assertNull(queue.poll());
+        queue.resume();
+        assertEquals(1, queue.take().getTaskId().longValue());
+
+        queue.offer(makeTask(2, null, 0));
+        queue.pause(200, TimeUnit.MILLISECONDS);
+        long start = System.nanoTime();
+        assertEquals(2, queue.take().getTaskId().longValue());
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(150));
+    }
+
+    @Test
+    public void alwaysPlacedBypassPause() throws InterruptedException {
+        FairShareQueue queue = new FairShareQueue(new HashMap<>());
+        queue.offer(makeTask(1, null, 0));
+        TaskInfo fixed = makeTask(2, null, 0);
+        fixed.setHostFixed(true);
+        fixed.setHost("h1");
+        queue.offer(fixed);
+        TaskInfo inProcess = makeTask(3, null, 10);
+        inProcess.setTaskType(TaskType.JAVA_IN_PROCESS);
+        queue.offer(inProcess);
+        assertEquals(3, queue.size());
+
+        // tasks which don't wait for resources are taken while queue is paused, by priority
+        queue.pause(1, TimeUnit.HOURS);
+        assertEquals(3, queue.take().getTaskId().longValue());
+        assertEquals(2, queue.poll().getTaskId().longValue());
+        assertNull(queue.poll());
+        queue.resume();
+        assertEquals(1, queue.poll().getTaskId().longValue());
+        assertEquals(0, queue.size());
+    }
+
+}
@@ -0,0 +1,136 @@
+package com.timeyang.athena.task.scheduler;
+
+import com.timeyang.athena.task.TaskInfo;
+import com.timeyang.athena.task.TaskInfo.WaitingTask;
+import com.timeyang.athena.task.TaskType;
+import com.timeyang.athena.task.exec.TaskUtils;
+import org.junit.Test;
+
+import java.util.Optional;
+
+import static org.junit.Assert.*;
+
+public class PlacementEngineTest {
+
+    private static TaskInfo makeTask(long taskId, TaskType taskType, String params) {
+        WaitingTask task = new WaitingTask();
+        task.setTaskId(taskId);
+        task.setTaskType(taskType);
+        task.setParams(params);
+        return task;
+    }
+
+    @Test
+    public void spread() {
+        PlacementEngine engine = new PlacementEngine(PlacementEngine.Strategy.SPREAD, 1, 1024);
+        engine.addHost("h1", 4, 4096);
+        engine.addHost("h2", 4, 8192);
+
+        assertEquals("h2", engine.place(makeTask(1, TaskType.JAVA, "__memory__ 4096")).get());
+        // h2 has 4096MB free now, same as h1, h1 has more free cpus
+        assertEquals("h1", engine.place(makeTask(2, TaskType.JAVA, null)).get());
+        assertEquals("h2", engine.place(makeTask(3, TaskType.JAVA, null)).get());
+        assertEquals(2, engine.getRunningTasks("h2"));
+
+        // h1 is busy, h2 has more idle cpus
+        engine.updateUtilization("h1", 0.9, -1);
+        assertEquals("h2", engine.place(makeTask(4, TaskType.JAVA, null)).get());
+        // memory of h2 is used by processes out of athena
+        engine.updateUtilization("h2", -1, 8000);
+        assertEquals("h1", engine.place(makeTask(5, TaskType.JAVA, "__cpus__ 3")).get());
+        assertFalse(engine.place(makeTask(6, TaskType.JAVA, null)).isPresent());
+
+        engine.release(5);
+        assertEquals("h1", engine.place(makeTask(6, TaskType.JAVA, null)).get());
+    }
+
+    @Test
+    public void binpack() {
+        PlacementEngine engine = new PlacementEngine(PlacementEngine.Strategy.BINPACK, 1, 1024);
+        engine.addHost("h1", 8, 8192);
+        engine.addHost("h2", 8, 4096);
+        engine.addHost("h3", 1, 2048);
+
+        // least free memory which fits
+        assertEquals("h3", engine.place(makeTask(1, TaskType.JAVA, null)).get());
+        // h3 has memory but no cpus left
+        assertEquals("h2", engine.place(makeTask(2, TaskType.JAVA, null)).get());
+        assertEquals("h2", engine.place(makeTask(3, TaskType.JAVA, "__memory__ 3072")).get());
+        assertEquals("h1", engine.place(makeTask(4, TaskType.JAVA, null)).get());
+
+        // a placed task placed again is released first
+        assertEquals("h1", engine.place(makeTask(4, TaskType.JAVA, null)).get());
+        assertEquals(1, engine.getRunningTasks("h1"));
+        // larger than any host, capped to largest host, it waits until largest host is free
+        Optional<String> host = engine.place(makeTask(5, TaskType.JAVA, "__memory__ 100000"));
+        assertFalse(host.isPresent());
+        engine.release(4);
+        assertEquals("h1", engine.place(makeTask(5, TaskType.JAVA, "__memory__ 100000")).get());
+    }
+
+    @Test
+    public void capToOneHost() {
+        PlacementEngine engine = new PlacementEngine(PlacementEngine.Strategy.SPREAD, 1, 1024);
+        engine.addHost("h1", 16, 2048);
+        engine.addHost("h2", 2, 16384);
+
+        // capped to h2 which covers the largest share, not to 8 cpus and 16384MB which fits no host
+        assertEquals("h2", engine.place(makeTask(1, TaskType.JAVA, "__cpus__ 8 __memory__ 32768")).get());
+        engine.release(1);
+        // cpus dominate, capped to h1
+        assertEquals("h1", engine.place(makeTask(2, TaskType.JAVA, "__cpus__ 32 __memory__ 4096")).get());
+        assertEquals(1, engine.getRunningTasks("h1"));
+        // request fits h2 as is, it isn't capped and waits for h2
+        assertEquals("h2", engine.place(makeTask(3, TaskType.JAVA, "__cpus__ 2 __memory__ 4096")).get());
+    }
+
+    @Test
+    public void localTasks() {
+        PlacementEngine engine = new PlacementEngine(PlacementEngine.Strategy.SPREAD, 1, 1024);
+        engine.addHost("h1", 1, 1024);
+        assertEquals(PlacementEngine.LOCAL_HOST,
+                engine.place(makeTask(1, TaskType.JAVA_IN_PROCESS, null)).get());
+        assertEquals(0, engine.getRunningTasks("h1"));
+
+        TaskInfo fixed = makeTask(2, TaskType.JAVA, null);
+        fixed.setHostFixed(true);
+        fixed.setHost("h1");
+        assertEquals("h1", engine.place(fixed).get());
+        assertFalse(engine.place(makeTask(3, TaskType.JAVA, null)).isPresent());
+    }
+
+    @Test
+    public void restore() {
+        PlacementEngine engine = new PlacementEngine(PlacementEngine.Strategy.SPREAD, 1, 1024);
+        engine.addHost("h1", 2, 2048);
+        // task left running on h1 by a restart
+        TaskInfo running = makeTask(1, TaskType.JAVA, "__cpus__ 2");
+        running.setHost("h1");
+        engine.restore(running);
+        assertEquals(1, engine.getRunningTasks("h1"));
+        assertFalse(engine.place(makeTask(2, TaskType.JAVA, null)).isPresent());
+        // restored task is released when it's placed again
+        long releases = engine.getReleases();
+        assertEquals("h1", engine.place(running).get());
+        assertEquals(1, engine.getRunningTasks("h1"));
+        engine.release(1);
+        assertEquals(releases + 2, engine.getReleases());
+        // a task which isn't placed isn't released
+        engine.release(1);
+        assertEquals(releases + 2, engine.getReleases());
+        assertEquals("h1", engine.place(makeTask(2, TaskType.JAVA, null)).get());
+    }
+
+    @Test
+    public void resourceParams() {
+        TaskInfo task = makeTask(1, TaskType.JAVA, "__cpus__ 2 --k1 v1 __memory__ \"4096\" -f");
+        PlacementEngine engine = new PlacementEngine(PlacementEngine.Strategy.SPREAD, 1, 1024);
+        assertEquals(2, engine.getResources(task).getCpus(), 0);
+        assertEquals(4096, engine.getResources(task).getMemory());
+        // resource declarations aren't passed to task
+        assertEquals("--k1 v1  -f", TaskUtils.getTaskParams(task));
+        assertEquals(2, TaskUtils.getTaskArgs(task).size());
+        assertEquals("", TaskUtils.getTaskParams(makeTask(2, TaskType.JAVA, null)));
+    }
+
+}
@@ -0,0 +1,255 @@
+package com.timeyang.athena.task.scheduler;
+
+import com.timeyang.athena.task.TaskInfo;
+import com.timeyang.athena.task.TaskInfo.WaitingTask;
+import com.timeyang.athena.task.TaskType;
+import com.timeyang.athena.task.exec.TaskLauncher;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.*;
+
+public class TaskLaunchPipelineTest {
+
+    private final FakeLauncher launcher = new FakeLauncher();
+    private final List<TaskInfo> unplaced = new CopyOnWriteArrayList<>();
+    private final List<TaskInfo> left = new CopyOnWriteArrayList<>();
+    // tasks which are started or finished by another copy
+    private final Set<Long> stale = ConcurrentHashMap.newKeySet();
+    private PlacementEngine engine;
+    private TaskLaunchPipeline pipeline;
+
+    /**
+     * init fails tasks in {@code failInit}, throws for tasks in {@code throwInit}, spawn completes when test does
+     */
+    private static class FakeLauncher implements TaskLauncher {
+        private final Set<Long> claimed = ConcurrentHashMap.newKeySet();
+        private final Set<Long> failInit = ConcurrentHashMap.newKeySet();
+        private final Set<Long> throwInit = ConcurrentHashMap.newKeySet();
+        private final Map<Long, CompletableFuture<Boolean>> spawns = new ConcurrentHashMap<>();
+
+        @Override
+        public boolean claimTask(long taskId) {
+            return claimed.add(taskId);
+        }
+
+        @Override
+        public void unclaimTask(long taskId) {
+            claimed.remove(taskId);
+        }
+
+        @Override
+        public boolean initTask(TaskInfo taskInfo) {
+            long taskId = taskInfo.getTaskId();
+            if (throwInit.contains(taskId)) {
+                throw new IllegalStateException("init of task " + taskId + " throws");
+            }
+            if (failInit.contains(taskId)) {
+                claimed.remove(taskId);
+                return false;
+            }
+            return true;
+        }
+
+        @Override
+        public CompletableFuture<Boolean> spawnTask(TaskInfo taskInfo) {
+            return spawns.computeIfAbsent(taskInfo.getTaskId(), id -> new CompletableFuture<>());
+        }
+
+        @Override
+        public boolean isTaskRunning(long taskId) {
+            return false;
+        }
+
+        CompletableFuture<Boolean> awaitSpawn(long taskId) {
+            await(() -> spawns.containsKey(taskId));
+            return spawns.get(taskId);
+        }
+    }
+
+    private static TaskInfo makeTask(long taskId, String fixedHost) {
+        WaitingTask task = new WaitingTask();
+        task.setTaskId(taskId);
+        task.setTaskType(TaskType.JAVA);
+        if (fixedHost != null) {
+            task.setHost(fixedHost);
+            task.setHostFixed(true);
+        }
+        return task;
+    }
+
+    private static void await(BooleanSupplier condition) {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            assertTrue("condition isn't met in 10 seconds", System.nanoTime() < deadline);
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    private TaskLaunchPipeline newPipeline(double hostRate, int queueSize) {
+        return new TaskLaunchPipeline(false, 1, 1, 1, hostRate, queueSize,
+                null, launcher, engine, task -> !stale.contains(task.getTaskId()), new TaskLaunchPipeline.Listener() {
+                    @Override
+                    public void onLeft(TaskInfo task) {
+                        left.add(task);
+                    }
+
+                    @Override
+                    public void onUnplaced(TaskInfo task, long releases) {
+                        unplaced.add(task);
+                    }
+                });
+    }
+
+    @Before
+    public void setUp() {
+        engine = new PlacementEngine(PlacementEngine.Strategy.SPREAD, 1, 1024);
+        engine.addHost("h1", 4, 4096);
+        pipeline = newPipeline(0, 2);
+    }
+
+    @After
+    public void tearDown() {
+        pipeline.stop();
+    }
+
+    @Test
+    public void launch() throws Exception {
+        assertTrue(pipeline.submit(makeTask(1, "h1")));
+        // claimed task isn't submitted twice
+        assertFalse(pipeline.submit(makeTask(1, "h1")));
+
+        CompletableFuture<Boolean> spawn = launcher.awaitSpawn(1);
+        assertEquals(1, engine.getRunningTasks("h1"));
+        // task stays in pipeline until its spawn completes, the spawn thread is free meanwhile
+        assertEquals(1, pipeline.getTasksInPipeline());
+        assertTrue(pipeline.submit(makeTask(2, "h1")));
+        launcher.awaitSpawn(2).complete(true);
+        spawn.complete(true);
+        await(() -> pipeline.getTasksInPipeline() == 0);
+        assertEquals(2, pipeline.getLaunchedTasks());
+        assertEquals(0, pipeline.getFailedLaunches());
+        // every submitted task leaves once, including the copy which isn't claimed
+        await(() -> left.size() == 3);
+    }
+
+    @Test
+    public void stale() throws Exception {
+        // task was started by another copy while this copy waited for room
+        stale.add(1L);
+        assertFalse(pipeline.submit(makeTask(1, "h1")));
+        assertFalse(launcher.claimed.contains(1L));
+        assertEquals(1, left.size());
+        assertEquals(0, pipeline.getTasksInPipeline());
+        assertEquals(0, engine.getRunningTasks("h1"));
+
+        assertTrue(pipeline.submit(makeTask(2, "h1")));
+        launcher.awaitSpawn(2).complete(true);
+        await(() -> left.size() == 2);
+        assertFalse(launcher.spawns.containsKey(1L));
+    }
+
+    @Test
+    public void failures() throws Exception {
+        // init fails the task
+        launcher.failInit.add(1L);
+        assertTrue(pipeline.submit(makeTask(1, "h1")));
+        await(() -> pipeline.getFailedLaunches() == 1);
+
+        // a stage which throws aborts the task, it's released for recovery sweep
+        launcher.throwInit.add(2L);
+        assertTrue(pipeline.submit(makeTask(2, "h1")));
+        await(() -> pipeline.getFailedLaunches() == 2);
+        assertFalse(launcher.claimed.contains(2L));
+
+        // spawn which isn't started
+        assertTrue(pipeline.submit(makeTask(3, "h1")));
+        launcher.awaitSpawn(3).complete(false);
+        await(() -> pipeline.getFailedLaunches() == 3);
+
+        // spawn which fails aborts the task
+        assertTrue(pipeline.submit(makeTask(4, "h1")));
+        launcher.awaitSpawn(4).completeExceptionally(new RuntimeException("ssh failed"));
+        await(() -> pipeline.getFailedLaunches() == 4);
+        assertFalse(launcher.claimed.contains(4L));
+        assertEquals(0, pipeline.getTasksInPipeline());
+        assertEquals(0, pipeline.getLaunchedTasks());
+        // resources of aborted tasks are released, failed tasks are released by scheduler callbacks
+        engine.release(1);
+        engine.release(3);
+        assertEquals(0, engine.getRunningTasks("h1"));
+    }
+
+    @Test
+    public void unplaced() throws Exception {
+        engine.addHost("h1", 1, 1024);
+        assertTrue(pipeline.submit(makeTask(1, "h1")));
+        launcher.awaitSpawn(1);
+        // h1 is full, a task which isn't fixed on a host is handed back
+        assertTrue(pipeline.submit(makeTask(2, null)));
+        await(() -> unplaced.size() == 1);
+        assertEquals(2, unplaced.get(0).getTaskId().longValue());
+        // task has left before it's handed back, so that it can be queued again
+        assertEquals(Collections.singletonList(unplaced.get(0)), left);
+        assertFalse(launcher.claimed.contains(2L));
+        assertEquals(1, pipeline.getUnplacedTasks());
+        assertEquals(1, pipeline.getTasksInPipeline());
+    }
+
+    @Test
+    public void capacity() throws Exception {
+        assertTrue(pipeline.submit(makeTask(1, "h1")));
+        assertTrue(pipeline.submit(makeTask(2, "h1")));
+        launcher.awaitSpawn(2);
+
+        // pipeline is full, submit blocks until a task leaves
+        ExecutorService submitter = Executors.newSingleThreadExecutor();
+        try {
+            Future<Boolean> submitted = submitter.submit(() -> pipeline.submit(makeTask(3, "h1")));
+            try {
+                submitted.get(200, TimeUnit.MILLISECONDS);
+                fail("submit should block while pipeline is full");
+            } catch (TimeoutException expected) {
+            }
+            launcher.awaitSpawn(1).complete(true);
+            assertTrue(submitted.get(10, TimeUnit.SECONDS));
+        } finally {
+            submitter.shutdownNow();
+        }
+        launcher.awaitSpawn(2).complete(true);
+        launcher.awaitSpawn(3).complete(true);
+        await(() -> pipeline.getTasksInPipeline() == 0);
+        assertEquals(3, pipeline.getLaunchedTasks());
+    }
+
+    @Test
+    public void reserveSpawn() {
+        TaskLaunchPipeline limited = newPipeline(10, 2);
+        try {
+            assertEquals(0, limited.reserveSpawn("h1"));
+            // 100ms between spawns on a host
+            long delay = limited.reserveSpawn("h1");
+            assertTrue(delay > TimeUnit.MILLISECONDS.toNanos(50) && delay <= TimeUnit.MILLISECONDS.toNanos(100));
+            delay = limited.reserveSpawn("h1");
+            assertTrue(delay > TimeUnit.MILLISECONDS.toNanos(150) && delay <= TimeUnit.MILLISECONDS.toNanos(200));
+            // hosts are limited separately
+            assertEquals(0, limited.reserveSpawn("h2"));
+            assertEquals(0, limited.getTasksInPipeline());
+        } finally {
+            limited.stop();
+        }
+    }
+
+}
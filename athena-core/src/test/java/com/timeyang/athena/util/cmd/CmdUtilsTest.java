@@ -0,0 +1,33 @@
+package com.timeyang.athena.util.cmd;
+
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class CmdUtilsTest {
+
+    @Test
+    public void execAsync() throws Exception {
+        CompletableFuture<Result> slow = CmdUtils.execAsync("sleep 1; echo slow");
+        CompletableFuture<Result> fast = CmdUtils.execAsync("localhost", "echo fast");
+        assertEquals("fast", fast.get(5, TimeUnit.SECONDS).getOut().trim());
+        assertFalse(slow.isDone());
+        assertEquals("slow", slow.get(5, TimeUnit.SECONDS).getOut().trim());
+        assertEquals(2, CmdUtils.execAsync("exit 2").get(5, TimeUnit.SECONDS).getExitCode().intValue());
+    }
+
+    @Test
+    public void captureLargeOutput() throws Exception {
+        // more than pipe buffer on both streams, command blocks if one of them isn't drained
+        Result result = CmdUtils.execAsync("head -c 1000000 /dev/zero | tr '\\0' e >&2; echo out")
+                .get(10, TimeUnit.SECONDS);
+        assertTrue(result.isSucceed());
+        assertEquals("out", result.getOut().trim());
+        assertTrue(result.getError().startsWith("eee"));
+        assertTrue(result.getError().endsWith((1000000 - CmdUtils.MAX_CAPTURE_CHARS) + " chars truncated"));
+    }
+
+}
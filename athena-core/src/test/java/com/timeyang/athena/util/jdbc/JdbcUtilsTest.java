@@ -3,11 +3,18 @@ package com.timeyang.athena.util.jdbc;
 import org.junit.Test;
 
 import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.stream.Collectors;
 
+import static org.junit.Assert.assertEquals;
+
 public class JdbcUtilsTest {
 
     @Test
@@ -17,4 +24,26 @@ public class JdbcUtilsTest {
                 .collect(Collectors.toList());
 
     }
-}
\ No newline at end of file
+
+    @Test
+    public void bindParameters() throws SQLException {
+        List<String> calls = new ArrayList<>();
+        PreparedStatement statement = (PreparedStatement) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{PreparedStatement.class}, (proxy, method, args) -> {
+                    calls.add(method.getName() + Arrays.deepToString(args));
+                    return null;
+                });
+        Timestamp time = new Timestamp(0);
+        List<FieldSetter> setters = Arrays.asList(
+                FieldSetter.makeSetter("name", null),
+                FieldSetter.makeSetter("tries", 3),
+                FieldSetter.makeSetter("time", time),
+                // not a predefined binder
+                FieldSetter.makeSetter("clock", new Time(0)));
+        for (int i = 0; i < setters.size(); i++) {
+            setters.get(i).getBinder().bind(statement, i + 1, setters.get(i).getObjects());
+        }
+        assertEquals(Arrays.asList("setString[1, null]", "setInt[2, 3]", "setTimestamp[3, " + time + "]",
+                "setTime[4, " + new Time(0) + "]"), calls);
+    }
+}
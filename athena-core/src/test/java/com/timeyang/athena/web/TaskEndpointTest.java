@@ -0,0 +1,89 @@
+package com.timeyang.athena.web;
+
+import com.timeyang.athena.Athena;
+import com.timeyang.athena.task.TaskInfo;
+import com.timeyang.athena.task.TaskInfo.WaitingTask;
+import com.timeyang.athena.task.TaskManager;
+import com.timeyang.athena.task.TaskType;
+import com.timeyang.athena.task.TestTask;
+import com.timeyang.athena.util.jdbc.Page;
+import com.timeyang.athena.util.jdbc.PagedResult;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.ws.rs.BadRequestException;
+
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class TaskEndpointTest {
+
+    private TaskManager taskManager;
+
+    @Before
+    public void setUp() {
+        Athena athena = Athena.builder()
+                .disable("hive", "webServer", "messageServer")
+                .getOrCreate();
+        taskManager = athena.getTaskManager();
+    }
+
+    @Test
+    public void sortByNullableColumn() {
+        // task manager isn't started, tasks stay waiting without host
+        for (int i = 0; i < 3; i++) {
+            TaskInfo task = new WaitingTask();
+            task.setTaskName("endpoint" + i);
+            task.setClassName(TestTask.class.getName());
+            taskManager.submitTask(task);
+        }
+
+        // nulls sort first in descending order, so the full page ends with a null host
+        Page page = new Page(0, 2, Collections.singletonList(new Page.Sort("host", Page.Order.DESC)));
+        PagedResult<WaitingTask> result = new TaskEndpoint().getWaitingTasks(page);
+        assertEquals(2, result.getElements().size());
+        assertNull(result.getElements().get(1).getHost());
+        // null host is kept in cursor, next page seeks past it
+        assertNotNull(result.getNextCursor());
+        page = Page.makeSeekPage(2, Collections.singletonList(new Page.Sort("host", Page.Order.DESC)), "task_id",
+                result.getNextCursor());
+        PagedResult<WaitingTask> next = new TaskEndpoint().getWaitingTasks(page);
+        assertFalse(next.getElements().isEmpty());
+        assertNotEquals(result.getElements().get(1).getTaskId(), next.getElements().get(0).getTaskId());
+
+        // offset paging still works
+        page = new Page(1, 2, Collections.singletonList(new Page.Sort("host", Page.Order.DESC)));
+        assertFalse(new TaskEndpoint().getWaitingTasks(page).getElements().isEmpty());
+    }
+
+    @Test
+    public void inProcessTaskDisabled() {
+        TaskInfo task = new WaitingTask();
+        task.setTaskName("inProcess");
+        task.setClassName(TestTask.class.getName());
+        task.setTaskType(TaskType.JAVA_IN_PROCESS);
+        try {
+            taskManager.submitTask(task);
+            fail("in-process task should be rejected unless task.inProcess.enable is true");
+        } catch (IllegalArgumentException expected) {
+        }
+        assertNull(task.getTaskId());
+    }
+
+    @Test
+    public void grepValidatesRegex() {
+        TaskEndpoint endpoint = new TaskEndpoint();
+        for (String regex : new String[]{null, "", "(unclosed"}) {
+            try {
+                endpoint.grep(1, regex, 10);
+                fail("regex " + regex + " should be rejected");
+            } catch (BadRequestException e) {
+                assertEquals(400, e.getResponse().getStatus());
+            }
+        }
+        // log of an unknown task has no lines
+        assertTrue(endpoint.grep(Long.MAX_VALUE, "error", 10).isEmpty());
+    }
+
+}